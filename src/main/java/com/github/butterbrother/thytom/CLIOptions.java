@@ -25,6 +25,30 @@ public class CLIOptions {
     private String templatesDelimiter;
     private boolean useCustomTemplates;
 
+    private int parallelWorkers = 0;
+
+    private boolean bindParameters = false;
+
+    private int batchSize = 0;
+    private int commitBatches = 0;
+
+    private int inListSize = 0;
+    private String inListKey = null;
+
+    private boolean consolidateResults = false;
+
+    private Compression compression = null;
+
+    private String streamTarget = null;
+
+    private Path importFile = null;
+    private String importTable = null;
+
+    private String driverQuery = null;
+
+    private int rangeCount = 0;
+    private String rangeKey = null;
+
     /**
      * Инициализация.
      * Для получения обработанных параметров необходимо
@@ -173,4 +197,245 @@ public class CLIOptions {
     public boolean needUseCustomTemplates() {
         return useCustomTemplates;
     }
+
+    /**
+     * Количество параллельных исполнителей запросов, каждый со своим подключением к БД.
+     *
+     * @return количество исполнителей. 0 - не задано в командной строке,
+     * используется значение из файла конфигурации.
+     */
+    public int getParallelWorkers() {
+        return parallelWorkers;
+    }
+
+    /**
+     * Установка количества параллельных исполнителей запросов.
+     *
+     * @param parallelWorkers количество исполнителей. 0 - не задано.
+     */
+    protected void setParallelWorkers(int parallelWorkers) {
+        this.parallelWorkers = parallelWorkers;
+    }
+
+    /**
+     * Передавать подстановки в SQL-запросы как параметры JDBC (bind), а не текстом.
+     * Применяется только к шаблонам, заключённым в одинарные кавычки, например '{PARAM}'.
+     *
+     * @return true - использовать параметры JDBC
+     */
+    public boolean needBindParameters() {
+        return bindParameters;
+    }
+
+    /**
+     * Установка передачи подстановок как параметров JDBC.
+     *
+     * @param bindParameters использовать параметры JDBC
+     */
+    protected void setBindParameters(boolean bindParameters) {
+        this.bindParameters = bindParameters;
+    }
+
+    /**
+     * Размер пакета при пакетном исполнении обновляющих запросов (INSERT/UPDATE/DELETE/MERGE).
+     *
+     * @return размер пакета. 0 - не задано в командной строке,
+     * используется значение из файла конфигурации.
+     */
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * Установка размера пакета обновляющих запросов.
+     *
+     * @param batchSize размер пакета. 0 - не задано.
+     */
+    protected void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Количество пакетов между фиксациями транзакции при пакетном исполнении.
+     *
+     * @return количество пакетов. 0 - не задано в командной строке,
+     * используется значение из файла конфигурации.
+     */
+    public int getCommitBatches() {
+        return commitBatches;
+    }
+
+    /**
+     * Установка количества пакетов между фиксациями транзакции.
+     *
+     * @param commitBatches количество пакетов. 0 - не задано.
+     */
+    protected void setCommitBatches(int commitBatches) {
+        this.commitBatches = commitBatches;
+    }
+
+    /**
+     * Количество подстановок, объединяемых в один запрос со списком IN (...).
+     *
+     * @return количество подстановок. 0 - объединение не используется.
+     */
+    public int getInListSize() {
+        return inListSize;
+    }
+
+    /**
+     * Метка столбца результата, по значению которого строки результата объединённого
+     * запроса распределяются по файлам исходных подстановок.
+     *
+     * @return метка столбца. null - объединение не используется.
+     */
+    public String getInListKey() {
+        return inListKey;
+    }
+
+    /**
+     * Установка объединения подстановок в список IN (...).
+     *
+     * @param inListSize количество подстановок в одном запросе
+     * @param inListKey  метка столбца-ключа в результате запроса
+     */
+    protected void setInList(int inListSize, String inListKey) {
+        this.inListSize = inListSize;
+        this.inListKey = inListKey;
+    }
+
+    /**
+     * Сохранять результаты всех подстановок SQL-файла в один файл, с ID подстановки
+     * в первом столбце каждой строки, вместо отдельного файла для каждой подстановки.
+     *
+     * @return true - один файл на SQL-файл
+     */
+    public boolean needConsolidateResults() {
+        return consolidateResults;
+    }
+
+    /**
+     * Установка сохранения результатов всех подстановок SQL-файла в один файл.
+     *
+     * @param consolidateResults один файл на SQL-файл
+     */
+    protected void setConsolidateResults(boolean consolidateResults) {
+        this.consolidateResults = consolidateResults;
+    }
+
+    /**
+     * Сжатие файлов с результатами.
+     *
+     * @return сжатие. null - не задано в командной строке,
+     * используется значение из файла конфигурации.
+     */
+    public Compression getCompression() {
+        return compression;
+    }
+
+    /**
+     * Установка сжатия файлов с результатами.
+     *
+     * @param compression сжатие. null - не задано.
+     */
+    protected void setCompression(Compression compression) {
+        this.compression = compression;
+    }
+
+    /**
+     * Вывод результатов в поток вместо файлов в каталоге out, см. {@link ResultStream}.
+     *
+     * @return {@link ResultStream#STDOUT} - стандартный вывод, путь к именованному каналу,
+     * либо null - результаты записываются в файлы
+     */
+    public String getStreamTarget() {
+        return streamTarget;
+    }
+
+    /**
+     * Установка вывода результатов в поток.
+     *
+     * @param streamTarget стандартный вывод, путь к именованному каналу, либо null
+     */
+    protected void setStreamTarget(String streamTarget) {
+        this.streamTarget = streamTarget;
+    }
+
+    /**
+     * Загрузка файла с результатами в таблицу БД вместо исполнения запросов, см. {@link ResultImporter}.
+     *
+     * @return путь к загружаемому файлу, либо null - запросы исполняются
+     */
+    public Path getImportFile() {
+        return importFile;
+    }
+
+    /**
+     * Таблица, в которую загружается файл.
+     *
+     * @return имя таблицы, null - имя загружаемого файла без расширения
+     */
+    public String getImportTable() {
+        return importTable;
+    }
+
+    /**
+     * Установка загрузки файла с результатами в таблицу БД.
+     *
+     * @param importFile  путь к загружаемому файлу, либо null
+     * @param importTable имя таблицы, либо null
+     */
+    protected void setImport(Path importFile, String importTable) {
+        this.importFile = importFile;
+        this.importTable = importTable;
+    }
+
+    /**
+     * Ведущий SQL-файл, результат которого служит подстановками для остальных SQL-файлов,
+     * см. {@link DriverQuerySubs}.
+     *
+     * @return имя SQL-файла в каталоге sql, либо null, если не указан
+     */
+    public String getDriverQuery() {
+        return driverQuery;
+    }
+
+    /**
+     * Установка ведущего SQL-файла.
+     *
+     * @param driverQuery имя SQL-файла, либо null
+     */
+    protected void setDriverQuery(String driverQuery) {
+        this.driverQuery = driverQuery;
+    }
+
+    /**
+     * Количество частей диапазона ключа, на которые делятся запросы SQL-файлов
+     * с шаблонами {@link KeyRange#RANGE_LO} и {@link KeyRange#RANGE_HI}.
+     *
+     * @return количество частей. 0 - запросы не делятся
+     */
+    public int getRangeCount() {
+        return rangeCount;
+    }
+
+    /**
+     * Ключ деления запросов на части: table.column либо явный диапазон lo..hi, см. {@link KeyRange}.
+     *
+     * @return ключ, либо null, если запросы не делятся
+     */
+    public String getRangeKey() {
+        return rangeKey;
+    }
+
+    /**
+     * Установка деления запросов на части диапазона ключа.
+     *
+     * @param rangeCount количество частей
+     * @param rangeKey   ключ
+     */
+    protected void setRanges(int rangeCount, String rangeKey) {
+        this.rangeCount = rangeCount;
+        this.rangeKey = rangeKey;
+    }
 }
@@ -135,6 +135,135 @@ import java.nio.file.Paths;
  * Используется {@link String#trim()}.
  * </td>
  * </tr>
+ * <tr>
+ * <td>-p</td>
+ * <td>--parallel</td>
+ * <td>
+ * Количество параллельных исполнителей запросов. Каждый исполнитель работает через
+ * собственное подключение к БД. Пары "SQL-файл - подстановка" распределяются между
+ * исполнителями, результат каждой пары сохраняется в отдельный файл, как и в
+ * последовательном режиме.<br>
+ * Переопределяет параметр exec.parallel из файла конфигурации.
+ * </td>
+ * </tr>
+ * <tr>
+ * <td>-b</td>
+ * <td>--bind</td>
+ * <td>
+ * Передавать подстановки в запросы как параметры JDBC. Шаблоны, заключённые в одинарные
+ * кавычки ('{PARAM}'), заменяются на маркеры параметров, запрос подготавливается
+ * однократно и исполняется с разными значениями параметров для каждой подстановки.<br>
+ * Шаблоны без кавычек (например, имена таблиц и столбцов) подставляются текстом, как и ранее.
+ * </td>
+ * </tr>
+ * <tr>
+ * <td>-B</td>
+ * <td>--batch</td>
+ * <td>
+ * Пакетное исполнение обновляющих запросов (INSERT/UPDATE/DELETE/MERGE) с указанным размером пакета.
+ * Автоматическая фиксация транзакций отключается, по каждому пакету выводится количество
+ * изменённых строк и ошибки с ID подстановок.<br>
+ * Переопределяет параметр exec.batch.size из файла конфигурации.
+ * </td>
+ * </tr>
+ * <tr>
+ * <td>-m</td>
+ * <td>--commit-batches</td>
+ * <td>
+ * Фиксировать транзакцию через указанное количество пакетов. По-умолчанию - после каждого пакета.<br>
+ * Переопределяет параметр exec.batch.commit из файла конфигурации.
+ * </td>
+ * </tr>
+ * <tr>
+ * <td>-i</td>
+ * <td>--in-list</td>
+ * <td>
+ * Объединять указанное количество подстановок в один запрос. Условие вида
+ * "= {PARAM}" либо "= '{PARAM}'" заменяется на "IN (...)" со списком значений.
+ * Строки результата распределяются по файлам исходных подстановок по значению
+ * столбца, указанного в -k/--in-key. Работает только с шаблоном по-умолчанию.<br>
+ * Требует указания -k/--in-key.
+ * </td>
+ * </tr>
+ * <tr>
+ * <td>-k</td>
+ * <td>--in-key</td>
+ * <td>
+ * Метка столбца результата, содержащего значение подстановки, при объединении
+ * подстановок через -i/--in-list.
+ * </td>
+ * </tr>
+ * <tr>
+ * <td>-o</td>
+ * <td>--one-file</td>
+ * <td>
+ * Сохранять результаты всех подстановок SQL-файла в один файл &lt;имя SQL-файла&gt;.txt.
+ * Первый столбец каждой строки - ID подстановки (row_id). Каталог out определяется
+ * однократно за запуск.
+ * </td>
+ * </tr>
+ * <tr>
+ * <td>-z</td>
+ * <td>--compress</td>
+ * <td>
+ * Сжатие файлов с результатами: none, gzip, pgzip (параллельное сжатие блоков, как в pigz).
+ * Сжатые файлы получают расширение .gz, по каждому файлу выводится степень и скорость сжатия.<br>
+ * Переопределяет параметр file.result.compression из файла конфигурации.
+ * </td>
+ * </tr>
+ * <tr>
+ * <td>-P</td>
+ * <td>--pipe</td>
+ * <td>
+ * Выводить результаты не в файлы каталога out, а в стандартный вывод (-) либо в именованный
+ * канал (FIFO), кадрами с именем SQL-файла и ID подстановки, см. {@link ResultStream}.
+ * Сообщения о ходе работы выводятся в стандартный поток ошибок.
+ * </td>
+ * </tr>
+ * <tr>
+ * <td>-I</td>
+ * <td>--import</td>
+ * <td>
+ * Загрузить файл с результатами в таблицу БД вместо исполнения запросов, см. {@link ResultImporter}.
+ * Формат файла задаётся теми же параметрами, что и при сохранении: -d, -s, -e, -t, -n, -w.
+ * Количество подключений, размер пакета и интервал фиксации - -p, -B, -m.
+ * Отклонённые строки записываются в каталог out, в файл &lt;имя файла&gt;.rej.
+ * </td>
+ * </tr>
+ * <tr>
+ * <td>-T</td>
+ * <td>--table</td>
+ * <td>
+ * Таблица для загрузки файла через -I/--import. По-умолчанию - имя файла без расширения.
+ * </td>
+ * </tr>
+ * <tr>
+ * <td>-D</td>
+ * <td>--driver-sql</td>
+ * <td>
+ * Ведущий SQL-файл из каталога sql. Строки его результата служат подстановками для остальных
+ * SQL-файлов вместо файла подстановок, метки столбцов - собственными шаблонами ({МЕТКА}).
+ * Запросы остальных SQL-файлов исполняются по мере получения строк, см. {@link DriverQuerySubs}.
+ * </td>
+ * </tr>
+ * <tr>
+ * <td>-R</td>
+ * <td>--ranges</td>
+ * <td>
+ * Делить запрос SQL-файла с шаблонами {RANGE_LO} и {RANGE_HI} на указанное количество частей
+ * диапазона ключа (-K), исполняемых параллельно через отдельные подключения, см. {@link KeyRange}.
+ * Результат каждой части - в отдельном файле, либо в общем файле SQL-файла с -o.
+ * Если количество исполнителей не задано, то оно равно количеству частей.
+ * </td>
+ * </tr>
+ * <tr>
+ * <td>-K</td>
+ * <td>--range-key</td>
+ * <td>
+ * Ключ деления для -R: столбец table.column, наименьшее и наибольшее значения которого
+ * определяются запросом к БД, либо явный диапазон lo..hi. Числа либо даты.
+ * </td>
+ * </tr>
  * </tbody>
  * </table>
  */
@@ -169,6 +298,34 @@ public class CLIParser {
     private Option trimResulst;
     // удалять пробелы до и после в данных для подмены
     private Option trimSubstitutions;
+    // количество параллельных исполнителей запросов
+    private Option parallel;
+    // передавать подстановки как параметры JDBC
+    private Option bind;
+    // размер пакета обновляющих запросов
+    private Option batch;
+    // количество пакетов между фиксациями транзакции
+    private Option commitBatches;
+    // количество подстановок, объединяемых в список IN (...)
+    private Option inList;
+    // столбец-ключ для распределения результата объединённого запроса
+    private Option inKey;
+    // сохранять результаты всех подстановок SQL-файла в один файл
+    private Option oneFile;
+    // сжатие файлов с результатами
+    private Option compress;
+    // вывод результатов в стандартный вывод либо именованный канал
+    private Option pipe;
+    // Загрузка файла в таблицу
+    private Option importFile;
+    // Таблица для загрузки
+    private Option importTable;
+    // Ведущий SQL-файл, результат которого - подстановки
+    private Option driverQuery;
+    // Количество частей диапазона ключа
+    private Option ranges;
+    // Ключ деления на части
+    private Option rangeKey;
 
     // последняя ошибка при валидации аргументов командной строки
     private String lastError = "";
@@ -301,6 +458,155 @@ public class CLIParser {
                 .build();
         options.addOption(trimSubstitutions);
 
+        parallel = Option.builder("p")
+                .longOpt("parallel")
+                .hasArg()
+                .argName("workers")
+                .desc("Number of parallel query executors. Each executor uses " +
+                        "own database connection. Pairs of sql file and substitution " +
+                        "are distributed between executors, each result is saved into " +
+                        "own file as usual.\n" +
+                        "Overrides \"" + ConfigFileLoader.PARAM_PARALLEL + "\" from configuration file.")
+                .build();
+        options.addOption(parallel);
+
+        bind = Option.builder("b")
+                .longOpt("bind")
+                .desc("Pass substitutions into queries as JDBC bind parameters. " +
+                        "Templates enclosed in single quotes ('{PARAM}') are replaced " +
+                        "by bind markers, query is prepared once and executed with " +
+                        "own values for each substitution.\n" +
+                        "Templates without quotes (table or column names, for sample) " +
+                        "are substituted as text, as usual.")
+                .build();
+        options.addOption(bind);
+
+        batch = Option.builder("B")
+                .longOpt("batch")
+                .hasArg()
+                .argName("size")
+                .desc("Execute update queries (INSERT/UPDATE/DELETE/MERGE) in JDBC batches " +
+                        "of specified size. Auto-commit is disabled, updated rows count and " +
+                        "failed substitutions are reported for each batch.\n" +
+                        "Overrides \"" + ConfigFileLoader.PARAM_BATCH_SIZE + "\" from configuration file.")
+                .build();
+        options.addOption(batch);
+
+        commitBatches = Option.builder("m")
+                .longOpt("commit-batches")
+                .hasArg()
+                .argName("batches")
+                .desc("Commit transaction every specified number of batches. " +
+                        "By default commit after each batch.\n" +
+                        "Overrides \"" + ConfigFileLoader.PARAM_BATCH_COMMIT + "\" from configuration file.")
+                .build();
+        options.addOption(commitBatches);
+
+        inList = Option.builder("i")
+                .longOpt("in-list")
+                .hasArg()
+                .argName("size")
+                .desc("Coalesce specified number of substitutions into single query. " +
+                        "Condition like \"= {PARAM}\" or \"= '{PARAM}'\" is replaced by " +
+                        "\"IN (...)\" with list of values. Result rows are split back into " +
+                        "files of source substitutions by value of column, set in \"in-key\". " +
+                        "Works only with default template {PARAM}.\n" +
+                        "Requires \"in-key\".")
+                .build();
+        options.addOption(inList);
+
+        inKey = Option.builder("k")
+                .longOpt("in-key")
+                .hasArg()
+                .argName("column")
+                .desc("Label of result column, that contains substitution value, " +
+                        "when substitutions are coalesced with \"" + inList.getLongOpt() + "\".")
+                .build();
+        options.addOption(inKey);
+
+        oneFile = Option.builder("o")
+                .longOpt("one-file")
+                .desc("Save results of all substitutions of sql file into single file " +
+                        "<sql file name>.txt instead of file per substitution. " +
+                        "First column of each row is substitution ID (" + ResultSaver.ROW_ID_LABEL + ").")
+                .build();
+        options.addOption(oneFile);
+
+        compress = Option.builder("z")
+                .longOpt("compress")
+                .hasArg()
+                .argName("mode")
+                .desc("Compress result files: none, gzip or pgzip (parallel block compression, like pigz). " +
+                        "Compressed files get \".gz\" extension, compression ratio and speed are reported.\n" +
+                        "Overrides \"" + ConfigFileLoader.PARAM_COMPRESSION + "\" from configuration file.")
+                .build();
+        options.addOption(compress);
+
+        pipe = Option.builder("P")
+                .longOpt("pipe")
+                .hasArg()
+                .argName("target")
+                .desc("Stream results into standard output (\"" + ResultStream.STDOUT + "\") or into named pipe " +
+                        "instead of files in \"out\" directory. Each result is framed by \"" + ResultStream.MARKER +
+                        "\" header lines with sql file name and substitution ID. " +
+                        "Progress messages are printed to standard error.")
+                .build();
+        options.addOption(pipe);
+
+        importFile = Option.builder("I")
+                .longOpt("import")
+                .hasArg()
+                .argName("file")
+                .desc("Load delimited file, written by this program, into database table instead of " +
+                        "executing queries. File format is set by the same switches as for saving " +
+                        "(delimiter, title head, head per line, null as text, trim). Large files are " +
+                        "loaded in parallel by \"" + parallel.getLongOpt() + "\" connections, in batches of \"" +
+                        batch.getLongOpt() + "\" rows (default " + ResultImporter.DEFAULT_BATCH_SIZE + "). " +
+                        "Rejected lines are written to \"out\" directory, into <file name>" +
+                        ResultImporter.REJECT_EXTENSION + ".")
+                .build();
+        options.addOption(importFile);
+
+        importTable = Option.builder("T")
+                .longOpt("table")
+                .hasArg()
+                .argName("table")
+                .desc("Target table for \"" + importFile.getLongOpt() + "\". " +
+                        "By default - name of imported file without extension.")
+                .build();
+        options.addOption(importTable);
+
+        driverQuery = Option.builder("D")
+                .longOpt("driver-sql")
+                .hasArg()
+                .argName("sql file")
+                .desc("Use results of this sql file from \"sql\" directory as substitutions for other sql files, " +
+                        "instead of substitution file. Column labels are used as custom templates, " +
+                        "e.g. {ID} for column ID. Other queries are executed as soon as driver rows arrive.")
+                .build();
+        options.addOption(driverQuery);
+
+        ranges = Option.builder("R")
+                .longOpt("ranges")
+                .hasArg()
+                .argName("count")
+                .desc("Split query of sql file with " + KeyRange.RANGE_LO + " and " + KeyRange.RANGE_HI +
+                        " templates into this number of key ranges [lo, hi), executed concurrently on separate " +
+                        "connections. Each range is saved into own file, or into one file of sql file with \"" +
+                        oneFile.getLongOpt() + "\". By default number of parallel executors equals to number of ranges.")
+                .build();
+        options.addOption(ranges);
+
+        rangeKey = Option.builder("K")
+                .longOpt("range-key")
+                .hasArg()
+                .argName("key")
+                .desc("Key for \"" + ranges.getLongOpt() + "\": table.column, its min and max values are queried " +
+                        "from database, or explicit range lo" + KeyRange.BOUNDS_DELIMITER + "hi. " +
+                        "Numbers or dates (yyyy-MM-dd[ HH:mm:ss.SSS]).")
+                .build();
+        options.addOption(rangeKey);
+
         try {
             Path jarPath = Paths.get(CLIParser.class.getProtectionDomain().getCodeSource().getLocation().toURI());
             Path jarName = jarPath.getNameCount() > 1 ? jarPath.getName(jarPath.getNameCount() - 1) : jarPath;
@@ -337,6 +643,64 @@ public class CLIParser {
                 }
             }
 
+            // Числовые параметры должны быть положительными числами
+            if (!validatePositiveInt(cmdLine, parallel, "Number of parallel executors")
+                    || !validatePositiveInt(cmdLine, batch, "Batch size")
+                    || !validatePositiveInt(cmdLine, commitBatches, "Number of batches per commit")
+                    || !validatePositiveInt(cmdLine, inList, "Number of coalesced substitutions")
+                    || !validatePositiveInt(cmdLine, ranges, "Number of key ranges"))
+                return false;
+
+            // Сжатие должно быть известным
+            if (cmdLine.hasOption(compress.getOpt())
+                    && Compression.fromName(cmdLine.getOptionValue(compress.getOpt(), "")) == null) {
+                lastError = "Unknown compression: " + cmdLine.getOptionValue(compress.getOpt(), "");
+                return false;
+            }
+
+            // Загружаемый файл должен существовать и не быть сжатым
+            if (cmdLine.hasOption(importFile.getOpt())) {
+                Path file = Paths.get(cmdLine.getOptionValue(importFile.getOpt()));
+                if (!Files.isRegularFile(file)) {
+                    lastError = "Import file " + file + " not found.";
+                    return false;
+                }
+                if (file.getFileName().toString().endsWith(Compression.GZIP.getExtension())) {
+                    lastError = "Compressed file " + file + " can't be imported, unpack it first.";
+                    return false;
+                }
+            } else if (cmdLine.hasOption(importTable.getOpt())) {
+                lastError = "Import file (\"" + importFile.getLongOpt() + "\") must be set for target table.";
+                return false;
+            }
+
+            // Подстановки берутся либо из файла, либо из ведущего SQL-файла
+            if (cmdLine.hasOption(driverQuery.getOpt()) && cmdLine.hasOption(substitutionFile.getOpt())) {
+                lastError = "Substitution file and driver sql file (\"" + driverQuery.getLongOpt()
+                        + "\") can't be used together.";
+                return false;
+            }
+
+            // Деление на части требует ключа, ключ без деления не имеет смысла
+            if (cmdLine.hasOption(ranges.getOpt()) != cmdLine.hasOption(rangeKey.getOpt())) {
+                lastError = "Number of key ranges (\"" + ranges.getLongOpt() + "\") and range key (\""
+                        + rangeKey.getLongOpt() + "\") must be set together.";
+                return false;
+            }
+            if (cmdLine.hasOption(rangeKey.getOpt())) {
+                String key = cmdLine.getOptionValue(rangeKey.getOpt());
+                if (key.contains(KeyRange.BOUNDS_DELIMITER) && KeyRange.parse(key) == null) {
+                    lastError = "Range bounds must be numbers or dates: " + key;
+                    return false;
+                }
+            }
+
+            // Объединение подстановок требует столбца-ключа
+            if (cmdLine.hasOption(inList.getOpt()) && !cmdLine.hasOption(inKey.getOpt())) {
+                lastError = "Key column (\"" + inKey.getLongOpt() + "\") must be set for coalesced substitutions.";
+                return false;
+            }
+
             lastError = "";
             return true;
 
@@ -412,7 +776,7 @@ public class CLIParser {
                 hasCustomTemplatesDelimiter
                         || cmdLine.hasOption(customSubstitutionTemplate.getOpt());
 
-        return new CLIOptions(
+        CLIOptions result = new CLIOptions(
                 hasFile,
                 file,
                 showHeadersPerLine,
@@ -425,6 +789,91 @@ public class CLIParser {
                 templatesDelimiter,
                 useCustomSubstitutionTemplates
         );
+
+        // Количество параллельных исполнителей. 0 - берётся из файла конфигурации
+        if (cmdLine.hasOption(parallel.getOpt()))
+            result.setParallelWorkers(Math.max(0, parsePositiveInt(cmdLine.getOptionValue(parallel.getOpt()))));
+
+        // Передача подстановок как параметров JDBC
+        result.setBindParameters(cmdLine.hasOption(bind.getOpt()));
+
+        // Пакетное исполнение обновляющих запросов. 0 - берётся из файла конфигурации
+        if (cmdLine.hasOption(batch.getOpt()))
+            result.setBatchSize(Math.max(0, parsePositiveInt(cmdLine.getOptionValue(batch.getOpt()))));
+        if (cmdLine.hasOption(commitBatches.getOpt()))
+            result.setCommitBatches(Math.max(0, parsePositiveInt(cmdLine.getOptionValue(commitBatches.getOpt()))));
+
+        // Объединение подстановок в список IN (...)
+        if (cmdLine.hasOption(inList.getOpt()) && cmdLine.hasOption(inKey.getOpt()))
+            result.setInList(
+                    Math.max(0, parsePositiveInt(cmdLine.getOptionValue(inList.getOpt()))),
+                    cmdLine.getOptionValue(inKey.getOpt()));
+
+        // Результаты всех подстановок SQL-файла в одном файле
+        result.setConsolidateResults(cmdLine.hasOption(oneFile.getOpt()));
+
+        // Сжатие файлов с результатами. null - берётся из файла конфигурации
+        if (cmdLine.hasOption(compress.getOpt()))
+            result.setCompression(Compression.fromName(cmdLine.getOptionValue(compress.getOpt(), "")));
+
+        // Вывод результатов в поток. null - в файлы
+        if (cmdLine.hasOption(pipe.getOpt()))
+            result.setStreamTarget(cmdLine.getOptionValue(pipe.getOpt()));
+
+        // Загрузка файла в таблицу. null - исполнение запросов
+        if (cmdLine.hasOption(importFile.getOpt()))
+            result.setImport(Paths.get(cmdLine.getOptionValue(importFile.getOpt())),
+                    cmdLine.getOptionValue(importTable.getOpt()));
+
+        // Ведущий SQL-файл. null - подстановки из файла либо без подстановок
+        if (cmdLine.hasOption(driverQuery.getOpt()))
+            result.setDriverQuery(cmdLine.getOptionValue(driverQuery.getOpt()));
+
+        // Деление запросов на части диапазона ключа. 0 - не делятся
+        if (cmdLine.hasOption(ranges.getOpt()) && cmdLine.hasOption(rangeKey.getOpt()))
+            result.setRanges(parsePositiveInt(cmdLine.getOptionValue(ranges.getOpt())),
+                    cmdLine.getOptionValue(rangeKey.getOpt()));
+
+        return result;
+    }
+
+    /**
+     * Проверка, что аргумент числового параметра, если параметр указан,
+     * является положительным целым числом.
+     *
+     * @param cmdLine     разобранная командная строка
+     * @param option      параметр
+     * @param description описание параметра для текста ошибки
+     * @return успех проверки. В случае неудачи устанавливается {@link #lastError}
+     */
+    private boolean validatePositiveInt(CommandLine cmdLine, Option option, String description) {
+        if (cmdLine.hasOption(option.getOpt())) {
+            String value = cmdLine.getOptionValue(option.getOpt());
+            if (parsePositiveInt(value) <= 0) {
+                lastError = description + " must be a positive number: " + value;
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Разбор положительного целого числа из аргумента командной строки.
+     *
+     * @param value значение аргумента. Может быть null.
+     * @return число, либо -1, если значение не является положительным целым числом
+     */
+    private static int parsePositiveInt(String value) {
+        if (value == null)
+            return -1;
+
+        try {
+            int number = Integer.parseInt(value.trim());
+            return number > 0 ? number : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
     }
 
     /**
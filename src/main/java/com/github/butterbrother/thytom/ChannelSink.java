@@ -0,0 +1,612 @@
+package com.github.butterbrother.thytom;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.MalformedInputException;
+import java.nio.charset.UnmappableCharacterException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Запись текста в файл через {@link FileChannel} с кодированием сразу в буфер.
+ * <p>
+ * Текст кодируется в большой прямой (direct) {@link ByteBuffer}, который записывается
+ * в файл целиком по заполнении. Буферы после закрытия файла используются повторно.
+ * Для US-ASCII, ISO-8859-1 и UTF-8 кодирование выполняется напрямую, для остальных
+ * кодировок - через {@link CharsetEncoder}. Как и {@link java.nio.file.Files#newBufferedWriter},
+ * при невозможности закодировать символ выбрасывается {@link CharacterCodingException}.
+ * <p>
+ * Неизменяемые фрагменты текста (разделители, кавычки, перевод строки, заголовки)
+ * кодируются один раз, см. {@link #token(String)}.
+ * <p>
+ * При сжатии ({@link Compression}) заполненный буфер передаётся не в файл, а в GZIP
+ * либо в параллельное сжатие {@link ParallelGzip}. Количество байт до и после сжатия
+ * и время сжатия доступны после закрытия файла.
+ * <p>
+ * Вместо файла запись может выполняться в уже открытый канал, например в стандартный вывод
+ * ({@link ResultStream}). Такой канал при закрытии не закрывается.
+ */
+public class ChannelSink implements Closeable, AutoCloseable {
+    /**
+     * Размер буфера по-умолчанию
+     */
+    public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Буферы закрытых файлов
+     */
+    private static final ConcurrentLinkedQueue<ByteBuffer> bufferPool = new ConcurrentLinkedQueue<>();
+    /**
+     * Наибольшее количество хранимых буферов. Остальные освобождаются сборщиком мусора
+     */
+    private static final int MAX_POOLED_BUFFERS = 64;
+    private static final AtomicInteger pooledBuffers = new AtomicInteger();
+
+    private static final int ENCODING_GENERIC = 0;
+    private static final int ENCODING_ASCII = 1;
+    private static final int ENCODING_LATIN1 = 2;
+    private static final int ENCODING_UTF8 = 3;
+
+    private final CountingChannel channel;
+    private final Charset charset;
+    private final int encoding;
+    private final CharsetEncoder encoder;
+    private final boolean encodeInParts;
+    private final boolean pooled;
+    private final byte[] digits = new byte[20];
+    private final Compression compression;
+    private final GZIPOutputStream gzip;
+    private final ParallelGzip parallelGzip;
+
+    private ByteBuffer buffer;
+
+    // Статистика сжатия
+    private final long openedNanos = System.nanoTime();
+    private long elapsedNanos = 0;
+    private long bytesIn = 0;
+    private long bytesOut = 0;
+    private long compressNanos = 0;
+
+    /**
+     * Канал, считающий записанные байты, в т.ч. записанные через сжатие.
+     * Закрывает исходный канал, только если он принадлежит этой записи.
+     */
+    private static class CountingChannel implements WritableByteChannel {
+        private final WritableByteChannel target;
+        private final boolean ownsTarget;
+        private long count = 0;
+
+        private CountingChannel(WritableByteChannel target, boolean ownsTarget) {
+            this.target = target;
+            this.ownsTarget = ownsTarget;
+        }
+
+        @Override
+        public int write(ByteBuffer source) throws IOException {
+            int written = target.write(source);
+            count += written;
+            return written;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return target.isOpen();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (ownsTarget)
+                target.close();
+        }
+
+        private long getCount() {
+            return count;
+        }
+    }
+
+    /**
+     * Неизменяемый фрагмент текста, закодированный заранее.
+     */
+    public static class Token {
+        private final String text;
+        private final byte[] bytes;
+
+        private Token(String text, byte[] bytes) {
+            this.text = text;
+            this.bytes = bytes;
+        }
+
+        /**
+         * Текст фрагмента
+         *
+         * @return текст
+         */
+        public String getText() {
+            return text;
+        }
+    }
+
+    /**
+     * Создание/пересоздание файла с буфером размера по-умолчанию.
+     *
+     * @param fileName имя файла
+     * @param charset  кодировка
+     * @throws IOException Ошибка создания файла
+     */
+    public ChannelSink(Path fileName, Charset charset) throws IOException {
+        this(fileName, charset, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Создание/пересоздание файла.
+     *
+     * @param fileName   имя файла
+     * @param charset    кодировка
+     * @param bufferSize размер буфера, не меньше 16 байт
+     * @throws IOException Ошибка создания файла
+     */
+    public ChannelSink(Path fileName, Charset charset, int bufferSize) throws IOException {
+        this(fileName, charset, bufferSize, Compression.NONE, 0);
+    }
+
+    /**
+     * Создание/пересоздание сжатого файла.
+     *
+     * @param fileName           имя файла
+     * @param charset            кодировка
+     * @param compression        сжатие
+     * @param compressionThreads количество потоков параллельного сжатия, см. {@link ParallelGzip}.
+     *                           0 - по количеству процессоров
+     * @throws IOException Ошибка создания файла
+     */
+    public ChannelSink(Path fileName, Charset charset, Compression compression, int compressionThreads)
+            throws IOException {
+        this(fileName, charset, DEFAULT_BUFFER_SIZE, compression, compressionThreads);
+    }
+
+    /**
+     * Запись в уже открытый канал, с буфером размера по-умолчанию.
+     *
+     * @param target             канал
+     * @param ownsTarget         закрывать канал при закрытии. false - общий канал, например стандартный вывод
+     * @param charset            кодировка
+     * @param compression        сжатие
+     * @param compressionThreads количество потоков параллельного сжатия, см. {@link ParallelGzip}.
+     *                           0 - по количеству процессоров
+     * @throws IOException Ошибка создания сжатия
+     */
+    public ChannelSink(WritableByteChannel target, boolean ownsTarget, Charset charset,
+                       Compression compression, int compressionThreads) throws IOException {
+        this(target, ownsTarget, charset, DEFAULT_BUFFER_SIZE, compression, compressionThreads);
+    }
+
+    /**
+     * Создание/пересоздание файла.
+     *
+     * @param fileName           имя файла
+     * @param charset            кодировка
+     * @param bufferSize         размер буфера, не меньше 16 байт. При параллельном сжатии -
+     *                           всегда {@link ParallelGzip#DEFAULT_BLOCK_SIZE}
+     * @param compression        сжатие
+     * @param compressionThreads количество потоков параллельного сжатия
+     * @throws IOException Ошибка создания файла
+     */
+    private ChannelSink(Path fileName, Charset charset, int bufferSize,
+                        Compression compression, int compressionThreads) throws IOException {
+        this(FileChannel.open(fileName, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE), true, charset, bufferSize, compression, compressionThreads);
+    }
+
+    /**
+     * Запись в канал.
+     *
+     * @param target             канал
+     * @param ownsTarget         закрывать канал при закрытии
+     * @param charset            кодировка
+     * @param bufferSize         размер буфера, не меньше 16 байт. При параллельном сжатии -
+     *                           всегда {@link ParallelGzip#DEFAULT_BLOCK_SIZE}
+     * @param compression        сжатие
+     * @param compressionThreads количество потоков параллельного сжатия
+     * @throws IOException Ошибка создания сжатия
+     */
+    private ChannelSink(WritableByteChannel target, boolean ownsTarget, Charset charset, int bufferSize,
+                        Compression compression, int compressionThreads) throws IOException {
+        this.channel = new CountingChannel(target, ownsTarget);
+        this.charset = charset;
+        this.compression = compression;
+        switch (charset.name()) {
+            case "US-ASCII":
+                encoding = ENCODING_ASCII;
+                break;
+            case "ISO-8859-1":
+                encoding = ENCODING_LATIN1;
+                break;
+            case "UTF-8":
+                encoding = ENCODING_UTF8;
+                break;
+            default:
+                encoding = ENCODING_GENERIC;
+        }
+        this.encoder = encoding == ENCODING_GENERIC ? charset.newEncoder() : null;
+        this.encodeInParts = canEncodeInParts(charset);
+
+        // Сжатие читает данные из массива, поэтому буфер не прямой и не используется повторно
+        this.pooled = bufferSize == DEFAULT_BUFFER_SIZE && compression == Compression.NONE;
+        ByteBuffer reused = pooled ? bufferPool.poll() : null;
+        if (reused != null)
+            pooledBuffers.decrementAndGet();
+        if (reused != null)
+            this.buffer = reused;
+        else if (compression == Compression.PGZIP)
+            this.buffer = ByteBuffer.allocate(ParallelGzip.DEFAULT_BLOCK_SIZE);
+        else if (compression == Compression.GZIP)
+            this.buffer = ByteBuffer.allocate(Math.max(16, bufferSize));
+        else
+            this.buffer = ByteBuffer.allocateDirect(Math.max(16, bufferSize));
+        this.buffer.clear();
+
+        this.gzip = compression == Compression.GZIP
+                ? new GZIPOutputStream(Channels.newOutputStream(channel), DEFAULT_BUFFER_SIZE)
+                : null;
+        this.parallelGzip = compression == Compression.PGZIP
+                ? new ParallelGzip(channel, compressionThreads)
+                : null;
+    }
+
+    /**
+     * Проверка, что текст в кодировке можно кодировать по частям независимо.
+     * Это неверно для кодировок, добавляющих маркер порядка байт (BOM) к каждому фрагменту, например UTF-16.
+     *
+     * @param charset кодировка
+     * @return true - независимое кодирование частей даёт тот же результат
+     */
+    public static boolean canEncodeInParts(Charset charset) {
+        return "aa".getBytes(charset).length == 2 * "a".getBytes(charset).length;
+    }
+
+    /**
+     * Предварительное кодирование неизменяемого фрагмента текста
+     *
+     * @param text фрагмент
+     * @return закодированный фрагмент. Если кодировку нельзя кодировать по частям,
+     * фрагмент кодируется при каждой записи
+     * @throws CharacterCodingException Фрагмент невозможно представить в кодировке файла
+     */
+    public Token token(String text) throws CharacterCodingException {
+        if (!encodeInParts)
+            return new Token(text, null);
+
+        ByteBuffer encoded = charset.newEncoder().encode(CharBuffer.wrap(text));
+        byte[] bytes = new byte[encoded.remaining()];
+        encoded.get(bytes);
+        return new Token(text, bytes);
+    }
+
+    /**
+     * Запись заранее закодированного фрагмента
+     *
+     * @param token фрагмент
+     * @throws IOException Ошибка ввода-вывода
+     */
+    public void write(Token token) throws IOException {
+        if (token.bytes != null)
+            write(token.bytes, 0, token.bytes.length);
+        else
+            write(token.text);
+    }
+
+    /**
+     * Запись уже закодированных байт
+     *
+     * @param bytes  байты
+     * @param offset начало
+     * @param length количество
+     * @throws IOException Ошибка ввода-вывода
+     */
+    public void write(byte[] bytes, int offset, int length) throws IOException {
+        while (length > 0) {
+            if (!buffer.hasRemaining())
+                flushBuffer();
+            int part = Math.min(length, buffer.remaining());
+            buffer.put(bytes, offset, part);
+            offset += part;
+            length -= part;
+        }
+    }
+
+    /**
+     * Запись целого числа, тем же текстом, что и {@link Long#toString(long)}
+     *
+     * @param value число
+     * @throws IOException Ошибка ввода-вывода
+     */
+    public void write(long value) throws IOException {
+        if (encoding == ENCODING_GENERIC) {
+            write(Long.toString(value));
+            return;
+        }
+        if (value == Long.MIN_VALUE) {
+            write("-9223372036854775808");
+            return;
+        }
+
+        int position = digits.length;
+        boolean negative = value < 0;
+        if (negative)
+            value = -value;
+        do {
+            digits[--position] = (byte) ('0' + value % 10);
+            value /= 10;
+        } while (value != 0);
+        if (negative)
+            digits[--position] = '-';
+
+        write(digits, position, digits.length - position);
+    }
+
+    /**
+     * Запись текста
+     *
+     * @param text текст
+     * @throws IOException Ошибка ввода-вывода, либо текст невозможно представить в кодировке файла
+     */
+    public void write(CharSequence text) throws IOException {
+        switch (encoding) {
+            case ENCODING_ASCII:
+                writeSingleByte(text, 0x7F);
+                break;
+            case ENCODING_LATIN1:
+                writeSingleByte(text, 0xFF);
+                break;
+            case ENCODING_UTF8:
+                writeUTF8(text);
+                break;
+            default:
+                writeEncoded(text);
+        }
+    }
+
+    /**
+     * Кодирование в однобайтовую кодировку, совпадающую с первыми символами Unicode
+     *
+     * @param text    текст
+     * @param maxChar наибольший представимый символ
+     * @throws IOException Ошибка ввода-вывода, либо символ невозможно представить в кодировке
+     */
+    private void writeSingleByte(CharSequence text, int maxChar) throws IOException {
+        int length = text.length();
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+            if (c > maxChar)
+                throw Character.isSurrogate(c) && !isValidPair(text, i)
+                        ? new MalformedInputException(1)
+                        : new UnmappableCharacterException(Character.isHighSurrogate(c) ? 2 : 1);
+            if (!buffer.hasRemaining())
+                flushBuffer();
+            buffer.put((byte) c);
+        }
+    }
+
+    /**
+     * Кодирование в UTF-8
+     *
+     * @param text текст
+     * @throws IOException Ошибка ввода-вывода, либо текст содержит непарные суррогатные символы
+     */
+    private void writeUTF8(CharSequence text) throws IOException {
+        int length = text.length();
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+            if (buffer.remaining() < 4)
+                flushBuffer();
+
+            if (c < 0x80) {
+                buffer.put((byte) c);
+            } else if (c < 0x800) {
+                buffer.put((byte) (0xC0 | (c >> 6)));
+                buffer.put((byte) (0x80 | (c & 0x3F)));
+            } else if (Character.isSurrogate(c)) {
+                if (!isValidPair(text, i))
+                    throw new MalformedInputException(1);
+                int codePoint = Character.toCodePoint(c, text.charAt(++i));
+                buffer.put((byte) (0xF0 | (codePoint >> 18)));
+                buffer.put((byte) (0x80 | ((codePoint >> 12) & 0x3F)));
+                buffer.put((byte) (0x80 | ((codePoint >> 6) & 0x3F)));
+                buffer.put((byte) (0x80 | (codePoint & 0x3F)));
+            } else {
+                buffer.put((byte) (0xE0 | (c >> 12)));
+                buffer.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+                buffer.put((byte) (0x80 | (c & 0x3F)));
+            }
+        }
+    }
+
+    /**
+     * Проверка суррогатной пары
+     *
+     * @param text  текст
+     * @param index позиция суррогатного символа
+     * @return true - старший суррогат, за которым следует младший
+     */
+    private static boolean isValidPair(CharSequence text, int index) {
+        return Character.isHighSurrogate(text.charAt(index))
+                && index + 1 < text.length()
+                && Character.isLowSurrogate(text.charAt(index + 1));
+    }
+
+    /**
+     * Кодирование через {@link CharsetEncoder}. Состояние кодировщика сохраняется
+     * до закрытия файла, поэтому маркер порядка байт записывается однократно.
+     *
+     * @param text текст
+     * @throws IOException Ошибка ввода-вывода, либо текст невозможно представить в кодировке
+     */
+    private void writeEncoded(CharSequence text) throws IOException {
+        CharBuffer input = CharBuffer.wrap(text);
+        while (true) {
+            CoderResult result = encoder.encode(input, buffer, false);
+            if (result.isOverflow()) {
+                flushBuffer();
+            } else if (result.isUnderflow()) {
+                // Незавершённая суррогатная пара в конце фрагмента
+                if (input.hasRemaining())
+                    throw new MalformedInputException(input.remaining());
+                return;
+            } else {
+                result.throwException();
+            }
+        }
+    }
+
+    /**
+     * Запись заполненной части буфера в файл
+     *
+     * @throws IOException Ошибка ввода-вывода
+     */
+    private void flushBuffer() throws IOException {
+        buffer.flip();
+        bytesIn += buffer.remaining();
+        switch (compression) {
+            case GZIP:
+                long begin = System.nanoTime();
+                gzip.write(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+                compressNanos += System.nanoTime() - begin;
+                break;
+            case PGZIP:
+                parallelGzip.write(buffer.array(), buffer.remaining());
+                break;
+            default:
+                while (buffer.hasRemaining())
+                    channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * Запись остатка буфера и закрытие файла.
+     *
+     * @throws IOException Ошибка ввода-вывода
+     */
+    @Override
+    public void close() throws IOException {
+        if (buffer == null)
+            return;
+
+        try {
+            if (encoder != null) {
+                CoderResult result;
+                while ((result = encoder.encode(CharBuffer.allocate(0), buffer, true)).isOverflow())
+                    flushBuffer();
+                if (result.isError())
+                    result.throwException();
+                while (encoder.flush(buffer).isOverflow())
+                    flushBuffer();
+            }
+            flushBuffer();
+
+            if (gzip != null) {
+                long begin = System.nanoTime();
+                gzip.finish();
+                compressNanos += System.nanoTime() - begin;
+            } else if (parallelGzip != null) {
+                parallelGzip.finish();
+                compressNanos = parallelGzip.getCompressNanos();
+            }
+            bytesOut = channel.getCount();
+            elapsedNanos = System.nanoTime() - openedNanos;
+        } finally {
+            try {
+                if (gzip != null)
+                    try {
+                        gzip.close();
+                    } catch (IOException ignore) {
+                        // Данные уже записаны либо ошибка уже выброшена, остаётся закрыть файл
+                    }
+                channel.close();
+            } finally {
+                if (pooled && pooledBuffers.incrementAndGet() <= MAX_POOLED_BUFFERS) {
+                    buffer.clear();
+                    bufferPool.offer(buffer);
+                } else if (pooled) {
+                    pooledBuffers.decrementAndGet();
+                }
+                buffer = null;
+            }
+        }
+    }
+
+    /**
+     * Количество закодированных байт, записанных в файл, включая ещё не сброшенные из буфера.
+     * Для сжатого файла - объём до сжатия.
+     *
+     * @return количество байт
+     */
+    public long getPosition() {
+        return buffer != null ? bytesIn + buffer.position() : bytesIn;
+    }
+
+    /**
+     * Количество байт до сжатия. Доступно после закрытия файла
+     *
+     * @return количество байт закодированного текста
+     */
+    public long getBytesIn() {
+        return bytesIn;
+    }
+
+    /**
+     * Размер файла. Доступен после закрытия файла
+     *
+     * @return количество записанных в файл байт
+     */
+    public long getBytesOut() {
+        return bytesOut;
+    }
+
+    /**
+     * Время сжатия. При параллельном сжатии - суммарное по всем потокам.
+     * Доступно после закрытия файла
+     *
+     * @return время, нс
+     */
+    public long getCompressNanos() {
+        return compressNanos;
+    }
+
+    /**
+     * Количество потоков сжатия
+     *
+     * @return количество потоков, 0 - без сжатия
+     */
+    public int getCompressThreads() {
+        switch (compression) {
+            case GZIP:
+                return 1;
+            case PGZIP:
+                return ParallelGzip.getThreads();
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * Время от открытия до закрытия файла. Доступно после закрытия файла
+     *
+     * @return время, нс
+     */
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+}
@@ -0,0 +1,548 @@
+package com.github.butterbrother.thytom;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Чтение файла результатов в колоночном формате, записанного {@link ColumnarWriter}.
+ * <p>
+ * При открытии читается только описание файла: схема столбцов и расположение
+ * и статистика фрагментов. Фрагменты читаются по запросу, по одному столбцу одной группы строк.
+ * По статистике фрагментов можно выбрать группы строк, которые могут содержать
+ * нужные значения, и не читать остальные, см. {@link #selectRowGroups(int, long, long)}.
+ * <p>
+ * Пример:
+ * <pre>
+ * try (ColumnarReader reader = new ColumnarReader(file)) {
+ *     int id = reader.findColumn("ID");
+ *     for (int group : reader.selectRowGroups(id, 1000, 2000)) {
+ *         ColumnarReader.Chunk ids = reader.readChunk(group, id);
+ *         for (int row = 0; row &lt; ids.size(); row++)
+ *             if (!ids.isNull(row) &amp;&amp; ids.getLong(row) &gt;= 1000 &amp;&amp; ids.getLong(row) &lt;= 2000)
+ *                 ...
+ *     }
+ * }
+ * </pre>
+ */
+public class ColumnarReader implements Closeable, AutoCloseable {
+    private final FileChannel channel;
+    private final Column[] columns;
+    private final int[] groupRows;
+    private final long[][] offsets;
+    private final int[][] lengths;
+    private final byte[][] encodings;
+    private final Statistics[][] statistics;
+
+    /**
+     * Столбец из схемы файла
+     */
+    public static class Column {
+        private final String label;
+        private final int sqlType;
+        private final String typeName;
+        private final byte type;
+
+        private Column(String label, int sqlType, String typeName, byte type) {
+            this.label = label;
+            this.sqlType = sqlType;
+            this.typeName = typeName;
+            this.type = type;
+        }
+
+        /**
+         * Заголовок столбца результата
+         *
+         * @return заголовок
+         */
+        public String getLabel() {
+            return label;
+        }
+
+        /**
+         * Тип столбца результата, см. {@link java.sql.Types}
+         *
+         * @return тип
+         */
+        public int getSqlType() {
+            return sqlType;
+        }
+
+        /**
+         * Имя типа столбца результата в БД
+         *
+         * @return имя типа
+         */
+        public String getTypeName() {
+            return typeName;
+        }
+
+        /**
+         * Проверка, что значения столбца хранятся как целые числа
+         *
+         * @return true - значения читаются через {@link Chunk#getLong(int)}
+         */
+        public boolean isLong() {
+            return type == ColumnarWriter.TYPE_LONG;
+        }
+    }
+
+    /**
+     * Статистика фрагмента
+     */
+    public static class Statistics {
+        private final int nullCount;
+        private final long minLong;
+        private final long maxLong;
+        private final String minString;
+        private final String maxString;
+        private final boolean hasValues;
+
+        private Statistics(int nullCount, boolean hasValues, long minLong, long maxLong,
+                           String minString, String maxString) {
+            this.nullCount = nullCount;
+            this.hasValues = hasValues;
+            this.minLong = minLong;
+            this.maxLong = maxLong;
+            this.minString = minString;
+            this.maxString = maxString;
+        }
+
+        /**
+         * Количество пустых значений
+         *
+         * @return количество
+         */
+        public int getNullCount() {
+            return nullCount;
+        }
+
+        /**
+         * Проверка, что во фрагменте есть непустые значения
+         *
+         * @return true - минимум и максимум определены
+         */
+        public boolean hasValues() {
+            return hasValues;
+        }
+
+        /**
+         * Минимум целочисленного фрагмента
+         *
+         * @return минимум
+         */
+        public long getMinLong() {
+            return minLong;
+        }
+
+        /**
+         * Максимум целочисленного фрагмента
+         *
+         * @return максимум
+         */
+        public long getMaxLong() {
+            return maxLong;
+        }
+
+        /**
+         * Минимум текстового фрагмента, в порядке {@link String#compareTo(String)}
+         *
+         * @return минимум, null - нет значений
+         */
+        public String getMinString() {
+            return minString;
+        }
+
+        /**
+         * Максимум текстового фрагмента, в порядке {@link String#compareTo(String)}
+         *
+         * @return максимум, null - нет значений
+         */
+        public String getMaxString() {
+            return maxString;
+        }
+    }
+
+    /**
+     * Значения одного столбца одной группы строк
+     */
+    public static class Chunk {
+        private final long[] numbers;
+        private final boolean[] nulls;
+        private final String[] strings;
+
+        private Chunk(long[] numbers, boolean[] nulls, String[] strings) {
+            this.numbers = numbers;
+            this.nulls = nulls;
+            this.strings = strings;
+        }
+
+        /**
+         * Количество строк
+         *
+         * @return количество
+         */
+        public int size() {
+            return strings != null ? strings.length : numbers.length;
+        }
+
+        /**
+         * Проверка на пустое значение
+         *
+         * @param row номер строки в группе, с 0
+         * @return true - значение пустое (NULL)
+         */
+        public boolean isNull(int row) {
+            return strings != null ? strings[row] == null : nulls[row];
+        }
+
+        /**
+         * Значение целочисленного столбца
+         *
+         * @param row номер строки в группе, с 0
+         * @return значение. 0 - для пустого значения
+         */
+        public long getLong(int row) {
+            if (numbers == null)
+                throw new IllegalStateException("Column values are not numbers");
+            return numbers[row];
+        }
+
+        /**
+         * Значение как текст, так же, как в текстовом файле результатов
+         *
+         * @param row номер строки в группе, с 0
+         * @return значение, null - пустое значение
+         */
+        public String getString(int row) {
+            if (strings != null)
+                return strings[row];
+            return nulls[row] ? null : Long.toString(numbers[row]);
+        }
+    }
+
+    /**
+     * Открытие файла и чтение описания
+     *
+     * @param fileName Имя файла
+     * @throws IOException Ошибка ввода-вывода, либо файл не в колоночном формате
+     */
+    public ColumnarReader(Path fileName) throws IOException {
+        channel = FileChannel.open(fileName, StandardOpenOption.READ);
+        try {
+            int magic = ColumnarWriter.MAGIC.length;
+            long size = channel.size();
+            if (size < magic * 2 + 4
+                    || !Arrays.equals(read(0, magic).array(), ColumnarWriter.MAGIC)
+                    || !Arrays.equals(read(size - magic, magic).array(), ColumnarWriter.MAGIC))
+                throw new IOException("Not a columnar results file: " + fileName);
+
+            int footerSize = read(size - magic - 4, 4).getInt();
+            if (footerSize < 0 || footerSize > size - magic * 2 - 4)
+                throw new IOException("Broken columnar results file: " + fileName);
+            ByteBuffer footer = read(size - magic - 4 - footerSize, footerSize);
+
+            columns = new Column[(int) readVarLong(footer)];
+            for (int i = 0; i < columns.length; i++)
+                columns[i] = new Column(readString(footer, 0), (int) readZigZag(footer),
+                        readString(footer, 0), footer.get());
+
+            int groups = (int) readVarLong(footer);
+            groupRows = new int[groups];
+            offsets = new long[groups][columns.length];
+            lengths = new int[groups][columns.length];
+            encodings = new byte[groups][columns.length];
+            statistics = new Statistics[groups][columns.length];
+            for (int group = 0; group < groups; group++) {
+                groupRows[group] = (int) readVarLong(footer);
+                for (int column = 0; column < columns.length; column++) {
+                    offsets[group][column] = readVarLong(footer);
+                    lengths[group][column] = (int) readVarLong(footer);
+                    encodings[group][column] = footer.get();
+                    statistics[group][column] = readStatistics(footer, columns[column], groupRows[group]);
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            if (e instanceof IOException)
+                throw (IOException) e;
+            throw new IOException("Broken columnar results file: " + fileName, e);
+        }
+    }
+
+    /**
+     * Количество столбцов
+     *
+     * @return количество
+     */
+    public int getColumnCount() {
+        return columns.length;
+    }
+
+    /**
+     * Столбец из схемы файла
+     *
+     * @param column номер столбца, с 0
+     * @return столбец
+     */
+    public Column getColumn(int column) {
+        return columns[column];
+    }
+
+    /**
+     * Поиск столбца по заголовку, без учёта регистра
+     *
+     * @param label заголовок
+     * @return номер столбца с 0, либо -1, если столбца нет
+     */
+    public int findColumn(String label) {
+        for (int i = 0; i < columns.length; i++)
+            if (columns[i].label.equalsIgnoreCase(label))
+                return i;
+        return -1;
+    }
+
+    /**
+     * Количество групп строк
+     *
+     * @return количество
+     */
+    public int getRowGroupCount() {
+        return groupRows.length;
+    }
+
+    /**
+     * Количество строк в группе
+     *
+     * @param group номер группы, с 0
+     * @return количество строк
+     */
+    public int getRowCount(int group) {
+        return groupRows[group];
+    }
+
+    /**
+     * Общее количество строк
+     *
+     * @return количество строк
+     */
+    public long getRowCount() {
+        long rows = 0;
+        for (int count : groupRows)
+            rows += count;
+        return rows;
+    }
+
+    /**
+     * Статистика фрагмента
+     *
+     * @param group  номер группы строк, с 0
+     * @param column номер столбца, с 0
+     * @return статистика
+     */
+    public Statistics getStatistics(int group, int column) {
+        return statistics[group][column];
+    }
+
+    /**
+     * Кодирование фрагмента: {@link ColumnarWriter#ENCODING_PLAIN}, {@link ColumnarWriter#ENCODING_RLE}
+     * либо {@link ColumnarWriter#ENCODING_DICTIONARY}
+     *
+     * @param group  номер группы строк, с 0
+     * @param column номер столбца, с 0
+     * @return кодирование
+     */
+    public byte getEncoding(int group, int column) {
+        return encodings[group][column];
+    }
+
+    /**
+     * Выбор групп строк, в которых целочисленный столбец может содержать значения из диапазона.
+     * Остальные группы заведомо не содержат таких значений и могут быть пропущены.
+     *
+     * @param column номер целочисленного столбца, с 0
+     * @param min    начало диапазона, включительно
+     * @param max    конец диапазона, включительно
+     * @return номера групп строк
+     */
+    public List<Integer> selectRowGroups(int column, long min, long max) {
+        if (!columns[column].isLong())
+            throw new IllegalArgumentException("Column " + columns[column].label + " is not numeric");
+
+        List<Integer> selected = new ArrayList<>();
+        for (int group = 0; group < groupRows.length; group++) {
+            Statistics chunk = statistics[group][column];
+            if (chunk.hasValues && chunk.minLong <= max && chunk.maxLong >= min)
+                selected.add(group);
+        }
+        return selected;
+    }
+
+    /**
+     * Выбор групп строк, в которых текстовый столбец может содержать значения из диапазона,
+     * в порядке {@link String#compareTo(String)}.
+     *
+     * @param column номер столбца, с 0
+     * @param min    начало диапазона, включительно
+     * @param max    конец диапазона, включительно
+     * @return номера групп строк
+     */
+    public List<Integer> selectRowGroups(int column, String min, String max) {
+        if (columns[column].isLong())
+            throw new IllegalArgumentException("Column " + columns[column].label + " is numeric");
+
+        List<Integer> selected = new ArrayList<>();
+        for (int group = 0; group < groupRows.length; group++) {
+            Statistics chunk = statistics[group][column];
+            if (chunk.hasValues && chunk.minString.compareTo(max) <= 0 && chunk.maxString.compareTo(min) >= 0)
+                selected.add(group);
+        }
+        return selected;
+    }
+
+    /**
+     * Чтение и декодирование фрагмента
+     *
+     * @param group  номер группы строк, с 0
+     * @param column номер столбца, с 0
+     * @return значения столбца в группе строк
+     * @throws IOException Ошибка ввода-вывода либо повреждённый фрагмент
+     */
+    public Chunk readChunk(int group, int column) throws IOException {
+        ByteBuffer data = read(offsets[group][column], lengths[group][column]);
+        int rows = groupRows[group];
+        byte encoding = encodings[group][column];
+
+        try {
+            if (columns[column].isLong()) {
+                long[] numbers = new long[rows];
+                boolean[] nulls = new boolean[rows];
+                if (encoding == ColumnarWriter.ENCODING_RLE) {
+                    long runs = readVarLong(data);
+                    for (int run = 0, row = 0; run < runs; run++) {
+                        int count = (int) readVarLong(data);
+                        boolean isNull = data.get() != 0;
+                        long value = isNull ? 0 : readZigZag(data);
+                        Arrays.fill(nulls, row, row + count, isNull);
+                        Arrays.fill(numbers, row, row + count, value);
+                        row += count;
+                    }
+                } else {
+                    byte[] mask = new byte[(rows + 7) / 8];
+                    data.get(mask);
+                    for (int row = 0; row < rows; row++) {
+                        nulls[row] = (mask[row >> 3] & (1 << (row & 7))) != 0;
+                        if (!nulls[row])
+                            numbers[row] = readZigZag(data);
+                    }
+                }
+                return new Chunk(numbers, nulls, null);
+            }
+
+            String[] strings = new String[rows];
+            if (encoding == ColumnarWriter.ENCODING_DICTIONARY) {
+                String[] dictionary = new String[(int) readVarLong(data)];
+                for (int i = 0; i < dictionary.length; i++)
+                    dictionary[i] = readString(data, 0);
+                long runs = readVarLong(data);
+                for (int run = 0, row = 0; run < runs; run++) {
+                    int count = (int) readVarLong(data);
+                    int index = (int) readVarLong(data);
+                    Arrays.fill(strings, row, row + count, index == 0 ? null : dictionary[index - 1]);
+                    row += count;
+                }
+            } else {
+                for (int row = 0; row < rows; row++)
+                    strings[row] = readString(data, 1);
+            }
+            return new Chunk(null, null, strings);
+        } catch (RuntimeException e) {
+            throw new IOException("Broken chunk " + group + " of column " + columns[column].label, e);
+        }
+    }
+
+    /**
+     * Закрытие файла
+     *
+     * @throws IOException Ошибка ввода-вывода
+     */
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Чтение статистики фрагмента из описания файла
+     *
+     * @param footer описание файла
+     * @param column столбец
+     * @param rows   количество строк в группе
+     * @return статистика
+     */
+    private static Statistics readStatistics(ByteBuffer footer, Column column, int rows) {
+        int nullCount = (int) readVarLong(footer);
+        boolean hasValues = nullCount < rows;
+        if (!hasValues)
+            return new Statistics(nullCount, false, 0, 0, null, null);
+        if (column.isLong())
+            return new Statistics(nullCount, true, readZigZag(footer), readZigZag(footer), null, null);
+        return new Statistics(nullCount, true, 0, 0, readString(footer, 0), readString(footer, 0));
+    }
+
+    /**
+     * Чтение части файла
+     *
+     * @param position начало
+     * @param length   количество байт
+     * @return прочитанные байты
+     * @throws IOException Ошибка ввода-вывода, либо файл оказался короче
+     */
+    private ByteBuffer read(long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0)
+                throw new IOException("Unexpected end of columnar results file");
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private static long readVarLong(ByteBuffer buffer) {
+        long value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+                return value;
+        }
+    }
+
+    private static long readZigZag(ByteBuffer buffer) {
+        long value = readVarLong(buffer);
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * Чтение строки: длина и байты UTF-8
+     *
+     * @param buffer      буфер
+     * @param lengthShift смещение длины. 1 - длина 0 означает пустое значение (null)
+     * @return строка
+     */
+    private static String readString(ByteBuffer buffer, int lengthShift) {
+        int length = (int) readVarLong(buffer);
+        if (lengthShift > 0 && length == 0)
+            return null;
+        length -= lengthShift;
+        String value = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, StandardCharsets.UTF_8);
+        buffer.position(buffer.position() + length);
+        return value;
+    }
+}
@@ -0,0 +1,461 @@
+package com.github.butterbrother.thytom;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Запись результата запроса в колоночном двоичном формате.
+ * <p>
+ * Строки накапливаются группами (row group), каждая группа записывается по столбцам:
+ * значения одного столбца группы образуют фрагмент (chunk). Целочисленные столбцы
+ * (те же, что ResultSaver читает через getLong) хранятся как числа, остальные - как текст,
+ * в точности как в текстовом файле результатов.
+ * <p>
+ * Кодирование фрагмента выбирается по его содержимому:
+ * <ul>
+ * <li>{@link #ENCODING_RLE} - серии повторяющихся значений (значение и длина серии);</li>
+ * <li>{@link #ENCODING_DICTIONARY} - словарь различных строк и номера строк в словаре сериями,
+ * для текстовых столбцов с небольшим количеством различных значений;</li>
+ * <li>{@link #ENCODING_PLAIN} - значения по порядку.</li>
+ * </ul>
+ * Для каждого фрагмента сохраняются количество пустых значений, минимум и максимум.
+ * <p>
+ * Формат файла: сигнатура {@link #MAGIC}, фрагменты групп по порядку, описание (footer) -
+ * схема столбцов из метаданных результата и расположение и статистика каждого фрагмента,
+ * затем длина описания (4 байта) и снова сигнатура. Числа - в формате varint,
+ * знаковые - с zigzag-кодированием, строки - длина и байты UTF-8.
+ * Файл читается через {@link ColumnarReader}.
+ */
+public class ColumnarWriter implements Closeable, AutoCloseable {
+    /**
+     * Сигнатура в начале и в конце файла
+     */
+    public static final byte[] MAGIC = {'T', 'C', 'O', 'L', '1'};
+
+    /**
+     * Количество строк в группе по-умолчанию
+     */
+    public static final int DEFAULT_ROW_GROUP_ROWS = 65536;
+
+    /**
+     * Столбец целых чисел
+     */
+    public static final byte TYPE_LONG = 1;
+    /**
+     * Текстовый столбец
+     */
+    public static final byte TYPE_STRING = 2;
+
+    /**
+     * Значения по порядку
+     */
+    public static final byte ENCODING_PLAIN = 0;
+    /**
+     * Серии повторяющихся значений
+     */
+    public static final byte ENCODING_RLE = 1;
+    /**
+     * Словарь строк и номера в словаре сериями
+     */
+    public static final byte ENCODING_DICTIONARY = 2;
+
+    /**
+     * Наибольший размер словаря фрагмента
+     */
+    private static final int MAX_DICTIONARY_SIZE = 65536;
+
+    private final FileChannel channel;
+    private final int rowGroupRows;
+    private final Column[] columns;
+    private final int firstColumn;
+    private final Bytes chunk = new Bytes();
+    private final List<byte[]> rowGroups = new ArrayList<>();
+    private long position = 0;
+    private int rows = 0;
+    private long totalRows = 0;
+
+    /**
+     * Столбец: схема и значения текущей группы строк
+     */
+    private static class Column {
+        private final String label;
+        private final int sqlType;
+        private final String typeName;
+        private final byte type;
+        private final long[] numbers;
+        private final boolean[] nulls;
+        private final String[] strings;
+
+        private Column(String label, int sqlType, String typeName, byte type, int rows) {
+            this.label = label;
+            this.sqlType = sqlType;
+            this.typeName = typeName;
+            this.type = type;
+            this.numbers = type == TYPE_LONG ? new long[rows] : null;
+            this.nulls = type == TYPE_LONG ? new boolean[rows] : null;
+            this.strings = type == TYPE_STRING ? new String[rows] : null;
+        }
+    }
+
+    /**
+     * Создание/пересоздание файла.
+     *
+     * Схема столбцов берётся из метаданных результата запроса заранее, т.к. к моменту
+     * создания очередного файла (см. {@link ConfigFile#getPartRows()}) метаданные могут быть недоступны.
+     *
+     * @param fileName     Имя файла
+     * @param labels       Заголовки столбцов, начиная с 1
+     * @param sqlTypes     Типы столбцов ({@link java.sql.Types}), начиная с 1
+     * @param typeNames    Имена типов столбцов в БД, начиная с 1
+     * @param longColumns  Целочисленные столбцы, начиная с 1
+     * @param rowIdColumn  Добавить первым текстовый столбец с ID подстановки ({@link ResultSaver#ROW_ID_LABEL})
+     * @param rowGroupRows Количество строк в группе
+     * @throws IOException Ошибка создания файла
+     */
+    public ColumnarWriter(Path fileName, String[] labels, int[] sqlTypes, String[] typeNames, boolean[] longColumns,
+                          boolean rowIdColumn, int rowGroupRows) throws IOException {
+        this.rowGroupRows = Math.max(1, rowGroupRows);
+
+        int count = labels != null ? labels.length - 1 : 0;
+        int first = rowIdColumn ? 1 : 0;
+        firstColumn = first;
+        columns = new Column[count + first];
+        if (rowIdColumn)
+            columns[0] = new Column(ResultSaver.ROW_ID_LABEL, Types.VARCHAR, "VARCHAR", TYPE_STRING, this.rowGroupRows);
+        for (int i = 1; i <= count; i++)
+            columns[first + i - 1] = new Column(labels[i], sqlTypes[i], typeNames[i],
+                    longColumns[i] ? TYPE_LONG : TYPE_STRING, this.rowGroupRows);
+
+        channel = FileChannel.open(fileName,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        write(MAGIC, MAGIC.length);
+    }
+
+    /**
+     * Добавление строки. Заполненная группа строк записывается в файл.
+     *
+     * @param rowID   ID подстановки, если файл создан со столбцом ID подстановки
+     * @param cells   Значения столбцов, по порядку. null - пустое значение.
+     *                Для целочисленных столбцов важно только отличие от null
+     * @param numbers Значения целочисленных столбцов
+     * @throws IOException Ошибка ввода-вывода
+     */
+    public void addRow(String rowID, String[] cells, long[] numbers) throws IOException {
+        if (firstColumn > 0)
+            columns[0].strings[rows] = rowID;
+
+        for (int i = firstColumn; i < columns.length; i++) {
+            Column column = columns[i];
+            String cell = cells[i - firstColumn];
+            if (column.type == TYPE_LONG) {
+                column.nulls[rows] = cell == null;
+                column.numbers[rows] = cell == null ? 0 : numbers[i - firstColumn];
+            } else {
+                column.strings[rows] = cell;
+            }
+        }
+
+        if (++rows == rowGroupRows)
+            flushRowGroup();
+    }
+
+    /**
+     * Количество записанных строк
+     *
+     * @return количество строк
+     */
+    public long getRowCount() {
+        return totalRows + rows;
+    }
+
+    /**
+     * Количество байт, записанных в файл. Увеличивается при записи очередной группы строк
+     *
+     * @return количество байт
+     */
+    public long getPosition() {
+        return position;
+    }
+
+    /**
+     * Запись накопленной группы строк: фрагменты всех столбцов по порядку.
+     * Расположение и статистика фрагментов сохраняются для описания файла.
+     *
+     * @throws IOException Ошибка ввода-вывода
+     */
+    private void flushRowGroup() throws IOException {
+        if (rows == 0)
+            return;
+
+        Bytes index = new Bytes();
+        index.writeVarLong(rows);
+        for (Column column : columns) {
+            chunk.clear();
+            byte encoding = column.type == TYPE_LONG ? encodeLongs(column) : encodeStrings(column);
+
+            index.writeVarLong(position);
+            index.writeVarLong(chunk.size);
+            index.write(encoding);
+            writeStatistics(column, index);
+
+            write(chunk.data, chunk.size);
+        }
+        rowGroups.add(Arrays.copyOf(index.data, index.size));
+
+        totalRows += rows;
+        rows = 0;
+        for (Column column : columns)
+            if (column.strings != null)
+                Arrays.fill(column.strings, null);
+    }
+
+    /**
+     * Кодирование целочисленного фрагмента сериями либо по порядку
+     *
+     * @param column столбец
+     * @return кодирование
+     */
+    private byte encodeLongs(Column column) {
+        int runs = 1;
+        for (int i = 1; i < rows; i++)
+            if (column.nulls[i] != column.nulls[i - 1] || column.numbers[i] != column.numbers[i - 1])
+                runs++;
+
+        if (runs * 2 <= rows) {
+            chunk.writeVarLong(runs);
+            for (int start = 0, end; start < rows; start = end) {
+                end = start + 1;
+                while (end < rows && column.nulls[end] == column.nulls[start]
+                        && column.numbers[end] == column.numbers[start])
+                    end++;
+                chunk.writeVarLong(end - start);
+                chunk.write(column.nulls[start] ? 1 : 0);
+                if (!column.nulls[start])
+                    chunk.writeZigZag(column.numbers[start]);
+            }
+            return ENCODING_RLE;
+        }
+
+        // Битовая маска пустых значений, затем непустые значения
+        byte[] mask = new byte[(rows + 7) / 8];
+        for (int i = 0; i < rows; i++)
+            if (column.nulls[i])
+                mask[i >> 3] |= 1 << (i & 7);
+        chunk.write(mask, mask.length);
+        for (int i = 0; i < rows; i++)
+            if (!column.nulls[i])
+                chunk.writeZigZag(column.numbers[i]);
+        return ENCODING_PLAIN;
+    }
+
+    /**
+     * Кодирование текстового фрагмента словарём либо по порядку
+     *
+     * @param column столбец
+     * @return кодирование
+     */
+    private byte encodeStrings(Column column) {
+        String[] values = column.strings;
+        int nonNull = 0;
+        Map<String, Integer> dictionary = new HashMap<>();
+        List<String> entries = new ArrayList<>();
+        for (int i = 0; i < rows; i++) {
+            if (values[i] == null)
+                continue;
+            nonNull++;
+            if (dictionary.size() <= MAX_DICTIONARY_SIZE && !dictionary.containsKey(values[i])) {
+                dictionary.put(values[i], entries.size());
+                entries.add(values[i]);
+            }
+        }
+
+        if (entries.size() <= MAX_DICTIONARY_SIZE && entries.size() * 2 <= nonNull) {
+            chunk.writeVarLong(entries.size());
+            for (String entry : entries)
+                chunk.writeString(entry);
+
+            // Номера в словаре сериями, 0 - пустое значение
+            int runs = 1;
+            for (int i = 1; i < rows; i++)
+                if (!equal(values[i], values[i - 1]))
+                    runs++;
+            chunk.writeVarLong(runs);
+            for (int start = 0, end; start < rows; start = end) {
+                end = start + 1;
+                while (end < rows && equal(values[end], values[start]))
+                    end++;
+                chunk.writeVarLong(end - start);
+                chunk.writeVarLong(values[start] == null ? 0 : dictionary.get(values[start]) + 1);
+            }
+            return ENCODING_DICTIONARY;
+        }
+
+        // Длина + 1 и байты каждой строки, 0 - пустое значение
+        for (int i = 0; i < rows; i++) {
+            if (values[i] == null)
+                chunk.writeVarLong(0);
+            else
+                chunk.writeString(values[i], 1);
+        }
+        return ENCODING_PLAIN;
+    }
+
+    /**
+     * Запись статистики фрагмента: количество пустых значений, минимум и максимум
+     *
+     * @param column столбец
+     * @param index  описание группы строк
+     */
+    private void writeStatistics(Column column, Bytes index) {
+        int nullCount = 0;
+        if (column.type == TYPE_LONG) {
+            long min = Long.MAX_VALUE;
+            long max = Long.MIN_VALUE;
+            for (int i = 0; i < rows; i++) {
+                if (column.nulls[i]) {
+                    nullCount++;
+                } else {
+                    min = Math.min(min, column.numbers[i]);
+                    max = Math.max(max, column.numbers[i]);
+                }
+            }
+            index.writeVarLong(nullCount);
+            if (nullCount < rows) {
+                index.writeZigZag(min);
+                index.writeZigZag(max);
+            }
+        } else {
+            String min = null;
+            String max = null;
+            for (int i = 0; i < rows; i++) {
+                String value = column.strings[i];
+                if (value == null) {
+                    nullCount++;
+                } else {
+                    if (min == null || value.compareTo(min) < 0)
+                        min = value;
+                    if (max == null || value.compareTo(max) > 0)
+                        max = value;
+                }
+            }
+            index.writeVarLong(nullCount);
+            if (nullCount < rows) {
+                index.writeString(min);
+                index.writeString(max);
+            }
+        }
+    }
+
+    private static boolean equal(String first, String second) {
+        return first == null ? second == null : first.equals(second);
+    }
+
+    /**
+     * Запись байт в файл
+     *
+     * @param bytes  байты
+     * @param length количество
+     * @throws IOException Ошибка ввода-вывода
+     */
+    private void write(byte[] bytes, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes, 0, length);
+        while (buffer.hasRemaining())
+            channel.write(buffer);
+        position += length;
+    }
+
+    /**
+     * Запись последней группы строк и описания файла, закрытие файла.
+     *
+     * @throws IOException Ошибка ввода-вывода
+     */
+    @Override
+    public void close() throws IOException {
+        if (!channel.isOpen())
+            return;
+
+        try {
+            flushRowGroup();
+
+            Bytes footer = new Bytes();
+            footer.writeVarLong(columns.length);
+            for (Column column : columns) {
+                footer.writeString(column.label != null ? column.label : "");
+                footer.writeZigZag(column.sqlType);
+                footer.writeString(column.typeName != null ? column.typeName : "");
+                footer.write(column.type);
+            }
+            footer.writeVarLong(rowGroups.size());
+            for (byte[] rowGroup : rowGroups)
+                footer.write(rowGroup, rowGroup.length);
+
+            write(footer.data, footer.size);
+            write(ByteBuffer.allocate(4).putInt(footer.size).array(), 4);
+            write(MAGIC, MAGIC.length);
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * Расширяемый буфер байт с записью чисел varint и строк
+     */
+    private static class Bytes {
+        private byte[] data = new byte[4096];
+        private int size = 0;
+
+        private void clear() {
+            size = 0;
+        }
+
+        private void ensure(int length) {
+            if (size + length > data.length)
+                data = Arrays.copyOf(data, Math.max(data.length * 2, size + length));
+        }
+
+        private void write(int value) {
+            ensure(1);
+            data[size++] = (byte) value;
+        }
+
+        private void write(byte[] bytes, int length) {
+            ensure(length);
+            System.arraycopy(bytes, 0, data, size, length);
+            size += length;
+        }
+
+        private void writeVarLong(long value) {
+            ensure(10);
+            while ((value & ~0x7FL) != 0) {
+                data[size++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            data[size++] = (byte) value;
+        }
+
+        private void writeZigZag(long value) {
+            writeVarLong((value << 1) ^ (value >> 63));
+        }
+
+        private void writeString(String value) {
+            writeString(value, 0);
+        }
+
+        private void writeString(String value, int lengthShift) {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            writeVarLong(bytes.length + lengthShift);
+            write(bytes, bytes.length);
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package com.github.butterbrother.thytom;
+
+/**
+ * Сжатие файлов с результатами.
+ * <p>
+ * Выбирается параметром командной строки -z/--compress либо параметром
+ * file.result.compression в файле конфигурации. Сжатые файлы получают расширение .gz
+ * и распаковываются любым gzip-совместимым архиватором.
+ */
+public enum Compression {
+    /**
+     * Без сжатия
+     */
+    NONE(""),
+    /**
+     * Потоковое сжатие GZIP в потоке записи файла
+     */
+    GZIP(".gz"),
+    /**
+     * Параллельное сжатие GZIP, как в pigz: независимые блоки сжимаются в общем пуле потоков
+     * и записываются по порядку отдельными членами (member) gzip, см. {@link ParallelGzip}.
+     */
+    PGZIP(".gz");
+
+    private final String extension;
+
+    /**
+     * Инициализация.
+     *
+     * @param extension расширение, добавляемое к имени файла
+     */
+    Compression(String extension) {
+        this.extension = extension;
+    }
+
+    /**
+     * Расширение сжатого файла, добавляемое к имени файла с результатами
+     *
+     * @return расширение, либо пустая строка без сжатия
+     */
+    public String getExtension() {
+        return extension;
+    }
+
+    /**
+     * Определение сжатия по имени
+     *
+     * @param name имя: none, gzip, pgzip
+     * @return сжатие, либо null, если имя не опознано
+     */
+    public static Compression fromName(String name) {
+        for (Compression compression : values()) {
+            if (compression.name().equalsIgnoreCase(name.trim()))
+                return compression;
+        }
+
+        return null;
+    }
+}
@@ -1,6 +1,8 @@
 package com.github.butterbrother.thytom;
 
 import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
 
 /**
  * Параметры из файла конфигурации, пригодные для дальнейшего использования приложением.
@@ -15,6 +17,47 @@ public class ConfigFile {
     private Charset resultsFileCharset;
     private Charset substitutionsFileCharset;
 
+    private Dialect dialect = null;
+
+    private int parallelWorkers = 1;
+    private int batchSize = 0;
+    private int commitBatches = 1;
+
+    private int fetchSize = 0;
+    private Map<String, Integer> fetchSizes = new HashMap<>();
+    private boolean adaptiveFetch = false;
+    private int fetchTargetBytes = FetchSizeController.DEFAULT_TARGET_BYTES;
+
+    private int pipelineDepth = 0;
+    private int pipelineRows = 256;
+    private int formatThreads = 1;
+
+    private Compression compression = Compression.NONE;
+    private int compressionThreads = 0;
+
+    private ResultFormat resultFormat = ResultFormat.TEXT;
+    private int columnarRows = ColumnarWriter.DEFAULT_ROW_GROUP_ROWS;
+
+    private int partRows = 0;
+    private long partBytes = 0;
+    private int partWriters = 1;
+
+    private int lobThreshold = 0;
+
+    private Sharding sharding = Sharding.NONE;
+    private int shardingLevels = 2;
+
+    private String targetUrl = "";
+    private String targetLogin = "";
+    private String targetPassword = "";
+    private String targetDriver = "";
+    private String targetTable = ResultCopier.SQL_FILE_TEMPLATE;
+    private boolean targetCreateTable = false;
+    private boolean targetRowId = false;
+    private int targetBatchSize = 1000;
+    private int targetCommitBatches = 1;
+    private int targetThreads = 1;
+
     protected ConfigFile(
             String url,
             String login,
@@ -60,4 +103,403 @@ public class ConfigFile {
     public Charset getSubstitutionsFileCharset() {
         return substitutionsFileCharset;
     }
+
+    /**
+     * Количество параллельных исполнителей запросов.
+     *
+     * @return количество исполнителей, 1 - последовательное исполнение
+     */
+    public int getParallelWorkers() {
+        return parallelWorkers;
+    }
+
+    protected void setParallelWorkers(int parallelWorkers) {
+        this.parallelWorkers = parallelWorkers;
+    }
+
+    /**
+     * Размер пакета обновляющих запросов.
+     *
+     * @return размер пакета, 0 - пакетное исполнение отключено
+     */
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    protected void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Количество пакетов между фиксациями транзакции.
+     *
+     * @return количество пакетов
+     */
+    public int getCommitBatches() {
+        return commitBatches;
+    }
+
+    protected void setCommitBatches(int commitBatches) {
+        this.commitBatches = commitBatches;
+    }
+
+    /**
+     * Профиль работы с драйвером JDBC.
+     *
+     * @return профиль из файла конфигурации, либо определённый по JDBC URL
+     */
+    public Dialect getDialect() {
+        return dialect != null ? dialect : Dialect.fromUrl(url);
+    }
+
+    protected void setDialect(Dialect dialect) {
+        this.dialect = dialect;
+    }
+
+    /**
+     * Закреплённый размер порции строк для SQL-файла.
+     *
+     * @param sqlFileName имя SQL-файла
+     * @return размер порции для SQL-файла, либо общий для всех SQL-файлов.
+     * 0 - размер порции не закреплён
+     */
+    public int getFetchSize(String sqlFileName) {
+        Integer pinned = fetchSizes.get(sqlFileName);
+        return pinned != null ? pinned : fetchSize;
+    }
+
+    protected void setFetchSize(int fetchSize) {
+        this.fetchSize = fetchSize;
+    }
+
+    protected void setFetchSize(String sqlFileName, int fetchSize) {
+        fetchSizes.put(sqlFileName, fetchSize);
+    }
+
+    /**
+     * Адаптивный подбор размера порции строк, см. {@link FetchSizeController}.
+     *
+     * @return true - подбор включен
+     */
+    public boolean isAdaptiveFetch() {
+        return adaptiveFetch;
+    }
+
+    protected void setAdaptiveFetch(boolean adaptiveFetch) {
+        this.adaptiveFetch = adaptiveFetch;
+    }
+
+    /**
+     * Объём данных за одно обращение к БД при адаптивном подборе размера порции.
+     *
+     * @return объём в байтах
+     */
+    public int getFetchTargetBytes() {
+        return fetchTargetBytes;
+    }
+
+    protected void setFetchTargetBytes(int fetchTargetBytes) {
+        this.fetchTargetBytes = fetchTargetBytes;
+    }
+
+    /**
+     * Количество порций строк в очереди между чтением и записью результата, см. {@link ResultPipeline}.
+     *
+     * @return количество порций, 0 - чтение и запись в одном потоке
+     */
+    public int getPipelineDepth() {
+        return pipelineDepth;
+    }
+
+    protected void setPipelineDepth(int pipelineDepth) {
+        this.pipelineDepth = pipelineDepth;
+    }
+
+    /**
+     * Количество строк в порции очереди между чтением и записью результата.
+     *
+     * @return количество строк
+     */
+    public int getPipelineRows() {
+        return pipelineRows;
+    }
+
+    protected void setPipelineRows(int pipelineRows) {
+        this.pipelineRows = pipelineRows;
+    }
+
+    /**
+     * Количество потоков форматирования строк результата при раздельных чтении и записи.
+     *
+     * @return количество потоков, 1 - форматирование в потоке записи
+     */
+    public int getFormatThreads() {
+        return formatThreads;
+    }
+
+    protected void setFormatThreads(int formatThreads) {
+        this.formatThreads = formatThreads;
+    }
+
+    /**
+     * Сжатие файлов с результатами.
+     *
+     * @return сжатие, по-умолчанию {@link Compression#NONE}
+     */
+    public Compression getCompression() {
+        return compression;
+    }
+
+    protected void setCompression(Compression compression) {
+        this.compression = compression;
+    }
+
+    /**
+     * Количество потоков параллельного сжатия, см. {@link ParallelGzip}.
+     *
+     * @return количество потоков, 0 - по количеству процессоров
+     */
+    public int getCompressionThreads() {
+        return compressionThreads;
+    }
+
+    protected void setCompressionThreads(int compressionThreads) {
+        this.compressionThreads = compressionThreads;
+    }
+
+    /**
+     * Формат файлов с результатами.
+     *
+     * @return формат, по-умолчанию {@link ResultFormat#TEXT}
+     */
+    public ResultFormat getResultFormat() {
+        return resultFormat;
+    }
+
+    protected void setResultFormat(ResultFormat resultFormat) {
+        this.resultFormat = resultFormat;
+    }
+
+    /**
+     * Количество строк в группе строк колоночного формата, см. {@link ColumnarWriter}.
+     *
+     * @return количество строк
+     */
+    public int getColumnarRows() {
+        return columnarRows;
+    }
+
+    protected void setColumnarRows(int columnarRows) {
+        this.columnarRows = columnarRows;
+    }
+
+    /**
+     * Количество строк, после которого результат продолжается в следующем файле-части
+     * (..._part0002.txt и т.д.), см. {@link ResultSaver}.
+     *
+     * @return количество строк, 0 - без ограничения
+     */
+    public int getPartRows() {
+        return partRows;
+    }
+
+    protected void setPartRows(int partRows) {
+        this.partRows = partRows;
+    }
+
+    /**
+     * Объём файла-части до сжатия, после которого результат продолжается в следующей части.
+     * Проверяется перед записью очередной строки, поэтому часть может быть немного больше.
+     *
+     * @return количество байт, 0 - без ограничения
+     */
+    public long getPartBytes() {
+        return partBytes;
+    }
+
+    protected void setPartBytes(long partBytes) {
+        this.partBytes = partBytes;
+    }
+
+    /**
+     * Количество потоков, одновременно записывающих файлы-части одного результата,
+     * см. {@link ResultPipeline}.
+     *
+     * @return количество потоков, 1 - части записываются по очереди
+     */
+    public int getPartWriters() {
+        return partWriters;
+    }
+
+    protected void setPartWriters(int partWriters) {
+        this.partWriters = partWriters;
+    }
+
+    /**
+     * Порог вынесения значений LOB в отдельные файлы, см. {@link LobStreamer}.
+     *
+     * @return количество символов (для BLOB - байт), 0 - значения не выносятся
+     */
+    public int getLobThreshold() {
+        return lobThreshold;
+    }
+
+    protected void setLobThreshold(int lobThreshold) {
+        this.lobThreshold = lobThreshold;
+    }
+
+    /**
+     * Распределение файлов с результатами по подкаталогам.
+     *
+     * @return распределение, по-умолчанию {@link Sharding#NONE}
+     */
+    public Sharding getSharding() {
+        return sharding;
+    }
+
+    protected void setSharding(Sharding sharding) {
+        this.sharding = sharding;
+    }
+
+    /**
+     * Количество уровней подкаталогов при распределении по хешу, см. {@link Sharding#HASH}.
+     *
+     * @return количество уровней
+     */
+    public int getShardingLevels() {
+        return shardingLevels;
+    }
+
+    protected void setShardingLevels(int shardingLevels) {
+        this.shardingLevels = shardingLevels;
+    }
+
+    /**
+     * Копирование результатов в целевую БД вместо сохранения в файлы, см. {@link ResultCopier}.
+     *
+     * @return true - задан URL целевой БД
+     */
+    public boolean isCopyEnabled() {
+        return !targetUrl.isEmpty();
+    }
+
+    /**
+     * URL целевой БД для копирования результатов.
+     *
+     * @return URL, пустая строка - копирование отключено
+     */
+    public String getTargetUrl() {
+        return targetUrl;
+    }
+
+    protected void setTargetUrl(String targetUrl) {
+        this.targetUrl = targetUrl;
+    }
+
+    public String getTargetLogin() {
+        return targetLogin;
+    }
+
+    protected void setTargetLogin(String targetLogin) {
+        this.targetLogin = targetLogin;
+    }
+
+    public String getTargetPassword() {
+        return targetPassword;
+    }
+
+    protected void setTargetPassword(String targetPassword) {
+        this.targetPassword = targetPassword;
+    }
+
+    /**
+     * Класс драйвера целевой БД.
+     *
+     * @return имя класса, пустая строка - драйвер регистрируется сам
+     */
+    public String getTargetDriver() {
+        return targetDriver;
+    }
+
+    protected void setTargetDriver(String targetDriver) {
+        this.targetDriver = targetDriver;
+    }
+
+    /**
+     * Имя целевой таблицы.
+     *
+     * @return имя таблицы, {@link ResultCopier#SQL_FILE_TEMPLATE} заменяется именем SQL-файла
+     */
+    public String getTargetTable() {
+        return targetTable;
+    }
+
+    protected void setTargetTable(String targetTable) {
+        this.targetTable = targetTable;
+    }
+
+    /**
+     * Создание отсутствующих целевых таблиц по типам столбцов результата.
+     *
+     * @return true - создавать таблицы
+     */
+    public boolean isTargetCreateTable() {
+        return targetCreateTable;
+    }
+
+    protected void setTargetCreateTable(boolean targetCreateTable) {
+        this.targetCreateTable = targetCreateTable;
+    }
+
+    /**
+     * Запись ID подстановки в первый столбец целевой таблицы.
+     *
+     * @return true - первый столбец {@link ResultSaver#ROW_ID_LABEL}
+     */
+    public boolean isTargetRowId() {
+        return targetRowId;
+    }
+
+    protected void setTargetRowId(boolean targetRowId) {
+        this.targetRowId = targetRowId;
+    }
+
+    /**
+     * Количество строк в пакете вставки в целевую БД.
+     *
+     * @return количество строк
+     */
+    public int getTargetBatchSize() {
+        return targetBatchSize;
+    }
+
+    protected void setTargetBatchSize(int targetBatchSize) {
+        this.targetBatchSize = targetBatchSize;
+    }
+
+    /**
+     * Количество пакетов вставки потока в одной транзакции целевой БД.
+     *
+     * @return количество пакетов
+     */
+    public int getTargetCommitBatches() {
+        return targetCommitBatches;
+    }
+
+    protected void setTargetCommitBatches(int targetCommitBatches) {
+        this.targetCommitBatches = targetCommitBatches;
+    }
+
+    /**
+     * Количество потоков вставки в целевую БД, у каждого своё подключение.
+     *
+     * @return количество потоков
+     */
+    public int getTargetThreads() {
+        return targetThreads;
+    }
+
+    protected void setTargetThreads(int targetThreads) {
+        this.targetThreads = targetThreads;
+    }
 }
@@ -49,6 +49,12 @@ import java.util.Properties;
  *     <td>Драйвер JDBC БД. Обязательный параметр. Можно указать пустую строку.</td>
  * </tr>
  * <tr>
+ * <td>db.dialect</td>
+ * <td>Профиль работы с драйвером JDBC: oracle, postgresql, mysql, mariadb, sqlserver, sqlite, generic.
+ * Определяет настройку потоковой передачи результатов запросов. По-умолчанию определяется
+ * по префиксу JDBC URL.</td>
+ * </tr>
+ * <tr>
  * <td>file.sql.encoding</td>
  * <td>Кодировка файлов с SQL-запросами.</td>
  * </tr>
@@ -60,6 +66,138 @@ import java.util.Properties;
  * <td>file.result.encoding</td>
  * <td>Кодировка файлов с результатами SQL-запросов</td>
  * </tr>
+ * <tr>
+ * <td>file.result.compression</td>
+ * <td>Сжатие файлов с результатами: none, gzip, pgzip (параллельное сжатие блоков, как в pigz),
+ * см. {@link Compression}. Сжатые файлы получают расширение .gz. По-умолчанию none.</td>
+ * </tr>
+ * <tr>
+ * <td>file.result.compression.threads</td>
+ * <td>Количество потоков параллельного сжатия pgzip, общее для всех файлов.
+ * По-умолчанию по количеству процессоров.</td>
+ * </tr>
+ * <tr>
+ * <td>file.result.format</td>
+ * <td>Формат файлов с результатами: text - текст с разделителями столбцов, columnar - колоночный
+ * двоичный формат с типами столбцов, словарями, сериями и статистикой фрагментов
+ * (файлы .tcol, чтение через {@link ColumnarReader}), json - JSON Lines (файлы .jsonl, объект на строку,
+ * числа и логические значения без кавычек). Колоночные файлы не сжимаются. По-умолчанию text.</td>
+ * </tr>
+ * <tr>
+ * <td>file.result.columnar.rows</td>
+ * <td>Количество строк в группе строк колоночного формата. По-умолчанию 65536.</td>
+ * </tr>
+ * <tr>
+ * <td>file.result.part.rows</td>
+ * <td>Количество строк в файле с результатами, после которого запись продолжается в следующем
+ * файле-части: ..._part0001.txt, ..._part0002.txt и т.д. По-умолчанию без ограничения.</td>
+ * </tr>
+ * <tr>
+ * <td>file.result.part.bytes</td>
+ * <td>Объём файла-части в байтах до сжатия, после которого запись продолжается в следующей части.
+ * По-умолчанию без ограничения.</td>
+ * </tr>
+ * <tr>
+ * <td>file.result.part.writers</td>
+ * <td>Количество потоков, одновременно записывающих части одного результата. Используется
+ * вместе с file.result.part.rows или file.result.part.bytes. По-умолчанию 1.</td>
+ * </tr>
+ * <tr>
+ * <td>file.result.lob.threshold</td>
+ * <td>Порог вынесения значений CLOB/NCLOB (в символах) и BLOB (в байтах) в отдельные файлы
+ * в каталоге ..._lobs рядом с файлом результатов. В строке результата остаётся ссылка lob:путь.
+ * По-умолчанию значения не выносятся и записываются потоком, BLOB - шестнадцатеричным текстом.</td>
+ * </tr>
+ * <tr>
+ * <td>file.result.sharding</td>
+ * <td>Распределение файлов с результатами по подкаталогам каталога out: none, hash (по хешу имени
+ * файла), sqlfile (подкаталог для каждого SQL-файла), см. {@link Sharding}. Расположение файлов
+ * записывается в оглавление out/manifest.tsv. По-умолчанию none.</td>
+ * </tr>
+ * <tr>
+ * <td>file.result.sharding.levels</td>
+ * <td>Количество уровней подкаталогов при распределении по хешу, от 1 до 4. По-умолчанию 2.</td>
+ * </tr>
+ * <tr>
+ * <td>exec.parallel</td>
+ * <td>Количество параллельных исполнителей запросов, каждый со своим подключением к БД.
+ * По-умолчанию 1 (последовательное исполнение).</td>
+ * </tr>
+ * <tr>
+ * <td>exec.batch.size</td>
+ * <td>Размер пакета для пакетного исполнения обновляющих запросов (INSERT/UPDATE/DELETE/MERGE).
+ * По-умолчанию пакетное исполнение отключено.</td>
+ * </tr>
+ * <tr>
+ * <td>exec.batch.commit</td>
+ * <td>Количество пакетов между фиксациями транзакции. По-умолчанию 1.</td>
+ * </tr>
+ * <tr>
+ * <td>fetch.size</td>
+ * <td>Размер порции строк результата, передаваемых за одно обращение к БД, для всех SQL-файлов.
+ * По-умолчанию определяется профилем драйвера JDBC.</td>
+ * </tr>
+ * <tr>
+ * <td>fetch.size.&lt;SQL-файл&gt;</td>
+ * <td>Размер порции строк для отдельного SQL-файла, например fetch.size.report.sql.</td>
+ * </tr>
+ * <tr>
+ * <td>fetch.adaptive</td>
+ * <td>true - подбирать размер порции строк по ширине строки результата и времени обращений к БД,
+ * см. {@link FetchSizeController}. Не применяется к SQL-файлам с закреплённым размером порции.
+ * По-умолчанию false.</td>
+ * </tr>
+ * <tr>
+ * <td>fetch.target.bytes</td>
+ * <td>Объём данных за одно обращение к БД при адаптивном подборе. По-умолчанию 262144.</td>
+ * </tr>
+ * <tr>
+ * <td>fetch.pipeline.depth</td>
+ * <td>Количество порций строк в очереди между потоками чтения результата и записи в файл,
+ * см. {@link ResultPipeline}. По-умолчанию чтение и запись выполняются в одном потоке.</td>
+ * </tr>
+ * <tr>
+ * <td>fetch.pipeline.rows</td>
+ * <td>Количество строк в порции. По-умолчанию 256.</td>
+ * </tr>
+ * <tr>
+ * <td>fetch.pipeline.formatters</td>
+ * <td>Количество потоков форматирования порций строк, при заданной очереди порций.
+ * Порции записываются в файл в исходном порядке. По-умолчанию 1 (форматирование в потоке записи).</td>
+ * </tr>
+ * <tr>
+ * <td>target.url</td>
+ * <td>JDBC URL второй (целевой) БД. Если задан, результаты запросов копируются в таблицы
+ * целевой БД вместо сохранения в файлы, см. {@link ResultCopier}. По-умолчанию не задан.</td>
+ * </tr>
+ * <tr>
+ * <td>target.login, target.password, target.driver</td>
+ * <td>Логин, пароль и класс драйвера JDBC целевой БД.</td>
+ * </tr>
+ * <tr>
+ * <td>target.table</td>
+ * <td>Имя целевой таблицы, {SQL} заменяется именем SQL-файла без расширения. По-умолчанию {SQL}.</td>
+ * </tr>
+ * <tr>
+ * <td>target.table.create</td>
+ * <td>true - создавать отсутствующие целевые таблицы по типам столбцов результата. По-умолчанию false.</td>
+ * </tr>
+ * <tr>
+ * <td>target.rowid</td>
+ * <td>true - записывать ID подстановки в первый столбец row_id целевой таблицы. По-умолчанию false.</td>
+ * </tr>
+ * <tr>
+ * <td>target.batch.size</td>
+ * <td>Количество строк в пакете вставки. По-умолчанию 1000.</td>
+ * </tr>
+ * <tr>
+ * <td>target.batch.commit</td>
+ * <td>Количество пакетов вставки между фиксациями транзакции. По-умолчанию 1.</td>
+ * </tr>
+ * <tr>
+ * <td>target.threads</td>
+ * <td>Количество потоков вставки, каждый со своим подключением к целевой БД. По-умолчанию 1.</td>
+ * </tr>
  * </tbody>
  * </table>
  */
@@ -80,6 +218,10 @@ public class ConfigFileLoader {
      * Имя параметра для драйвера JDBC
      */
     public static final String PARAM_DRIVER = "db.driver";
+    /**
+     * Имя параметра профиля работы с драйвером JDBC
+     */
+    public static final String PARAM_DIALECT = "db.dialect";
     /**
      * Имя параметра кодировки файлов с SQL-запросами
      */
@@ -92,6 +234,122 @@ public class ConfigFileLoader {
      * Имя параметра кодировки файлов с результатами запросов
      */
     public static final String PARAM_RESULT_FILE_ENC = "file.result.encoding";
+    /**
+     * Имя параметра сжатия файлов с результатами запросов
+     */
+    public static final String PARAM_COMPRESSION = "file.result.compression";
+    /**
+     * Имя параметра количества потоков параллельного сжатия
+     */
+    public static final String PARAM_COMPRESSION_THREADS = "file.result.compression.threads";
+    /**
+     * Имя параметра формата файлов с результатами запросов
+     */
+    public static final String PARAM_RESULT_FORMAT = "file.result.format";
+    /**
+     * Имя параметра количества строк в группе строк колоночного формата
+     */
+    public static final String PARAM_COLUMNAR_ROWS = "file.result.columnar.rows";
+    /**
+     * Имя параметра количества строк в файле-части результата
+     */
+    public static final String PARAM_PART_ROWS = "file.result.part.rows";
+    /**
+     * Имя параметра объёма файла-части результата
+     */
+    public static final String PARAM_PART_BYTES = "file.result.part.bytes";
+    /**
+     * Имя параметра количества потоков записи файлов-частей
+     */
+    public static final String PARAM_PART_WRITERS = "file.result.part.writers";
+    /**
+     * Имя параметра порога вынесения значений LOB в отдельные файлы
+     */
+    public static final String PARAM_LOB_THRESHOLD = "file.result.lob.threshold";
+    /**
+     * Имя параметра распределения файлов с результатами по подкаталогам
+     */
+    public static final String PARAM_SHARDING = "file.result.sharding";
+    /**
+     * Имя параметра количества уровней подкаталогов
+     */
+    public static final String PARAM_SHARDING_LEVELS = "file.result.sharding.levels";
+    /**
+     * Имя параметра количества параллельных исполнителей запросов
+     */
+    public static final String PARAM_PARALLEL = "exec.parallel";
+    /**
+     * Имя параметра размера пакета обновляющих запросов
+     */
+    public static final String PARAM_BATCH_SIZE = "exec.batch.size";
+    /**
+     * Имя параметра количества пакетов между фиксациями транзакции
+     */
+    public static final String PARAM_BATCH_COMMIT = "exec.batch.commit";
+    /**
+     * Имя параметра размера порции строк. С суффиксом ".&lt;SQL-файл&gt;" - для отдельного SQL-файла
+     */
+    public static final String PARAM_FETCH_SIZE = "fetch.size";
+    /**
+     * Имя параметра адаптивного подбора размера порции строк
+     */
+    public static final String PARAM_FETCH_ADAPTIVE = "fetch.adaptive";
+    /**
+     * Имя параметра объёма данных за одно обращение к БД при адаптивном подборе
+     */
+    public static final String PARAM_FETCH_TARGET_BYTES = "fetch.target.bytes";
+    /**
+     * Имя параметра количества порций строк в очереди между чтением и записью результата
+     */
+    public static final String PARAM_PIPELINE_DEPTH = "fetch.pipeline.depth";
+    /**
+     * Имя параметра количества строк в порции очереди между чтением и записью результата
+     */
+    public static final String PARAM_PIPELINE_ROWS = "fetch.pipeline.rows";
+    /**
+     * Имя параметра количества потоков форматирования строк результата
+     */
+    public static final String PARAM_PIPELINE_FORMATTERS = "fetch.pipeline.formatters";
+    /**
+     * Имя параметра JDBC URL целевой БД для копирования результатов
+     */
+    public static final String PARAM_TARGET_URL = "target.url";
+    /**
+     * Имя параметра для логина целевой БД
+     */
+    public static final String PARAM_TARGET_LOGIN = "target.login";
+    /**
+     * Имя параметра для пароля целевой БД
+     */
+    public static final String PARAM_TARGET_PASSWORD = "target.password";
+    /**
+     * Имя параметра для драйвера JDBC целевой БД
+     */
+    public static final String PARAM_TARGET_DRIVER = "target.driver";
+    /**
+     * Имя параметра имени целевой таблицы
+     */
+    public static final String PARAM_TARGET_TABLE = "target.table";
+    /**
+     * Имя параметра создания отсутствующих целевых таблиц
+     */
+    public static final String PARAM_TARGET_TABLE_CREATE = "target.table.create";
+    /**
+     * Имя параметра записи ID подстановки в целевую таблицу
+     */
+    public static final String PARAM_TARGET_ROWID = "target.rowid";
+    /**
+     * Имя параметра количества строк в пакете вставки в целевую БД
+     */
+    public static final String PARAM_TARGET_BATCH_SIZE = "target.batch.size";
+    /**
+     * Имя параметра количества пакетов вставки между фиксациями транзакции
+     */
+    public static final String PARAM_TARGET_BATCH_COMMIT = "target.batch.commit";
+    /**
+     * Имя параметра количества потоков вставки в целевую БД
+     */
+    public static final String PARAM_TARGET_THREADS = "target.threads";
     /**
      * Кодировка по-умолчанию
      */
@@ -183,6 +441,38 @@ public class ConfigFileLoader {
             return false;
         }
 
+        // Профиль драйвера JDBC, если указан
+        String dialect = rawProperties.getProperty(PARAM_DIALECT);
+        if (dialect != null && !dialect.trim().isEmpty() && Dialect.fromName(dialect) == null) {
+            lastError = "Parameter \"" + PARAM_DIALECT + "\" in file " + configFilePath.toString()
+                    + " not valid: unknown dialect " + dialect;
+            return false;
+        }
+
+        // Сжатие файлов с результатами, если указано
+        String compression = rawProperties.getProperty(PARAM_COMPRESSION);
+        if (compression != null && !compression.trim().isEmpty() && Compression.fromName(compression) == null) {
+            lastError = "Parameter \"" + PARAM_COMPRESSION + "\" in file " + configFilePath.toString()
+                    + " not valid: unknown compression " + compression;
+            return false;
+        }
+
+        // Формат файлов с результатами, если указан
+        String format = rawProperties.getProperty(PARAM_RESULT_FORMAT);
+        if (format != null && !format.trim().isEmpty() && ResultFormat.fromName(format) == null) {
+            lastError = "Parameter \"" + PARAM_RESULT_FORMAT + "\" in file " + configFilePath.toString()
+                    + " not valid: unknown format " + format;
+            return false;
+        }
+
+        // Распределение по подкаталогам, если указано
+        String sharding = rawProperties.getProperty(PARAM_SHARDING);
+        if (sharding != null && !sharding.trim().isEmpty() && Sharding.fromName(sharding) == null) {
+            lastError = "Parameter \"" + PARAM_SHARDING + "\" in file " + configFilePath.toString()
+                    + " not valid: unknown sharding " + sharding;
+            return false;
+        }
+
         // Опциональный параметры. Они уже заданы по-умолчанию, но проверяем их валидность.
         // Это кодировки
         String[] encodingSettings = new String[]{
@@ -199,10 +489,101 @@ public class ConfigFileLoader {
                 return false;
             }
 
+        // Числовые параметры
+        for (String param : new String[]{PARAM_PARALLEL, PARAM_BATCH_SIZE, PARAM_BATCH_COMMIT,
+                PARAM_FETCH_SIZE, PARAM_FETCH_TARGET_BYTES, PARAM_PIPELINE_DEPTH, PARAM_PIPELINE_ROWS,
+                PARAM_PIPELINE_FORMATTERS, PARAM_COMPRESSION_THREADS, PARAM_COLUMNAR_ROWS,
+                PARAM_PART_ROWS, PARAM_PART_WRITERS, PARAM_LOB_THRESHOLD, PARAM_SHARDING_LEVELS,
+                PARAM_TARGET_BATCH_SIZE, PARAM_TARGET_BATCH_COMMIT, PARAM_TARGET_THREADS})
+            if (!validatePositiveInt(param))
+                return false;
+        if (getInt(PARAM_SHARDING_LEVELS, 1) > Sharding.MAX_LEVELS) {
+            lastError = "Parameter \"" + PARAM_SHARDING_LEVELS + "\" in file " + configFilePath.toString()
+                    + " must be not greater than " + Sharding.MAX_LEVELS;
+            return false;
+        }
+        if (!validatePositiveLong(PARAM_PART_BYTES))
+            return false;
+        for (String param : rawProperties.stringPropertyNames())
+            if (param.startsWith(PARAM_FETCH_SIZE + ".") && !validatePositiveInt(param))
+                return false;
+
         lastError = "";
         return true;
     }
 
+    /**
+     * Проверка, что опциональный числовой параметр, если он указан,
+     * является положительным целым числом.
+     *
+     * @param param имя параметра
+     * @return успех проверки. В случае неудачи устанавливается {@link #lastError}
+     */
+    private boolean validatePositiveInt(String param) {
+        String value = rawProperties.getProperty(param);
+        if (value == null)
+            return true;
+
+        try {
+            if (Integer.parseInt(value.trim()) > 0)
+                return true;
+        } catch (NumberFormatException ignore) {
+        }
+
+        lastError = "Parameter \"" + param + "\" in file " + configFilePath.toString()
+                + " must be a positive number: " + value;
+        return false;
+    }
+
+    /**
+     * Проверка, что опциональный числовой параметр, если он указан,
+     * является положительным целым числом, возможно больше {@link Integer#MAX_VALUE}.
+     *
+     * @param param имя параметра
+     * @return успех проверки. В случае неудачи устанавливается {@link #lastError}
+     */
+    private boolean validatePositiveLong(String param) {
+        String value = rawProperties.getProperty(param);
+        if (value == null)
+            return true;
+
+        try {
+            if (Long.parseLong(value.trim()) > 0)
+                return true;
+        } catch (NumberFormatException ignore) {
+        }
+
+        lastError = "Parameter \"" + param + "\" in file " + configFilePath.toString()
+                + " must be a positive number: " + value;
+        return false;
+    }
+
+    /**
+     * Получение опционального числового параметра.
+     * Предполагается, что параметр уже проверен {@link #validatePositiveInt(String)}.
+     *
+     * @param param        имя параметра
+     * @param defaultValue значение по-умолчанию
+     * @return значение параметра
+     */
+    private int getInt(String param, int defaultValue) {
+        String value = rawProperties.getProperty(param);
+        return value == null ? defaultValue : Integer.parseInt(value.trim());
+    }
+
+    /**
+     * Получение опционального числового параметра, возможно больше {@link Integer#MAX_VALUE}.
+     * Предполагается, что параметр уже проверен {@link #validatePositiveLong(String)}.
+     *
+     * @param param        имя параметра
+     * @param defaultValue значение по-умолчанию
+     * @return значение параметра
+     */
+    private long getLong(String param, long defaultValue) {
+        String value = rawProperties.getProperty(param);
+        return value == null ? defaultValue : Long.parseLong(value.trim());
+    }
+
     /**
      * Выполняет разбор файла конфигурации, преобразуя в готовые параметры.
      * Перед вызовом необходимо произвести валидацию с помощью {@link #validateConfigFile()}.
@@ -220,7 +601,7 @@ public class ConfigFileLoader {
         Charset resultsFileCharset = Charset.forName(rawProperties.getProperty(PARAM_RESULT_FILE_ENC, PARAM_DEFAULT_ENC));
         Charset substitutionsFileCharset = Charset.forName(rawProperties.getProperty(PARAM_SUBS_FILE_ENC, PARAM_DEFAULT_ENC));
 
-        return new ConfigFile(
+        ConfigFile config = new ConfigFile(
                 url,
                 login,
                 password,
@@ -229,6 +610,58 @@ public class ConfigFileLoader {
                 resultsFileCharset,
                 substitutionsFileCharset
         );
+
+        String dialect = rawProperties.getProperty(PARAM_DIALECT);
+        if (dialect != null && !dialect.trim().isEmpty())
+            config.setDialect(Dialect.fromName(dialect));
+
+        config.setParallelWorkers(getInt(PARAM_PARALLEL, 1));
+        config.setBatchSize(getInt(PARAM_BATCH_SIZE, 0));
+        config.setCommitBatches(getInt(PARAM_BATCH_COMMIT, 1));
+
+        config.setFetchSize(getInt(PARAM_FETCH_SIZE, 0));
+        for (String param : rawProperties.stringPropertyNames())
+            if (param.startsWith(PARAM_FETCH_SIZE + "."))
+                config.setFetchSize(param.substring(PARAM_FETCH_SIZE.length() + 1), getInt(param, 0));
+        config.setAdaptiveFetch(Boolean.parseBoolean(rawProperties.getProperty(PARAM_FETCH_ADAPTIVE, "false").trim()));
+        config.setFetchTargetBytes(getInt(PARAM_FETCH_TARGET_BYTES, FetchSizeController.DEFAULT_TARGET_BYTES));
+        config.setPipelineDepth(getInt(PARAM_PIPELINE_DEPTH, 0));
+        config.setPipelineRows(getInt(PARAM_PIPELINE_ROWS, 256));
+        config.setFormatThreads(getInt(PARAM_PIPELINE_FORMATTERS, 1));
+
+        String compression = rawProperties.getProperty(PARAM_COMPRESSION);
+        if (compression != null && !compression.trim().isEmpty())
+            config.setCompression(Compression.fromName(compression));
+        config.setCompressionThreads(getInt(PARAM_COMPRESSION_THREADS, 0));
+
+        String format = rawProperties.getProperty(PARAM_RESULT_FORMAT);
+        if (format != null && !format.trim().isEmpty())
+            config.setResultFormat(ResultFormat.fromName(format));
+        config.setColumnarRows(getInt(PARAM_COLUMNAR_ROWS, ColumnarWriter.DEFAULT_ROW_GROUP_ROWS));
+        config.setPartRows(getInt(PARAM_PART_ROWS, 0));
+        config.setPartBytes(getLong(PARAM_PART_BYTES, 0));
+        config.setPartWriters(getInt(PARAM_PART_WRITERS, 1));
+        config.setLobThreshold(getInt(PARAM_LOB_THRESHOLD, 0));
+
+        String sharding = rawProperties.getProperty(PARAM_SHARDING);
+        if (sharding != null && !sharding.trim().isEmpty())
+            config.setSharding(Sharding.fromName(sharding));
+        config.setShardingLevels(getInt(PARAM_SHARDING_LEVELS, 2));
+
+        config.setTargetUrl(rawProperties.getProperty(PARAM_TARGET_URL, "").trim());
+        config.setTargetLogin(rawProperties.getProperty(PARAM_TARGET_LOGIN, ""));
+        config.setTargetPassword(rawProperties.getProperty(PARAM_TARGET_PASSWORD, ""));
+        config.setTargetDriver(rawProperties.getProperty(PARAM_TARGET_DRIVER, "").trim());
+        String table = rawProperties.getProperty(PARAM_TARGET_TABLE);
+        if (table != null && !table.trim().isEmpty())
+            config.setTargetTable(table.trim());
+        config.setTargetCreateTable(Boolean.parseBoolean(rawProperties.getProperty(PARAM_TARGET_TABLE_CREATE, "false").trim()));
+        config.setTargetRowId(Boolean.parseBoolean(rawProperties.getProperty(PARAM_TARGET_ROWID, "false").trim()));
+        config.setTargetBatchSize(getInt(PARAM_TARGET_BATCH_SIZE, 1000));
+        config.setTargetCommitBatches(getInt(PARAM_TARGET_BATCH_COMMIT, 1));
+        config.setTargetThreads(getInt(PARAM_TARGET_THREADS, 1));
+
+        return config;
     }
 
     /**
@@ -0,0 +1,164 @@
+package com.github.butterbrother.thytom;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Общие файлы результатов: один файл на SQL-файл вместо отдельного файла на каждую подстановку.
+ * См. {@link CLIOptions#needConsolidateResults()}.
+ * <p>
+ * Файл SQL-файла создаётся при первом результате и остаётся открытым до закрытия
+ * {@link ConsolidatedResults}. Первый столбец каждой строки - ID подстановки
+ * ({@link ResultSaver#ROW_ID_LABEL}), заголовок таблицы записывается однократно.
+ * <p>
+ * Может использоваться одновременно из нескольких исполнителей: каждый исполнитель
+ * читает строки в собственную порцию ({@link Appender}), а в файл порции записываются
+ * целиком под блокировкой файла. Поэтому строки разных подстановок могут чередоваться
+ * порциями, а строки одной подстановки внутри порции идут подряд и по порядку.
+ */
+public class ConsolidatedResults implements Closeable, AutoCloseable {
+    private final CLIOptions cli;
+    private final ConfigFile config;
+    private final Map<String, ResultSaver> savers = new LinkedHashMap<>();
+
+    /**
+     * Инициализация. Файлы не создаются до первого результата.
+     *
+     * @param cli    Параметры командной строки
+     * @param config Параметры из файла конфигурации
+     */
+    public ConsolidatedResults(CLIOptions cli, ConfigFile config) {
+        this.cli = cli;
+        this.config = config;
+    }
+
+    /**
+     * Сохранение результата запроса в общий файл SQL-файла, с ID подстановки задания.
+     *
+     * @param task    Задание, к которому относится результат
+     * @param results Результат запроса. ResultSet не закрывается данным методом
+     * @throws SQLException Ошибка получения данных
+     * @throws IOException  Ошибка ввода-вывода при сохранении файла
+     */
+    public void saveResults(QueryTask task, ResultSet results) throws SQLException, IOException {
+        Appender appender = open(task.getSqlFileName(), results.getMetaData());
+        FetchSizeController fetchSize = new FetchSizeController(config, task.getSqlFileName());
+
+        fetchSize.start(results);
+        while (fetchSize.next(results))
+            fetchSize.rowWritten(appender.add(task.getRowID(), results));
+        appender.flush();
+        fetchSize.finish();
+    }
+
+    /**
+     * Получение общего файла SQL-файла для записи строк результата.
+     * При первом обращении файл создаётся, и в него записывается заголовок таблицы.
+     *
+     * @param sqlFileName Имя SQL-файла
+     * @param metaData    Метаданные результата запроса
+     * @return порция строк для записи в файл. Не разделяется между потоками
+     * @throws SQLException Ошибка получения метаданных, либо количество столбцов
+     *                      отличается от ранее записанных в файл результатов
+     * @throws IOException  Ошибка создания файла
+     */
+    public Appender open(String sqlFileName, ResultSetMetaData metaData) throws SQLException, IOException {
+        ResultSaver saver;
+        synchronized (savers) {
+            saver = savers.get(sqlFileName);
+            if (saver == null) {
+                saver = new ResultSaver(cli, config, sqlFileName, null);
+                saver.open(metaData);
+                savers.put(sqlFileName, saver);
+            }
+        }
+
+        if (metaData.getColumnCount() != saver.getColumnsCount())
+            throw new SQLException("Result of " + sqlFileName + " has " + metaData.getColumnCount()
+                    + " columns, but " + saver.getColumnsCount() + " columns already saved into "
+                    + saver.getFileName().getFileName());
+
+        return new Appender(saver, config.getPipelineRows());
+    }
+
+    /**
+     * Закрытие всех общих файлов.
+     *
+     * @throws IOException Ошибка закрытия одного из файлов. Остальные файлы закрываются в любом случае
+     */
+    @Override
+    public void close() throws IOException {
+        IOException closeError = null;
+        synchronized (savers) {
+            for (ResultSaver saver : savers.values()) {
+                try {
+                    saver.close();
+                } catch (IOException e) {
+                    closeError = e;
+                }
+            }
+            savers.clear();
+        }
+        if (closeError != null)
+            throw closeError;
+    }
+
+    /**
+     * Порция строк для записи в общий файл SQL-файла.
+     * Заполняется одним потоком, в файл записывается целиком.
+     */
+    public static class Appender {
+        private final ResultSaver saver;
+        private final RowBatch batch;
+        private final String[] rowIDs;
+
+        private Appender(ResultSaver saver, int rows) {
+            this.saver = saver;
+            rows = Math.max(1, rows);
+            this.batch = new RowBatch(rows, saver.getColumnsCount());
+            this.rowIDs = new String[rows];
+        }
+
+        /**
+         * Чтение текущей строки результата в порцию.
+         * Заполненная порция записывается в файл.
+         *
+         * @param rowID   ID подстановки, к которой относится строка
+         * @param results Результат запроса, установленный на читаемую строку
+         * @return Количество символов данных в строке
+         * @throws SQLException Ошибка получения данных
+         * @throws IOException  Ошибка ввода-вывода при сохранении файла
+         */
+        public int add(String rowID, ResultSet results) throws SQLException, IOException {
+            int row = batch.addRow();
+            rowIDs[row] = rowID;
+            int rowChars = saver.readRow(results, batch.getRow(row), batch.getNumbers(row));
+
+            if (batch.isFull())
+                flush();
+
+            return rowChars;
+        }
+
+        /**
+         * Запись прочитанных строк в файл
+         *
+         * @throws IOException Ошибка ввода-вывода при сохранении файла
+         */
+        public void flush() throws IOException {
+            if (batch.size() == 0)
+                return;
+
+            synchronized (saver) {
+                for (int i = 0; i < batch.size(); i++)
+                    saver.writeCells(rowIDs[i], batch.getRow(i), batch.getNumbers(i));
+            }
+            batch.clear();
+        }
+    }
+}
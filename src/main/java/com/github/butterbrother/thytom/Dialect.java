@@ -0,0 +1,174 @@
+package com.github.butterbrother.thytom;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Профили работы с драйверами JDBC различных БД.
+ * <p>
+ * Каждый профиль описывает, как открыть однонаправленный курсор только для чтения,
+ * чтобы драйвер передавал результат запроса порциями, а не загружал весь результат
+ * в память целиком: размер порции (fetch size), необходимость отключения
+ * автоматической фиксации транзакций и удержание курсора при фиксации.
+ * <p>
+ * Профиль выбирается параметром db.dialect в файле конфигурации, либо
+ * определяется по префиксу JDBC URL, см. {@link #fromUrl(String)}.
+ */
+public enum Dialect {
+    /**
+     * Oracle. Драйвер по-умолчанию передаёт по 10 строк за обращение.
+     * Поддерживает только удержание курсоров при фиксации.
+     */
+    ORACLE("jdbc:oracle:", 500, false, ResultSet.HOLD_CURSORS_OVER_COMMIT, true),
+    /**
+     * PostgreSQL. Без отключения автоматической фиксации и без fetch size
+     * драйвер загружает результат целиком. Удерживаемые курсоры так же материализуются.
+     */
+    POSTGRESQL("jdbc:postgresql:", 1000, true, ResultSet.CLOSE_CURSORS_AT_COMMIT, true),
+    /**
+     * MySQL. Потоковая передача строк включается только fetch size, равным Integer.MIN_VALUE.
+     */
+    MYSQL("jdbc:mysql:", Integer.MIN_VALUE, false, 0, true),
+    /**
+     * MariaDB. Драйвер совместим с MySQL в части потоковой передачи.
+     */
+    MARIADB("jdbc:mariadb:", Integer.MIN_VALUE, false, 0, true),
+    /**
+     * Microsoft SQL Server.
+     */
+    SQLSERVER("jdbc:sqlserver:", 1000, false, 0, true),
+    /**
+     * SQLite. Драйвер всегда читает результат построчно.
+     * Тип столбца не ограничивает тип значения, поэтому значения всегда читаются как текст.
+     */
+    SQLITE("jdbc:sqlite:", 0, false, 0, false),
+    /**
+     * Прочие БД. Используется только однонаправленный курсор только для чтения.
+     */
+    GENERIC("", 0, false, 0, true);
+
+    private final String urlPrefix;
+    private final int fetchSize;
+    private final boolean manualCommit;
+    private final int holdability;
+    private final boolean strictColumnTypes;
+
+    /**
+     * Инициализация профиля.
+     *
+     * @param urlPrefix    префикс JDBC URL
+     * @param fetchSize    размер порции строк. 0 - значение драйвера по-умолчанию
+     * @param manualCommit потоковая передача требует отключения автоматической фиксации транзакций
+     * @param holdability  удержание курсора при фиксации. 0 - значение драйвера по-умолчанию
+     * @param strictColumnTypes значения столбца всегда соответствуют его типу из метаданных
+     */
+    Dialect(String urlPrefix, int fetchSize, boolean manualCommit, int holdability, boolean strictColumnTypes) {
+        this.urlPrefix = urlPrefix;
+        this.fetchSize = fetchSize;
+        this.manualCommit = manualCommit;
+        this.holdability = holdability;
+        this.strictColumnTypes = strictColumnTypes;
+    }
+
+    /**
+     * Определение профиля по JDBC URL
+     *
+     * @param url JDBC URL. Может быть null.
+     * @return профиль. Если БД не опознана - {@link #GENERIC}
+     */
+    public static Dialect fromUrl(String url) {
+        if (url != null) {
+            String lowerUrl = url.trim().toLowerCase();
+            for (Dialect dialect : values()) {
+                if (!dialect.urlPrefix.isEmpty() && lowerUrl.startsWith(dialect.urlPrefix))
+                    return dialect;
+            }
+            if (lowerUrl.startsWith("jdbc:jtds:sqlserver:"))
+                return SQLSERVER;
+        }
+
+        return GENERIC;
+    }
+
+    /**
+     * Получение профиля по имени из файла конфигурации
+     *
+     * @param name имя профиля, без учёта регистра
+     * @return профиль, либо null, если профиль с таким именем не существует
+     */
+    public static Dialect fromName(String name) {
+        for (Dialect dialect : values()) {
+            if (dialect.name().equalsIgnoreCase(name.trim()))
+                return dialect;
+        }
+
+        return null;
+    }
+
+    /**
+     * Необходимость отключения автоматической фиксации транзакций для потоковой передачи
+     *
+     * @return true - транзакции необходимо фиксировать вручную
+     */
+    public boolean needManualCommit() {
+        return manualCommit;
+    }
+
+    /**
+     * Значения столбца всегда соответствуют его типу из метаданных.
+     * Только в этом случае числовые столбцы читаются без преобразования в текст,
+     * см. {@link ResultSaver#readRow(ResultSet, String[], long[])}.
+     *
+     * @return true - типы столбцов строгие
+     */
+    public boolean hasStrictColumnTypes() {
+        return strictColumnTypes;
+    }
+
+    /**
+     * Размер порции строк, передаваемых драйвером за одно обращение к БД
+     *
+     * @return размер порции. 0 - значение драйвера по-умолчанию
+     */
+    public int getFetchSize() {
+        return fetchSize;
+    }
+
+    /**
+     * Создание запроса с однонаправленным курсором только для чтения
+     *
+     * @param connection подключение к БД
+     * @return запрос
+     * @throws SQLException ошибка создания запроса
+     */
+    public Statement createStatement(Connection connection) throws SQLException {
+        Statement statement = holdability != 0
+                ? connection.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY, holdability)
+                : connection.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+        if (fetchSize != 0)
+            statement.setFetchSize(fetchSize);
+
+        return statement;
+    }
+
+    /**
+     * Подготовка запроса с параметрами JDBC с однонаправленным курсором только для чтения
+     *
+     * @param connection подключение к БД
+     * @param sqlQuery   SQL-запрос с маркерами параметров
+     * @return подготовленный запрос
+     * @throws SQLException ошибка подготовки запроса
+     */
+    public PreparedStatement prepareStatement(Connection connection, String sqlQuery) throws SQLException {
+        PreparedStatement statement = holdability != 0
+                ? connection.prepareStatement(sqlQuery, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY, holdability)
+                : connection.prepareStatement(sqlQuery, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+        if (fetchSize != 0)
+            statement.setFetchSize(fetchSize);
+
+        return statement;
+    }
+}
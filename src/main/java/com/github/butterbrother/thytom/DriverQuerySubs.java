@@ -0,0 +1,242 @@
+package com.github.butterbrother.thytom;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Подстановки из результата ведущего SQL-файла (-D/--driver-sql).
+ * <p>
+ * Ведущий запрос исполняется через собственное подключение к БД, строки его результата
+ * получаются в отдельном потоке и по частям ({@link SubsTable}) передаются в обход подстановок.
+ * Поэтому запросы остальных SQL-файлов исполняются, как только получены первые строки, без
+ * промежуточного файла подстановок. Первые части малы (1, 2, 4... строк) и растут
+ * до {@link #MAX_CHUNK_ROWS}.
+ * <p>
+ * Метки столбцов результата служат собственными шаблонами: {МЕТКА}. NULL подставляется пустой
+ * строкой. Все полученные строки сохраняются, и следующие SQL-файлы обходят их повторно
+ * ({@link #rewind()}), не исполняя ведущий запрос заново. ID подстановки - номер строки результата
+ * и значение первого столбца, как и для файла подстановок.
+ */
+public class DriverQuerySubs implements Substitutions, Closeable {
+    /**
+     * Наибольший размер части результата
+     */
+    public static final int MAX_CHUNK_ROWS = 4096;
+
+    private final String sqlFileName;
+    private final String[] templates;
+    private final QueriesExecutor executor;
+    private final ResultSet resultSet;
+    private final Thread fetcher;
+
+    // Полученные части результата. Доступ - под блокировкой this
+    private final List<SubsTable> chunks = new ArrayList<>();
+    private boolean finished = false;
+    private boolean closed = false;
+    private SQLException error = null;
+    private long fetchedRows = 0;
+
+    // Текущий обход
+    private int chunk = 0;
+    private long chunkFirstRow = 0;
+    private SubsTable table = null;
+    private SubsTable.Cursor cursor = null;
+
+    /**
+     * Подключение к БД, исполнение ведущего запроса и запуск получения его результата.
+     *
+     * @param cli     параметры, переданные из командной строки
+     * @param config  параметры, считанные из файла настроек
+     * @param sqlFile ведущий SQL-файл
+     * @throws SQLException ошибка подключения либо исполнения запроса, запрос не возвращает результата
+     * @throws IOException  ошибка считывания запроса из файла
+     */
+    public DriverQuerySubs(CLIOptions cli, ConfigFile config, SQLFile sqlFile) throws SQLException, IOException {
+        this.sqlFileName = sqlFile.getFileName();
+        String query = sqlFile.getQuery(null);
+
+        executor = new QueriesExecutor(cli, config);
+        try {
+            resultSet = executor.execute(query);
+            if (resultSet == null)
+                throw new SQLException("Driver sql file " + sqlFileName + " doesn't return results");
+            int fetchSize = config.getFetchSize(sqlFileName);
+            if (fetchSize > 0)
+                resultSet.setFetchSize(fetchSize);
+
+            ResultSetMetaData metaData = resultSet.getMetaData();
+            templates = new String[metaData.getColumnCount()];
+            for (int i = 0; i < templates.length; i++)
+                templates[i] = "{" + metaData.getColumnLabel(i + 1) + "}";
+        } catch (SQLException e) {
+            executor.close();
+            throw e;
+        }
+
+        fetcher = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                fetch();
+            }
+        }, "driver-sql");
+        fetcher.setDaemon(true);
+        fetcher.start();
+    }
+
+    /**
+     * Шаблоны подстановок
+     *
+     * @return шаблоны из меток столбцов результата ведущего запроса
+     */
+    public String[] getTemplates() {
+        return templates.clone();
+    }
+
+    /**
+     * Получение результата ведущего запроса по частям. Исполняется в отдельном потоке,
+     * по окончании закрывает подключение к БД.
+     */
+    private void fetch() {
+        int chunkRows = 1;
+        SubsTable.Builder builder = new SubsTable.Builder(templates);
+        int rows = 0;
+        try {
+            while (!isClosed() && resultSet.next()) {
+                for (int i = 1; i <= templates.length; i++) {
+                    String value = resultSet.getString(i);
+                    if (value == null)
+                        value = "";
+                    builder.value(value, 0, value.length());
+                }
+                builder.endRow();
+
+                if (++rows >= chunkRows) {
+                    publish(builder.build(), rows);
+                    builder = new SubsTable.Builder(templates);
+                    rows = 0;
+                    chunkRows = Math.min(chunkRows * 2, MAX_CHUNK_ROWS);
+                }
+            }
+            if (rows > 0)
+                publish(builder.build(), rows);
+        } catch (SQLException e) {
+            synchronized (this) {
+                error = e;
+            }
+        } finally {
+            executor.close();
+            synchronized (this) {
+                finished = true;
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Передача полученной части результата в обход подстановок
+     *
+     * @param part часть результата
+     * @param rows количество строк в части
+     */
+    private synchronized void publish(SubsTable part, int rows) {
+        chunks.add(part);
+        fetchedRows += rows;
+        notifyAll();
+    }
+
+    private synchronized boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Часть результата, с ожиданием её получения
+     *
+     * @param index номер части
+     * @return часть результата, либо null, если результат закончился
+     * @throws IOException ошибка получения результата, ожидание прервано
+     */
+    private synchronized SubsTable getChunk(int index) throws IOException {
+        while (index >= chunks.size() && !finished)
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Waiting for driver sql file " + sqlFileName + " is interrupted");
+            }
+
+        if (index < chunks.size())
+            return chunks.get(index);
+        if (error != null)
+            throw new IOException("Unable to fetch results of driver sql file " + sqlFileName
+                    + ": " + error.getMessage(), error);
+        return null;
+    }
+
+    /**
+     * Количество полученных строк результата ведущего запроса
+     *
+     * @return количество строк
+     */
+    public synchronized long getFetchedRows() {
+        return fetchedRows;
+    }
+
+    /**
+     * Извлечение следующей подстановки, с ожиданием получения строки результата.
+     *
+     * @return курсор по текущей части результата, действительный до следующего вызова.
+     * null - результат ведущего запроса закончился
+     * @throws IOException ошибка получения результата
+     */
+    @Override
+    public Map<String, String> next() throws IOException {
+        while (cursor == null || !cursor.next()) {
+            if (cursor != null) {
+                chunkFirstRow += table.size();
+                chunk++;
+                cursor = null;
+            }
+            table = getChunk(chunk);
+            if (table == null)
+                return null;
+            cursor = table.cursor();
+        }
+        return cursor;
+    }
+
+    @Override
+    public String getRowID() {
+        return cursor != null ? cursor.getRowID(chunkFirstRow) : Long.toString(chunkFirstRow + 1) + '_';
+    }
+
+    @Override
+    public void rewind() {
+        chunk = 0;
+        chunkFirstRow = 0;
+        table = null;
+        cursor = null;
+    }
+
+    /**
+     * Прекращение получения результата ведущего запроса, если оно ещё идёт.
+     * Подключение к БД закрывается потоком получения результата.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            closed = true;
+        }
+        try {
+            fetcher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,266 @@
+package com.github.butterbrother.thytom;
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+
+/**
+ * Управление размером порции строк (fetch size), передаваемых драйвером за одно обращение к БД.
+ * <p>
+ * Размер порции может быть жёстко задан в файле конфигурации для всех SQL-файлов
+ * ({@link ConfigFileLoader#PARAM_FETCH_SIZE}) либо для отдельного SQL-файла
+ * (тот же параметр с суффиксом из имени SQL-файла, например fetch.size.report.sql).
+ * <p>
+ * В адаптивном режиме ({@link ConfigFileLoader#PARAM_FETCH_ADAPTIVE}) начальный размер порции
+ * рассчитывается из оценки ширины строки по {@link ResultSetMetaData}, так, чтобы за одно
+ * обращение передавалось около {@link ConfigFileLoader#PARAM_FETCH_TARGET_BYTES} байт.
+ * В процессе чтения ширина строки уточняется по фактически записанным данным,
+ * замеряется время обращений к БД, и размер порции корректируется.
+ * Выбранные значения выводятся по окончании чтения, чтобы их можно было
+ * закрепить для SQL-файла в файле конфигурации.
+ * <p>
+ * Профили с потоковой передачей без порций (например, MySQL) не изменяются: ни адаптивным
+ * режимом, ни закреплённым размером порции, т.к. любой положительный размер порции
+ * отключает потоковую передачу, и драйвер загружает в память весь результат.
+ */
+public class FetchSizeController {
+    /**
+     * Объём данных за одно обращение к БД по-умолчанию
+     */
+    public static final int DEFAULT_TARGET_BYTES = 256 * 1024;
+
+    private static final int MIN_FETCH_SIZE = 10;
+    private static final int MAX_FETCH_SIZE = 50000;
+    /**
+     * Предельное время одного обращения к БД. Если обращения дольше, порция уменьшается,
+     * чтобы не простаивала запись результата.
+     */
+    private static final long MAX_ROUND_TRIP_NANOS = 2000000000L;
+
+    private final String sqlFileName;
+    private final int pinnedFetchSize;
+    private final boolean adaptive;
+    private final int targetBytes;
+
+    private ResultSet results = null;
+    private int fetchSize = 0;
+    private int initialFetchSize = 0;
+    private int estimatedRowWidth = 0;
+
+    // Текущее окно замера: строки, полученные за предполагаемое одно обращение к БД
+    private int windowRows = 0;
+    private long windowChars = 0;
+    private long windowNanos = 0;
+
+    // Общая статистика
+    private long totalRows = 0;
+    private long totalChars = 0;
+    private long roundTrips = 0;
+    private long roundTripNanos = 0;
+    private int adjustments = 0;
+
+    /**
+     * Инициализация.
+     *
+     * @param config      Параметры из файла конфигурации
+     * @param sqlFileName Имя SQL-файла, результат которого читается
+     */
+    public FetchSizeController(ConfigFile config, String sqlFileName) {
+        boolean streaming = config.getDialect().getFetchSize() < 0;
+        this.sqlFileName = sqlFileName;
+        this.pinnedFetchSize = streaming ? 0 : config.getFetchSize(sqlFileName);
+        this.adaptive = !streaming
+                && config.getFetchSize(sqlFileName) == 0
+                && config.isAdaptiveFetch();
+        this.targetBytes = config.getFetchTargetBytes();
+    }
+
+    /**
+     * Начало чтения результата запроса. Устанавливает начальный размер порции.
+     *
+     * @param results Результат запроса
+     * @throws SQLException Ошибка получения метаданных
+     */
+    public void start(ResultSet results) throws SQLException {
+        this.results = results;
+
+        if (pinnedFetchSize > 0) {
+            setFetchSize(pinnedFetchSize);
+        } else if (adaptive) {
+            estimatedRowWidth = estimateRowWidth(results.getMetaData());
+            initialFetchSize = clamp(targetBytes / estimatedRowWidth);
+            setFetchSize(initialFetchSize);
+        }
+    }
+
+    /**
+     * Переход к следующей строке результата, с замером времени в адаптивном режиме.
+     * Используется вместо {@link ResultSet#next()}.
+     *
+     * @param results Результат запроса
+     * @return есть следующая строка
+     * @throws SQLException Ошибка получения данных
+     */
+    public boolean next(ResultSet results) throws SQLException {
+        if (!adaptive)
+            return results.next();
+
+        long begin = System.nanoTime();
+        boolean hasNext = results.next();
+        windowNanos += System.nanoTime() - begin;
+
+        return hasNext;
+    }
+
+    /**
+     * Учёт записанной строки. По окончании окна замера размер порции корректируется.
+     *
+     * @param rowChars Количество символов в записанной строке
+     */
+    public void rowWritten(int rowChars) {
+        if (!adaptive)
+            return;
+
+        windowRows++;
+        windowChars += rowChars;
+        totalRows++;
+        totalChars += rowChars;
+
+        if (windowRows >= fetchSize)
+            adjust();
+    }
+
+    /**
+     * Окончание чтения результата. В адаптивном режиме выводит выбранный размер порции.
+     */
+    public void finish() {
+        if (!adaptive || totalRows == 0)
+            return;
+
+        System.err.println("Fetch size for " + sqlFileName + ": initial " + initialFetchSize
+                + ", final " + fetchSize + " rows (" + adjustments + " adjustments), "
+                + "estimated row " + estimatedRowWidth + " bytes, measured " + (totalChars / totalRows)
+                + ", average round-trip " + (roundTrips > 0 ? roundTripNanos / roundTrips / 1000000 : 0) + " ms. "
+                + "Pin it with " + ConfigFileLoader.PARAM_FETCH_SIZE + "." + sqlFileName + "=" + fetchSize);
+    }
+
+    /**
+     * Корректировка размера порции по результатам окна замера.
+     */
+    private void adjust() {
+        roundTrips++;
+        roundTripNanos += windowNanos;
+
+        int measuredWidth = (int) Math.max(1, windowChars / windowRows);
+        int newFetchSize = clamp(targetBytes / measuredWidth);
+
+        // Обращения к БД слишком долгие - уменьшаем порцию, даже если объём не достигнут
+        if (windowNanos > MAX_ROUND_TRIP_NANOS && newFetchSize >= fetchSize)
+            newFetchSize = clamp(fetchSize / 2);
+
+        // Незначительные изменения не применяем
+        if (Math.abs(newFetchSize - fetchSize) * 5 > fetchSize) {
+            adjustments++;
+            setFetchSize(newFetchSize);
+        }
+
+        windowRows = 0;
+        windowChars = 0;
+        windowNanos = 0;
+    }
+
+    /**
+     * Установка размера порции. Размер порции - подсказка драйверу,
+     * поэтому ошибки её установки не прерывают чтение.
+     *
+     * @param size размер порции
+     */
+    private void setFetchSize(int size) {
+        try {
+            results.setFetchSize(size);
+            fetchSize = size;
+        } catch (SQLException ignore) {
+            adjustments = adjustments > 0 ? adjustments - 1 : 0;
+        }
+    }
+
+    /**
+     * Ограничение размера порции допустимыми пределами
+     *
+     * @param size рассчитанный размер
+     * @return размер в пределах
+     */
+    private static int clamp(int size) {
+        return Math.max(MIN_FETCH_SIZE, Math.min(MAX_FETCH_SIZE, size));
+    }
+
+    /**
+     * Оценка ширины строки результата в байтах по типам и точности столбцов
+     *
+     * @param metaData Метаданные результата
+     * @return оценка ширины строки
+     * @throws SQLException Ошибка получения метаданных
+     */
+    static int estimateRowWidth(ResultSetMetaData metaData) throws SQLException {
+        int width = 0;
+        for (int i = 1; i <= metaData.getColumnCount(); i++) {
+            int precision;
+            try {
+                precision = metaData.getPrecision(i);
+            } catch (SQLException | RuntimeException e) {
+                precision = 0;
+            }
+
+            switch (metaData.getColumnType(i)) {
+                case Types.BIT:
+                case Types.BOOLEAN:
+                case Types.TINYINT:
+                    width += 1;
+                    break;
+                case Types.SMALLINT:
+                    width += 2;
+                    break;
+                case Types.INTEGER:
+                case Types.REAL:
+                    width += 4;
+                    break;
+                case Types.BIGINT:
+                case Types.FLOAT:
+                case Types.DOUBLE:
+                    width += 8;
+                    break;
+                case Types.NUMERIC:
+                case Types.DECIMAL:
+                    width += precision > 0 && precision < 40 ? precision / 2 + 2 : 22;
+                    break;
+                case Types.DATE:
+                case Types.TIME:
+                    width += 7;
+                    break;
+                case Types.TIMESTAMP:
+                    width += 11;
+                    break;
+                case Types.CHAR:
+                case Types.NCHAR:
+                case Types.VARCHAR:
+                case Types.NVARCHAR:
+                    // В среднем строковые столбцы заполнены не полностью
+                    width += precision > 0 ? Math.min(precision, 4000) / 2 + 1 : 32;
+                    break;
+                case Types.LONGVARCHAR:
+                case Types.LONGNVARCHAR:
+                case Types.CLOB:
+                case Types.NCLOB:
+                case Types.BLOB:
+                case Types.LONGVARBINARY:
+                    width += 4000;
+                    break;
+                default:
+                    width += 16;
+            }
+        }
+
+        return Math.max(1, width);
+    }
+}
@@ -0,0 +1,164 @@
+package com.github.butterbrother.thytom;
+
+import java.io.IOException;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Запрос, объединяющий несколько подстановок в один список IN (...).
+ * См. {@link CLIOptions#getInListSize()} и {@link SQLFile#getInListQuery(List, boolean)}.
+ * <p>
+ * Результат такого запроса распределяется по файлам исходных подстановок
+ * по значению столбца-ключа, см. {@link CLIOptions#getInListKey()}.
+ * В итоге получается тот же набор файлов, что и при исполнении запроса
+ * отдельно для каждой подстановки (с точностью до порядка строк в файле).
+ */
+public class InListTask extends QueryTask {
+    private List<String> values;
+    private List<String> rowIDs;
+    private boolean unquoted;
+
+    /**
+     * Инициализация.
+     *
+     * @param sqlFileName Имя SQL-файла. См. {@link SQLFile#getFileName()}
+     * @param query       Запрос со списком IN (...)
+     * @param bindValues  Значения параметров JDBC. null - запрос без параметров.
+     * @param values      Значения объединённых подстановок
+     * @param rowIDs      ID объединённых подстановок, по порядку значений
+     * @param unquoted    Значения подставлены без кавычек, литералами SQL, например 'SCOTT'.
+     *                    Тогда столбец-ключ сравнивается со значением литерала,
+     *                    см. {@link SQLFile#hasUnquotedInListCondition()}
+     */
+    public InListTask(String sqlFileName, String query, String[] bindValues,
+                      List<String> values, List<String> rowIDs, boolean unquoted) {
+        super(sqlFileName, query, bindValues, rowIDs.isEmpty() ? "" : rowIDs.get(0));
+        this.values = values;
+        this.rowIDs = rowIDs;
+        this.unquoted = unquoted;
+    }
+
+    /**
+     * ID объединённых подстановок
+     *
+     * @return список ID
+     */
+    public List<String> getRowIDs() {
+        return rowIDs;
+    }
+
+    /**
+     * Распределение результата запроса по файлам исходных подстановок.
+     * Файлы создаются для всех подстановок, в т.ч. и для тех, по которым
+     * нет строк в результате - так же, как и при отдельном исполнении запросов.
+     * <p>
+     * Файлы всех подстановок запроса открыты одновременно.
+     *
+     * @param cli     Параметры командной строки
+     * @param config  Параметры из файла конфигурации
+     * @param results Результат запроса
+     * @throws SQLException Ошибка получения данных, либо в результате нет столбца-ключа
+     * @throws IOException  Ошибка ввода-вывода при сохранении файлов
+     */
+    public void saveResults(CLIOptions cli, ConfigFile config, ResultSet results)
+            throws SQLException, IOException {
+        saveResults(cli, config, results, null);
+    }
+
+    /**
+     * Распределение результата запроса по исходным подстановкам.
+     * Если задан общий файл результатов SQL-файла, то каждая строка записывается в него
+     * с ID каждой подходящей подстановки, иначе - в файлы подстановок,
+     * см. {@link #saveResults(CLIOptions, ConfigFile, ResultSet)}.
+     *
+     * @param cli          Параметры командной строки
+     * @param config       Параметры из файла конфигурации
+     * @param results      Результат запроса
+     * @param consolidated Общие файлы результатов. null - отдельный файл для каждой подстановки
+     * @throws SQLException Ошибка получения данных, либо в результате нет столбца-ключа
+     * @throws IOException  Ошибка ввода-вывода при сохранении файлов
+     */
+    public void saveResults(CLIOptions cli, ConfigFile config, ResultSet results,
+                            ConsolidatedResults consolidated) throws SQLException, IOException {
+        ResultSetMetaData metaData = results.getMetaData();
+
+        int keyColumn = 0;
+        for (int i = 1; i <= metaData.getColumnCount(); i++) {
+            if (metaData.getColumnLabel(i).trim().equalsIgnoreCase(cli.getInListKey().trim())) {
+                keyColumn = i;
+                break;
+            }
+        }
+        if (keyColumn == 0)
+            throw new SQLException("Key column \"" + cli.getInListKey() + "\" not found in query result");
+
+        // Значение подстановки -> номера подстановок (значения в файле подстановок могут повторяться)
+        Map<String, List<Integer>> positions = new HashMap<>();
+        for (int i = 0; i < values.size(); i++) {
+            String key = unquoted ? SQLFile.toBindValue(values.get(i)) : values.get(i).trim();
+            List<Integer> list = positions.get(key);
+            if (list == null) {
+                list = new ArrayList<>(1);
+                positions.put(key, list);
+            }
+            list.add(i);
+        }
+
+        // Файлы создаются заранее, т.к. после окончания ResultSet его метаданные
+        // могут быть недоступны
+        ResultSaver[] savers = new ResultSaver[consolidated == null ? values.size() : 0];
+        ConsolidatedResults.Appender appender = null;
+        FetchSizeController fetchSize = new FetchSizeController(config, getSqlFileName());
+        long unmatched = 0;
+        try {
+            if (consolidated != null)
+                appender = consolidated.open(getSqlFileName(), metaData);
+            for (int i = 0; i < savers.length; i++) {
+                savers[i] = new ResultSaver(cli, config, getSqlFileName(), rowIDs.get(i));
+                savers[i].open(metaData);
+            }
+
+            fetchSize.start(results);
+            while (fetchSize.next(results)) {
+                String key = results.getString(keyColumn);
+                List<Integer> targets = key != null ? positions.get(key.trim()) : null;
+                if (targets == null) {
+                    unmatched++;
+                    fetchSize.rowWritten(key != null ? key.length() : 0);
+                    continue;
+                }
+
+                int rowChars = 0;
+                for (int target : targets)
+                    rowChars = appender != null
+                            ? appender.add(rowIDs.get(target), results)
+                            : savers[target].writeRow(results);
+                fetchSize.rowWritten(rowChars);
+            }
+            if (appender != null)
+                appender.flush();
+            fetchSize.finish();
+        } finally {
+            IOException closeError = null;
+            for (ResultSaver saver : savers) {
+                if (saver != null)
+                    try {
+                        saver.close();
+                    } catch (IOException e) {
+                        closeError = e;
+                    }
+            }
+            if (closeError != null)
+                throw closeError;
+        }
+
+        if (unmatched > 0)
+            System.err.println("Rows without matching substitution in "
+                    + getSqlFileName() + " [" + getRowID() + "...]: " + unmatched);
+    }
+}
@@ -0,0 +1,143 @@
+package com.github.butterbrother.thytom;
+
+/**
+ * Экранирование строк и проверка значений для формата JSON Lines, см. {@link ResultFormat#JSON}.
+ * <p>
+ * Большинство строк результата не содержит символов, требующих экранирования, поэтому строка
+ * вначале только просматривается ({@link #firstEscape(CharSequence)}) и записывается как есть,
+ * а экранированная копия создаётся лишь при необходимости.
+ */
+public final class JsonText {
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private JsonText() {
+    }
+
+    /**
+     * Поиск первого символа, требующего экранирования: кавычка, обратная косая черта,
+     * управляющие символы до U+001F.
+     *
+     * @param text строка
+     * @return индекс символа, либо -1 - строку можно записать как есть
+     */
+    public static int firstEscape(CharSequence text) {
+        int length = text.length();
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+            if (c < 0x20 || c == '"' || c == '\\')
+                return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Экранирование строки, без окружающих кавычек
+     *
+     * @param text   строка
+     * @param from   индекс первого символа, требующего экранирования, см. {@link #firstEscape(CharSequence)}.
+     *               Символы до него копируются как есть
+     * @param target буфер результата. Не очищается
+     */
+    public static void escape(CharSequence text, int from, StringBuilder target) {
+        target.append(text, 0, from);
+        int length = text.length();
+        for (int i = from; i < length; i++) {
+            char c = text.charAt(i);
+            switch (c) {
+                case '"':
+                    target.append("\\\"");
+                    break;
+                case '\\':
+                    target.append("\\\\");
+                    break;
+                case '\n':
+                    target.append("\\n");
+                    break;
+                case '\r':
+                    target.append("\\r");
+                    break;
+                case '\t':
+                    target.append("\\t");
+                    break;
+                case '\b':
+                    target.append("\\b");
+                    break;
+                case '\f':
+                    target.append("\\f");
+                    break;
+                default:
+                    if (c < 0x20)
+                        target.append("\\u00").append(HEX[c >> 4]).append(HEX[c & 0xF]);
+                    else
+                        target.append(c);
+            }
+        }
+    }
+
+    /**
+     * Экранирование строки, без окружающих кавычек
+     *
+     * @param text строка
+     * @return экранированная строка
+     */
+    public static String escape(String text) {
+        int from = firstEscape(text);
+        if (from < 0)
+            return text;
+
+        StringBuilder target = new StringBuilder(text.length() + 16);
+        escape(text, from, target);
+        return target.toString();
+    }
+
+    /**
+     * Проверка, что текст значения можно записать в JSON без кавычек: число по грамматике JSON
+     * (-?(0|[1-9][0-9]*)(.[0-9]+)?([eE][+-]?[0-9]+)?), либо true/false.
+     * Драйверы без строгих типов столбцов могут вернуть в числовом столбце произвольный текст,
+     * такой текст записывается строкой.
+     *
+     * @param text текст значения
+     * @return true - число либо логическое значение
+     */
+    public static boolean isLiteral(String text) {
+        int length = text.length();
+        if (length == 0)
+            return false;
+        if (text.equals("true") || text.equals("false"))
+            return true;
+
+        int i = 0;
+        if (text.charAt(i) == '-' && ++i == length)
+            return false;
+        if (text.charAt(i) == '0') {
+            i++;
+        } else {
+            int start = i;
+            while (i < length && isDigit(text.charAt(i)))
+                i++;
+            if (i == start)
+                return false;
+        }
+        if (i < length && text.charAt(i) == '.') {
+            int start = ++i;
+            while (i < length && isDigit(text.charAt(i)))
+                i++;
+            if (i == start)
+                return false;
+        }
+        if (i < length && (text.charAt(i) == 'e' || text.charAt(i) == 'E')) {
+            if (++i < length && (text.charAt(i) == '+' || text.charAt(i) == '-'))
+                i++;
+            int start = i;
+            while (i < length && isDigit(text.charAt(i)))
+                i++;
+            if (i == start)
+                return false;
+        }
+        return i == length;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+}
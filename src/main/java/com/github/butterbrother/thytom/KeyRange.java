@@ -0,0 +1,313 @@
+package com.github.butterbrother.thytom;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Диапазон значений ключа для деления одного запроса на части (-R/--ranges, -K/--range-key).
+ * <p>
+ * SQL-файл с шаблонами {@link #RANGE_LO} и {@link #RANGE_HI} исполняется отдельно для каждой
+ * части диапазона, например <tt>where id &gt;= {RANGE_LO} and id &lt; {RANGE_HI}</tt>.
+ * Части полуоткрытые: [RANGE_LO, RANGE_HI). Верхняя граница последней части больше наибольшего
+ * значения ключа на единицу его точности: на 1 для целых, на единицу последнего знака для десятичных,
+ * на сутки для дат и на миллисекунду для даты и времени.
+ * <p>
+ * Ключ - число либо дата. Даты подставляются текстом yyyy-MM-dd, дата и время -
+ * yyyy-MM-dd HH:mm:ss.SSS, без кавычек и преобразования в тип БД, например
+ * <tt>where created &gt;= timestamp '{RANGE_LO}'</tt>. Время не переводится между часовыми поясами.
+ */
+public class KeyRange {
+    /**
+     * Шаблон нижней границы части, включительно
+     */
+    public static final String RANGE_LO = "{RANGE_LO}";
+    /**
+     * Шаблон верхней границы части, не включительно
+     */
+    public static final String RANGE_HI = "{RANGE_HI}";
+    /**
+     * Разделитель границ диапазона, заданного явно: lo..hi
+     */
+    public static final String BOUNDS_DELIMITER = "..";
+
+    private static final Pattern DATE = Pattern.compile(
+            "(\\d{4})-(\\d{1,2})-(\\d{1,2})(?:[ T](\\d{1,2}):(\\d{2})(?::(\\d{2})(?:\\.(\\d{1,9}))?)?)?");
+    private static final long DAY_MILLIS = 24L * 60 * 60 * 1000;
+
+    /**
+     * Тип ключа
+     */
+    enum Kind {
+        NUMBER, DATE, TIMESTAMP
+    }
+
+    private final Kind kind;
+    // Число, либо количество дней (DATE) или миллисекунд (TIMESTAMP) от 1970-01-01
+    private final BigDecimal lo;
+    private final BigDecimal hi;
+
+    /**
+     * Инициализация.
+     *
+     * @param kind тип ключа
+     * @param lo   наименьшее значение ключа
+     * @param hi   наибольшее значение ключа
+     */
+    KeyRange(Kind kind, BigDecimal lo, BigDecimal hi) {
+        this.kind = kind;
+        this.lo = lo.min(hi);
+        this.hi = lo.max(hi);
+    }
+
+    /**
+     * Тип ключа
+     *
+     * @return тип
+     */
+    Kind getKind() {
+        return kind;
+    }
+
+    /**
+     * Разбор явно заданного диапазона: lo..hi, числа либо даты.
+     *
+     * @param text диапазон
+     * @return диапазон, либо null, если текст не является диапазоном
+     */
+    public static KeyRange parse(String text) {
+        int delimiter = text.indexOf(BOUNDS_DELIMITER);
+        if (delimiter < 0)
+            return null;
+        return of(text.substring(0, delimiter).trim(), text.substring(delimiter + BOUNDS_DELIMITER.length()).trim());
+    }
+
+    /**
+     * Диапазон из наименьшего и наибольшего значений
+     *
+     * @param lo наименьшее значение, текстом
+     * @param hi наибольшее значение, текстом
+     * @return диапазон, либо null, если значения не числа и не даты
+     */
+    static KeyRange of(String lo, String hi) {
+        BigDecimal loNumber = parseNumber(lo);
+        BigDecimal hiNumber = parseNumber(hi);
+        if (loNumber != null && hiNumber != null)
+            return new KeyRange(Kind.NUMBER, loNumber, hiNumber);
+
+        Matcher loDate = DATE.matcher(lo);
+        Matcher hiDate = DATE.matcher(hi);
+        if (!loDate.matches() || !hiDate.matches())
+            return null;
+        boolean timestamp = loDate.group(4) != null || hiDate.group(4) != null;
+        try {
+            return new KeyRange(timestamp ? Kind.TIMESTAMP : Kind.DATE,
+                    BigDecimal.valueOf(toUnits(loDate, timestamp)), BigDecimal.valueOf(toUnits(hiDate, timestamp)));
+        } catch (IllegalArgumentException invalidDate) {
+            return null;
+        }
+    }
+
+    /**
+     * Определение диапазона по наименьшему и наибольшему значениям столбца таблицы.
+     *
+     * @param executor исполнитель запросов
+     * @param key      таблица и столбец: table.column. Таблица может содержать схему
+     * @return диапазон
+     * @throws SQLException ошибка исполнения запроса, таблица пуста либо значения не числа и не даты
+     */
+    public static KeyRange fromDatabase(QueriesExecutor executor, String key) throws SQLException {
+        int dot = key.lastIndexOf('.');
+        if (dot <= 0 || dot == key.length() - 1)
+            throw new SQLException("Range key must be table.column or lo" + BOUNDS_DELIMITER + "hi: " + key);
+        String table = key.substring(0, dot);
+        String column = key.substring(dot + 1);
+
+        ResultSet results = executor.execute("select min(" + column + "), max(" + column + ") from " + table);
+        if (results == null || !results.next())
+            throw new SQLException("No bounds of " + key + " are returned");
+        String lo = toText(results.getObject(1));
+        String hi = toText(results.getObject(2));
+        if (lo == null || hi == null)
+            throw new SQLException("Table " + table + " has no values of " + column);
+
+        KeyRange range = of(lo, hi);
+        if (range == null)
+            throw new SQLException("Bounds of " + key + " are not numbers or dates: " + lo + BOUNDS_DELIMITER + hi);
+        return range;
+    }
+
+    /**
+     * Деление диапазона на части равной ширины. Если различных значений ключа меньше,
+     * чем частей, то частей будет меньше.
+     *
+     * @param count желаемое количество частей
+     * @return части по возрастанию
+     */
+    public List<Part> split(int count) {
+        int scale = kind == Kind.NUMBER ? Math.max(0, Math.max(lo.stripTrailingZeros().scale(), hi.stripTrailingZeros().scale())) : 0;
+        BigDecimal end = hi.add(BigDecimal.ONE.movePointLeft(scale));
+        BigDecimal span = end.subtract(lo);
+
+        List<BigDecimal> bounds = new ArrayList<>();
+        bounds.add(lo.setScale(scale, RoundingMode.FLOOR));
+        for (int i = 1; i < count; i++) {
+            BigDecimal bound = lo.add(span.multiply(BigDecimal.valueOf(i))
+                    .divide(BigDecimal.valueOf(count), scale, RoundingMode.FLOOR));
+            if (bound.compareTo(bounds.get(bounds.size() - 1)) > 0)
+                bounds.add(bound);
+        }
+        bounds.add(end.setScale(scale, RoundingMode.FLOOR));
+
+        List<Part> parts = new ArrayList<>();
+        for (int i = 0; i + 1 < bounds.size(); i++)
+            parts.add(new Part(parts.size() + 1, bounds.size() - 1, format(bounds.get(i)), format(bounds.get(i + 1))));
+        return parts;
+    }
+
+    /**
+     * Значение ключа текстом для подстановки
+     *
+     * @param value число, либо количество дней или миллисекунд от 1970-01-01
+     * @return текст
+     */
+    private String format(BigDecimal value) {
+        switch (kind) {
+            case DATE:
+                return utcFormat("yyyy-MM-dd").format(new java.util.Date(value.longValue() * DAY_MILLIS));
+            case TIMESTAMP:
+                return utcFormat("yyyy-MM-dd HH:mm:ss.SSS").format(new java.util.Date(value.longValue()));
+            default:
+                return value.toPlainString();
+        }
+    }
+
+    private static SimpleDateFormat utcFormat(String pattern) {
+        SimpleDateFormat format = new SimpleDateFormat(pattern, Locale.ROOT);
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return format;
+    }
+
+    /**
+     * Значение из БД текстом. Дата и время - в местном времени, как их возвращает драйвер
+     *
+     * @param value значение
+     * @return текст, либо null
+     */
+    private static String toText(Object value) {
+        if (value instanceof BigDecimal)
+            return ((BigDecimal) value).toPlainString();
+        return value != null ? value.toString().trim() : null;
+    }
+
+    private static BigDecimal parseNumber(String text) {
+        try {
+            return new BigDecimal(text);
+        } catch (NumberFormatException notNumber) {
+            return null;
+        }
+    }
+
+    /**
+     * Дата текстом в дни либо миллисекунды от 1970-01-01, без учёта часового пояса
+     *
+     * @param date      разобранная дата
+     * @param timestamp true - миллисекунды, false - дни
+     * @return дни либо миллисекунды
+     */
+    private static long toUnits(Matcher date, boolean timestamp) {
+        Calendar calendar = new GregorianCalendar(TimeZone.getTimeZone("UTC"), Locale.ROOT);
+        calendar.setLenient(false);
+        calendar.clear();
+        calendar.set(Integer.parseInt(date.group(1)), Integer.parseInt(date.group(2)) - 1, Integer.parseInt(date.group(3)),
+                date.group(4) != null ? Integer.parseInt(date.group(4)) : 0,
+                date.group(5) != null ? Integer.parseInt(date.group(5)) : 0,
+                date.group(6) != null ? Integer.parseInt(date.group(6)) : 0);
+        if (date.group(7) != null)
+            calendar.set(Calendar.MILLISECOND, Integer.parseInt((date.group(7) + "00").substring(0, 3)));
+        long millis = calendar.getTimeInMillis();
+        if (timestamp)
+            return millis;
+        return millis >= 0 ? millis / DAY_MILLIS : (millis - DAY_MILLIS + 1) / DAY_MILLIS;
+    }
+
+    /**
+     * Часть диапазона
+     */
+    public static class Part {
+        private final int number;
+        private final int count;
+        private final String lo;
+        private final String hi;
+
+        Part(int number, int count, String lo, String hi) {
+            this.number = number;
+            this.count = count;
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        /**
+         * Номер части, начиная с единицы
+         *
+         * @return номер
+         */
+        public int getNumber() {
+            return number;
+        }
+
+        /**
+         * Количество частей диапазона
+         *
+         * @return количество
+         */
+        public int getCount() {
+            return count;
+        }
+
+        /**
+         * Нижняя граница, включительно
+         *
+         * @return значение {@link #RANGE_LO}
+         */
+        public String getLo() {
+            return lo;
+        }
+
+        /**
+         * Верхняя граница, не включительно
+         *
+         * @return значение {@link #RANGE_HI}
+         */
+        public String getHi() {
+            return hi;
+        }
+
+        /**
+         * ID части для имени файла результата: range и номер, дополненный нулями до ширины количества частей
+         *
+         * @return ID части
+         */
+        public String getID() {
+            StringBuilder id = new StringBuilder(Integer.toString(number));
+            while (id.length() < Integer.toString(count).length())
+                id.insert(0, '0');
+            return "range" + id;
+        }
+
+        @Override
+        public String toString() {
+            return number + "/" + count + " [" + lo + ", " + hi + ")";
+        }
+    }
+}
@@ -0,0 +1,358 @@
+package com.github.butterbrother.thytom;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Потоковое чтение столбцов LOB: CLOB/NCLOB через {@link ResultSet#getCharacterStream(int)},
+ * BLOB - через {@link ResultSet#getBinaryStream(int)}, фрагментами по {@link #CHUNK_SIZE}.
+ * <p>
+ * Без порога вынесения ({@link ConfigFile#getLobThreshold()}) значения записываются в файл
+ * с результатами сразу из потока, не собираясь в строку. Двоичные значения записываются
+ * шестнадцатеричным текстом.
+ * <p>
+ * С порогом значения не длиннее порога (в символах, для BLOB - в байтах) записываются в строку
+ * результата, а более длинные - в отдельные файлы в каталоге рядом с файлом результатов.
+ * В строке результата остаётся ссылка на такой файл: {@link #REFERENCE_PREFIX} и путь
+ * относительно каталога результатов. Текст записывается в кодировке файла результатов,
+ * BLOB - как есть, через {@link FileChannel#transferFrom(ReadableByteChannel, long, long)}.
+ * <p>
+ * В любом случае в памяти одновременно находится не больше фрагмента либо порога на значение.
+ * Может использоваться из нескольких потоков одновременно.
+ */
+public class LobStreamer {
+    /**
+     * Размер фрагмента чтения, символов либо байт
+     */
+    public static final int CHUNK_SIZE = 8192;
+
+    /**
+     * Префикс ссылки на файл со значением LOB в строке результата
+     */
+    public static final String REFERENCE_PREFIX = "lob:";
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private final Path directory;
+    private final Charset charset;
+    private final int threshold;
+    private final AtomicLong filesCount = new AtomicLong();
+
+    /**
+     * Инициализация.
+     *
+     * @param directory Каталог для значений длиннее порога. Создаётся при записи первого значения
+     * @param charset   Кодировка текстовых значений
+     * @param threshold Порог вынесения значений в отдельные файлы. 0 - значения не выносятся
+     */
+    public LobStreamer(Path directory, Charset charset, int threshold) {
+        this.directory = directory;
+        this.charset = charset;
+        this.threshold = threshold;
+    }
+
+    /**
+     * Проверка, что длинные значения выносятся в отдельные файлы
+     *
+     * @return true - задан порог вынесения
+     */
+    public boolean hasThreshold() {
+        return threshold > 0;
+    }
+
+    /**
+     * Количество значений, вынесенных в отдельные файлы
+     *
+     * @return количество файлов
+     */
+    public long getFilesCount() {
+        return filesCount.get();
+    }
+
+    /**
+     * Чтение текстового значения для последующей записи.
+     * Без порога значение читается целиком через {@link ResultSet#getString(int)}.
+     * Значение длиннее порога записывается в отдельный файл, без обрезки пробелов.
+     *
+     * @param results Результат запроса, установленный на читаемую строку
+     * @param column  Номер столбца, начиная с 1
+     * @return значение, ссылка на файл со значением, либо null
+     * @throws SQLException Ошибка получения данных
+     * @throws IOException  Ошибка записи файла со значением
+     */
+    public String readText(ResultSet results, int column) throws SQLException, IOException {
+        if (threshold <= 0)
+            return results.getString(column);
+
+        try (Reader reader = openText(results, column)) {
+            if (reader == null)
+                return null;
+
+            char[] chunk = new char[Math.min(CHUNK_SIZE, threshold + 1)];
+            StringBuilder text = new StringBuilder(chunk.length);
+            for (int read; text.length() <= threshold && (read = reader.read(chunk)) >= 0; )
+                text.append(chunk, 0, read);
+            if (text.length() <= threshold)
+                return text.toString();
+
+            Path file = newFile(".txt");
+            try (ChannelSink sink = new ChannelSink(file, charset)) {
+                // Незавершённая суррогатная пара дописывается вместе с продолжением
+                int length = text.length();
+                boolean split = Character.isHighSurrogate(text.charAt(length - 1));
+                sink.write(text.subSequence(0, split ? length - 1 : length));
+                if (split)
+                    chunk[0] = text.charAt(length - 1);
+                copyText(reader, chunk, split ? 1 : 0, sink, false);
+            }
+            return reference(file);
+        }
+    }
+
+    /**
+     * Чтение двоичного значения для последующей записи.
+     * Значение не длиннее порога возвращается шестнадцатеричным текстом,
+     * более длинное - записывается в отдельный файл.
+     *
+     * @param results Результат запроса, установленный на читаемую строку
+     * @param column  Номер столбца, начиная с 1
+     * @return шестнадцатеричный текст, ссылка на файл со значением, либо null
+     * @throws SQLException Ошибка получения данных
+     * @throws IOException  Ошибка записи файла со значением
+     */
+    public String readBinary(ResultSet results, int column) throws SQLException, IOException {
+        try (InputStream input = openBinary(results, column)) {
+            if (input == null)
+                return null;
+
+            byte[] chunk = new byte[threshold > 0 ? Math.min(CHUNK_SIZE, threshold + 1) : CHUNK_SIZE];
+            ByteArrayOutputStream data = new ByteArrayOutputStream(chunk.length);
+            for (int read; (threshold <= 0 || data.size() <= threshold) && (read = input.read(chunk)) >= 0; )
+                data.write(chunk, 0, read);
+            if (threshold <= 0 || data.size() <= threshold) {
+                StringBuilder hex = new StringBuilder(data.size() * 2);
+                appendHex(hex, data.toByteArray(), data.size());
+                return hex.toString();
+            }
+
+            Path file = newFile(".bin");
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                ByteBuffer head = ByteBuffer.wrap(data.toByteArray());
+                while (head.hasRemaining())
+                    channel.write(head);
+
+                ReadableByteChannel source = Channels.newChannel(input);
+                long position = channel.position();
+                for (long copied; (copied = channel.transferFrom(source, position, Long.MAX_VALUE)) > 0; )
+                    position += copied;
+            }
+            return reference(file);
+        }
+    }
+
+    /**
+     * Запись текстового значения в файл результатов прямо из потока.
+     * Обрезка пробелов выполняется по ходу записи: ведущие пропускаются,
+     * а промежуточные придерживаются до следующего непробельного символа.
+     *
+     * @param results Результат запроса, установленный на записываемую строку
+     * @param column  Номер столбца, начиная с 1
+     * @param sink    Файл результатов
+     * @param quote   Кавычки вокруг значения, либо null
+     * @param nullValue Пустое значение
+     * @param trim    Обрезать пробелы в начале и в конце значения
+     * @return количество символов значения
+     * @throws SQLException Ошибка получения данных
+     * @throws IOException  Ошибка записи файла
+     */
+    public long streamText(ResultSet results, int column, ChannelSink sink, ChannelSink.Token quote,
+                           ChannelSink.Token nullValue, boolean trim) throws SQLException, IOException {
+        try (Reader reader = openText(results, column)) {
+            if (reader == null) {
+                sink.write(nullValue);
+                return 0;
+            }
+
+            if (quote != null)
+                sink.write(quote);
+            long length = copyText(reader, new char[CHUNK_SIZE], 0, sink, trim);
+            if (quote != null)
+                sink.write(quote);
+            return length;
+        }
+    }
+
+    /**
+     * Запись двоичного значения в файл результатов шестнадцатеричным текстом прямо из потока.
+     *
+     * @param results   Результат запроса, установленный на записываемую строку
+     * @param column    Номер столбца, начиная с 1
+     * @param sink      Файл результатов
+     * @param nullValue Пустое значение
+     * @return количество символов значения
+     * @throws SQLException Ошибка получения данных
+     * @throws IOException  Ошибка записи файла
+     */
+    public long streamBinary(ResultSet results, int column, ChannelSink sink, ChannelSink.Token nullValue)
+            throws SQLException, IOException {
+        try (InputStream input = openBinary(results, column)) {
+            if (input == null) {
+                sink.write(nullValue);
+                return 0;
+            }
+
+            byte[] chunk = new byte[CHUNK_SIZE / 2];
+            StringBuilder hex = new StringBuilder(CHUNK_SIZE);
+            long length = 0;
+            for (int read; (read = input.read(chunk)) >= 0; ) {
+                hex.setLength(0);
+                appendHex(hex, chunk, read);
+                sink.write(hex);
+                length += hex.length();
+            }
+            return length;
+        }
+    }
+
+    /**
+     * Открытие потока текстового значения.
+     * Если драйвер не поддерживает потоковое чтение, значение читается целиком.
+     *
+     * @param results Результат запроса
+     * @param column  Номер столбца, начиная с 1
+     * @return поток значения, либо null
+     * @throws SQLException Ошибка получения данных
+     */
+    private static Reader openText(ResultSet results, int column) throws SQLException {
+        try {
+            return results.getCharacterStream(column);
+        } catch (SQLException e) {
+            String value = results.getString(column);
+            return value == null ? null : new StringReader(value);
+        }
+    }
+
+    /**
+     * Открытие потока двоичного значения.
+     * Если драйвер не поддерживает потоковое чтение, значение читается целиком.
+     *
+     * @param results Результат запроса
+     * @param column  Номер столбца, начиная с 1
+     * @return поток значения, либо null
+     * @throws SQLException Ошибка получения данных
+     */
+    private static InputStream openBinary(ResultSet results, int column) throws SQLException {
+        try {
+            return results.getBinaryStream(column);
+        } catch (SQLException e) {
+            byte[] value = results.getBytes(column);
+            return value == null ? null : new ByteArrayInputStream(value);
+        }
+    }
+
+    /**
+     * Копирование текста фрагментами. Суррогатная пара на границе фрагментов
+     * переносится в следующий фрагмент.
+     *
+     * @param reader источник
+     * @param chunk  буфер фрагмента
+     * @param carry  количество символов, уже находящихся в начале буфера
+     * @param sink   файл
+     * @param trim   обрезать пробелы в начале и в конце
+     * @return количество записанных символов
+     * @throws IOException Ошибка чтения либо записи
+     */
+    private static long copyText(Reader reader, char[] chunk, int carry, ChannelSink sink, boolean trim)
+            throws IOException {
+        long length = 0;
+        boolean leading = trim;
+        StringBuilder blanks = new StringBuilder();
+        for (int read; (read = reader.read(chunk, carry, chunk.length - carry)) >= 0 || carry > 0; ) {
+            int end = carry + Math.max(read, 0);
+            int keep = read >= 0 && end > 0 && Character.isHighSurrogate(chunk[end - 1]) ? 1 : 0;
+            int start = 0;
+            int stop = end - keep;
+
+            if (trim) {
+                while (leading && start < stop && chunk[start] <= ' ')
+                    start++;
+                leading = leading && start == stop;
+
+                int last = stop;
+                while (last > start && chunk[last - 1] <= ' ')
+                    last--;
+                if (last > start) {
+                    sink.write(blanks);
+                    length += blanks.length();
+                    blanks.setLength(0);
+                }
+                blanks.append(chunk, last, stop - last);
+                stop = last;
+            }
+
+            sink.write(CharBuffer.wrap(chunk, start, stop - start));
+            length += stop - start;
+
+            if (keep > 0)
+                chunk[0] = chunk[end - 1];
+            carry = keep;
+            if (read < 0)
+                break;
+        }
+
+        return length;
+    }
+
+    /**
+     * Добавление байт шестнадцатеричным текстом
+     *
+     * @param target буфер текста
+     * @param data   байты
+     * @param length количество байт
+     */
+    private static void appendHex(StringBuilder target, byte[] data, int length) {
+        for (int i = 0; i < length; i++) {
+            target.append(HEX_DIGITS[(data[i] >> 4) & 0x0F]);
+            target.append(HEX_DIGITS[data[i] & 0x0F]);
+        }
+    }
+
+    /**
+     * Имя нового файла для значения. Каталог создаётся при необходимости.
+     *
+     * @param extension расширение файла
+     * @return имя файла
+     * @throws IOException Ошибка создания каталога
+     */
+    private Path newFile(String extension) throws IOException {
+        Files.createDirectories(directory);
+        return directory.resolve(String.format("%09d", filesCount.incrementAndGet()) + extension);
+    }
+
+    /**
+     * Ссылка на файл со значением для строки результата
+     *
+     * @param file файл со значением
+     * @return ссылка, относительно каталога результатов
+     */
+    private String reference(Path file) {
+        return REFERENCE_PREFIX + directory.getFileName() + "/" + file.getFileName();
+    }
+}
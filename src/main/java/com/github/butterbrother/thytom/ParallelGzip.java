@@ -0,0 +1,202 @@
+package com.github.butterbrother.thytom;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Параллельное сжатие GZIP, как в pigz.
+ * <p>
+ * Каждый блок данных сжимается независимо в отдельный член (member) gzip.
+ * Блоки сжимаются в общем для всех файлов пуле потоков, а записываются строго
+ * в порядке поступления. Последовательность членов - корректный gzip-файл
+ * (RFC 1952), распаковывается gzip, pigz и {@link java.util.zip.GZIPInputStream}.
+ * <p>
+ * Количество блоков в работе ограничено, поэтому при медленном сжатии запись
+ * в файл приостанавливается, а память не расходуется неограниченно.
+ */
+public class ParallelGzip {
+    /**
+     * Размер блока по-умолчанию, как в pigz
+     */
+    public static final int DEFAULT_BLOCK_SIZE = 128 * 1024;
+
+    /**
+     * Количество блоков в работе на один поток сжатия
+     */
+    private static final int PENDING_PER_THREAD = 2;
+
+    private static ExecutorService pool = null;
+    private static int poolThreads = 0;
+
+    private final WritableByteChannel channel;
+    private final ExecutorService executor;
+    private final Deque<Future<byte[]>> pending = new ArrayDeque<>();
+    private final int maxPending;
+    private final AtomicLong compressNanos = new AtomicLong();
+    private boolean written = false;
+
+    /**
+     * Инициализация.
+     *
+     * @param channel Файл, в который записываются сжатые блоки
+     * @param threads Количество потоков сжатия. Пул потоков создаётся при первом
+     *                обращении и используется всеми файлами. 0 - по количеству процессоров
+     */
+    public ParallelGzip(WritableByteChannel channel, int threads) {
+        this.channel = channel;
+        this.executor = getPool(threads);
+        this.maxPending = PENDING_PER_THREAD * getThreads();
+    }
+
+    /**
+     * Общий пул потоков сжатия. Потоки - демоны и не препятствуют завершению приложения.
+     *
+     * @param threads Количество потоков при создании пула. 0 - по количеству процессоров
+     * @return пул потоков
+     */
+    private static synchronized ExecutorService getPool(int threads) {
+        if (pool == null) {
+            poolThreads = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+            final AtomicInteger number = new AtomicInteger();
+            pool = Executors.newFixedThreadPool(poolThreads, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable task) {
+                    Thread thread = new Thread(task, "thytom-gzip-" + number.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+
+        return pool;
+    }
+
+    /**
+     * Передача блока на сжатие. Данные копируются, буфер можно использовать повторно.
+     * Если в работе слишком много блоков, то дожидается записи самого раннего из них.
+     *
+     * @param block  данные
+     * @param length количество байт
+     * @throws IOException Ошибка сжатия либо записи в файл
+     */
+    public void write(byte[] block, int length) throws IOException {
+        if (length <= 0)
+            return;
+
+        final byte[] data = Arrays.copyOf(block, length);
+        pending.add(executor.submit(new Callable<byte[]>() {
+            @Override
+            public byte[] call() throws IOException {
+                long begin = System.nanoTime();
+                try {
+                    return compress(data);
+                } finally {
+                    compressNanos.addAndGet(System.nanoTime() - begin);
+                }
+            }
+        }));
+
+        while (pending.size() > maxPending)
+            writeNext();
+    }
+
+    /**
+     * Запись всех сжатых блоков. Если не было ни одного блока, записывается
+     * пустой член gzip, чтобы файл оставался корректным.
+     *
+     * @throws IOException Ошибка сжатия либо записи в файл
+     */
+    public void finish() throws IOException {
+        try {
+            while (!pending.isEmpty())
+                writeNext();
+            if (!written)
+                writeMember(compress(new byte[0]));
+        } finally {
+            for (Future<byte[]> future : pending)
+                future.cancel(false);
+            pending.clear();
+        }
+    }
+
+    /**
+     * Суммарное время сжатия блоков во всех потоках
+     *
+     * @return время, нс
+     */
+    public long getCompressNanos() {
+        return compressNanos.get();
+    }
+
+    /**
+     * Количество потоков сжатия
+     *
+     * @return количество потоков
+     */
+    public static synchronized int getThreads() {
+        return poolThreads;
+    }
+
+    /**
+     * Ожидание сжатия самого раннего блока и его запись
+     *
+     * @throws IOException Ошибка сжатия либо записи в файл
+     */
+    private void writeNext() throws IOException {
+        Future<byte[]> next = pending.poll();
+        try {
+            writeMember(next.get());
+        } catch (InterruptedException e) {
+            next.cancel(false);
+            throw new InterruptedIOException("Interrupted while waiting for compression");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof IOException
+                    ? (IOException) cause
+                    : new IOException("Unable to compress results: " + cause, cause);
+        }
+    }
+
+    /**
+     * Запись сжатого блока
+     *
+     * @param member член gzip
+     * @throws IOException Ошибка ввода-вывода
+     */
+    private void writeMember(byte[] member) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(member);
+        while (buffer.hasRemaining())
+            channel.write(buffer);
+        written = true;
+    }
+
+    /**
+     * Сжатие блока в отдельный член gzip
+     *
+     * @param data данные
+     * @return член gzip: заголовок, сжатые данные, контрольная сумма и размер
+     * @throws IOException Ошибка сжатия
+     */
+    static byte[] compress(byte[] data) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 4 + 64);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out, 64 * 1024)) {
+            gzip.write(data);
+        }
+        return out.toByteArray();
+    }
+}
@@ -2,14 +2,44 @@ package com.github.butterbrother.thytom;
 
 import java.io.Closeable;
 import java.sql.*;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Выполняет переданные SQL-запросы, отдаёт результаты исполнения.
+ * <p>
+ * В пакетном режиме (см. {@link CLIOptions#getBatchSize()} и {@link ConfigFile#getBatchSize()})
+ * обновляющие запросы накапливаются через {@link #addBatch(QueryTask)} и отправляются в БД
+ * пакетами. Автоматическая фиксация транзакций при этом отключена, фиксация выполняется
+ * через заданное количество пакетов и в {@link #finishBatch()}.
+ * <p>
+ * Запросы создаются с однонаправленным курсором только для чтения и настраиваются
+ * согласно профилю драйвера ({@link Dialect}), чтобы результат передавался порциями
+ * и не загружался в память целиком. Если профиль требует отключения автоматической
+ * фиксации транзакций, то фиксация выполняется после каждого запроса, а после неудачного
+ * запроса транзакция откатывается.
  */
 public class QueriesExecutor implements AutoCloseable, Closeable {
     private Connection connection;
+    private Dialect dialect;
+    // Автоматическая фиксация отключена ради потоковой передачи, а не пакетного режима
+    private boolean commitEachQuery;
     private Statement statement;
     private ResultSet latestResultSet = null;
+    private PreparedStatement preparedStatement = null;
+    private String preparedQuery = null;
+
+    private int batchSize;
+    private int commitBatches;
+    // Запрос, в котором накапливается текущий пакет
+    private Statement batchStatement = null;
+    // Имена SQL-файлов и ID подстановок запросов текущего пакета
+    private List<String> batchRows = new ArrayList<>();
+    private long batchNumber = 0;
+    private int uncommittedBatches = 0;
+    // Запросы исполненных, но ещё не зафиксированных пакетов
+    private List<String> uncommittedRows = new ArrayList<>();
+    private boolean savepointsSupported = true;
 
     /**
      * Инициализация и подключение к БД
@@ -21,13 +51,7 @@ public class QueriesExecutor implements AutoCloseable, Closeable {
 
         // Регистрируем драйвер, если он указан
         if (! config.getDriver().isEmpty())
-            try {
-                DriverManager.registerDriver((Driver) Class.forName(config.getDriver()).newInstance());
-            } catch (ClassNotFoundException e ) {
-                throw new SQLException("Unable to load JDBC driver " + config.getDriver() + ".");
-            } catch (InstantiationException | IllegalAccessException e) {
-                throw new SQLException("Error loading JDBC driver: " + e.getMessage());
-            }
+            registerDriver(config.getDriver());
 
         // Инициируем подключение в зависимости от того, указан ли логин и/или пароль, или нет
         if (! config.getLogin().isEmpty() || ! config.getPassword().isEmpty()) {
@@ -36,8 +60,261 @@ public class QueriesExecutor implements AutoCloseable, Closeable {
             connection = DriverManager.getConnection(config.getUrl());
         }
 
-        connection.setAutoCommit(true);
-        statement = connection.createStatement();
+        batchSize = cli.getBatchSize() > 0 ? cli.getBatchSize() : config.getBatchSize();
+        commitBatches = cli.getCommitBatches() > 0 ? cli.getCommitBatches() : config.getCommitBatches();
+
+        dialect = config.getDialect();
+        commitEachQuery = !isBatchMode() && dialect.needManualCommit();
+
+        connection.setAutoCommit(!isBatchMode() && !commitEachQuery);
+        statement = dialect.createStatement(connection);
+    }
+
+    /**
+     * Регистрация JDBC-драйвера по имени класса
+     *
+     * @param driverClass имя класса драйвера
+     * @throws SQLException класс не найден либо не создаётся
+     */
+    static void registerDriver(String driverClass) throws SQLException {
+        try {
+            DriverManager.registerDriver((Driver) Class.forName(driverClass).getDeclaredConstructor().newInstance());
+        } catch (ClassNotFoundException e) {
+            throw new SQLException("Unable to load JDBC driver " + driverClass + ".");
+        } catch (ReflectiveOperationException e) {
+            throw new SQLException("Error loading JDBC driver: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Проверка, что обновляющие запросы исполняются пакетами
+     * @return  true - пакетный режим включен
+     */
+    public boolean isBatchMode() {
+        return batchSize > 0;
+    }
+
+    /**
+     * Проверка, что запрос является обновляющим (INSERT/UPDATE/DELETE/MERGE), т.е. может быть
+     * исполнен в пакете. Комментарии и пробелы в начале запроса пропускаются.
+     * @param sqlQuery  SQL-запрос
+     * @return          true - обновляющий запрос
+     */
+    public static boolean isUpdateQuery(String sqlQuery) {
+        int pos = 0;
+        int length = sqlQuery.length();
+        while (pos < length) {
+            if (Character.isWhitespace(sqlQuery.charAt(pos))) {
+                pos++;
+            } else if (sqlQuery.startsWith("--", pos)) {
+                int end = sqlQuery.indexOf('\n', pos);
+                pos = end < 0 ? length : end + 1;
+            } else if (sqlQuery.startsWith("/*", pos)) {
+                int end = sqlQuery.indexOf("*/", pos + 2);
+                pos = end < 0 ? length : end + 2;
+            } else {
+                break;
+            }
+        }
+
+        int end = pos;
+        while (end < length && Character.isLetter(sqlQuery.charAt(end)))
+            end++;
+
+        switch (sqlQuery.substring(pos, end).toLowerCase()) {
+            case "insert":
+            case "update":
+            case "delete":
+            case "merge":
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Добавление обновляющего запроса в пакет.
+     * Пакет отправляется в БД при достижении размера пакета, либо при смене
+     * текста запроса с параметрами JDBC.
+     * @param task          Запрос с подстановками
+     * @throws SQLException Ошибка добавления в пакет, либо ошибка фиксации транзакции
+     */
+    public void addBatch(QueryTask task) throws SQLException {
+        closeLastResult();
+
+        if (task.getBindValues() == null) {
+            if (batchStatement != null && batchStatement != statement)
+                flushBatch();
+
+            statement.addBatch(task.getQuery());
+            batchStatement = statement;
+        } else {
+            if (batchStatement != null
+                    && (batchStatement != preparedStatement || !task.getQuery().equals(preparedQuery)))
+                flushBatch();
+
+            prepare(task.getQuery(), task.getBindValues());
+            preparedStatement.addBatch();
+            batchStatement = preparedStatement;
+        }
+
+        batchRows.add(task.getSqlFileName() + " [" + task.getRowID() + "]");
+        if (batchRows.size() >= batchSize)
+            flushBatch();
+    }
+
+    /**
+     * Отправка накопленного пакета и фиксация транзакции.
+     * Вызывается по окончании работы в пакетном режиме.
+     * @throws SQLException Ошибка исполнения пакета либо фиксации транзакции
+     */
+    public void finishBatch() throws SQLException {
+        if (!isBatchMode())
+            return;
+
+        flushBatch();
+        commit();
+    }
+
+    /**
+     * Отправка накопленного пакета в БД.
+     * По пакету выводится количество изменённых строк. Для неудачных запросов выводятся
+     * имя SQL-файла и ID подстановки.
+     * Транзакция фиксируется через заданное количество пакетов.
+     * <p>
+     * Неудачный пакет откатывается целиком до точки сохранения перед ним, все его запросы
+     * считаются неудачными. Если БД не поддерживает точки сохранения, то откатывается вся
+     * нефиксированная транзакция, запросы предыдущих нефиксированных пакетов выводятся как откаченные.
+     * @throws SQLException Ошибка фиксации либо отката транзакции
+     */
+    private void flushBatch() throws SQLException {
+        if (batchRows.isEmpty())
+            return;
+
+        batchNumber++;
+        Savepoint savepoint = setSavepoint();
+        int[] counts;
+        String error = null;
+        try {
+            counts = batchStatement.executeBatch();
+        } catch (BatchUpdateException batchError) {
+            counts = batchError.getUpdateCounts() != null ? batchError.getUpdateCounts() : new int[0];
+            error = batchError.getMessage();
+        } catch (SQLException batchError) {
+            counts = new int[0];
+            error = batchError.getMessage();
+        } finally {
+            try {
+                batchStatement.clearBatch();
+            } catch (SQLException ignore) {
+            }
+        }
+
+        long updated = 0;
+        int failed = 0;
+        for (int i = 0; i < batchRows.size(); i++) {
+            if (i < counts.length && counts[i] != Statement.EXECUTE_FAILED) {
+                if (counts[i] > 0)
+                    updated += counts[i];
+            } else {
+                failed++;
+                if (i <= counts.length)
+                    System.err.println("Batch " + batchNumber + ": failed " + batchRows.get(i)
+                            + (error != null ? ": " + error : ""));
+                else
+                    System.err.println("Batch " + batchNumber + ": not executed " + batchRows.get(i));
+            }
+        }
+
+        List<String> rows = batchRows;
+        batchRows = new ArrayList<>();
+        batchStatement = null;
+
+        if (error == null && failed == 0) {
+            System.err.println("Batch " + batchNumber + ": " + rows.size() + " statements, "
+                    + updated + " rows updated");
+            releaseSavepoint(savepoint);
+            uncommittedRows.addAll(rows);
+            if (++uncommittedBatches >= commitBatches)
+                commit();
+            return;
+        }
+
+        rollback(savepoint);
+        if (failed == 0)
+            System.err.println("Batch " + batchNumber + ": failed: " + error);
+        for (int i = 0; i < rows.size() && i < counts.length; i++)
+            if (counts[i] != Statement.EXECUTE_FAILED)
+                System.err.println("Batch " + batchNumber + ": rolled back " + rows.get(i));
+        System.err.println("Batch " + batchNumber + ": " + rows.size() + " statements, rolled back, "
+                + rows.size() + " failed");
+    }
+
+    /**
+     * Фиксация транзакции пакетного режима
+     * @throws SQLException Ошибка фиксации транзакции
+     */
+    private void commit() throws SQLException {
+        connection.commit();
+        uncommittedRows.clear();
+        uncommittedBatches = 0;
+    }
+
+    /**
+     * Откат до точки сохранения, либо всей нефиксированной транзакции.
+     * Запросы нефиксированных пакетов, откаченные вместе с транзакцией, выводятся.
+     * @param savepoint точка сохранения. null - откат всей транзакции
+     * @throws SQLException Ошибка отката транзакции
+     */
+    private void rollback(Savepoint savepoint) throws SQLException {
+        if (savepoint != null) {
+            connection.rollback(savepoint);
+            releaseSavepoint(savepoint);
+            return;
+        }
+
+        connection.rollback();
+        for (String row : uncommittedRows)
+            System.err.println("Rolled back uncommitted " + row);
+        uncommittedRows.clear();
+        uncommittedBatches = 0;
+    }
+
+    /**
+     * Откат после неудачного запроса, если автоматическая фиксация отключена.
+     * Иначе часть БД (например, PostgreSQL) отвергает все следующие запросы в прерванной транзакции.
+     * Ошибка отката не выводится, т.к. выводится ошибка самого запроса.
+     * @param savepoint точка сохранения перед запросом. null - откат всей транзакции
+     */
+    private void rollbackFailedQuery(Savepoint savepoint) {
+        if (!isBatchMode() && !commitEachQuery)
+            return;
+        try {
+            rollback(savepoint);
+        } catch (SQLException ignore) {
+        }
+    }
+
+    /**
+     * Точка сохранения перед пакетом, чтобы при ошибке откатить только его
+     * @return точка сохранения, либо null, если БД их не поддерживает
+     */
+    private Savepoint setSavepoint() {
+        if (savepointsSupported)
+            try {
+                return connection.setSavepoint();
+            } catch (SQLException unsupported) {
+                savepointsSupported = false;
+            }
+        return null;
+    }
+
+    private void releaseSavepoint(Savepoint savepoint) {
+        if (savepoint != null)
+            try {
+                connection.releaseSavepoint(savepoint);
+            } catch (SQLException ignore) {
+            }
     }
 
     /**
@@ -51,16 +328,82 @@ public class QueriesExecutor implements AutoCloseable, Closeable {
      */
     public ResultSet execute(String sqlQuery) throws SQLException {
         closeLastResult();
+        flushBatch();
 
-        if (statement.execute(sqlQuery)) {
-            latestResultSet = statement.getResultSet();
-        } else {
-            latestResultSet = null;
+        // Неудачный запрос не должен откатить исполненные, но ещё не зафиксированные пакеты
+        Savepoint savepoint = uncommittedRows.isEmpty() ? null : setSavepoint();
+        try {
+            if (statement.execute(sqlQuery)) {
+                latestResultSet = statement.getResultSet();
+            } else {
+                latestResultSet = null;
+                if (commitEachQuery)
+                    connection.commit();
+            }
+        } catch (SQLException | RuntimeException queryError) {
+            rollbackFailedQuery(savepoint);
+            throw queryError;
         }
 
         return latestResultSet;
     }
 
+    /**
+     * Выполнение SQL-запроса с параметрами JDBC.
+     * Подготовленный запрос сохраняется и переиспользуется, пока текст запроса
+     * не изменится. Т.е. запрос из одного SQL-файла разбирается БД однократно.
+     * Автоматически закрывается предыдущий результат (если он был).
+     * @param sqlQuery      SQL-запрос с маркерами параметров
+     * @param bindValues    значения параметров. Если null - выполняется как {@link #execute(String)}
+     * @return              результат выполнения SQL-запроса. Если запрос обновляющий/не возвращающий результата,
+     * то вернётся null.
+     * @throws SQLException Ошибка выполнения запроса
+     */
+    public ResultSet execute(String sqlQuery, String[] bindValues) throws SQLException {
+        if (bindValues == null)
+            return execute(sqlQuery);
+
+        closeLastResult();
+        flushBatch();
+
+        Savepoint savepoint = uncommittedRows.isEmpty() ? null : setSavepoint();
+        try {
+            prepare(sqlQuery, bindValues);
+            if (preparedStatement.execute()) {
+                latestResultSet = preparedStatement.getResultSet();
+            } else {
+                latestResultSet = null;
+                if (commitEachQuery)
+                    connection.commit();
+            }
+        } catch (SQLException | RuntimeException queryError) {
+            rollbackFailedQuery(savepoint);
+            throw queryError;
+        }
+
+        return latestResultSet;
+    }
+
+    /**
+     * Подготовка запроса с параметрами JDBC. Если текст запроса не изменился,
+     * то используется ранее подготовленный запрос. Параметры не сбрасываются
+     * через clearParameters(), т.к. часть драйверов при этом теряет накопленный пакет,
+     * все параметры и так устанавливаются заново.
+     * @param sqlQuery      SQL-запрос с маркерами параметров
+     * @param bindValues    значения параметров
+     * @throws SQLException Ошибка подготовки запроса
+     */
+    private void prepare(String sqlQuery, String[] bindValues) throws SQLException {
+        if (preparedStatement == null || !sqlQuery.equals(preparedQuery)) {
+            closePrepared();
+            preparedStatement = dialect.prepareStatement(connection, sqlQuery);
+            preparedQuery = sqlQuery;
+        }
+
+        for (int i = 0; i < bindValues.length; i++)
+            preparedStatement.setString(i + 1, bindValues[i]);
+    }
+
     /**
      * Проверка, что последний запрос возвращает результаты
      * @return  последний вызов {@link #execute(String)} имеет результаты.
@@ -71,11 +414,14 @@ public class QueriesExecutor implements AutoCloseable, Closeable {
 
     /**
      * Отключение от БД. При этом закрывается последний результат (если он был).
+     * Неотправленный пакет обновляющих запросов не отправляется, для этого
+     * необходимо вызвать {@link #finishBatch()}.
      */
     @Override
     public void close() {
         try {
             closeLastResult();
+            closePrepared();
             statement.close();
             connection.close();
         } catch (SQLException ignore) {}
@@ -83,11 +429,32 @@ public class QueriesExecutor implements AutoCloseable, Closeable {
 
     /**
      * Закрытие последнего результата.
+     * Если автоматическая фиксация отключена ради потоковой передачи,
+     * то завершается и транзакция, в которой был открыт курсор.
      */
     private void closeLastResult() {
         if (latestResultSet != null)
             try {
                 latestResultSet.close();
-            } catch (SQLException ignore) {}
+                if (commitEachQuery)
+                    connection.commit();
+            } catch (SQLException ignore) {
+            } finally {
+                latestResultSet = null;
+            }
+    }
+
+    /**
+     * Закрытие подготовленного запроса.
+     */
+    private void closePrepared() {
+        if (preparedStatement != null)
+            try {
+                preparedStatement.close();
+            } catch (SQLException ignore) {
+            } finally {
+                preparedStatement = null;
+                preparedQuery = null;
+            }
     }
 }
@@ -0,0 +1,185 @@
+package com.github.butterbrother.thytom;
+
+import java.io.Closeable;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Пул параллельных исполнителей SQL-запросов.
+ * <p>
+ * Каждый исполнитель работает в собственном потоке и использует собственный
+ * {@link QueriesExecutor}, т.е. отдельное подключение к БД. Задания ({@link QueryTask})
+ * передаются через ограниченную очередь, поэтому поток, читающий файл подстановок,
+ * не убегает далеко вперёд от исполнителей.
+ * <p>
+ * Результат каждого задания сохраняется независимо, через
+ * {@link StartHere#executeAndSave(CLIOptions, ConfigFile, QueriesExecutor, QueryTask, ConsolidatedResults)},
+ * либо дописывается в общий файл результатов SQL-файла, см. {@link ConsolidatedResults}.
+ * <p>
+ * Закрытие пула дожидается выполнения всех переданных заданий, после чего
+ * закрывает подключения к БД.
+ */
+public class QueriesExecutorPool implements AutoCloseable, Closeable {
+    /**
+     * Количество заданий в очереди на одного исполнителя
+     */
+    private static final int QUEUE_PER_WORKER = 4;
+
+    /**
+     * Маркер завершения работы для исполнителей
+     */
+    private static final QueryTask STOP = new QueryTask("", "", "");
+
+    private final BlockingQueue<QueryTask> tasks;
+    private final List<Worker> workers = new ArrayList<>();
+    private final ConsolidatedResults consolidated;
+    private volatile boolean failed = false;
+    private boolean closed = false;
+
+    /**
+     * Инициализация и подключение всех исполнителей к БД.
+     * Если хотя бы одно подключение не удалось, то уже открытые подключения закрываются.
+     *
+     * @param cli    Параметры командной строки
+     * @param config Параметры из файла конфигурации
+     * @param size   Количество исполнителей
+     * @throws SQLException Ошибка подключения к БД
+     */
+    public QueriesExecutorPool(CLIOptions cli, ConfigFile config, int size) throws SQLException {
+        this(cli, config, size, null);
+    }
+
+    /**
+     * Инициализация и подключение всех исполнителей к БД.
+     * Если хотя бы одно подключение не удалось, то уже открытые подключения закрываются.
+     *
+     * @param cli          Параметры командной строки
+     * @param config       Параметры из файла конфигурации
+     * @param size         Количество исполнителей
+     * @param consolidated Общие файлы результатов SQL-файлов. null - отдельный файл для каждой подстановки
+     * @throws SQLException Ошибка подключения к БД
+     */
+    public QueriesExecutorPool(CLIOptions cli, ConfigFile config, int size,
+                               ConsolidatedResults consolidated) throws SQLException {
+        this.consolidated = consolidated;
+        tasks = new ArrayBlockingQueue<>(size * QUEUE_PER_WORKER);
+
+        try {
+            for (int i = 1; i <= size; i++) {
+                workers.add(new Worker(cli, config, new QueriesExecutor(cli, config), i));
+            }
+        } catch (SQLException connectError) {
+            for (Worker worker : workers)
+                worker.executor.close();
+            throw connectError;
+        }
+
+        for (Worker worker : workers)
+            worker.start();
+    }
+
+    /**
+     * Передача задания исполнителям.
+     * Блокируется, если очередь заданий заполнена.
+     *
+     * @param task Задание
+     * @throws InterruptedException Ожидание было прервано
+     * @throws IllegalStateException Пул уже закрыт
+     */
+    public void submit(QueryTask task) throws InterruptedException {
+        if (closed)
+            throw new IllegalStateException("Executors pool already closed");
+
+        tasks.put(task);
+    }
+
+    /**
+     * Проверка, что какой-либо из исполнителей аварийно завершил работу
+     *
+     * @return true - была внутренняя ошибка в одном из исполнителей
+     */
+    public boolean hasFailed() {
+        return failed;
+    }
+
+    /**
+     * Завершение работы.
+     * Дожидается выполнения всех переданных заданий и закрывает подключения к БД.
+     */
+    @Override
+    public void close() {
+        if (closed)
+            return;
+        closed = true;
+
+        boolean interrupted = false;
+        for (Worker worker : workers) {
+            while (worker.isAlive()) {
+                try {
+                    tasks.put(STOP);
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+
+        for (Worker worker : workers) {
+            while (worker.isAlive()) {
+                try {
+                    worker.join();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+
+        if (interrupted)
+            Thread.currentThread().interrupt();
+    }
+
+    /**
+     * Поток-исполнитель запросов со своим подключением к БД.
+     */
+    private class Worker extends Thread {
+        private final CLIOptions cli;
+        private final ConfigFile config;
+        private final QueriesExecutor executor;
+
+        private Worker(CLIOptions cli, ConfigFile config, QueriesExecutor executor, int number) {
+            super("thytom-executor-" + number);
+            this.cli = cli;
+            this.config = config;
+            this.executor = executor;
+        }
+
+        @Override
+        public void run() {
+            try {
+                for (QueryTask task; (task = tasks.take()) != STOP; ) {
+                    if (failed)
+                        continue; // Вычитываем очередь, чтобы не блокировать отправителя
+
+                    StartHere.executeAndSave(cli, config, executor, task, consolidated);
+                }
+            } catch (InterruptedException ignore) {
+            } catch (RuntimeException somethingWrong) {
+                failed = true;
+                System.err.println("Something wrong in " + getName() + ". Please contact to developers.");
+                somethingWrong.printStackTrace();
+                // Продолжаем вычитывать очередь, чтобы не блокировать отправителя
+                try {
+                    while (tasks.take() != STOP) ;
+                } catch (InterruptedException ignore) {
+                }
+            } finally {
+                if (!failed)
+                    StartHere.finishBatch(executor);
+                executor.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package com.github.butterbrother.thytom;
+
+/**
+ * Единица работы: запрос из SQL-файла с уже применёнными подстановками.
+ * Передаётся исполнителям запросов, в т.ч. параллельным, см. {@link QueriesExecutorPool}.
+ * <p>
+ * Запрос формируется заранее, в потоке, читающем SQL-файлы и файл подстановок.
+ * Поэтому исполнителям не требуется обращаться к {@link SQLFile} и {@link SubsFileLoader},
+ * которые не являются потокобезопасными.
+ */
+public class QueryTask {
+    private String sqlFileName;
+    private String query;
+    private String rowID;
+    private String[] bindValues;
+
+    /**
+     * Инициализация.
+     *
+     * @param sqlFileName Имя SQL-файла. См. {@link SQLFile#getFileName()}
+     * @param query       Запрос с применёнными подстановками
+     * @param rowID       ID подстановки. См. {@link SubsFileLoader#getRowID()}.
+     *                    Если подстановки не используются - "out".
+     */
+    public QueryTask(String sqlFileName, String query, String rowID) {
+        this(sqlFileName, query, null, rowID);
+    }
+
+    /**
+     * Инициализация задания с параметрами JDBC.
+     *
+     * @param sqlFileName Имя SQL-файла. См. {@link SQLFile#getFileName()}
+     * @param query       Запрос с маркерами параметров. См. {@link SQLFile#getBoundQuery(java.util.Map)}
+     * @param bindValues  Значения параметров. См. {@link SQLFile#getBindValues(java.util.Map)}.
+     *                    null - запрос без параметров.
+     * @param rowID       ID подстановки. См. {@link SubsFileLoader#getRowID()}.
+     */
+    public QueryTask(String sqlFileName, String query, String[] bindValues, String rowID) {
+        this.sqlFileName = sqlFileName;
+        this.query = query;
+        this.bindValues = bindValues;
+        this.rowID = rowID;
+    }
+
+    /**
+     * Имя SQL-файла, из которого получен запрос
+     *
+     * @return имя файла
+     */
+    public String getSqlFileName() {
+        return sqlFileName;
+    }
+
+    /**
+     * Запрос с применёнными подстановками
+     *
+     * @return SQL-запрос
+     */
+    public String getQuery() {
+        return query;
+    }
+
+    /**
+     * Значения параметров JDBC для запроса
+     *
+     * @return значения по порядку маркеров параметров. null - запрос без параметров
+     */
+    public String[] getBindValues() {
+        return bindValues;
+    }
+
+    /**
+     * ID подстановки
+     *
+     * @return ID
+     */
+    public String getRowID() {
+        return rowID;
+    }
+}
@@ -0,0 +1,278 @@
+package com.github.butterbrother.thytom;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Запрос, однократно разобранный на текст и места шаблонов подстановок.
+ * <p>
+ * Ранее каждый шаблон подменялся через {@link String#replace(CharSequence, CharSequence)}
+ * по всему тексту запроса, т.е. для каждой подстановки - проход по запросу и новая строка
+ * на каждый шаблон. Разобранный запрос собирается за один проход в заранее выделенный
+ * буфер, который используется повторно.
+ * <p>
+ * Результат совпадает с последовательной подменой ({@link #replaceAll(String, Map)}), если
+ * шаблоны не перекрываются и подстановка не может образовать новое вхождение шаблона.
+ * Поэтому последовательная подмена используется вместо разбора:
+ * <ul>
+ * <li>если шаблон пустой, один шаблон содержит другой, либо конец одного шаблона совпадает
+ * с началом другого;</li>
+ * <li>если текст рядом с местом шаблона заканчивается началом либо начинается окончанием
+ * какого-либо шаблона;</li>
+ * <li>для отдельной подстановки, значение которой содержит первый либо последний символ
+ * какого-либо шаблона, например фигурную скобку для шаблонов вида {NAME}.</li>
+ * </ul>
+ * Шаблоны, отсутствующие в подстановке, остаются в тексте как есть.
+ * <p>
+ * Последовательная подмена идёт в постоянном порядке, от длинных шаблонов к коротким, а шаблоны
+ * одной длины - по алфавиту. Поэтому результат не зависит от порядка шаблонов в подстановке:
+ * файл подстановок, загруженный в память, и файл, читаемый построчно, дают одинаковые запросы.
+ * <p>
+ * Не потокобезопасен: буфер общий для всех вызовов {@link #render(Map)}.
+ */
+class QueryTemplate {
+    /**
+     * Порядок последовательной подмены: длинные шаблоны раньше коротких, одной длины - по алфавиту
+     */
+    private static final Comparator<String> REPLACE_ORDER = new Comparator<String>() {
+        @Override
+        public int compare(String first, String second) {
+            if (first.length() != second.length())
+                return first.length() > second.length() ? -1 : 1;
+            return first.compareTo(second);
+        }
+    };
+
+    private final String query;
+    private final String[] keys;
+    // Текст между местами шаблонов: на одну часть больше, чем мест
+    private final String[] literals;
+    // Номер шаблона в keys для каждого места
+    private final int[] slots;
+    private final boolean compiled;
+    private final int literalsLength;
+    // Первые и последние символы шаблонов
+    private final boolean[] asciiBoundaries = new boolean[128];
+    private final String otherBoundaries;
+    private final String[] values;
+    private final StringBuilder builder;
+
+    /**
+     * Разбор запроса.
+     *
+     * @param query запрос
+     * @param keys  шаблоны подстановок
+     */
+    QueryTemplate(String query, Collection<String> keys) {
+        this.query = query;
+        this.keys = keys.toArray(new String[keys.size()]);
+        this.values = new String[this.keys.length];
+
+        StringBuilder other = new StringBuilder();
+        for (String key : this.keys)
+            if (!key.isEmpty())
+                for (char c : new char[]{key.charAt(0), key.charAt(key.length() - 1)}) {
+                    if (c < 128)
+                        asciiBoundaries[c] = true;
+                    else if (other.indexOf(String.valueOf(c)) < 0)
+                        other.append(c);
+                }
+        this.otherBoundaries = other.toString();
+
+        List<String> literalList = new ArrayList<>();
+        List<Integer> slotList = new ArrayList<>();
+        boolean separate = keysAreSeparate();
+        if (separate) {
+            int tail = 0;
+            for (int position = 0; position < query.length(); ) {
+                int key = keyAt(position);
+                if (key < 0) {
+                    position++;
+                    continue;
+                }
+                literalList.add(query.substring(tail, position));
+                slotList.add(key);
+                position += this.keys[key].length();
+                tail = position;
+            }
+            literalList.add(query.substring(tail));
+        }
+
+        this.literals = literalList.toArray(new String[literalList.size()]);
+        this.slots = new int[slotList.size()];
+        int length = 0;
+        for (int i = 0; i < slots.length; i++)
+            slots[i] = slotList.get(i);
+        for (String literal : literals)
+            length += literal.length();
+        this.literalsLength = length;
+        this.compiled = separate && literalsAreSeparate();
+        this.builder = compiled ? new StringBuilder(query.length() + 64) : null;
+    }
+
+    /**
+     * Разобранный запрос для подстановки: ранее разобранный, если набор шаблонов тот же,
+     * иначе разбор заново.
+     *
+     * @param previous      ранее разобранный запрос, может быть null
+     * @param query         запрос
+     * @param substitutions подстановка
+     * @return разобранный запрос
+     */
+    static QueryTemplate of(QueryTemplate previous, String query, Map<String, String> substitutions) {
+        if (previous != null && previous.query == query && previous.accepts(substitutions))
+            return previous;
+        return new QueryTemplate(query, substitutions.keySet());
+    }
+
+    /**
+     * Проверка, что запрос разобран для шаблонов подстановки
+     *
+     * @param substitutions подстановка
+     * @return true - набор шаблонов совпадает
+     */
+    boolean accepts(Map<String, String> substitutions) {
+        if (substitutions.size() != keys.length)
+            return false;
+        for (String key : keys)
+            if (!substitutions.containsKey(key))
+                return false;
+        return true;
+    }
+
+    /**
+     * Запрос разобран и собирается за один проход, а не последовательной подменой
+     *
+     * @return true - запрос разобран
+     */
+    boolean isCompiled() {
+        return compiled;
+    }
+
+    /**
+     * Подмена шаблонов значениями подстановки
+     *
+     * @param substitutions подстановка с теми же шаблонами, что и при разборе
+     * @return запрос с подменами
+     */
+    String render(Map<String, String> substitutions) {
+        if (!compiled)
+            return replaceAll(query, substitutions);
+
+        int length = literalsLength;
+        for (int i = 0; i < keys.length; i++) {
+            values[i] = substitutions.get(keys[i]);
+            if (containsBoundary(values[i]))
+                return replaceAll(query, substitutions);
+        }
+        for (int slot : slots)
+            length += values[slot].length();
+
+        builder.setLength(0);
+        builder.ensureCapacity(length);
+        for (int i = 0; i < slots.length; i++)
+            builder.append(literals[i]).append(values[slots[i]]);
+        builder.append(literals[slots.length]);
+
+        return builder.toString();
+    }
+
+    /**
+     * Последовательная подмена шаблонов в запросе, каждого по всему тексту запроса,
+     * от длинных шаблонов к коротким.
+     *
+     * @param query         Запрос
+     * @param substitutions Подмены. Может быть Null и пустым.
+     * @return Запрос с подменами
+     */
+    static String replaceAll(String query, Map<String, String> substitutions) {
+        if (substitutions != null && substitutions.size() > 0) {
+            List<String> keys = new ArrayList<>(substitutions.keySet());
+            Collections.sort(keys, REPLACE_ORDER);
+            String tmp = query;
+            for (String key : keys) {
+                tmp = tmp.replace(key, substitutions.get(key));
+            }
+            return tmp;
+        } else {
+            return query;
+        }
+    }
+
+    /**
+     * Шаблон, начинающийся в заданной позиции запроса
+     *
+     * @param position позиция
+     * @return номер шаблона, либо -1
+     */
+    private int keyAt(int position) {
+        char c = query.charAt(position);
+        if (c < 128 ? !asciiBoundaries[c] : otherBoundaries.indexOf(c) < 0)
+            return -1;
+        for (int i = 0; i < keys.length; i++)
+            if (query.startsWith(keys[i], position))
+                return i;
+        return -1;
+    }
+
+    /**
+     * Проверка, что шаблоны непустые и не перекрываются друг с другом и сами с собой
+     *
+     * @return true - вхождения шаблонов в тексте не пересекаются
+     */
+    private boolean keysAreSeparate() {
+        for (String key : keys)
+            if (key.isEmpty())
+                return false;
+        for (int i = 0; i < keys.length; i++)
+            for (int j = 0; j < keys.length; j++) {
+                if (i != j && keys[i].contains(keys[j]))
+                    return false;
+                for (int overlap = 1; overlap < Math.min(keys[i].length(), keys[j].length() + (i == j ? 0 : 1)); overlap++)
+                    if (keys[i].regionMatches(keys[i].length() - overlap, keys[j], 0, overlap))
+                        return false;
+            }
+        return true;
+    }
+
+    /**
+     * Проверка, что текст рядом с местами шаблонов не может вместе со значением образовать шаблон:
+     * текст перед местом не заканчивается началом шаблона, текст после - не начинается окончанием
+     *
+     * @return true - новые вхождения шаблонов возможны только внутри значений
+     */
+    private boolean literalsAreSeparate() {
+        for (int i = 0; i < slots.length; i++) {
+            String before = literals[i];
+            String after = literals[i + 1];
+            for (String key : keys)
+                for (int part = 1; part < key.length(); part++) {
+                    if (before.endsWith(key.substring(0, part)))
+                        return false;
+                    if (after.startsWith(key.substring(key.length() - part)))
+                        return false;
+                }
+        }
+        return true;
+    }
+
+    /**
+     * Проверка, что значение содержит первый либо последний символ какого-либо шаблона
+     *
+     * @param value значение
+     * @return true - значение может образовать вхождение шаблона
+     */
+    private boolean containsBoundary(String value) {
+        int length = value.length();
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c < 128 ? asciiBoundaries[c] : otherBoundaries.indexOf(c) >= 0)
+                return true;
+        }
+        return false;
+    }
+}
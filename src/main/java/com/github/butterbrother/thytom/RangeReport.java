@@ -0,0 +1,80 @@
+package com.github.butterbrother.thytom;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Время исполнения частей диапазона ключа ({@link RangeTask}).
+ * <p>
+ * Время каждой части выводится по её завершении. По завершении обработки запросов
+ * ({@link #close()}) для каждого SQL-файла выводится итог: количество частей, суммарное
+ * время, самая быстрая и самая медленная части и отношение самой медленной к среднему -
+ * насколько неравномерно данные распределены по диапазону ключа.
+ * <p>
+ * Отчёт один на запуск, части добавляются из любых потоков.
+ */
+public class RangeReport {
+    private static final Map<String, List<Entry>> files = new LinkedHashMap<>();
+
+    /**
+     * Время части диапазона
+     */
+    private static class Entry {
+        private final KeyRange.Part part;
+        private final String rowID;
+        private final long nanos;
+
+        Entry(KeyRange.Part part, String rowID, long nanos) {
+            this.part = part;
+            this.rowID = rowID;
+            this.nanos = nanos;
+        }
+    }
+
+    /**
+     * Добавление завершённой части
+     *
+     * @param task  задание части
+     * @param nanos время исполнения и сохранения результата
+     */
+    static synchronized void add(RangeTask task, long nanos) {
+        List<Entry> entries = files.get(task.getSqlFileName());
+        if (entries == null) {
+            entries = new ArrayList<>();
+            files.put(task.getSqlFileName(), entries);
+        }
+        entries.add(new Entry(task.getPart(), task.getRowID(), nanos));
+        System.err.println("Range " + task.getPart() + " of " + task.getSqlFileName()
+                + " [" + task.getRowID() + "]: " + nanos / 1000000 + " ms");
+    }
+
+    /**
+     * Вывод итогов по SQL-файлам и очистка отчёта
+     */
+    public static synchronized void close() {
+        for (Map.Entry<String, List<Entry>> file : files.entrySet()) {
+            List<Entry> entries = file.getValue();
+            Entry fastest = entries.get(0);
+            Entry slowest = entries.get(0);
+            long total = 0;
+            for (Entry entry : entries) {
+                total += entry.nanos;
+                if (entry.nanos < fastest.nanos)
+                    fastest = entry;
+                if (entry.nanos > slowest.nanos)
+                    slowest = entry;
+            }
+            double average = (double) total / entries.size();
+
+            System.err.println(String.format("Ranges of %s: %d ranges, %d ms in total, " +
+                            "fastest %s [%s] %d ms, slowest %s [%s] %d ms, slowest/average %.2f",
+                    file.getKey(), entries.size(), total / 1000000,
+                    fastest.part, fastest.rowID, fastest.nanos / 1000000,
+                    slowest.part, slowest.rowID, slowest.nanos / 1000000,
+                    average > 0 ? slowest.nanos / average : 1.0));
+        }
+        files.clear();
+    }
+}
@@ -0,0 +1,33 @@
+package com.github.butterbrother.thytom;
+
+/**
+ * Запрос одной части диапазона ключа, см. {@link KeyRange}.
+ * Время исполнения и сохранения результата каждой части выводится
+ * и попадает в итоговый отчёт {@link RangeReport}.
+ */
+public class RangeTask extends QueryTask {
+    private KeyRange.Part part;
+
+    /**
+     * Инициализация.
+     *
+     * @param sqlFileName Имя SQL-файла. См. {@link SQLFile#getFileName()}
+     * @param query       Запрос с применёнными подстановками, включая границы части
+     * @param bindValues  Значения параметров JDBC. null - запрос без параметров.
+     * @param rowID       ID подстановки с ID части, см. {@link KeyRange.Part#getID()}
+     * @param part        Часть диапазона ключа
+     */
+    public RangeTask(String sqlFileName, String query, String[] bindValues, String rowID, KeyRange.Part part) {
+        super(sqlFileName, query, bindValues, rowID);
+        this.part = part;
+    }
+
+    /**
+     * Часть диапазона ключа
+     *
+     * @return часть
+     */
+    public KeyRange.Part getPart() {
+        return part;
+    }
+}
@@ -0,0 +1,658 @@
+package com.github.butterbrother.thytom;
+
+import java.io.InterruptedIOException;
+import java.sql.Blob;
+import java.sql.Clob;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Копирование результатов запросов в таблицы второй БД вместо сохранения в файлы.
+ * <p>
+ * Включается параметром target.url в файле конфигурации. Строки результата читаются
+ * в текущем потоке порциями по {@link ConfigFile#getTargetBatchSize()} строк, а вставляются
+ * пакетами ({@link PreparedStatement#executeBatch()}) в отдельных потоках вставки, каждый
+ * со своим подключением к целевой БД. Транзакция фиксируется после каждых
+ * {@link ConfigFile#getTargetCommitBatches()} пакетов потока, при простое потока дольше
+ * {@link #IDLE_COMMIT_MILLIS} и при завершении работы.
+ * <p>
+ * Копирование результата считается завершённым только после фиксации всех его порций.
+ * Если вставка порции не удалась, то транзакция потока откатывается, и копирование всех
+ * результатов, чьи нефиксированные порции были в этой транзакции, завершается ошибкой.
+ * <p>
+ * Запрос вставки строится по метаданным результата: insert into таблица (столбцы) values (?, ...),
+ * имена столбцов - метки столбцов результата. Таблица задаётся шаблоном с именем SQL-файла
+ * ({@link #SQL_FILE_TEMPLATE}) и при необходимости создаётся по типам столбцов результата.
+ * Значения читаются методами по типу столбца результата (getString, getBigDecimal, getTimestamp...),
+ * а не getObject(), чтобы в целевой драйвер не передавались классы исходного драйвера.
+ * Значения CLOB/BLOB читаются целиком, т.к. вставляются уже после перехода к следующей строке.
+ * <p>
+ * Копировщик один на запуск и используется всеми исполнителями запросов. Подключается к целевой БД
+ * при копировании первого результата, отключается через {@link #close()}.
+ */
+public class ResultCopier {
+    /**
+     * Шаблон имени SQL-файла без расширения .sql в имени целевой таблицы
+     */
+    public static final String SQL_FILE_TEMPLATE = "{SQL}";
+
+    /**
+     * Простой потока вставки, после которого фиксируется транзакция
+     */
+    static final long IDLE_COMMIT_MILLIS = 200;
+
+    /**
+     * Маркер окончания работы потоков вставки
+     */
+    private static final Batch END = new Batch();
+
+    private static ResultCopier instance = null;
+
+    private final ConfigFile config;
+    private final BlockingQueue<Batch> queue;
+    private final List<Inserter> inserters = new ArrayList<>();
+    private final boolean ownsConnections;
+
+    // Статистика
+    private final AtomicLong rows = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong commits = new AtomicLong();
+    private final long startedNanos = System.nanoTime();
+
+    /**
+     * Порция строк одного результата для вставки
+     */
+    private static class Batch {
+        private final String insert;
+        private final String table;
+        private final Object[][] values;
+        private final int[] types;
+        private final Copy copy;
+        private int size = 0;
+
+        private Batch() {
+            this.insert = null;
+            this.table = null;
+            this.values = null;
+            this.types = null;
+            this.copy = null;
+        }
+
+        private Batch(Copy copy, int capacity) {
+            this.insert = copy.insert;
+            this.table = copy.table;
+            this.values = new Object[capacity][copy.types.length];
+            this.types = copy.types;
+            this.copy = copy;
+        }
+    }
+
+    /**
+     * Копирование одного результата: запрос вставки, таблица и ход вставки его порций
+     */
+    private static class Copy {
+        private final String insert;
+        private final String table;
+        private final String create;
+        private final int[] types;
+        private int pending = 0;
+        private SQLException error = null;
+
+        private Copy(String insert, String table, String create, int[] types) {
+            this.insert = insert;
+            this.table = table;
+            this.create = create;
+            this.types = types;
+        }
+
+        private synchronized void submitted() {
+            pending++;
+        }
+
+        /**
+         * Порция зафиксирована либо не вставлена
+         *
+         * @param batchError ошибка вставки либо фиксации. null - порция зафиксирована
+         */
+        private synchronized void done(SQLException batchError) {
+            if (error == null)
+                error = batchError;
+            pending--;
+            notifyAll();
+        }
+
+        private synchronized void await() throws InterruptedIOException, SQLException {
+            try {
+                while (pending > 0)
+                    wait();
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException("Interrupted while waiting for inserts into " + table);
+            }
+            if (error != null)
+                throw error;
+        }
+    }
+
+    /**
+     * Подключение к целевой БД и запуск потоков вставки.
+     *
+     * @param config Параметры из файла конфигурации
+     * @throws SQLException Ошибка подключения либо загрузки драйвера
+     */
+    ResultCopier(ConfigFile config) throws SQLException {
+        if (!config.getTargetDriver().isEmpty())
+            QueriesExecutor.registerDriver(config.getTargetDriver());
+
+        List<Connection> connections = new ArrayList<>();
+        try {
+            for (int i = 0; i < config.getTargetThreads(); i++)
+                connections.add(!config.getTargetLogin().isEmpty() || !config.getTargetPassword().isEmpty()
+                        ? DriverManager.getConnection(config.getTargetUrl(), config.getTargetLogin(), config.getTargetPassword())
+                        : DriverManager.getConnection(config.getTargetUrl()));
+        } catch (SQLException e) {
+            for (Connection connection : connections)
+                try {
+                    connection.close();
+                } catch (SQLException ignore) {
+                }
+            throw e;
+        }
+
+        this.config = config;
+        this.queue = new ArrayBlockingQueue<>(connections.size() * 2);
+        this.ownsConnections = true;
+        start(connections);
+    }
+
+    /**
+     * Запуск потоков вставки на уже открытых подключениях.
+     * Используется для подключений, которые нельзя открыть повторно по URL, например БД в памяти.
+     *
+     * @param config      Параметры из файла конфигурации
+     * @param connections Подключения к целевой БД, по одному на поток вставки. Не закрываются
+     * @throws SQLException Ошибка настройки подключения
+     */
+    ResultCopier(ConfigFile config, List<Connection> connections) throws SQLException {
+        this.config = config;
+        this.queue = new ArrayBlockingQueue<>(connections.size() * 2);
+        this.ownsConnections = false;
+        start(connections);
+    }
+
+    /**
+     * Запуск потоков вставки
+     *
+     * @param connections подключения к целевой БД
+     * @throws SQLException Ошибка настройки подключения
+     */
+    private void start(List<Connection> connections) throws SQLException {
+        for (Connection connection : connections)
+            connection.setAutoCommit(false);
+        for (int i = 0; i < connections.size(); i++)
+            inserters.add(new Inserter(i + 1, connections.get(i)));
+        for (Inserter inserter : inserters)
+            inserter.start();
+    }
+
+    /**
+     * Общий копировщик. Подключается к целевой БД при первом обращении.
+     *
+     * @param config Параметры из файла конфигурации
+     * @return копировщик
+     * @throws SQLException Ошибка подключения к целевой БД
+     */
+    static synchronized ResultCopier open(ConfigFile config) throws SQLException {
+        if (instance == null) {
+            System.err.println("Connecting to target " + config.getTargetUrl()
+                    + " with " + config.getTargetThreads() + " insert threads");
+            instance = new ResultCopier(config);
+        }
+
+        return instance;
+    }
+
+    /**
+     * Копирование результата запроса в целевую таблицу.
+     * Возвращает управление после вставки и фиксации всех строк результата.
+     *
+     * @param sqlFileName Имя SQL-файла, для имени таблицы
+     * @param rowID       ID подстановки. Записывается в первый столбец {@link ResultSaver#ROW_ID_LABEL},
+     *                    если он включён ({@link ConfigFile#isTargetRowId()})
+     * @param results     Результат запроса. Не закрывается
+     * @return количество скопированных строк
+     * @throws SQLException         Ошибка чтения результата либо вставки
+     * @throws InterruptedIOException Ожидание вставки прервано
+     */
+    public long copy(String sqlFileName, String rowID, ResultSet results)
+            throws SQLException, InterruptedIOException {
+        FetchSizeController fetchSize = new FetchSizeController(config, sqlFileName);
+        Copy copy = prepare(sqlFileName, results.getMetaData());
+        boolean rowIdColumn = config.isTargetRowId();
+        int first = rowIdColumn ? 1 : 0;
+        int batchSize = config.getTargetBatchSize();
+
+        long copied = 0;
+        fetchSize.start(results);
+        try {
+            Batch batch = new Batch(copy, batchSize);
+            while (fetchSize.next(results)) {
+                Object[] row = batch.values[batch.size++];
+                int rowChars = 0;
+                if (rowIdColumn)
+                    row[0] = rowID;
+                for (int i = first; i < row.length; i++) {
+                    row[i] = readValue(results, i - first + 1, copy.types[i]);
+                    rowChars += row[i] instanceof String ? ((String) row[i]).length() : 8;
+                }
+                fetchSize.rowWritten(rowChars);
+                copied++;
+
+                if (batch.size == batchSize) {
+                    submit(batch);
+                    batch = new Batch(copy, batchSize);
+                }
+            }
+            if (batch.size > 0)
+                submit(batch);
+        } finally {
+            copy.await();
+        }
+        fetchSize.finish();
+
+        rows.addAndGet(copied);
+        return copied;
+    }
+
+    /**
+     * Чтение значения столбца для вставки методом по типу столбца. LOB читаются целиком,
+     * т.к. становятся недоступны после перехода к следующей строке.
+     * Значения прочих типов читаются текстом.
+     *
+     * @param results результат запроса
+     * @param column  номер столбца, начиная с 1
+     * @param type    тип столбца, см. {@link Types}
+     * @return значение, либо null
+     * @throws SQLException Ошибка получения данных
+     */
+    private static Object readValue(ResultSet results, int column, int type) throws SQLException {
+        Object value;
+        switch (type) {
+            case Types.BIT:
+            case Types.BOOLEAN:
+                value = results.getBoolean(column);
+                break;
+            case Types.TINYINT:
+            case Types.SMALLINT:
+            case Types.INTEGER:
+                value = results.getInt(column);
+                break;
+            case Types.BIGINT:
+                value = results.getLong(column);
+                break;
+            case Types.REAL:
+                value = results.getFloat(column);
+                break;
+            case Types.FLOAT:
+            case Types.DOUBLE:
+                value = results.getDouble(column);
+                break;
+            case Types.NUMERIC:
+            case Types.DECIMAL:
+                return results.getBigDecimal(column);
+            case Types.DATE:
+                return results.getDate(column);
+            case Types.TIME:
+                return results.getTime(column);
+            case Types.TIMESTAMP:
+                return results.getTimestamp(column);
+            case Types.BINARY:
+            case Types.VARBINARY:
+            case Types.LONGVARBINARY:
+                return results.getBytes(column);
+            case Types.BLOB:
+                Blob blob = results.getBlob(column);
+                return blob != null ? blob.getBytes(1, (int) blob.length()) : null;
+            case Types.CLOB:
+            case Types.NCLOB:
+                Clob clob = results.getClob(column);
+                return clob != null ? clob.getSubString(1, (int) clob.length()) : null;
+            default:
+                return results.getString(column);
+        }
+        return results.wasNull() ? null : value;
+    }
+
+    /**
+     * Построение запроса вставки и запроса создания таблицы по метаданным результата
+     *
+     * @param sqlFileName имя SQL-файла
+     * @param metaData    метаданные результата
+     * @return описание копирования
+     * @throws SQLException Ошибка получения метаданных
+     */
+    private Copy prepare(String sqlFileName, ResultSetMetaData metaData) throws SQLException {
+        String sqlName = sqlFileName.endsWith(".sql")
+                ? sqlFileName.substring(0, sqlFileName.length() - ".sql".length())
+                : sqlFileName;
+        String table = config.getTargetTable().replace(SQL_FILE_TEMPLATE, sqlName);
+
+        boolean rowIdColumn = config.isTargetRowId();
+        int count = metaData.getColumnCount();
+        int[] types = new int[count + (rowIdColumn ? 1 : 0)];
+        StringBuilder columns = new StringBuilder();
+        StringBuilder values = new StringBuilder();
+        StringBuilder create = new StringBuilder("create table ").append(table).append(" (");
+        if (rowIdColumn) {
+            types[0] = Types.VARCHAR;
+            columns.append(ResultSaver.ROW_ID_LABEL);
+            values.append('?');
+            create.append(ResultSaver.ROW_ID_LABEL).append(" varchar(255)");
+        }
+        for (int i = 1; i <= count; i++) {
+            int index = i - 1 + (rowIdColumn ? 1 : 0);
+            types[index] = metaData.getColumnType(i);
+            if (index > 0) {
+                columns.append(", ");
+                values.append(", ");
+                create.append(", ");
+            }
+            columns.append(metaData.getColumnLabel(i));
+            values.append('?');
+            create.append(metaData.getColumnLabel(i)).append(' ').append(columnType(metaData, i));
+        }
+        create.append(')');
+
+        return new Copy("insert into " + table + " (" + columns + ") values (" + values + ")",
+                table, config.isTargetCreateTable() ? create.toString() : null, types);
+    }
+
+    /**
+     * Тип столбца для создания таблицы: имя типа в исходной БД, с размером для строк и чисел
+     *
+     * @param metaData метаданные результата
+     * @param column   номер столбца
+     * @return тип столбца
+     * @throws SQLException Ошибка получения метаданных
+     */
+    private static String columnType(ResultSetMetaData metaData, int column) throws SQLException {
+        String type = metaData.getColumnTypeName(column);
+        int precision = metaData.getPrecision(column);
+        if (type == null || type.isEmpty() || type.indexOf('(') >= 0 || precision <= 0)
+            return type == null || type.isEmpty() ? "varchar(4000)" : type;
+
+        switch (metaData.getColumnType(column)) {
+            case Types.CHAR:
+            case Types.NCHAR:
+            case Types.VARCHAR:
+            case Types.NVARCHAR:
+                return type + "(" + precision + ")";
+            case Types.NUMERIC:
+            case Types.DECIMAL:
+                return type + "(" + precision + (metaData.getScale(column) > 0 ? "," + metaData.getScale(column) : "") + ")";
+            default:
+                return type;
+        }
+    }
+
+    /**
+     * Передача порции потокам вставки
+     *
+     * @param batch заполненная порция
+     * @throws InterruptedIOException Ожидание прервано
+     */
+    private void submit(Batch batch) throws InterruptedIOException {
+        batch.copy.submitted();
+        try {
+            queue.put(batch);
+        } catch (InterruptedException e) {
+            batch.copy.done(null);
+            throw new InterruptedIOException("Interrupted while waiting for inserts into " + batch.table);
+        }
+    }
+
+    /**
+     * Завершение потоков вставки с фиксацией транзакций и отключение от целевой БД,
+     * если копировщик подключался сам.
+     *
+     * @throws SQLException Ошибка фиксации последней транзакции одного из потоков
+     */
+    void finish() throws SQLException {
+        boolean interrupted = false;
+        for (int i = 0; i < inserters.size(); ) {
+            try {
+                queue.put(END);
+                i++;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+
+        SQLException error = null;
+        for (Inserter inserter : inserters) {
+            while (inserter.isAlive()) {
+                try {
+                    inserter.join();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (error == null)
+                error = inserter.closeError;
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+
+        double seconds = (System.nanoTime() - startedNanos) / 1e9;
+        System.err.println(String.format("Copied %d rows in %d batches with %d commits on %d threads, %.0f rows/s",
+                rows.get(), batches.get(), commits.get(), inserters.size(),
+                seconds > 0 ? rows.get() / seconds : 0.0));
+
+        if (error != null)
+            throw error;
+    }
+
+    /**
+     * Завершение общего копировщика, если он подключался.
+     *
+     * @throws SQLException Ошибка фиксации последней транзакции
+     */
+    public static synchronized void close() throws SQLException {
+        if (instance != null)
+            try {
+                instance.finish();
+            } finally {
+                instance = null;
+            }
+    }
+
+    /**
+     * Поток вставки со своим подключением к целевой БД.
+     * Запросы вставки подготавливаются однократно для каждой таблицы.
+     */
+    private class Inserter extends Thread {
+        private final Connection connection;
+        private final Map<String, PreparedStatement> statements = new HashMap<>();
+        private final Set<String> checkedTables = new HashSet<>();
+        // Вставленные, но ещё не зафиксированные порции
+        private final List<Batch> uncommitted = new ArrayList<>();
+        private volatile SQLException closeError = null;
+
+        private Inserter(int number, Connection connection) {
+            super("thytom-inserter-" + number);
+            this.connection = connection;
+        }
+
+        @Override
+        public void run() {
+            try {
+                for (Batch batch; ; ) {
+                    batch = uncommitted.isEmpty()
+                            ? queue.take()
+                            : queue.poll(IDLE_COMMIT_MILLIS, TimeUnit.MILLISECONDS);
+                    if (batch == END)
+                        break;
+
+                    try {
+                        if (batch == null) {
+                            commit();
+                            continue;
+                        }
+                        insert(batch);
+                        uncommitted.add(batch);
+                        if (uncommitted.size() >= config.getTargetCommitBatches())
+                            commit();
+                    } catch (SQLException | RuntimeException e) {
+                        rollback(batch, e);
+                    }
+                }
+                commit();
+            } catch (InterruptedException e) {
+                closeError = new SQLException("Insert thread interrupted");
+                rollback(null, closeError);
+            } catch (SQLException e) {
+                closeError = e;
+                rollback(null, e);
+            } finally {
+                for (PreparedStatement statement : statements.values())
+                    try {
+                        statement.close();
+                    } catch (SQLException ignore) {
+                    }
+                if (ownsConnections)
+                    try {
+                        connection.close();
+                    } catch (SQLException e) {
+                        if (closeError == null)
+                            closeError = e;
+                    }
+            }
+        }
+
+        /**
+         * Фиксация транзакции и завершение зафиксированных порций
+         *
+         * @throws SQLException Ошибка фиксации
+         */
+        private void commit() throws SQLException {
+            if (uncommitted.isEmpty())
+                return;
+
+            connection.commit();
+            commits.incrementAndGet();
+            for (Batch batch : uncommitted)
+                batch.copy.done(null);
+            uncommitted.clear();
+        }
+
+        /**
+         * Откат транзакции после ошибки. Копирование результатов всех нефиксированных порций
+         * и неудачной порции завершается ошибкой.
+         *
+         * @param failed неудачная порция, null - ошибка фиксации
+         * @param cause  ошибка
+         */
+        private void rollback(Batch failed, Exception cause) {
+            try {
+                connection.rollback();
+            } catch (SQLException ignore) {
+            }
+
+            String target = failed != null ? failed.table : "target database";
+            SQLException error = cause instanceof SQLException
+                    ? (SQLException) cause
+                    : new SQLException("Unable to insert into " + target + ": " + cause, cause);
+            if (failed != null && !uncommitted.contains(failed))
+                uncommitted.add(failed);
+            for (Batch batch : uncommitted)
+                batch.copy.done(failed != null && batch.copy == failed.copy ? error
+                        : new SQLException("Inserts into " + batch.table + " are rolled back after failed insert into "
+                        + target + ": " + error.getMessage(), error));
+            uncommitted.clear();
+        }
+
+        /**
+         * Вставка порции пакетом, без фиксации транзакции
+         *
+         * @param batch порция строк
+         * @throws SQLException Ошибка вставки
+         */
+        private void insert(Batch batch) throws SQLException {
+            if (batch.copy.create != null && checkedTables.add(batch.table))
+                createTable(batch);
+
+            PreparedStatement statement = statements.get(batch.insert);
+            if (statement == null) {
+                statement = connection.prepareStatement(batch.insert);
+                statements.put(batch.insert, statement);
+            }
+
+            for (int row = 0; row < batch.size; row++) {
+                Object[] values = batch.values[row];
+                for (int i = 0; i < values.length; i++) {
+                    if (values[i] == null)
+                        statement.setNull(i + 1, batch.types[i]);
+                    else
+                        statement.setObject(i + 1, values[i]);
+                }
+                statement.addBatch();
+            }
+            statement.executeBatch();
+            batches.incrementAndGet();
+        }
+
+        /**
+         * Создание целевой таблицы, если её нет. Если таблицу одновременно создал
+         * другой поток, ошибка создания не учитывается.
+         *
+         * @param batch порция строк таблицы
+         * @throws SQLException Ошибка создания таблицы
+         */
+        private void createTable(Batch batch) throws SQLException {
+            if (tableExists(batch.table))
+                return;
+
+            try (Statement statement = connection.createStatement()) {
+                statement.executeUpdate(batch.copy.create);
+                connection.commit();
+            } catch (SQLException e) {
+                connection.rollback();
+                if (!tableExists(batch.table))
+                    throw e;
+            }
+        }
+
+        /**
+         * Проверка наличия таблицы в целевой БД. Имя проверяется как указано, в верхнем и нижнем регистре.
+         *
+         * @param table имя таблицы
+         * @return true - таблица есть
+         * @throws SQLException Ошибка получения метаданных
+         */
+        private boolean tableExists(String table) throws SQLException {
+            DatabaseMetaData metaData = connection.getMetaData();
+            for (String name : new String[]{table, table.toUpperCase(), table.toLowerCase()})
+                try (ResultSet tables = metaData.getTables(null, null, name, null)) {
+                    if (tables.next())
+                        return true;
+                }
+            return false;
+        }
+    }
+}
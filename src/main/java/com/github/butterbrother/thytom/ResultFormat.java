@@ -0,0 +1,57 @@
+package com.github.butterbrother.thytom;
+
+/**
+ * Формат файлов с результатами.
+ * <p>
+ * Выбирается параметром file.result.format в файле конфигурации.
+ */
+public enum ResultFormat {
+    /**
+     * Текст с разделителями столбцов, см. {@link ResultSaver}
+     */
+    TEXT(".txt"),
+    /**
+     * Колоночный двоичный формат с типами столбцов, см. {@link ColumnarWriter} и {@link ColumnarReader}
+     */
+    COLUMNAR(".tcol"),
+    /**
+     * JSON Lines: объект с метками столбцов в каждой строке, числа и логические значения без кавычек,
+     * см. {@link ResultSaver} и {@link JsonText}
+     */
+    JSON(".jsonl");
+
+    private final String extension;
+
+    /**
+     * Инициализация.
+     *
+     * @param extension расширение файла с результатами
+     */
+    ResultFormat(String extension) {
+        this.extension = extension;
+    }
+
+    /**
+     * Расширение файла с результатами, заменяющее расширение .sql
+     *
+     * @return расширение
+     */
+    public String getExtension() {
+        return extension;
+    }
+
+    /**
+     * Определение формата по имени
+     *
+     * @param name имя: text, columnar, json
+     * @return формат, либо null, если имя не опознано
+     */
+    public static ResultFormat fromName(String name) {
+        for (ResultFormat format : values()) {
+            if (format.name().equalsIgnoreCase(name.trim()))
+                return format;
+        }
+
+        return null;
+    }
+}
@@ -0,0 +1,735 @@
+package com.github.butterbrother.thytom;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ParameterMetaData;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Загрузка файла с результатами запроса, сохранённого {@link ResultSaver}, в таблицу БД.
+ * Включается параметром командной строки -I/--import.
+ * <p>
+ * Формат файла задаётся теми же параметрами командной строки, что и при сохранении:
+ * разделитель столбцов, заголовок таблицы в первой строке, заголовки в каждой строке и их разделитель,
+ * null текстом, trim. Строковые значения заключены в двойные кавычки, кавычки внутри значения
+ * не экранируются, поэтому значение заканчивается на первой кавычке перед разделителем столбцов
+ * либо концом строки. Пустое значение без кавычек (и null без кавычек при выводе null текстом)
+ * загружается как NULL. Значения передаются в запрос вставки строками, преобразование
+ * типов выполняет драйвер либо БД.
+ * <p>
+ * Файл делится на диапазоны байт, границы которых сдвигаются к началу следующей строки,
+ * поэтому кодировка файла должна кодировать перевод строки одним байтом (UTF-8, однобайтные).
+ * Диапазоны загружаются параллельно потоками, у каждого своё подключение к БД, пакетами
+ * {@link PreparedStatement#executeBatch()} с фиксацией транзакции через заданное количество пакетов.
+ * <p>
+ * Строки, которые не удалось разобрать либо вставить, отклоняются: записываются в каталог out,
+ * в файл &lt;имя файла&gt;{@link #REJECT_EXTENSION} (с заголовком таблицы, если он есть, чтобы файл
+ * можно было загрузить повторно), а причины - в &lt;имя файла&gt;{@link #REJECT_LOG_EXTENSION}
+ * со смещением строки в исходном файле. При ошибке пакета незафиксированные строки потока
+ * вставляются повторно по одной, чтобы отклонить только ошибочные.
+ */
+public class ResultImporter {
+    /**
+     * Расширение файла отклонённых строк
+     */
+    public static final String REJECT_EXTENSION = ".rej";
+
+    /**
+     * Расширение файла причин отклонения строк
+     */
+    public static final String REJECT_LOG_EXTENSION = ".rej.log";
+
+    /**
+     * Размер пакета вставки, если пакетное исполнение не задано
+     */
+    public static final int DEFAULT_BATCH_SIZE = 1000;
+
+    /**
+     * Наименьший размер диапазона байт файла, загружаемого одним потоком
+     */
+    public static final long MIN_RANGE_BYTES = 4L * 1024 * 1024;
+
+    /**
+     * Количество диапазонов на поток, чтобы потоки, закончившие раньше, забирали оставшиеся диапазоны
+     */
+    private static final int RANGES_PER_WORKER = 4;
+
+    private final ConfigFile config;
+    private final Path file;
+    private final String table;
+    private final Charset charset;
+
+    private final String columnDelimiter;
+    private final boolean headPerLine;
+    private final String headDataDelimiter;
+    private final boolean titleHead;
+    private final boolean showNull;
+    private final boolean trim;
+
+    private final int workers;
+    private final int batchSize;
+    private final int commitBatches;
+
+    // Столбцы, определяются по первой строке файла
+    private String[] columns = null;
+    private int columnsCount = 0;
+    private String headLine = null;
+    private long dataStart = 0;
+
+    // Отклонённые строки
+    private BufferedWriter rejects = null;
+    private BufferedWriter rejectLog = null;
+    private Path rejectsPath = null;
+
+    // Статистика
+    private final AtomicLong loaded = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+
+    /**
+     * Инициализация.
+     *
+     * @param cli    Параметры командной строки: загружаемый файл, таблица, формат файла
+     * @param config Параметры из файла конфигурации
+     */
+    public ResultImporter(CLIOptions cli, ConfigFile config) {
+        this.config = config;
+        this.file = cli.getImportFile();
+        String fileName = file.getFileName().toString();
+        this.table = cli.getImportTable() != null
+                ? cli.getImportTable()
+                : fileName.indexOf('.') > 0 ? fileName.substring(0, fileName.indexOf('.')) : fileName;
+        this.charset = config.getResultsFileCharset();
+
+        this.columnDelimiter = cli.getColumnDelimiter();
+        this.headPerLine = cli.needShowHeadersPerLine();
+        this.headDataDelimiter = cli.getHeadDataDelimiter();
+        this.titleHead = cli.needShowTitleHeader();
+        this.showNull = cli.needShowNull();
+        this.trim = cli.needTrimResult();
+
+        this.workers = cli.getParallelWorkers() > 0 ? cli.getParallelWorkers() : config.getParallelWorkers();
+        int batch = cli.getBatchSize() > 0 ? cli.getBatchSize() : config.getBatchSize();
+        this.batchSize = batch > 0 ? batch : DEFAULT_BATCH_SIZE;
+        this.commitBatches = cli.getCommitBatches() > 0 ? cli.getCommitBatches() : config.getCommitBatches();
+    }
+
+    /**
+     * Загрузка файла через собственные подключения к БД из файла конфигурации.
+     *
+     * @return количество загруженных строк
+     * @throws SQLException Ошибка подключения либо загрузки драйвера
+     * @throws IOException  Ошибка чтения файла либо записи отклонённых строк
+     */
+    public long load() throws SQLException, IOException {
+        if (!config.getDriver().isEmpty())
+            QueriesExecutor.registerDriver(config.getDriver());
+
+        List<Connection> connections = new ArrayList<>();
+        try {
+            for (int i = 0; i < workers; i++)
+                connections.add(!config.getLogin().isEmpty() || !config.getPassword().isEmpty()
+                        ? DriverManager.getConnection(config.getUrl(), config.getLogin(), config.getPassword())
+                        : DriverManager.getConnection(config.getUrl()));
+
+            long dataBytes = Files.size(file);
+            int ranges = (int) Math.max(1, Math.min((long) workers * RANGES_PER_WORKER, dataBytes / MIN_RANGE_BYTES));
+            return load(connections, ranges);
+        } finally {
+            for (Connection connection : connections)
+                try {
+                    connection.close();
+                } catch (SQLException ignore) {
+                }
+        }
+    }
+
+    /**
+     * Загрузка файла через уже открытые подключения, по одному потоку на подключение.
+     *
+     * @param connections Подключения к БД. Не закрываются
+     * @param ranges      Количество диапазонов, на которые делится файл
+     * @return количество загруженных строк
+     * @throws SQLException Ошибка вставки, не связанная с отдельной строкой, например разрыв подключения
+     * @throws IOException  Ошибка чтения файла либо записи отклонённых строк
+     */
+    long load(List<Connection> connections, int ranges) throws SQLException, IOException {
+        long started = System.nanoTime();
+        try {
+            readHead();
+            if (columnsCount == 0) {
+                System.err.println("File " + file + " has no rows to import");
+                return 0;
+            }
+
+            long[] bounds = split(file, dataStart, ranges);
+            String insert = getInsertQuery();
+            AtomicInteger nextRange = new AtomicInteger();
+
+            List<Loader> loaders = new ArrayList<>();
+            for (int i = 0; i < connections.size(); i++)
+                loaders.add(new Loader(i + 1, connections.get(i), insert, bounds, nextRange));
+            for (Loader loader : loaders)
+                loader.start();
+
+            boolean interrupted = false;
+            Exception error = null;
+            for (Loader loader : loaders) {
+                while (loader.isAlive())
+                    try {
+                        loader.join();
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                        for (Loader other : loaders)
+                            other.interrupt();
+                    }
+                if (error == null)
+                    error = loader.error;
+            }
+            if (interrupted)
+                throw new InterruptedIOException("Import of " + file + " interrupted");
+            if (error instanceof SQLException)
+                throw (SQLException) error;
+            if (error != null)
+                throw (IOException) error;
+        } finally {
+            closeRejects();
+        }
+
+        double seconds = (System.nanoTime() - started) / 1e9;
+        System.err.println(String.format("Imported %d rows of %s into %s in %d batches on %d connections, %.1f s, %.0f rows/s",
+                loaded.get(), file, table, batches.get(), connections.size(), seconds,
+                seconds > 0 ? loaded.get() / seconds : 0.0));
+        if (rejected.get() > 0)
+            System.err.println("Rejected " + rejected.get() + " lines into " + rejectsPath);
+
+        return loaded.get();
+    }
+
+    /**
+     * Количество отклонённых строк последней загрузки
+     *
+     * @return количество строк
+     */
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+
+    /**
+     * Определение столбцов по первой строке файла: по заголовку таблицы, по заголовкам в строке,
+     * либо только количества столбцов по первой строке данных.
+     *
+     * @throws IOException Ошибка чтения файла либо первая строка не разбирается
+     */
+    private void readHead() throws IOException {
+        String first;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            LineReader reader = new LineReader(channel, charset, 0);
+            first = reader.readLine();
+            if (titleHead)
+                dataStart = reader.getPosition();
+        }
+        if (first == null || first.isEmpty())
+            return;
+
+        if (titleHead) {
+            List<String> names = new ArrayList<>();
+            for (int pos = 0; ; ) {
+                int end = first.indexOf(columnDelimiter, pos);
+                names.add(first.substring(pos, end < 0 ? first.length() : end));
+                if (end < 0)
+                    break;
+                pos = end + columnDelimiter.length();
+            }
+            columns = names.toArray(new String[names.size()]);
+            headLine = first;
+        } else {
+            List<String> names = headPerLine ? new ArrayList<String>() : null;
+            try {
+                columnsCount = parseLine(first, names).length;
+            } catch (ParseException e) {
+                throw new IOException("Unable to determine columns from first line: " + e.getMessage());
+            }
+            if (names != null)
+                columns = names.toArray(new String[names.size()]);
+        }
+        columnsCount = columns != null ? columns.length : columnsCount;
+    }
+
+    /**
+     * Запрос вставки, со списком столбцов, если их имена известны
+     *
+     * @return запрос вставки
+     */
+    private String getInsertQuery() {
+        StringBuilder insert = new StringBuilder("insert into ").append(table);
+        StringBuilder values = new StringBuilder();
+        if (columns != null)
+            insert.append(" (");
+        for (int i = 0; i < columnsCount; i++) {
+            if (i > 0) {
+                values.append(", ");
+                if (columns != null)
+                    insert.append(", ");
+            }
+            values.append('?');
+            if (columns != null)
+                insert.append(columns[i]);
+        }
+        if (columns != null)
+            insert.append(')');
+
+        return insert.append(" values (").append(values).append(')').toString();
+    }
+
+    /**
+     * Разбор строки файла на значения столбцов.
+     *
+     * @param line  строка без перевода строки
+     * @param names заголовки столбцов из строки при заголовках в каждой строке, заполняются при разборе.
+     *              null - заголовки сверяются с уже определёнными столбцами
+     * @return значения столбцов, null - NULL
+     * @throws ParseException строка не соответствует формату
+     */
+    String[] parseLine(String line, List<String> names) throws ParseException {
+        List<String> values = new ArrayList<>(columnsCount > 0 ? columnsCount : 16);
+        for (int pos = 0; ; ) {
+            int field = values.size();
+            if (headPerLine) {
+                int separator = line.indexOf(headDataDelimiter, pos);
+                if (separator < 0)
+                    throw new ParseException("No header in field " + (field + 1), pos);
+                String name = line.substring(pos, separator);
+                if (names != null)
+                    names.add(name);
+                else if (columns != null && field < columns.length && !columns[field].equals(name))
+                    throw new ParseException("Unexpected header " + name + " in field " + (field + 1), pos);
+                pos = separator + headDataDelimiter.length();
+            }
+
+            String value;
+            int end;
+            if (pos < line.length() && line.charAt(pos) == '"') {
+                int close = line.indexOf("\"" + columnDelimiter, pos + 1);
+                if (close < 0) {
+                    if (line.length() - pos < 2 || line.charAt(line.length() - 1) != '"')
+                        throw new ParseException("Unclosed quote in field " + (field + 1), pos);
+                    close = line.length() - 1;
+                }
+                value = line.substring(pos + 1, close);
+                end = close + 1;
+                if (trim)
+                    value = value.trim();
+            } else {
+                end = line.indexOf(columnDelimiter, pos);
+                if (end < 0)
+                    end = line.length();
+                value = line.substring(pos, end);
+                if (trim)
+                    value = value.trim();
+                if (value.isEmpty() || showNull && value.equals("null"))
+                    value = null;
+            }
+            values.add(value);
+
+            if (end >= line.length())
+                break;
+            pos = end + columnDelimiter.length();
+        }
+
+        return values.toArray(new String[values.size()]);
+    }
+
+    /**
+     * Деление файла на диапазоны байт по границам строк.
+     * Каждая граница сдвигается к началу строки, следующей за переводом строки,
+     * поэтому строка целиком принадлежит диапазону, в котором она начинается.
+     *
+     * @param file   файл
+     * @param start  смещение первой строки данных
+     * @param ranges количество диапазонов. Пустые диапазоны отбрасываются
+     * @return границы диапазонов: от start до размера файла, по возрастанию
+     * @throws IOException Ошибка чтения файла
+     */
+    static long[] split(Path file, long start, int ranges) throws IOException {
+        long size = Files.size(file);
+        List<Long> bounds = new ArrayList<>();
+        bounds.add(start);
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(8192);
+            for (int i = 1; i < ranges; i++) {
+                long nominal = start + (size - start) * i / ranges;
+                long previous = bounds.get(bounds.size() - 1);
+                if (nominal <= previous)
+                    continue;
+
+                // Начало строки: байт после ближайшего перевода строки, начиная с предыдущего байта
+                long aligned = size;
+                search:
+                for (long position = nominal - 1; position < size; ) {
+                    buffer.clear();
+                    int read = channel.read(buffer, position);
+                    if (read <= 0)
+                        break;
+                    for (int j = 0; j < read; j++)
+                        if (buffer.get(j) == '\n') {
+                            aligned = position + j + 1;
+                            break search;
+                        }
+                    position += read;
+                }
+                if (aligned > previous && aligned < size)
+                    bounds.add(aligned);
+            }
+        }
+        if (size > bounds.get(bounds.size() - 1) || bounds.size() == 1)
+            bounds.add(Math.max(size, start));
+
+        long[] result = new long[bounds.size()];
+        for (int i = 0; i < result.length; i++)
+            result[i] = bounds.get(i);
+        return result;
+    }
+
+    /**
+     * Запись отклонённой строки и причины отклонения. Файлы создаются при первом отклонении.
+     *
+     * @param line   строка файла
+     * @param offset смещение строки в файле
+     * @param reason причина
+     * @throws IOException Ошибка записи
+     */
+    private synchronized void reject(String line, long offset, String reason) throws IOException {
+        if (rejects == null) {
+            Path out = ResultSaver.getResultsPath();
+            rejectsPath = out.resolve(file.getFileName() + REJECT_EXTENSION);
+            rejects = Files.newBufferedWriter(rejectsPath, charset);
+            rejectLog = Files.newBufferedWriter(out.resolve(file.getFileName() + REJECT_LOG_EXTENSION), charset);
+            if (headLine != null) {
+                rejects.write(headLine);
+                rejects.newLine();
+            }
+        }
+
+        rejects.write(line);
+        rejects.newLine();
+        rejectLog.write(Long.toString(offset));
+        rejectLog.write('\t');
+        rejectLog.write(reason != null ? reason.replace('\n', ' ').replace('\r', ' ') : "");
+        rejectLog.newLine();
+        rejected.incrementAndGet();
+    }
+
+    /**
+     * Закрытие файлов отклонённых строк, если они создавались
+     *
+     * @throws IOException Ошибка записи
+     */
+    private synchronized void closeRejects() throws IOException {
+        if (rejects != null)
+            try {
+                rejects.close();
+            } finally {
+                rejectLog.close();
+                rejects = null;
+                rejectLog = null;
+            }
+    }
+
+    /**
+     * Строка файла, вставленная в пакет, но ещё не зафиксированная
+     */
+    private static class Row {
+        private final String[] values;
+        private final String line;
+        private final long offset;
+
+        private Row(String[] values, String line, long offset) {
+            this.values = values;
+            this.line = line;
+            this.offset = offset;
+        }
+    }
+
+    /**
+     * Чтение строк файла с заданного смещения с подсчётом смещения следующей строки.
+     * Перевод строки - LF либо CR LF.
+     */
+    private static class LineReader {
+        private final FileChannel channel;
+        private final Charset charset;
+        private final ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+        private byte[] line = new byte[256];
+        private long position;
+        private long readPosition;
+
+        private LineReader(FileChannel channel, Charset charset, long start) {
+            this.channel = channel;
+            this.charset = charset;
+            this.position = start;
+            this.readPosition = start;
+            buffer.flip();
+        }
+
+        /**
+         * Смещение следующей строки в файле
+         *
+         * @return смещение
+         */
+        private long getPosition() {
+            return position;
+        }
+
+        /**
+         * Чтение следующей строки
+         *
+         * @return строка без перевода строки, либо null в конце файла
+         * @throws IOException Ошибка чтения
+         */
+        private String readLine() throws IOException {
+            int length = 0;
+            boolean read = false;
+            while (true) {
+                if (!buffer.hasRemaining()) {
+                    buffer.clear();
+                    int count = channel.read(buffer, readPosition);
+                    buffer.flip();
+                    if (count <= 0) {
+                        if (!read)
+                            return null;
+                        break;
+                    }
+                    readPosition += count;
+                }
+
+                byte b = buffer.get();
+                position++;
+                read = true;
+                if (b == '\n')
+                    break;
+                if (length == line.length)
+                    line = Arrays.copyOf(line, length * 2);
+                line[length++] = b;
+            }
+
+            if (length > 0 && line[length - 1] == '\r')
+                length--;
+            return new String(line, 0, length, charset);
+        }
+    }
+
+    /**
+     * Поток загрузки: забирает очередной диапазон файла и вставляет его строки пакетами
+     * через своё подключение.
+     */
+    private class Loader extends Thread {
+        private final Connection connection;
+        private final String insert;
+        private final long[] bounds;
+        private final AtomicInteger nextRange;
+
+        private PreparedStatement statement = null;
+        private int[] types;
+        private final List<Row> batch = new ArrayList<>();
+        private final List<Row> uncommitted = new ArrayList<>();
+        private int uncommittedBatches = 0;
+        private volatile Exception error = null;
+
+        private Loader(int number, Connection connection, String insert, long[] bounds, AtomicInteger nextRange) {
+            super("thytom-importer-" + number);
+            this.connection = connection;
+            this.insert = insert;
+            this.bounds = bounds;
+            this.nextRange = nextRange;
+        }
+
+        @Override
+        public void run() {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                connection.setAutoCommit(false);
+                statement = connection.prepareStatement(insert);
+                types = getParameterTypes();
+
+                for (int range; (range = nextRange.getAndIncrement()) < bounds.length - 1 && !isInterrupted(); ) {
+                    LineReader reader = new LineReader(channel, charset, bounds[range]);
+                    while (reader.getPosition() < bounds[range + 1]) {
+                        long offset = reader.getPosition();
+                        String line = reader.readLine();
+                        if (line == null)
+                            break;
+                        if (line.isEmpty())
+                            continue;
+
+                        String[] values;
+                        try {
+                            values = parseLine(line, null);
+                        } catch (ParseException e) {
+                            reject(line, offset, e.getMessage());
+                            continue;
+                        }
+                        if (values.length != columnsCount) {
+                            reject(line, offset, "Expected " + columnsCount + " fields, found " + values.length);
+                            continue;
+                        }
+                        add(new Row(values, line, offset));
+                    }
+                }
+
+                flush();
+                if (uncommittedBatches > 0)
+                    commit();
+            } catch (IOException | SQLException e) {
+                error = e;
+                try {
+                    connection.rollback();
+                } catch (SQLException ignore) {
+                }
+            } finally {
+                if (statement != null)
+                    try {
+                        statement.close();
+                    } catch (SQLException ignore) {
+                    }
+            }
+        }
+
+        /**
+         * Типы параметров запроса вставки для NULL. Если драйвер их не сообщает - VARCHAR
+         *
+         * @return типы параметров
+         */
+        private int[] getParameterTypes() {
+            int[] result = new int[columnsCount];
+            Arrays.fill(result, Types.VARCHAR);
+            try {
+                ParameterMetaData metaData = statement.getParameterMetaData();
+                for (int i = 0; i < columnsCount; i++)
+                    result[i] = metaData.getParameterType(i + 1);
+            } catch (SQLException | RuntimeException e) {
+                Arrays.fill(result, Types.VARCHAR);
+            }
+            return result;
+        }
+
+        /**
+         * Установка значений строки в параметры запроса вставки
+         *
+         * @param row строка
+         * @throws SQLException Ошибка установки значения
+         */
+        private void bind(Row row) throws SQLException {
+            for (int i = 0; i < row.values.length; i++) {
+                if (row.values[i] == null)
+                    statement.setNull(i + 1, types[i]);
+                else
+                    statement.setString(i + 1, row.values[i]);
+            }
+        }
+
+        /**
+         * Добавление строки в пакет и вставка заполненного пакета
+         *
+         * @param row строка
+         * @throws SQLException Ошибка подключения
+         * @throws IOException  Ошибка записи отклонённых строк
+         */
+        private void add(Row row) throws SQLException, IOException {
+            try {
+                bind(row);
+                statement.addBatch();
+            } catch (SQLException e) {
+                reject(row.line, row.offset, e.getMessage());
+                return;
+            }
+            batch.add(row);
+            if (batch.size() >= batchSize)
+                flush();
+        }
+
+        /**
+         * Вставка пакета и фиксация транзакции по достижении интервала.
+         * При ошибке пакета транзакция откатывается, а её строки вставляются повторно по одной.
+         *
+         * @throws SQLException Ошибка подключения
+         * @throws IOException  Ошибка записи отклонённых строк
+         */
+        private void flush() throws SQLException, IOException {
+            if (batch.isEmpty())
+                return;
+
+            uncommitted.addAll(batch);
+            batch.clear();
+            try {
+                statement.executeBatch();
+            } catch (SQLException e) {
+                // Состояние запроса после ошибки пакета зависит от драйвера, запрос подготавливается заново
+                connection.rollback();
+                try {
+                    statement.close();
+                } catch (SQLException ignore) {
+                }
+                statement = null;
+                statement = connection.prepareStatement(insert);
+                replay();
+                return;
+            }
+            batches.incrementAndGet();
+
+            if (++uncommittedBatches >= commitBatches)
+                commit();
+        }
+
+        /**
+         * Фиксация транзакции
+         *
+         * @throws SQLException Ошибка фиксации
+         */
+        private void commit() throws SQLException {
+            connection.commit();
+            loaded.addAndGet(uncommitted.size());
+            uncommitted.clear();
+            uncommittedBatches = 0;
+        }
+
+        /**
+         * Повторная вставка незафиксированных строк по одной, с фиксацией каждой строки.
+         * Строки, которые не удалось вставить, отклоняются.
+         *
+         * @throws SQLException Ошибка подключения
+         * @throws IOException  Ошибка записи отклонённых строк
+         */
+        private void replay() throws SQLException, IOException {
+            for (Row row : uncommitted) {
+                try {
+                    bind(row);
+                    statement.executeUpdate();
+                    connection.commit();
+                    loaded.incrementAndGet();
+                } catch (SQLException e) {
+                    connection.rollback();
+                    reject(row.line, row.offset, e.getMessage());
+                }
+            }
+            uncommitted.clear();
+            uncommittedBatches = 0;
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package com.github.butterbrother.thytom;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Оглавление файлов с результатами, распределённых по подкаталогам ({@link Sharding}).
+ * <p>
+ * Файл {@link #FILE_NAME} в каталоге out, текст с разделителем табуляцией: имя SQL-файла,
+ * ID подстановки (пусто для общего файла SQL-файла), номер части (0 - результат без частей)
+ * и путь к файлу относительно каталога out с разделителями '/'. Первая строка - заголовок.
+ * <p>
+ * Оглавление одно на запуск, строки добавляются при создании каждого файла из любых потоков.
+ * Закрывается по завершении обработки запросов через {@link #close()}.
+ */
+public class ResultManifest {
+    /**
+     * Имя файла оглавления
+     */
+    public static final String FILE_NAME = "manifest.tsv";
+
+    private static BufferedWriter writer = null;
+
+    /**
+     * Добавление файла с результатами. Оглавление создаётся при добавлении первого файла.
+     *
+     * @param resultsPath Каталог результатов
+     * @param charset     Кодировка оглавления
+     * @param sqlFileName Имя SQL-файла
+     * @param rowID       ID подстановки, либо null
+     * @param part        Номер части, 0 - результат без частей
+     * @param file        Файл с результатами
+     * @throws IOException Ошибка записи оглавления
+     */
+    static synchronized void add(Path resultsPath, Charset charset, String sqlFileName, String rowID,
+                                 int part, Path file) throws IOException {
+        if (writer == null) {
+            writer = Files.newBufferedWriter(resultsPath.resolve(FILE_NAME), charset);
+            writer.write("sql_file\trow_id\tpart\tpath");
+            writer.newLine();
+        }
+
+        writer.write(sqlFileName);
+        writer.write('\t');
+        if (rowID != null)
+            writer.write(rowID);
+        writer.write('\t');
+        writer.write(Integer.toString(part));
+        writer.write('\t');
+        writer.write(resultsPath.relativize(file).toString().replace(File.separatorChar, '/'));
+        writer.newLine();
+    }
+
+    /**
+     * Закрытие оглавления, если оно создавалось.
+     * Следующий файл с результатами создаст новое оглавление.
+     *
+     * @throws IOException Ошибка записи оглавления
+     */
+    public static synchronized void close() throws IOException {
+        if (writer != null)
+            try {
+                writer.close();
+            } finally {
+                writer = null;
+            }
+    }
+}
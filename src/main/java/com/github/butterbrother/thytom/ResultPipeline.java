@@ -0,0 +1,509 @@
+package com.github.butterbrother.thytom;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Раздельные чтение и запись результата запроса.
+ * <p>
+ * Текущий поток читает строки из {@link ResultSet} и заполняет порции строк ({@link RowBatch}).
+ * Отдельный поток записывает заполненные порции в файл через {@link ResultSaver#writeCells(String[], long[])}.
+ * Между ними - ограниченная очередь: если запись отстаёт, чтение приостанавливается,
+ * и наоборот. Записанные порции возвращаются для повторного заполнения.
+ * <p>
+ * Если задано несколько потоков форматирования, то порции из очереди форматируются и кодируются
+ * параллельно ({@link ResultSaver#formatBatch(RowBatch, boolean, StringBuilder)}), а поток записи
+ * записывает готовые порции строго в порядке чтения. Результат побайтно совпадает
+ * с записью в одном потоке. Для кодировок, которые нельзя кодировать по частям
+ * (см. {@link ResultSaver#canEncodeInParts()}), форматирование выполняется в потоке записи.
+ * <p>
+ * Если результат записывается частями ({@link ResultSaver#isSplitIntoParts()}) и задано несколько
+ * потоков записи частей, то границы частей определяет поток чтения, а части записываются
+ * одновременно: часть N - потоком (N - 1) % количество потоков, каждая в свой файл.
+ * Граница по объёму в этом случае оценивается по прочитанным данным, до форматирования.
+ * <p>
+ * По окончании выводится статистика: средняя и максимальная глубина очереди и
+ * время простоя каждого из потоков. Простой чтения означает, что узкое место - запись
+ * (или форматирование), простой записи - что узкое место - БД или сеть.
+ */
+public class ResultPipeline {
+    /**
+     * Маркер окончания результата
+     */
+    private static final RowBatch END = new RowBatch(0, 0);
+
+    private final ResultSaver saver;
+    private final int depth;
+    private final int formatThreads;
+    private final int partWriters;
+    private final double bytesPerChar;
+
+    private final BlockingQueue<RowBatch> filled;
+    private final BlockingQueue<RowBatch> free;
+    // Порядок записи при параллельном форматировании
+    private final BlockingQueue<RowBatch> ordered = new LinkedBlockingQueue<>();
+    // Очереди потоков записи частей
+    private final List<BlockingQueue<RowBatch>> partQueues = new ArrayList<>();
+
+    private volatile IOException writeError = null;
+    private boolean hadLines;
+
+    // Статистика
+    private long rows = 0;
+    private long batches = 0;
+    private long depthSum = 0;
+    private int maxDepth = 0;
+    private long fetchStallNanos = 0;
+    private final AtomicLong writeStallNanos = new AtomicLong();
+    private int parts = 1;
+    private final AtomicLong formatNanos = new AtomicLong();
+
+    /**
+     * Инициализация.
+     *
+     * @param saver         Файл результата, уже открытый через {@link ResultSaver#open(java.sql.ResultSetMetaData)}
+     * @param depth         Количество порций в очереди на запись
+     * @param batchRows     Количество строк в порции
+     * @param formatThreads Количество потоков форматирования. 1 - форматирование в потоке записи
+     */
+    public ResultPipeline(ResultSaver saver, int depth, int batchRows, int formatThreads) {
+        this(saver, depth, batchRows, formatThreads, 1);
+    }
+
+    /**
+     * Инициализация.
+     *
+     * @param saver         Файл результата, уже открытый через {@link ResultSaver#open(java.sql.ResultSetMetaData)}
+     * @param depth         Количество порций в очереди на запись, для каждого потока записи частей
+     * @param batchRows     Количество строк в порции
+     * @param formatThreads Количество потоков форматирования. 1 - форматирование в потоке записи
+     * @param partWriters   Количество потоков записи частей. Используется, если результат
+     *                      записывается частями, см. {@link ResultSaver#isSplitIntoParts()}
+     */
+    public ResultPipeline(ResultSaver saver, int depth, int batchRows, int formatThreads, int partWriters) {
+        this.saver = saver;
+        this.depth = depth;
+        this.partWriters = saver.isSplitIntoParts() ? Math.max(1, partWriters) : 1;
+        this.bytesPerChar = saver.getFileEncoding().newEncoder().averageBytesPerChar();
+
+        if (formatThreads > 1 && saver.isSplitIntoParts()) {
+            // Порции форматируются в потоке записи части, т.к. граница части известна только при записи
+            System.err.println("Results of " + saver.getFileName().getFileName()
+                    + " are split into parts, formatting threads are not used");
+            formatThreads = 1;
+        } else if (formatThreads > 1 && saver.isColumnar()) {
+            System.err.println("Columnar file " + saver.getFileName().getFileName()
+                    + " will be written in one thread");
+            formatThreads = 1;
+        } else if (formatThreads > 1 && !saver.canEncodeInParts()) {
+            System.err.println("Encoding " + saver.getFileEncoding() + " can't be encoded in parts, "
+                    + saver.getFileName().getFileName() + " will be formatted in one thread");
+            formatThreads = 1;
+        }
+        this.formatThreads = formatThreads;
+
+        this.filled = new ArrayBlockingQueue<>(depth);
+        for (int i = 0; i < this.partWriters && this.partWriters > 1; i++)
+            partQueues.add(new ArrayBlockingQueue<RowBatch>(depth));
+        // Порции в очереди, плюс заполняемая и записываемая, плюс форматируемые.
+        // При записи частями - очередь и записываемая порция у каждого потока
+        int batchesCount = this.partWriters > 1
+                ? (depth + 1) * this.partWriters + 1
+                : depth + 2 + (formatThreads > 1 ? formatThreads : 0);
+        this.free = new ArrayBlockingQueue<>(batchesCount);
+        for (int i = 0; i < batchesCount; i++)
+            free.add(new RowBatch(batchRows, saver.getColumnsCount()));
+    }
+
+    /**
+     * Чтение всех строк результата и запись их в файл.
+     * Возвращает управление после записи всех прочитанных строк.
+     *
+     * @param results   Результат запроса
+     * @param fetchSize Управление размером порции строк драйвера
+     * @throws SQLException Ошибка получения данных
+     * @throws IOException  Ошибка ввода-вывода при сохранении файла
+     */
+    public void run(ResultSet results, FetchSizeController fetchSize) throws SQLException, IOException {
+        hadLines = saver.hasLines();
+
+        List<Thread> threads = new ArrayList<>();
+        if (partWriters > 1) {
+            // Границы частей определяются здесь, а не при записи
+            saver.disableRotation();
+            for (int i = 1; i <= partWriters; i++)
+                threads.add(new PartWriter(i, partQueues.get(i - 1)));
+        } else if (formatThreads > 1) {
+            threads.add(new Sequencer());
+            for (int i = 1; i <= formatThreads; i++)
+                threads.add(new Formatter(i));
+        } else {
+            threads.add(new Writer());
+        }
+        for (Thread thread : threads)
+            thread.start();
+
+        try {
+            RowBatch batch = takeFree();
+            long partRows = 0;
+            double partBytes = 0;
+            while (writeError == null && fetchSize.next(results)) {
+                if (partWriters > 1 && partRows > 0 && isPartFull(partRows, partBytes)) {
+                    // Порция не переходит через границу части
+                    if (batch.size() > 0) {
+                        putFilled(batch);
+                        batch = takeFree();
+                    }
+                    parts++;
+                    partRows = 0;
+                    partBytes = 0;
+                }
+
+                int row = batch.addRow();
+                int rowChars = saver.readRow(results, batch.getRow(row), batch.getNumbers(row));
+                fetchSize.rowWritten(rowChars);
+                rows++;
+                partRows++;
+                // Значения, разделители столбцов и перевод строки
+                partBytes += (rowChars + saver.getColumnsCount()) * bytesPerChar;
+
+                if (batch.isFull()) {
+                    putFilled(batch);
+                    batch = takeFree();
+                }
+            }
+            if (batch.size() > 0)
+                putFilled(batch);
+        } finally {
+            // Потоки записи и форматирования завершаются в любом случае, даже при ошибке чтения
+            stop(threads);
+        }
+
+        if (writeError != null)
+            throw writeError;
+
+        System.err.println("Pipeline for " + saver.getFileName().getFileName() + ": "
+                + rows + " rows in " + batches + " batches, "
+                + "queue depth avg " + (batches > 0 ? depthSum / batches : 0) + "/max " + maxDepth + " of " + depth + ", "
+                + "fetch stalled " + fetchStallNanos / 1000000 + " ms, "
+                + "write stalled " + writeStallNanos.get() / 1000000 + " ms"
+                + (partWriters > 1 ? ", " + parts + " parts on " + partWriters + " writers" : "")
+                + (formatThreads > 1
+                ? ", formatting " + formatNanos.get() / 1000000 + " ms on " + formatThreads + " threads"
+                : ""));
+    }
+
+    /**
+     * Проверка, что часть, заполняемая потоком чтения, достигла ограничения строк или объёма
+     *
+     * @param partRows  прочитанные строки части
+     * @param partBytes оценка объёма части
+     * @return true - следующая строка относится к новой части
+     */
+    private boolean isPartFull(long partRows, double partBytes) {
+        return (saver.getPartRows() > 0 && partRows >= saver.getPartRows())
+                || (saver.getPartBytes() > 0 && partBytes >= saver.getPartBytes());
+    }
+
+    /**
+     * Передача маркеров окончания и ожидание завершения потоков
+     *
+     * @param threads потоки записи и форматирования
+     */
+    private void stop(List<Thread> threads) {
+        boolean interrupted = false;
+
+        int markers = formatThreads > 1 ? formatThreads : 1;
+        for (int i = 0; i < markers; ) {
+            try {
+                filled.put(END);
+                i++;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        for (int i = 0; i < partQueues.size(); ) {
+            try {
+                partQueues.get(i).put(END);
+                i++;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (formatThreads > 1)
+            ordered.add(END);
+
+        for (Thread thread : threads) {
+            while (thread.isAlive()) {
+                try {
+                    thread.join();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+
+        if (interrupted)
+            Thread.currentThread().interrupt();
+    }
+
+    /**
+     * Получение порции для заполнения, с учётом времени простоя чтения
+     *
+     * @return пустая порция
+     * @throws InterruptedIOException Ожидание прервано
+     */
+    private RowBatch takeFree() throws InterruptedIOException {
+        long begin = System.nanoTime();
+        try {
+            RowBatch batch = free.take();
+            batch.clear();
+            return batch;
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("Interrupted while waiting for results writer");
+        } finally {
+            fetchStallNanos += System.nanoTime() - begin;
+        }
+    }
+
+    /**
+     * Передача заполненной порции на запись, с учётом времени простоя чтения
+     *
+     * @param batch заполненная порция
+     * @throws InterruptedIOException Ожидание прервано
+     */
+    private void putFilled(RowBatch batch) throws InterruptedIOException {
+        BlockingQueue<RowBatch> target = partWriters > 1 ? partQueues.get((parts - 1) % partWriters) : filled;
+        batch.setPart(parts);
+        int currentDepth = target.size();
+        depthSum += currentDepth;
+        maxDepth = Math.max(maxDepth, currentDepth);
+        batch.setNewLineBefore(batches > 0 || hadLines);
+        batches++;
+
+        long begin = System.nanoTime();
+        try {
+            if (formatThreads > 1)
+                ordered.add(batch);
+            target.put(batch);
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("Interrupted while waiting for results writer");
+        } finally {
+            fetchStallNanos += System.nanoTime() - begin;
+        }
+    }
+
+    /**
+     * Поток форматирования и записи порций в файл.
+     * После ошибки записи продолжает возвращать порции, чтобы не блокировать чтение.
+     */
+    private class Writer extends Thread {
+        private Writer() {
+            super("thytom-writer-" + saver.getFileName().getFileName());
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    long begin = System.nanoTime();
+                    RowBatch batch = filled.take();
+                    writeStallNanos.addAndGet(System.nanoTime() - begin);
+
+                    if (batch == END)
+                        break;
+
+                    if (writeError == null)
+                        try {
+                            for (int i = 0; i < batch.size(); i++)
+                                saver.writeCells(batch.getRow(i), batch.getNumbers(i));
+                        } catch (IOException e) {
+                            writeError = e;
+                        } catch (RuntimeException e) {
+                            writeError = new IOException("Unable to write results: " + e, e);
+                        }
+
+                    free.put(batch);
+                }
+            } catch (InterruptedException e) {
+                writeError = new InterruptedIOException("Results writer interrupted");
+            }
+        }
+    }
+
+    /**
+     * Поток форматирования порций.
+     * Каждая порция отмечается отформатированной, даже при ошибке, чтобы не блокировать запись.
+     */
+    private class Formatter extends Thread {
+        private final CharsetEncoder encoder = saver.getFileEncoding().newEncoder();
+
+        private Formatter(int number) {
+            super("thytom-formatter-" + number + "-" + saver.getFileName().getFileName());
+        }
+
+        @Override
+        public void run() {
+            try {
+                for (RowBatch batch; (batch = filled.take()) != END; ) {
+                    long begin = System.nanoTime();
+                    try {
+                        if (writeError == null) {
+                            StringBuilder text = batch.getText();
+                            saver.formatBatch(batch, batch.needNewLineBefore(), text);
+                            encode(text, batch);
+                        }
+                    } catch (CharacterCodingException e) {
+                        writeError = e;
+                    } catch (RuntimeException e) {
+                        writeError = new IOException("Unable to format results: " + e, e);
+                    } finally {
+                        formatNanos.addAndGet(System.nanoTime() - begin);
+                        batch.markFormatted();
+                    }
+                }
+            } catch (InterruptedException e) {
+                writeError = new InterruptedIOException("Results formatter interrupted");
+            }
+        }
+
+        /**
+         * Кодирование текста порции в кодировке файла
+         *
+         * @param text  текст порции
+         * @param batch порция, в буфер которой записывается результат
+         * @throws CharacterCodingException Текст невозможно представить в кодировке файла
+         */
+        private void encode(StringBuilder text, RowBatch batch) throws CharacterCodingException {
+            encoder.reset();
+            ByteBuffer out = batch.getEncoded((int) Math.ceil(text.length() * (double) encoder.maxBytesPerChar()) + 16);
+            CoderResult result = encoder.encode(CharBuffer.wrap(text), out, true);
+            if (!result.isUnderflow())
+                result.throwException();
+            result = encoder.flush(out);
+            if (!result.isUnderflow())
+                result.throwException();
+        }
+    }
+
+    /**
+     * Поток записи отформатированных порций в порядке чтения.
+     * После ошибки записи продолжает возвращать порции, чтобы не блокировать чтение.
+     */
+    private class Sequencer extends Thread {
+        private Sequencer() {
+            super("thytom-writer-" + saver.getFileName().getFileName());
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    long begin = System.nanoTime();
+                    RowBatch batch = ordered.take();
+                    if (batch != END)
+                        batch.awaitFormatted();
+                    writeStallNanos.addAndGet(System.nanoTime() - begin);
+
+                    if (batch == END)
+                        break;
+
+                    if (writeError == null)
+                        try {
+                            saver.writeFormatted(batch.getEncoded().array(), batch.getEncoded().position());
+                        } catch (IOException e) {
+                            writeError = e;
+                        }
+
+                    free.put(batch);
+                }
+            } catch (InterruptedException e) {
+                writeError = new InterruptedIOException("Results writer interrupted");
+            }
+        }
+    }
+
+    /**
+     * Поток записи частей результата.
+     * Записывает порции своих частей, создавая файл части при поступлении её первой порции.
+     * Первая часть - файл исходного saver'а, уже открытый. После ошибки записи продолжает
+     * возвращать порции, чтобы не блокировать чтение.
+     */
+    private class PartWriter extends Thread {
+        private final BlockingQueue<RowBatch> queue;
+        private ResultSaver current = null;
+        private int currentPart = 0;
+
+        private PartWriter(int number, BlockingQueue<RowBatch> queue) {
+            super("thytom-part-writer-" + number + "-" + saver.getFileName().getFileName());
+            this.queue = queue;
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    long begin = System.nanoTime();
+                    RowBatch batch = queue.take();
+                    writeStallNanos.addAndGet(System.nanoTime() - begin);
+
+                    if (batch == END)
+                        break;
+
+                    if (writeError == null)
+                        try {
+                            if (batch.getPart() != currentPart) {
+                                closePart();
+                                current = batch.getPart() == 1 ? saver : saver.openPart(batch.getPart());
+                                currentPart = batch.getPart();
+                            }
+                            for (int i = 0; i < batch.size(); i++)
+                                current.writeCells(batch.getRow(i), batch.getNumbers(i));
+                        } catch (IOException e) {
+                            writeError = e;
+                        } catch (RuntimeException e) {
+                            writeError = new IOException("Unable to write results: " + e, e);
+                        }
+
+                    free.put(batch);
+                }
+            } catch (InterruptedException e) {
+                writeError = new InterruptedIOException("Results writer interrupted");
+            } finally {
+                try {
+                    closePart();
+                } catch (IOException e) {
+                    if (writeError == null)
+                        writeError = e;
+                }
+            }
+        }
+
+        /**
+         * Закрытие файла записанной части
+         *
+         * @throws IOException Ошибка ввода-вывода при закрытии файла
+         */
+        private void closePart() throws IOException {
+            if (current != null)
+                try {
+                    current.close();
+                } finally {
+                    current = null;
+                }
+        }
+    }
+}
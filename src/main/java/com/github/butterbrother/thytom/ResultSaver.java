@@ -1,7 +1,8 @@
 package com.github.butterbrother.thytom;
 
-import java.io.BufferedWriter;
+import java.io.Closeable;
 import java.io.IOException;
+import java.math.BigDecimal;
 import java.net.URISyntaxException;
 import java.nio.charset.Charset;
 import java.nio.file.Files;
@@ -11,12 +12,34 @@ import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
 import java.sql.Types;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Сохраняет результат вызова SQL-запроса в файл.
  * Если, конечно, есть результаты.
+ * <p>
+ * Файл записывается текстом с разделителями столбцов, в колоночном формате
+ * ({@link ConfigFile#getResultFormat()}, {@link ColumnarWriter}), либо в формате JSON Lines.
+ * В JSON Lines метки столбцов экранируются и кодируются однократно на результат, целые числа,
+ * числа с плавающей точкой и логические значения читаются типизированными методами ResultSet
+ * (при строгих типах столбцов профиля драйвера) и записываются без кавычек.
+ * <p>
+ * Если задано ограничение строк или объёма файла ({@link ConfigFile#getPartRows()},
+ * {@link ConfigFile#getPartBytes()}), то результат записывается частями: ..._part0001.txt,
+ * ..._part0002.txt и т.д. Каждая часть - самостоятельный файл со своим заголовком таблицы,
+ * части можно загружать параллельно.
+ * <p>
+ * Столбцы CLOB/NCLOB и BLOB читаются потоком, см. {@link LobStreamer}.
+ * <p>
+ * Файлы могут распределяться по подкаталогам каталога out ({@link Sharding}), тогда
+ * расположение каждого файла записывается в оглавление {@link ResultManifest}.
+ * <p>
+ * Если задан вывод в поток ({@link CLIOptions#getStreamTarget()}), то текстовый результат
+ * записывается не в файл, а кадрами в {@link ResultStream}. Части и подкаталоги при этом не используются.
  */
-public class ResultSaver {
+public class ResultSaver implements Closeable, AutoCloseable {
     private boolean showTitle;
     private boolean headPerLine;
     private String columnDelimiter;
@@ -25,6 +48,94 @@ public class ResultSaver {
     private boolean showNull;
     private Charset fileEncoding;
     private Path fileName;
+    private ConfigFile config;
+    private String sqlFileName;
+    private boolean rowIdColumn;
+    private Compression compression;
+    private ResultFormat format;
+    private CLIOptions cli;
+    private String rowID;
+    private String plainName;
+    private Sharding sharding;
+    private String streamTarget;
+    private Path resultDirectory;
+
+    // Запись частями: номер текущей части (0 - без частей), строки в ней и ограничения
+    private int part = 0;
+    private long partRowsWritten = 0;
+    private int partRows;
+    private long partBytes;
+    private boolean rotation = true;
+
+    private ChannelSink sink = null;
+    private ColumnarWriter columnar = null;
+    private int columnsCount = 0;
+    private String headers[];
+    private boolean stringData[];
+    private boolean longData[];
+    private int sqlTypes[];
+    private boolean textLobData[];
+    private boolean binaryLobData[];
+    // Столбцы JSON, записываемые без кавычек, и чтение их значений типизированными методами
+    private boolean jsonNumber[];
+    private boolean jsonBoolean[];
+    private boolean typedData;
+    private LobStreamer lobs = null;
+    // Результат, значения LOB которого записываются потоком при записи текущей строки
+    private ResultSet lobResults = null;
+    private long lobChars = 0;
+    private String typeNames[];
+    private boolean firstLine;
+    private String rowBuffer[] = null;
+    private long rowNumbers[] = null;
+    // Разделители, кавычки, перевод строки и заголовки столбцов, закодированные однократно
+    private ChannelSink.Token newLineToken;
+    private ChannelSink.Token columnDelimiterToken;
+    private ChannelSink.Token quoteToken;
+    private ChannelSink.Token nullToken;
+    private ChannelSink.Token headPrefixTokens[];
+    private ChannelSink.Token rowIdPrefixToken;
+    // Конец объекта JSON с переводом строки и буфер экранирования строк
+    private ChannelSink.Token jsonEndToken;
+    private StringBuilder jsonEscaped = null;
+
+    /**
+     * Каталог для сохранения результатов, определяется однократно, см. {@link #getResultsPath()}
+     */
+    private static Path resultsPath = null;
+
+    /**
+     * Уже созданные подкаталоги каталога результатов, см. {@link Sharding}
+     */
+    private static final Set<Path> createdDirectories =
+            Collections.newSetFromMap(new ConcurrentHashMap<Path, Boolean>());
+
+    /**
+     * Перевод строки, как в {@link java.io.BufferedWriter#newLine()}
+     */
+    private static final String LINE_SEPARATOR = System.getProperty("line.separator");
+
+    /**
+     * Маркер целочисленного значения в массиве значений строки, см. {@link #readRow(ResultSet, String[], long[])}.
+     * Сравнивается по ссылке.
+     */
+    private static final String NUMBER = new String("number");
+
+    /**
+     * Маркер значения LOB, записываемого потоком прямо из результата запроса, см. {@link #writeRow(ResultSet)}.
+     * Сравнивается по ссылке.
+     */
+    private static final String LOB = new String("lob");
+
+    /**
+     * Перевод строки JSON Lines, не зависит от ОС
+     */
+    private static final String JSON_LINE_SEPARATOR = "\n";
+
+    /**
+     * Заголовок столбца с ID подстановки в общем файле результатов SQL-файла
+     */
+    public static final String ROW_ID_LABEL = "row_id";
 
     /**
      * Символы, недопустимые в именах файлов большинства ОС.
@@ -38,10 +149,10 @@ public class ResultSaver {
      * @param cli           Параметры, переданные в командной строке
      * @param config        Параметры, полученные из файла конфигурации
      * @param SQLFileName   Имя SQL-файла. Можно получить из {@link SQLFile#getFileName()}
-     * @param rowID         ID подмены из файла подмен. Можно получить из {@link SubsFileLoader#getRowID()}
-     * @throws IOException  В процессе инициализации проверяется, существует ли каталог для сохранения
-     * результатов. Это каталог out в том же каталоге, что и jar-файл. Если каталога нет, он будет создан.
-     * Ошибка появляется при невозможности это сделать.
+     * @param rowID         ID подмены из файла подмен. Можно получить из {@link SubsFileLoader#getRowID()}.
+     *                      null - общий файл результатов всех подстановок SQL-файла, в котором
+     *                      первый столбец - ID подстановки, см. {@link #writeCells(String, String[], long[])}
+     * @throws IOException  Ошибка создания каталога для сохранения результатов, см. {@link #getResultsPath()}
      */
     public ResultSaver(
             CLIOptions cli,
@@ -56,110 +167,878 @@ public class ResultSaver {
         this.trimResults = cli.needTrimResult();
         this.showNull = cli.needShowNull();
         this.fileEncoding = config.getResultsFileCharset();
+        this.config = config;
+        this.sqlFileName = SQLFileName;
+        this.cli = cli;
+        this.rowID = rowID;
+        this.streamTarget = cli.getStreamTarget();
+        // В потоке вывода результат - один набор кадров, файлов-частей нет
+        this.partRows = streamTarget == null ? config.getPartRows() : 0;
+        this.partBytes = streamTarget == null ? config.getPartBytes() : 0;
 
-        String Name = rowID + '_' + SQLFileName;
-        Name = Name.replace(".sql", ".txt");
+        this.rowIdColumn = rowID == null;
+        this.format = config.getResultFormat();
+        // Колоночный файл читается фрагментами с произвольного места, поэтому не сжимается
+        this.compression = format == ResultFormat.COLUMNAR ? Compression.NONE
+                : cli.getCompression() != null ? cli.getCompression() : config.getCompression();
+
+        String Name = rowIdColumn ? SQLFileName : rowID + '_' + SQLFileName;
+        Name = Name.replace(".sql", format.getExtension());
+        if (rowIdColumn && !Name.endsWith(format.getExtension()))
+            Name += format.getExtension();
 
         for (char c : incompatibleChars) {
             Name = Name.replace(c, '_');
         }
+        plainName = Name;
 
-        Path resultsPath;
-        try {
-            Path rootPath = Paths.get(ResultSaver.class.getProtectionDomain().getCodeSource().getLocation().toURI());
-            resultsPath = Paths.get(rootPath.getParent().toString(), "out");
-        } catch (URISyntaxException ignore) {
-            resultsPath = Paths.get("./out/");
+        this.sharding = streamTarget == null ? config.getSharding() : Sharding.NONE;
+        resultDirectory = getResultDirectory(sharding.getDirectory(SQLFileName, plainName, config.getShardingLevels()));
+
+        if (isSplitIntoParts())
+            part = 1;
+        fileName = resultDirectory.resolve(getPartName(part));
+    }
+
+    /**
+     * Имя файла части результата.
+     * Номер части добавляется перед расширением формата: out_report_part0001.txt.
+     * @param number        Номер части. 0 - результат без частей
+     * @return              Имя файла, с расширением сжатия
+     */
+    private String getPartName(int number) {
+        if (number <= 0)
+            return plainName + compression.getExtension();
+
+        String suffix = String.format("_part%04d", number);
+        String extension = format.getExtension();
+        String name = plainName.endsWith(extension)
+                ? plainName.substring(0, plainName.length() - extension.length()) + suffix + extension
+                : plainName + suffix;
+        return name + compression.getExtension();
+    }
+
+    /**
+     * Каталог для сохранения результатов. Это каталог out в том же каталоге, что и jar-файл.
+     * Определяется и при необходимости создаётся однократно за запуск,
+     * а не для каждого файла результатов.
+     * @return              каталог результатов
+     * @throws IOException  Каталога нет и его невозможно создать
+     */
+    static synchronized Path getResultsPath() throws IOException {
+        if (resultsPath == null) {
+            Path path;
+            try {
+                Path rootPath = Paths.get(ResultSaver.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+                path = Paths.get(rootPath.getParent().toString(), "out");
+            } catch (URISyntaxException ignore) {
+                path = Paths.get("./out/");
+            }
+
+            if (Files.notExists(path))
+                Files.createDirectories(path);
+
+            resultsPath = path;
         }
 
-        if (Files.notExists(resultsPath))
-                Files.createDirectories(resultsPath);
+        return resultsPath;
+    }
+
+    /**
+     * Подкаталог каталога результатов. Создаётся при первом обращении.
+     * @param directory     Подкаталог с разделителями '/', либо пустая строка
+     * @return              каталог
+     * @throws IOException  Ошибка создания каталога
+     */
+    private static Path getResultDirectory(String directory) throws IOException {
+        Path path = getResultsPath();
+        if (directory.isEmpty())
+            return path;
 
-        fileName = Paths.get(resultsPath.toString(), Name);
+        for (String name : directory.split("/"))
+            path = path.resolve(name);
+        if (!createdDirectories.contains(path)) {
+            Files.createDirectories(path);
+            createdDirectories.add(path);
+        }
+        return path;
     }
 
     /**
      * Запись результатов запроса в файл.
      * Каждый вызов создаёт/пересоздаёт файл с результатами, поэтому
      * вызывается однократно.
+     * Если задана очередь порций строк ({@link ConfigFile#getPipelineDepth()}), то
+     * чтение и запись выполняются в разных потоках, см. {@link ResultPipeline}.
      * @param results       Результаты запроса. ResultSet не закрывается данным методом
      *                      и должен быть закрыт извне
      * @throws SQLException Ошибка получения данных
      * @throws IOException  Ошибка ввода-вывода при сохранении файла
      */
     public void writeResults(ResultSet results) throws SQLException, IOException {
-        try (BufferedWriter writer = Files.newBufferedWriter(fileName, fileEncoding)) {
-            ResultSetMetaData metaData = results.getMetaData();
+        FetchSizeController fetchSize = new FetchSizeController(config, sqlFileName);
+        try {
+            open(results.getMetaData());
+            fetchSize.start(results);
+            boolean pipeline = config.getPipelineDepth() > 0 || (isSplitIntoParts() && config.getPartWriters() > 1);
+            if (pipeline && streamsLobs()) {
+                // Очередь порций хранит значения строками, поэтому LOB записываются из потока здесь
+                System.err.println("LOB columns of " + fileName.getFileName() + " are streamed, pipeline is not used");
+                pipeline = false;
+            }
+            if (pipeline) {
+                new ResultPipeline(this, Math.max(1, config.getPipelineDepth()), config.getPipelineRows(),
+                        config.getFormatThreads(), config.getPartWriters()).run(results, fetchSize);
+            } else {
+                while (fetchSize.next(results)) {
+                    fetchSize.rowWritten(writeRow(results));
+                }
+            }
+            fetchSize.finish();
+        } finally {
+            close();
+        }
+    }
+
+    /**
+     * Создание/пересоздание файла с результатами и запись заголовка таблицы.
+     * Используется, если строки результата записываются по-одной через {@link #writeRow(ResultSet)},
+     * например, когда один ResultSet распределяется по нескольким файлам.
+     * После записи всех строк необходимо вызвать {@link #close()}.
+     * @param metaData      Метаданные результата запроса
+     * @throws SQLException Ошибка получения метаданных
+     * @throws IOException  Ошибка ввода-вывода при создании файла
+     */
+    public void open(ResultSetMetaData metaData) throws SQLException, IOException {
+        rowBuffer = null;
+        columnsCount = metaData.getColumnCount();
+        if (columnsCount > 0) {
+            // Вначале извлекаем имена заголовков и список столбцов, которые необходимо заключать в кавычки
+            headers = new String[columnsCount+1];
+
+            stringData = new boolean[columnsCount+1];
+            longData = new boolean[columnsCount+1];
+            textLobData = new boolean[columnsCount+1];
+            binaryLobData = new boolean[columnsCount+1];
+            sqlTypes = new int[columnsCount+1];
+            typeNames = new String[columnsCount+1];
+            jsonNumber = new boolean[columnsCount+1];
+            jsonBoolean = new boolean[columnsCount+1];
+            typedData = config.getDialect().hasStrictColumnTypes();
+            for (int i = 1; i <= columnsCount; i++) {
+                headers[i] = trimResults ? metaData.getColumnLabel(i).trim() : metaData.getColumnLabel(i);
+                sqlTypes[i] = metaData.getColumnType(i);
+                typeNames[i] = metaData.getColumnTypeName(i);
+                switch (metaData.getColumnType(i)) {
+                    case Types.LONGNVARCHAR:
+                    case Types.LONGVARCHAR:
+                    case Types.NVARCHAR:
+                    case Types.VARCHAR:
+                        stringData[i] = true;
+                        break;
+                    case Types.CLOB:
+                    case Types.NCLOB:
+                        stringData[i] = true;
+                        textLobData[i] = true;
+                        break;
+                    case Types.BLOB:
+                    case Types.LONGVARBINARY:
+                        binaryLobData[i] = true;
+                        break;
+                    case Types.TINYINT:
+                    case Types.SMALLINT:
+                    case Types.INTEGER:
+                        longData[i] = typedData;
+                        break;
+                    case Types.BIGINT:
+                        // Беззнаковый BIGINT (MySQL) может не поместиться в long
+                        longData[i] = typedData && metaData.isSigned(i);
+                        break;
+                    case Types.NUMERIC:
+                    case Types.DECIMAL:
+                        // Без дробной части и в пределах long - текст совпадает с BigDecimal.toString()
+                        longData[i] = typedData && metaData.getScale(i) == 0
+                                && metaData.getPrecision(i) > 0 && metaData.getPrecision(i) <= 18;
+                        break;
+                    default: stringData[i] = false;
+                }
+            }
+
+            headers[0] = ""; stringData[0] = false; longData[0] = false;
+
+            for (int i = 1; i <= columnsCount && format == ResultFormat.JSON; i++)
+                switch (sqlTypes[i]) {
+                    case Types.TINYINT:
+                    case Types.SMALLINT:
+                    case Types.INTEGER:
+                    case Types.BIGINT:
+                    case Types.NUMERIC:
+                    case Types.DECIMAL:
+                    case Types.REAL:
+                    case Types.FLOAT:
+                    case Types.DOUBLE:
+                        jsonNumber[i] = true;
+                        break;
+                    case Types.BOOLEAN:
+                    case Types.BIT:
+                        jsonBoolean[i] = true;
+                        break;
+                }
+
+            for (int i = 1; i <= columnsCount && lobs == null; i++)
+                if (textLobData[i] || binaryLobData[i]) {
+                    String extension = format.getExtension();
+                    String stem = plainName.endsWith(extension)
+                            ? plainName.substring(0, plainName.length() - extension.length())
+                            : plainName;
+                    lobs = new LobStreamer(resultDirectory.resolve(stem + "_lobs"), fileEncoding,
+                            config.getLobThreshold());
+                }
+        }
+
+        openFile();
+    }
 
-            int columnsCount = metaData.getColumnCount();
-            if (columnsCount > 0) {
-                // Вначале извлекаем имена заголовков и список столбцов, которые необходимо заключать в кавычки
-                String headers[] = new String[columnsCount+1];
+    /**
+     * Создание файла текущей части и запись заголовка таблицы.
+     * Столбцы должны быть предварительно определены в {@link #open(ResultSetMetaData)}.
+     * @throws IOException  Ошибка ввода-вывода при создании файла
+     */
+    private void openFile() throws IOException {
+        partRowsWritten = 0;
+        if (sharding != Sharding.NONE)
+            ResultManifest.add(getResultsPath(), fileEncoding, sqlFileName, rowIdColumn ? null : rowID, part, fileName);
+
+        if (format == ResultFormat.COLUMNAR) {
+            // Схема столбцов сохраняется в описании файла, заголовок таблицы не нужен
+            columnar = new ColumnarWriter(fileName, headers, sqlTypes, typeNames, longData, rowIdColumn,
+                    config.getColumnarRows());
+            firstLine = true;
+            return;
+        }
 
-                boolean stringData[] = new boolean[columnsCount+1];
+        sink = streamTarget != null
+                ? new ChannelSink(ResultStream.open(streamTarget).openResult(sqlFileName, rowIdColumn ? null : rowID),
+                        true, fileEncoding, compression, config.getCompressionThreads())
+                : new ChannelSink(fileName, fileEncoding, compression, config.getCompressionThreads());
+        if (format == ResultFormat.JSON) {
+            openJson();
+            return;
+        }
+        newLineToken = sink.token(LINE_SEPARATOR);
+        columnDelimiterToken = sink.token(columnDelimiter);
+        quoteToken = sink.token("\"");
+        nullToken = sink.token(showNull ? "null" : "");
+
+        if (columnsCount > 0) {
+            headPrefixTokens = new ChannelSink.Token[columnsCount+1];
+            for (int i = 1; i <= columnsCount && headPerLine; i++)
+                headPrefixTokens[i] = sink.token(headers[i] + headDataDelimiter);
+            rowIdPrefixToken = sink.token(headPerLine ? ROW_ID_LABEL + headDataDelimiter : "");
+
+            // И далее пишем результат
+            if (showTitle) {
+                if (rowIdColumn) {
+                    sink.write(ROW_ID_LABEL);
+                    sink.write(columnDelimiterToken);
+                }
                 for (int i = 1; i <= columnsCount; i++) {
-                    headers[i] = trimResults ? metaData.getColumnLabel(i).trim() : metaData.getColumnLabel(i);
-                    switch (metaData.getColumnType(i)) {
-                        case Types.LONGNVARCHAR:
-                        case Types.LONGVARCHAR:
-                        case Types.NVARCHAR:
-                        case Types.VARCHAR:
-                        case Types.CLOB:
-                        case Types.NCLOB:
-                            stringData[i] = true;
-                            break;
-                        default: stringData[i] = false;
-                    }
+                    sink.write(headers[i]);
+                    if (i < columnsCount)
+                        sink.write(columnDelimiterToken);
                 }
+            }
+        }
+
+        firstLine = ! showTitle;
+    }
 
-                headers[0] = ""; stringData[0] = false;
+    /**
+     * Кодирование фрагментов строки JSON Lines. Каждый ключ кодируется вместе с открывающей
+     * фигурной скобкой либо запятой перед ним, строка записывается последовательностью
+     * ключ - значение и заканчивается {@link #jsonEndToken}. Заголовок таблицы не записывается.
+     * @throws IOException  Метку столбца невозможно представить в кодировке файла
+     */
+    private void openJson() throws IOException {
+        newLineToken = sink.token(JSON_LINE_SEPARATOR);
+        quoteToken = sink.token("\"");
+        nullToken = sink.token("null");
+        jsonEndToken = sink.token("}" + JSON_LINE_SEPARATOR);
+        rowIdPrefixToken = sink.token("{\"" + ROW_ID_LABEL + "\":");
+        headPrefixTokens = new ChannelSink.Token[columnsCount + 1];
+        for (int i = 1; i <= columnsCount; i++)
+            headPrefixTokens[i] = sink.token((i == 1 && !rowIdColumn ? "{\"" : ",\"")
+                    + JsonText.escape(headers[i]) + "\":");
+        firstLine = true;
+    }
 
-                // И далее пишем результат
-                if (showTitle) {
-                    for (int i = 1; i <= columnsCount; i++) {
-                        writer.append(headers[i]);
-                        if (i < columnsCount)
-                            writer.append(columnDelimiter);
-                    }
+    /**
+     * Запись текущей строки результата запроса.
+     * Файл должен быть предварительно открыт через {@link #open(ResultSetMetaData)}.
+     * @param results       Результаты запроса, установленные на записываемую строку
+     * @return              Количество символов данных в записанной строке, без заголовков и разделителей
+     * @throws SQLException Ошибка получения данных
+     * @throws IOException  Ошибка ввода-вывода при сохранении файла
+     */
+    public int writeRow(ResultSet results) throws SQLException, IOException {
+        if (columnsCount <= 0)
+            return 0;
+
+        if (rowBuffer == null) {
+            rowBuffer = new String[columnsCount];
+            rowNumbers = new long[columnsCount];
+        }
+        boolean streamLobs = streamsLobs();
+        int rowChars = readRow(results, rowBuffer, rowNumbers, streamLobs);
+        if (!streamLobs) {
+            writeCells(rowBuffer, rowNumbers);
+            return rowChars;
+        }
+
+        lobResults = results;
+        lobChars = 0;
+        try {
+            writeCells(rowBuffer, rowNumbers);
+        } finally {
+            lobResults = null;
+        }
+        return (int) Math.min(Integer.MAX_VALUE, rowChars + lobChars);
+    }
+
+    /**
+     * Проверка, что значения LOB записываются в текстовый файл прямо из результата запроса,
+     * т.е. порог вынесения в отдельные файлы не задан
+     * @return              true - есть столбцы LOB, записываемые потоком
+     */
+    private boolean streamsLobs() {
+        return lobs != null && !lobs.hasThreshold() && format == ResultFormat.TEXT;
+    }
+
+    /**
+     * Чтение значений текущей строки результата запроса.
+     * Используется вместе с {@link #writeCells(String[], long[])}, если чтение и запись
+     * строк выполняются в разных потоках, см. {@link ResultPipeline}.
+     * <p>
+     * Целочисленные столбцы читаются через {@link ResultSet#getLong(int)}, без создания строки
+     * для каждого значения: значение сохраняется в numbers, а в cells - маркер числа.
+     * Столбцы LOB читаются потоком через {@link LobStreamer}, длинные значения при этом
+     * могут быть вынесены в отдельные файлы. Остальные столбцы читаются через {@link ResultSet#getString(int)}.
+     * @param results       Результаты запроса, установленные на читаемую строку
+     * @param cells         Значения столбцов, по порядку. null - пустое значение.
+     *                      Размер не меньше {@link #getColumnsCount()}
+     * @param numbers       Значения целочисленных столбцов. Размер не меньше {@link #getColumnsCount()}
+     * @return              Количество символов данных в строке (для чисел - оценка)
+     * @throws SQLException Ошибка получения данных
+     * @throws IOException  Ошибка записи файла со значением LOB
+     */
+    public int readRow(ResultSet results, String[] cells, long[] numbers) throws SQLException, IOException {
+        return readRow(results, cells, numbers, false);
+    }
+
+    /**
+     * Чтение значений текущей строки результата запроса.
+     * @param results       Результаты запроса, установленные на читаемую строку
+     * @param cells         Значения столбцов, по порядку
+     * @param numbers       Значения целочисленных столбцов
+     * @param streamLobs    Не читать значения LOB, а отметить их маркером {@link #LOB}
+     *                      для записи потоком в {@link #writeCells(String, String[], long[])}
+     * @return              Количество символов данных в строке, без значений LOB, записываемых потоком
+     * @throws SQLException Ошибка получения данных
+     * @throws IOException  Ошибка записи файла со значением LOB
+     */
+    private int readRow(ResultSet results, String[] cells, long[] numbers, boolean streamLobs)
+            throws SQLException, IOException {
+        int rowChars = 0;
+        for (int i = 0; i < columnsCount; i++) {
+            if (textLobData[i + 1] || binaryLobData[i + 1]) {
+                if (streamLobs) {
+                    cells[i] = LOB;
+                    continue;
                 }
+                cells[i] = textLobData[i + 1] ? lobs.readText(results, i + 1) : lobs.readBinary(results, i + 1);
+                if (cells[i] != null)
+                    rowChars += cells[i].length();
+            } else if (longData[i + 1]) {
+                numbers[i] = results.getLong(i + 1);
+                cells[i] = results.wasNull() ? null : NUMBER;
+                rowChars += 8;
+            } else if (typedData && (jsonNumber[i + 1] || jsonBoolean[i + 1])) {
+                cells[i] = readJsonLiteral(results, i + 1);
+                rowChars += 8;
+            } else {
+                cells[i] = results.getString(i + 1);
+                if (cells[i] != null)
+                    rowChars += cells[i].length();
+            }
+        }
 
-                boolean firstLine = ! showTitle;
+        return rowChars;
+    }
 
-                String cell;
-                boolean nullCell;
-                while (results.next()) {
-                    if (firstLine) {
-                            firstLine = false;
-                        } else {
-                            writer.newLine();
-                        }
+    /**
+     * Чтение числа либо логического значения для JSON типизированным методом ResultSet
+     * @param results       Результаты запроса
+     * @param column        Номер столбца
+     * @return              Текст значения для записи без кавычек, либо null.
+     *                      NaN и бесконечности в JSON непредставимы и записываются как null
+     * @throws SQLException Ошибка получения данных
+     */
+    private String readJsonLiteral(ResultSet results, int column) throws SQLException {
+        switch (sqlTypes[column]) {
+            case Types.BOOLEAN:
+            case Types.BIT:
+                boolean flag = results.getBoolean(column);
+                return results.wasNull() ? null : flag ? "true" : "false";
+            case Types.REAL:
+            case Types.FLOAT:
+            case Types.DOUBLE:
+                double number = results.getDouble(column);
+                return results.wasNull() || Double.isNaN(number) || Double.isInfinite(number)
+                        ? null : Double.toString(number);
+            case Types.NUMERIC:
+            case Types.DECIMAL:
+            case Types.BIGINT:
+                BigDecimal decimal = results.getBigDecimal(column);
+                return decimal == null ? null : decimal.toString();
+            default:
+                return results.getString(column);
+        }
+    }
 
-                    for (int i = 1; i <= columnsCount; i++) {
-                        if (headPerLine)
-                            writer.append(headers[i]).append(headDataDelimiter);
+    /**
+     * Запись строки результата из ранее прочитанных значений, см. {@link #readRow(ResultSet, String[], long[])}.
+     * Файл должен быть предварительно открыт через {@link #open(ResultSetMetaData)}.
+     * @param cells         Значения столбцов, по порядку. null - пустое значение
+     * @param numbers       Значения целочисленных столбцов
+     * @throws IOException  Ошибка ввода-вывода при сохранении файла
+     */
+    public void writeCells(String[] cells, long[] numbers) throws IOException {
+        writeCells(null, cells, numbers);
+    }
 
-                        cell = results.getString(i);
-                        nullCell = cell == null;
-                        if (nullCell) {
-                            cell = showNull ? "null" : "";
-                        }
+    /**
+     * Запись строки результата из ранее прочитанных значений, с ID подстановки в первом столбце.
+     * ID записывается только в общий файл результатов SQL-файла, т.е. если saver создан без ID подстановки.
+     * Используется через {@link ConsolidatedResults}.
+     * @param rowID         ID подстановки, к которой относится строка
+     * @param cells         Значения столбцов, по порядку. null - пустое значение
+     * @param numbers       Значения целочисленных столбцов
+     * @throws IOException  Ошибка ввода-вывода при сохранении файла
+     */
+    public void writeCells(String rowID, String[] cells, long[] numbers) throws IOException {
+        if (columnsCount <= 0)
+            return;
 
-                        if (stringData[i] && !nullCell) writer.append('\"');
+        if (rotation && part > 0 && partRowsWritten > 0 && isPartFull())
+            nextPart();
+        partRowsWritten++;
 
-                        writer.append(trimResults ? cell.trim() : cell);
+        if (columnar != null) {
+            for (int i = 0; i < columnsCount && trimResults; i++)
+                if (cells[i] != null && cells[i] != NUMBER)
+                    cells[i] = cells[i].trim();
+            columnar.addRow(rowID, cells, numbers);
+            firstLine = false;
+            return;
+        }
 
-                        if (stringData[i] && !nullCell) writer.append('\"');
+        if (format == ResultFormat.JSON) {
+            writeJson(rowID, cells, numbers);
+            firstLine = false;
+            return;
+        }
+
+        if (firstLine) {
+            firstLine = false;
+        } else {
+            sink.write(newLineToken);
+        }
+
+        if (rowIdColumn) {
+            sink.write(rowIdPrefixToken);
+            if (rowID != null)
+                sink.write(rowID);
+            sink.write(columnDelimiterToken);
+        }
+
+        String cell;
+        for (int i = 1; i <= columnsCount; i++) {
+            if (headPerLine)
+                sink.write(headPrefixTokens[i]);
 
-                        if (i < columnsCount)
-                            writer.append(columnDelimiter);
-                    }
+            cell = cells[i - 1];
+            if (cell == NUMBER) {
+                sink.write(numbers[i - 1]);
+            } else if (cell == LOB) {
+                try {
+                    lobChars += textLobData[i]
+                            ? lobs.streamText(lobResults, i, sink, stringData[i] ? quoteToken : null, nullToken, trimResults)
+                            : lobs.streamBinary(lobResults, i, sink, nullToken);
+                } catch (SQLException e) {
+                    throw new IOException("Unable to read LOB column " + headers[i] + ": " + e.getMessage(), e);
                 }
+            } else if (cell == null) {
+                sink.write(nullToken);
+            } else {
+                if (stringData[i]) sink.write(quoteToken);
+
+                sink.write(trimResults ? cell.trim() : cell);
+
+                if (stringData[i]) sink.write(quoteToken);
             }
+
+            if (i < columnsCount)
+                sink.write(columnDelimiterToken);
+        }
+    }
+
+    /**
+     * Запись строки JSON Lines с переводом строки в конце
+     * @param rowID         ID подстановки для общего файла результатов SQL-файла
+     * @param cells         Значения столбцов, по порядку. null - null
+     * @param numbers       Значения целочисленных столбцов
+     * @throws IOException  Ошибка ввода-вывода при сохранении файла
+     */
+    private void writeJson(String rowID, String[] cells, long[] numbers) throws IOException {
+        if (rowIdColumn) {
+            sink.write(rowIdPrefixToken);
+            if (rowID != null)
+                writeJsonString(rowID);
+            else
+                sink.write(nullToken);
+        }
+
+        String cell;
+        for (int i = 1; i <= columnsCount; i++) {
+            sink.write(headPrefixTokens[i]);
+            cell = cells[i - 1];
+            if (cell == NUMBER)
+                sink.write(numbers[i - 1]);
+            else if (cell == null)
+                sink.write(nullToken);
+            else if ((jsonNumber[i] || jsonBoolean[i]) && JsonText.isLiteral(cell))
+                sink.write(cell);
+            else
+                writeJsonString(trimResults ? cell.trim() : cell);
+        }
+        sink.write(jsonEndToken);
+    }
+
+    /**
+     * Запись строки JSON в кавычках. Строка без символов, требующих экранирования,
+     * записывается как есть, без копирования
+     * @param text          Строка
+     * @throws IOException  Ошибка ввода-вывода при сохранении файла
+     */
+    private void writeJsonString(String text) throws IOException {
+        sink.write(quoteToken);
+        int escape = JsonText.firstEscape(text);
+        if (escape < 0) {
+            sink.write(text);
+        } else {
+            if (jsonEscaped == null)
+                jsonEscaped = new StringBuilder(text.length() + 16);
+            jsonEscaped.setLength(0);
+            JsonText.escape(text, escape, jsonEscaped);
+            sink.write(jsonEscaped);
+        }
+        sink.write(quoteToken);
+    }
+
+    /**
+     * Проверка, что текущая часть достигла ограничения строк или объёма
+     * @return              true - следующая строка записывается в новую часть
+     */
+    private boolean isPartFull() {
+        if (partRows > 0 && partRowsWritten >= partRows)
+            return true;
+        long position = columnar != null ? columnar.getPosition() : sink.getPosition();
+        return partBytes > 0 && position >= partBytes;
+    }
+
+    /**
+     * Закрытие текущей части и создание следующей
+     * @throws IOException  Ошибка ввода-вывода при закрытии или создании файла
+     */
+    private void nextPart() throws IOException {
+        close();
+        part++;
+        fileName = resultDirectory.resolve(getPartName(part));
+        openFile();
+    }
+
+    /**
+     * Создание файла заданной части результата, для записи в отдельном потоке, см. {@link ResultPipeline}.
+     * Файл этого saver'а должен быть открыт через {@link #open(ResultSetMetaData)}.
+     * Созданная часть не переходит к следующей части сама и закрывается вызывающим.
+     * @param number        Номер части, больше 1
+     * @return              Открытый файл части
+     * @throws IOException  Ошибка ввода-вывода при создании файла
+     */
+    ResultSaver openPart(int number) throws IOException {
+        ResultSaver saver = new ResultSaver(cli, config, sqlFileName, rowID);
+        saver.columnsCount = columnsCount;
+        saver.headers = headers;
+        saver.stringData = stringData;
+        saver.longData = longData;
+        saver.textLobData = textLobData;
+        saver.binaryLobData = binaryLobData;
+        saver.jsonNumber = jsonNumber;
+        saver.jsonBoolean = jsonBoolean;
+        saver.typedData = typedData;
+        saver.lobs = lobs;
+        saver.sqlTypes = sqlTypes;
+        saver.typeNames = typeNames;
+        saver.rotation = false;
+        saver.part = number;
+        saver.fileName = resultDirectory.resolve(saver.getPartName(number));
+        saver.openFile();
+        return saver;
+    }
+
+    /**
+     * Отключение перехода к следующей части по ограничениям.
+     * Используется, если границы частей определяет поток чтения, см. {@link ResultPipeline}.
+     */
+    void disableRotation() {
+        rotation = false;
+    }
+
+    /**
+     * Проверка, что результат записывается частями, см. {@link ConfigFile#getPartRows()}
+     * @return              true - задано ограничение строк или объёма части
+     */
+    public boolean isSplitIntoParts() {
+        return partRows > 0 || partBytes > 0;
+    }
+
+    /**
+     * Ограничение количества строк в части
+     * @return              количество строк, 0 - без ограничения
+     */
+    public int getPartRows() {
+        return partRows;
+    }
+
+    /**
+     * Ограничение объёма части до сжатия
+     * @return              количество байт, 0 - без ограничения
+     */
+    public long getPartBytes() {
+        return partBytes;
+    }
+
+    /**
+     * Форматирование порции строк в текст, так же, как при записи через {@link #writeCells(String[], long[])}.
+     * Может вызываться из нескольких потоков одновременно, см. {@link ResultPipeline}.
+     * Результат записывается через {@link #writeFormatted(byte[], int)}.
+     * Порции не содержат ID подстановок, поэтому общий файл SQL-файла со столбцом ID
+     * подстановки так не форматируется.
+     * @param batch         Порция строк
+     * @param newLineBefore Добавлять перевод строки перед первой строкой порции.
+     *                      Не добавляется только для самой первой строки файла без заголовка,
+     *                      см. {@link #hasLines()}
+     * @param text          Буфер для текста. Не очищается
+     * @throws IllegalStateException Файл со столбцом ID подстановки
+     */
+    public void formatBatch(RowBatch batch, boolean newLineBefore, StringBuilder text) {
+        if (rowIdColumn)
+            throw new IllegalStateException("Row batches of file with row ID column are not supported");
+        if (columnsCount <= 0)
+            return;
+
+        if (format == ResultFormat.JSON) {
+            // Строки JSON Lines заканчиваются переводом строки, перевод строки перед порцией не нужен
+            for (int i = 0; i < batch.size(); i++)
+                appendJson(text, batch.getRow(i), batch.getNumbers(i));
+            return;
+        }
+
+        for (int i = 0; i < batch.size(); i++) {
+            if (i > 0 || newLineBefore)
+                text.append(LINE_SEPARATOR);
+            appendCells(text, batch.getRow(i), batch.getNumbers(i));
         }
     }
 
     /**
-     * Получение имени файла с результатами
+     * Запись в файл строк, отформатированных через {@link #formatBatch(RowBatch, boolean, StringBuilder)}
+     * и закодированных в кодировке файла ({@link #getFileEncoding()}).
+     * @param bytes         Закодированный текст
+     * @param length        Количество байт
+     * @throws IOException  Ошибка ввода-вывода при сохранении файла
+     */
+    public void writeFormatted(byte[] bytes, int length) throws IOException {
+        if (length <= 0)
+            return;
+
+        sink.write(bytes, 0, length);
+        firstLine = false;
+    }
+
+    /**
+     * Проверка, что в файл уже записан заголовок таблицы, либо строки результата.
+     * @return              true - следующая строка записывается с новой строки файла
+     */
+    public boolean hasLines() {
+        return !firstLine;
+    }
+
+    /**
+     * Проверка, что строки можно кодировать по частям в разных потоках.
+     * Это неверно для кодировок, добавляющих маркер порядка байт (BOM) к каждому фрагменту, например UTF-16.
+     * @return              true - независимое кодирование частей даёт тот же результат
+     */
+    public boolean canEncodeInParts() {
+        return ChannelSink.canEncodeInParts(fileEncoding);
+    }
+
+    /**
+     * Добавление значений строки, без перевода строки
+     * @param target        Буфер строки
+     * @param cells         Значения столбцов, по порядку. null - пустое значение
+     * @param numbers       Значения целочисленных столбцов
+     */
+    private void appendCells(StringBuilder target, String[] cells, long[] numbers) {
+        String cell;
+        boolean nullCell;
+        for (int i = 1; i <= columnsCount; i++) {
+            if (headPerLine)
+                target.append(headers[i]).append(headDataDelimiter);
+
+            cell = cells[i - 1];
+            if (cell == NUMBER) {
+                // Число форматируется сразу в буфер, тем же текстом, что и Long.toString()
+                target.append(numbers[i - 1]);
+            } else {
+                nullCell = cell == null;
+                if (nullCell) {
+                    cell = showNull ? "null" : "";
+                }
+
+                if (stringData[i] && !nullCell) target.append('\"');
+
+                target.append(trimResults ? cell.trim() : cell);
+
+                if (stringData[i] && !nullCell) target.append('\"');
+            }
+
+            if (i < columnsCount)
+                target.append(columnDelimiter);
+        }
+    }
+
+    /**
+     * Добавление строки JSON Lines с переводом строки, так же, как при записи через {@link #writeJson(String, String[], long[])}
+     * @param target        Буфер строки
+     * @param cells         Значения столбцов, по порядку. null - null
+     * @param numbers       Значения целочисленных столбцов
+     */
+    private void appendJson(StringBuilder target, String[] cells, long[] numbers) {
+        String cell;
+        for (int i = 1; i <= columnsCount; i++) {
+            target.append(headPrefixTokens[i].getText());
+            cell = cells[i - 1];
+            if (cell == NUMBER) {
+                target.append(numbers[i - 1]);
+            } else if (cell == null) {
+                target.append("null");
+            } else if ((jsonNumber[i] || jsonBoolean[i]) && JsonText.isLiteral(cell)) {
+                target.append(cell);
+            } else {
+                if (trimResults)
+                    cell = cell.trim();
+                int escape = JsonText.firstEscape(cell);
+                target.append('"');
+                if (escape < 0)
+                    target.append(cell);
+                else
+                    JsonText.escape(cell, escape, target);
+                target.append('"');
+            }
+        }
+        target.append(jsonEndToken.getText());
+    }
+
+    /**
+     * Проверка, что результат записывается в колоночном формате, см. {@link ColumnarWriter}.
+     * Строки такого файла не форматируются как текст.
+     * @return              true - колоночный формат
+     */
+    public boolean isColumnar() {
+        return format == ResultFormat.COLUMNAR;
+    }
+
+    /**
+     * Сжатие файла с результатами
+     * @return              сжатие
+     */
+    public Compression getCompression() {
+        return compression;
+    }
+
+    /**
+     * Кодировка файла с результатами
+     * @return              кодировка
+     */
+    public Charset getFileEncoding() {
+        return fileEncoding;
+    }
+
+    /**
+     * Количество столбцов результата.
+     * Доступно после {@link #open(ResultSetMetaData)}.
+     * @return              количество столбцов
+     */
+    public int getColumnsCount() {
+        return columnsCount;
+    }
+
+    /**
+     * Закрытие файла с результатами.
+     * Для сжатого файла выводится степень сжатия и скорость.
+     * @throws IOException  Ошибка ввода-вывода при закрытии файла
+     */
+    @Override
+    public void close() throws IOException {
+        if (columnar != null)
+            try {
+                columnar.close();
+            } finally {
+                columnar = null;
+            }
+        if (sink != null)
+            try {
+                sink.close();
+                if (compression != Compression.NONE)
+                    reportCompression(sink);
+            } finally {
+                sink = null;
+            }
+    }
+
+    /**
+     * Вывод степени и скорости сжатия файла.
+     * Скорость сжатия - объём исходных данных к времени сжатия с учётом количества потоков,
+     * общая скорость - к времени от создания до закрытия файла.
+     * @param closed        Закрытый файл
+     */
+    private void reportCompression(ChannelSink closed) {
+        double megabytes = closed.getBytesIn() / 1048576.0;
+        double compressSeconds = closed.getCompressNanos() / 1e9 / Math.max(1, closed.getCompressThreads());
+        double elapsedSeconds = closed.getElapsedNanos() / 1e9;
+        System.err.println(String.format("Compressed %s: %d -> %d bytes, ratio %.2f, "
+                        + "compression %.1f MB/s on %d thread(s), overall %.1f MB/s",
+                fileName.getFileName(), closed.getBytesIn(), closed.getBytesOut(),
+                closed.getBytesOut() > 0 ? (double) closed.getBytesIn() / closed.getBytesOut() : 0.0,
+                compressSeconds > 0 ? megabytes / compressSeconds : 0.0,
+                closed.getCompressThreads(),
+                elapsedSeconds > 0 ? megabytes / elapsedSeconds : 0.0));
+    }
+
+    /**
+     * Получение имени файла с результатами.
+     * При записи частями - имя текущей части.
      * @return  имя файла
      */
     public Path getFileName() {
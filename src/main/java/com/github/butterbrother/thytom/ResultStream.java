@@ -0,0 +1,146 @@
+package com.github.butterbrother.thytom;
+
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Вывод результатов в стандартный вывод либо в именованный канал (FIFO) вместо файлов в каталоге out.
+ * Задаётся параметром командной строки -P/--pipe.
+ * <p>
+ * Результаты всех запросов выводятся в один поток кадрами. Каждый кадр - строка заголовка
+ * в UTF-8 и следующие за ней данные указанного размера:
+ * <pre>
+ * #@thytom&lt;TAB&gt;тип&lt;TAB&gt;размер данных в байтах&lt;TAB&gt;имя SQL-файла&lt;TAB&gt;ID подстановки&lt;LF&gt;
+ * </pre>
+ * Тип begin открывает результат, data содержит очередной фрагмент результата (в кодировке
+ * файлов с результатами, при сжатии - фрагмент потока gzip), end закрывает результат.
+ * У begin и end данных нет. ID подстановки пустой для общего результата SQL-файла (-o/--one-file).
+ * <p>
+ * Результаты, записываемые одновременно (параллельные исполнители, -i/--in-list), чередуются
+ * кадрами, поэтому получатель собирает данные результата по имени SQL-файла и ID подстановки.
+ * Кадр записывается целиком, кадры разных результатов не перемешиваются.
+ * <p>
+ * Поток один на запуск, открывается при выводе первого результата и закрывается через {@link #close()}.
+ * Сообщения о ходе работы выводятся только в стандартный поток ошибок.
+ */
+public class ResultStream {
+    /**
+     * Имя вывода для стандартного вывода
+     */
+    public static final String STDOUT = "-";
+
+    /**
+     * Начало строки заголовка кадра
+     */
+    public static final String MARKER = "#@thytom";
+
+    private static ResultStream instance = null;
+
+    private final WritableByteChannel target;
+    private final boolean ownsTarget;
+
+    /**
+     * Инициализация.
+     *
+     * @param target     канал вывода
+     * @param ownsTarget закрывать канал при закрытии
+     */
+    private ResultStream(WritableByteChannel target, boolean ownsTarget) {
+        this.target = target;
+        this.ownsTarget = ownsTarget;
+    }
+
+    /**
+     * Общий поток вывода. Открывается при первом обращении.
+     * Открытие именованного канала ожидает подключения читающей стороны.
+     *
+     * @param name {@link #STDOUT} - стандартный вывод, иначе путь к именованному каналу либо файлу
+     * @return поток вывода
+     * @throws IOException Ошибка открытия канала
+     */
+    static synchronized ResultStream open(String name) throws IOException {
+        if (instance == null)
+            instance = STDOUT.equals(name)
+                    ? new ResultStream(new FileOutputStream(FileDescriptor.out).getChannel(), false)
+                    : new ResultStream(new FileOutputStream(name).getChannel(), true);
+
+        return instance;
+    }
+
+    /**
+     * Начало вывода результата. Записывается кадр begin.
+     *
+     * @param sqlFileName Имя SQL-файла
+     * @param rowID       ID подстановки, либо null для общего результата SQL-файла
+     * @return Канал результата: каждая запись - кадр data, закрытие - кадр end.
+     * Поток вывода при закрытии не закрывается
+     * @throws IOException Ошибка записи
+     */
+    public WritableByteChannel openResult(String sqlFileName, String rowID) throws IOException {
+        final String name = sqlFileName + '\t' + (rowID != null ? rowID : "");
+        writeFrame("begin", name, null);
+
+        return new WritableByteChannel() {
+            private boolean open = true;
+
+            @Override
+            public int write(ByteBuffer source) throws IOException {
+                int length = source.remaining();
+                if (length > 0)
+                    writeFrame("data", name, source);
+                return length;
+            }
+
+            @Override
+            public boolean isOpen() {
+                return open;
+            }
+
+            @Override
+            public void close() throws IOException {
+                if (open) {
+                    open = false;
+                    writeFrame("end", name, null);
+                }
+            }
+        };
+    }
+
+    /**
+     * Запись кадра целиком
+     *
+     * @param type    тип кадра
+     * @param name    имя SQL-файла и ID подстановки
+     * @param payload данные, либо null
+     * @throws IOException Ошибка записи
+     */
+    private synchronized void writeFrame(String type, String name, ByteBuffer payload) throws IOException {
+        int length = payload != null ? payload.remaining() : 0;
+        ByteBuffer header = ByteBuffer.wrap((MARKER + '\t' + type + '\t' + length + '\t' + name + '\n')
+                .getBytes(StandardCharsets.UTF_8));
+        while (header.hasRemaining())
+            target.write(header);
+        while (payload != null && payload.hasRemaining())
+            target.write(payload);
+    }
+
+    /**
+     * Закрытие потока вывода, если он открывался.
+     * Стандартный вывод не закрывается.
+     *
+     * @throws IOException Ошибка закрытия канала
+     */
+    public static synchronized void close() throws IOException {
+        if (instance != null)
+            try {
+                if (instance.ownsTarget)
+                    instance.target.close();
+            } finally {
+                instance = null;
+            }
+    }
+}
@@ -0,0 +1,168 @@
+package com.github.butterbrother.thytom;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Порция прочитанных строк результата запроса.
+ * <p>
+ * Порции используются повторно: массивы значений строк создаются один раз
+ * и перезаписываются при каждом заполнении порции, см. {@link ResultPipeline}.
+ * <p>
+ * При параллельном форматировании порция так же хранит свой отформатированный
+ * и закодированный текст до записи в файл.
+ */
+public class RowBatch {
+    private final String[][] rows;
+    private final long[][] numbers;
+    private int size = 0;
+
+    private final StringBuilder text = new StringBuilder();
+    private ByteBuffer encoded = ByteBuffer.allocate(0);
+    private boolean newLineBefore = false;
+    private boolean formatted = false;
+    private int part = 1;
+
+    /**
+     * Инициализация.
+     *
+     * @param capacity     максимальное количество строк в порции
+     * @param columnsCount количество столбцов результата
+     */
+    public RowBatch(int capacity, int columnsCount) {
+        rows = new String[capacity][columnsCount];
+        numbers = new long[capacity][columnsCount];
+    }
+
+    /**
+     * Добавление строки в порцию. Значения строки заполняются через
+     * {@link #getRow(int)} и {@link #getNumbers(int)}.
+     *
+     * @return номер добавленной строки
+     */
+    public int addRow() {
+        return size++;
+    }
+
+    /**
+     * Значения строки порции
+     *
+     * @param index номер строки, от 0
+     * @return значения столбцов
+     */
+    public String[] getRow(int index) {
+        return rows[index];
+    }
+
+    /**
+     * Значения целочисленных столбцов строки порции,
+     * см. {@link ResultSaver#readRow(java.sql.ResultSet, String[], long[])}
+     *
+     * @param index номер строки, от 0
+     * @return значения столбцов
+     */
+    public long[] getNumbers(int index) {
+        return numbers[index];
+    }
+
+    /**
+     * Количество заполненных строк
+     *
+     * @return количество строк
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Порция заполнена
+     *
+     * @return true - строк больше не добавить
+     */
+    public boolean isFull() {
+        return size == rows.length;
+    }
+
+    /**
+     * Очистка порции для повторного использования
+     */
+    public synchronized void clear() {
+        size = 0;
+        formatted = false;
+    }
+
+    /**
+     * Добавлять перевод строки перед первой строкой порции при форматировании
+     *
+     * @return true - порция не в начале файла
+     */
+    public boolean needNewLineBefore() {
+        return newLineBefore;
+    }
+
+    public void setNewLineBefore(boolean newLineBefore) {
+        this.newLineBefore = newLineBefore;
+    }
+
+    /**
+     * Номер части результата, в которую записывается порция, см. {@link ResultSaver#isSplitIntoParts()}
+     *
+     * @return номер части, начиная с 1
+     */
+    public int getPart() {
+        return part;
+    }
+
+    public void setPart(int part) {
+        this.part = part;
+    }
+
+    /**
+     * Буфер для отформатированного текста порции
+     *
+     * @return очищенный буфер
+     */
+    public StringBuilder getText() {
+        text.setLength(0);
+        return text;
+    }
+
+    /**
+     * Буфер для закодированного текста порции
+     *
+     * @param capacity необходимый размер
+     * @return очищенный буфер не меньше необходимого размера
+     */
+    public ByteBuffer getEncoded(int capacity) {
+        if (encoded.capacity() < capacity)
+            encoded = ByteBuffer.allocate(capacity);
+        encoded.clear();
+        return encoded;
+    }
+
+    /**
+     * Закодированный текст порции, после {@link #awaitFormatted()}
+     *
+     * @return буфер, position - размер текста
+     */
+    public ByteBuffer getEncoded() {
+        return encoded;
+    }
+
+    /**
+     * Отметка об окончании форматирования порции
+     */
+    public synchronized void markFormatted() {
+        formatted = true;
+        notifyAll();
+    }
+
+    /**
+     * Ожидание окончания форматирования порции
+     *
+     * @throws InterruptedException Ожидание прервано
+     */
+    public synchronized void awaitFormatted() throws InterruptedException {
+        while (!formatted)
+            wait();
+    }
+}
@@ -6,15 +6,49 @@ import java.io.IOException;
 import java.nio.charset.Charset;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 /**
  * Считывает запрос из SQL-файла.
  * Считывание производится при первом вызове {@link #getQuery(Map)}.
- * Выполняет подмену, если они указаны.
+ * Выполняет подмену, если они указаны. Для подмен запрос однократно разбирается
+ * на текст и места шаблонов, см. {@link QueryTemplate}.
+ * <p>
+ * Так же может подготовить запрос для передачи подстановок параметрами JDBC,
+ * см. {@link #getBoundQuery(Map)} и {@link #getBindValues(Map)}.
  */
 public class SQLFile implements Closeable, AutoCloseable {
+    /**
+     * Шаблон, стоящий на месте значения. Только такие шаблоны заменяются маркерами параметров JDBC:
+     * <ul>
+     * <li>шаблон в одинарных кавычках, кроме типизированных литералов вида date '{PARAM}';</li>
+     * <li>шаблон без кавычек после оператора сравнения либо LIKE, например owner = {PARAM}.</li>
+     * </ul>
+     * Группа 1 - шаблон в кавычках, группа 2 - пробелы перед шаблоном без кавычек, группа 3 - шаблон без кавычек.
+     */
+    private static final Pattern BIND_TEMPLATE = Pattern.compile(
+            "(?<!\\b(?i:date|time|timestamp|interval)\\s{0,16})'(\\{[^'{}]+\\})'"
+                    + "|(?<=[=<>]|\\b(?i:like))(\\s*)(\\{[^'{}\\s]+\\})(?![\\w'.{(])");
+
+    /**
+     * Условие равенства шаблону по-умолчанию, в кавычках либо без.
+     * Заменяется списком IN (...) при объединении подстановок.
+     * Знак равенства в составе операторов &gt;=, &lt;=, != и == не является условием равенства.
+     */
+    private static final Pattern EQUALS_TEMPLATE =
+            Pattern.compile("(?<![<>!=])=\\s*('?)" + Pattern.quote(SubsFileLoader.DEFAULT_TEMPLATE) + "\\1");
+
     private String originalQuery = null;
+    private String boundQuery = null;
+    private String[] bindTemplates = null;
+    // Шаблон параметра стоял в кавычках
+    private boolean[] bindQuoted = null;
+    private QueryTemplate queryTemplate = null;
+    private QueryTemplate boundTemplate = null;
     private Path file;
     private Charset fileEncoding;
 
@@ -50,6 +84,207 @@ public class SQLFile implements Closeable, AutoCloseable {
      * @throws IOException Ошибка считывания запроса из файла при первом вызове.
      */
     public String getQuery(Map<String, String> substitutions) throws IOException {
+        load();
+        if (substitutions == null || substitutions.isEmpty())
+            return originalQuery;
+
+        queryTemplate = QueryTemplate.of(queryTemplate, originalQuery, substitutions);
+        return queryTemplate.render(substitutions);
+    }
+
+    /**
+     * Получение запроса для передачи подстановок параметрами JDBC.
+     * Шаблоны на месте значений: заключённые в одинарные кавычки (например, '{PARAM}'), вместе
+     * с кавычками, и без кавычек после оператора сравнения либо LIKE (например, owner = {PARAM}) -
+     * заменяются маркерами параметров "?". Остальные шаблоны подставляются текстом,
+     * как и в {@link #getQuery(Map)}, т.к. могут стоять на месте имён таблиц и столбцов.
+     * <p>
+     * Если в запросе нет других шаблонов, то текст запроса одинаков для всех подстановок,
+     * и его достаточно подготовить однократно.
+     *
+     * @param substitutions Подмены. Может быть Null и пустым.
+     * @return Запрос с маркерами параметров
+     * @throws IOException Ошибка считывания запроса из файла при первом вызове.
+     */
+    public String getBoundQuery(Map<String, String> substitutions) throws IOException {
+        load();
+
+        if (boundQuery == null) {
+            List<String> templates = new ArrayList<>();
+            List<Boolean> quoted = new ArrayList<>();
+            StringBuffer query = new StringBuffer(originalQuery.length());
+            Matcher matcher = BIND_TEMPLATE.matcher(originalQuery);
+            while (matcher.find()) {
+                if (matcher.group(1) != null) {
+                    templates.add(matcher.group(1));
+                    quoted.add(true);
+                    matcher.appendReplacement(query, "?");
+                } else {
+                    templates.add(matcher.group(3));
+                    quoted.add(false);
+                    matcher.appendReplacement(query, Matcher.quoteReplacement(matcher.group(2) + "?"));
+                }
+            }
+            matcher.appendTail(query);
+
+            boundQuery = query.toString();
+            bindTemplates = templates.toArray(new String[templates.size()]);
+            bindQuoted = new boolean[quoted.size()];
+            for (int i = 0; i < bindQuoted.length; i++)
+                bindQuoted[i] = quoted.get(i);
+        }
+
+        if (substitutions == null || substitutions.isEmpty())
+            return boundQuery;
+
+        boundTemplate = QueryTemplate.of(boundTemplate, boundQuery, substitutions);
+        return boundTemplate.render(substitutions);
+    }
+
+    /**
+     * Получение значений параметров JDBC для запроса из {@link #getBoundQuery(Map)}.
+     * Если для шаблона нет подстановки, то передаётся сам шаблон - так же, как
+     * он остался бы в тексте запроса в {@link #getQuery(Map)}.
+     * Значения шаблонов без кавычек передаются как текст литерала, см. {@link #toBindValue(String)}.
+     *
+     * @param substitutions Подмены. Может быть Null и пустым.
+     * @return Значения параметров по порядку маркеров в запросе
+     * @throws IOException Ошибка считывания запроса из файла при первом вызове.
+     */
+    public String[] getBindValues(Map<String, String> substitutions) throws IOException {
+        getBoundQuery(null);
+
+        String[] values = new String[bindTemplates.length];
+        for (int i = 0; i < bindTemplates.length; i++) {
+            String value = substitutions != null ? substitutions.get(bindTemplates[i]) : null;
+            if (value == null)
+                values[i] = bindTemplates[i];
+            else
+                values[i] = bindQuoted[i] ? value : toBindValue(value);
+        }
+
+        return values;
+    }
+
+    /**
+     * Значение параметра JDBC для шаблона без кавычек, вместо которого подставляется текст SQL-литерала.
+     * Пробелы по краям отбрасываются. Строковый литерал в одинарных кавычках передаётся без кавычек,
+     * удвоенные кавычки внутри него - одинарными. Остальные значения, например числа, передаются
+     * текстом как есть и приводятся к типу столбца самой БД.
+     *
+     * @param literal значение подстановки
+     * @return значение параметра
+     */
+    static String toBindValue(String literal) {
+        String value = literal.trim();
+        if (value.length() >= 2 && value.charAt(0) == '\'' && value.charAt(value.length() - 1) == '\'')
+            return value.substring(1, value.length() - 1).replace("''", "'");
+        return value;
+    }
+
+    /**
+     * Проверка, что в запросе есть условие вида "= {PARAM}" либо "= '{PARAM}'",
+     * т.е. подстановки можно объединить в список IN (...).
+     *
+     * @return true - подстановки можно объединить
+     * @throws IOException Ошибка считывания запроса из файла при первом вызове.
+     */
+    public boolean hasInListCondition() throws IOException {
+        load();
+
+        return EQUALS_TEMPLATE.matcher(originalQuery).find();
+    }
+
+    /**
+     * Проверка, что в запросе есть условие вида "= {PARAM}" без кавычек, т.е. значения
+     * подстановок попадают в список IN (...) литералами SQL, например 'SCOTT' либо 42.
+     *
+     * @return true - есть условие без кавычек
+     * @throws IOException Ошибка считывания запроса из файла при первом вызове.
+     */
+    public boolean hasUnquotedInListCondition() throws IOException {
+        load();
+
+        Matcher matcher = EQUALS_TEMPLATE.matcher(originalQuery);
+        while (matcher.find())
+            if (matcher.group(1).isEmpty())
+                return true;
+        return false;
+    }
+
+    /**
+     * Получение запроса, в котором условия "= {PARAM}" и "= '{PARAM}'" заменены
+     * списком "IN (...)" с указанными значениями.
+     * Значения в кавычках экранируются удвоением кавычки. При передаче параметрами JDBC
+     * значения заменяются маркерами параметров, см. {@link #getInListBindValues(List)}.
+     *
+     * @param values Значения подстановок
+     * @param bind   Передавать значения в кавычках параметрами JDBC
+     * @return Запрос со списком IN (...)
+     * @throws IOException Ошибка считывания запроса из файла при первом вызове.
+     */
+    public String getInListQuery(List<String> values, boolean bind) throws IOException {
+        load();
+
+        StringBuilder query = new StringBuilder(originalQuery.length() + values.size() * 16);
+        Matcher matcher = EQUALS_TEMPLATE.matcher(originalQuery);
+        int tail = 0;
+        while (matcher.find()) {
+            boolean quoted = !matcher.group(1).isEmpty();
+            query.append(originalQuery, tail, matcher.start());
+            if (matcher.start() > 0 && !Character.isWhitespace(originalQuery.charAt(matcher.start() - 1)))
+                query.append(' ');
+            query.append("IN (");
+            for (int i = 0; i < values.size(); i++) {
+                if (i > 0)
+                    query.append(", ");
+
+                if (bind) {
+                    query.append('?');
+                } else if (quoted) {
+                    query.append('\'').append(escape(values.get(i))).append('\'');
+                } else {
+                    query.append(values.get(i));
+                }
+            }
+            query.append(')');
+            tail = matcher.end();
+        }
+        query.append(originalQuery, tail, originalQuery.length());
+
+        return query.toString();
+    }
+
+    /**
+     * Получение значений параметров JDBC для запроса из {@link #getInListQuery(List, boolean)}.
+     * Значения условий без кавычек передаются так же, как в {@link #getBindValues(Map)}.
+     *
+     * @param values Значения подстановок
+     * @return Значения параметров по порядку маркеров в запросе
+     * @throws IOException Ошибка считывания запроса из файла при первом вызове.
+     */
+    public String[] getInListBindValues(List<String> values) throws IOException {
+        load();
+
+        List<String> bindValues = new ArrayList<>();
+        Matcher matcher = EQUALS_TEMPLATE.matcher(originalQuery);
+        while (matcher.find()) {
+            if (!matcher.group(1).isEmpty())
+                bindValues.addAll(values);
+            else
+                for (String value : values)
+                    bindValues.add(toBindValue(value));
+        }
+
+        return bindValues.toArray(new String[bindValues.size()]);
+    }
+
+    /**
+     * Считывание запроса из файла, если он ещё не был считан.
+     *
+     * @throws IOException Ошибка считывания запроса из файла
+     */
+    private void load() throws IOException {
         if (originalQuery == null) {
             StringBuilder rawQuery = new StringBuilder();
 
@@ -61,16 +296,29 @@ public class SQLFile implements Closeable, AutoCloseable {
 
             this.originalQuery = rawQuery.toString();
         }
+    }
 
-        if (substitutions != null && substitutions.size() > 0) {
-            String tmp = originalQuery;
-            for (Map.Entry<String, String> rule : substitutions.entrySet()) {
-                tmp = tmp.replace(rule.getKey(), rule.getValue());
-            }
-            return tmp;
-        } else {
-            return originalQuery;
-        }
+    /**
+     * Экранирование значения для подстановки внутрь строкового литерала:
+     * одинарная кавычка удваивается.
+     *
+     * @param value значение
+     * @return экранированное значение
+     */
+    static String escape(String value) {
+        return value.indexOf('\'') < 0 ? value : value.replace("'", "''");
+    }
+
+    /**
+     * Проверка, что запрос делится на части диапазона ключа, см. {@link KeyRange}
+     *
+     * @return true - в запросе есть шаблоны {@link KeyRange#RANGE_LO} и {@link KeyRange#RANGE_HI}
+     * @throws IOException Ошибка считывания запроса из файла при первом вызове.
+     */
+    public boolean hasRangeTemplates() throws IOException {
+        load();
+
+        return originalQuery.contains(KeyRange.RANGE_LO) && originalQuery.contains(KeyRange.RANGE_HI);
     }
 
     /**
@@ -81,5 +329,10 @@ public class SQLFile implements Closeable, AutoCloseable {
     @Override
     public void close() {
         originalQuery = null;
+        boundQuery = null;
+        bindTemplates = null;
+        bindQuoted = null;
+        queryTemplate = null;
+        boundTemplate = null;
     }
 }
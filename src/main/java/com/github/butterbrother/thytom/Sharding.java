@@ -0,0 +1,82 @@
+package com.github.butterbrother.thytom;
+
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+
+/**
+ * Распределение файлов с результатами по подкаталогам каталога out.
+ * <p>
+ * Выбирается параметром file.result.sharding в файле конфигурации. Сотни тысяч файлов
+ * в одном каталоге замедляют поиск и просмотр каталога (ext4, NFS), поэтому файлы
+ * раскладываются по вложенным подкаталогам. Расположение каждого файла записывается
+ * в оглавление {@link ResultManifest}, просматривать каталоги не требуется.
+ */
+public enum Sharding {
+    /**
+     * Все файлы в каталоге out
+     */
+    NONE,
+    /**
+     * Подкаталоги по шестнадцатеричному хешу имени файла, по два знака на уровень: out/3f/a2/...
+     */
+    HASH,
+    /**
+     * Подкаталог для каждого SQL-файла: out/report/...
+     */
+    SQLFILE;
+
+    /**
+     * Наибольшее количество уровней подкаталогов для {@link #HASH}
+     */
+    public static final int MAX_LEVELS = 4;
+
+    /**
+     * Подкаталог файла с результатами относительно каталога out.
+     * Файлы-части одного результата ({@link ResultSaver#isSplitIntoParts()}) попадают в один подкаталог,
+     * т.к. хешируется имя результата без номера части.
+     *
+     * @param sqlFileName Имя SQL-файла
+     * @param resultName  Имя файла с результатами, без номера части и расширения сжатия
+     * @param levels      Количество уровней подкаталогов для {@link #HASH}, от 1 до {@link #MAX_LEVELS}
+     * @return подкаталог с разделителями '/', либо пустая строка
+     */
+    public String getDirectory(String sqlFileName, String resultName, int levels) {
+        switch (this) {
+            case HASH:
+                CRC32 crc = new CRC32();
+                crc.update(resultName.getBytes(StandardCharsets.UTF_8));
+                String hash = String.format("%08x", crc.getValue());
+                StringBuilder directory = new StringBuilder();
+                for (int level = 0; level < Math.max(1, Math.min(levels, MAX_LEVELS)); level++) {
+                    if (level > 0)
+                        directory.append('/');
+                    directory.append(hash, level * 2, level * 2 + 2);
+                }
+                return directory.toString();
+            case SQLFILE:
+                String name = sqlFileName.endsWith(".sql")
+                        ? sqlFileName.substring(0, sqlFileName.length() - ".sql".length())
+                        : sqlFileName;
+                for (char c : ResultSaver.incompatibleChars)
+                    name = name.replace(c, '_');
+                return name.isEmpty() || name.startsWith(".") ? "_" + name : name;
+            default:
+                return "";
+        }
+    }
+
+    /**
+     * Определение распределения по имени
+     *
+     * @param name имя: none, hash, sqlfile
+     * @return распределение, либо null, если имя не опознано
+     */
+    public static Sharding fromName(String name) {
+        for (Sharding sharding : values()) {
+            if (sharding.name().equalsIgnoreCase(name.trim()))
+                return sharding;
+        }
+
+        return null;
+    }
+}
@@ -9,6 +9,9 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -27,11 +30,13 @@ import java.util.Map;
  * При помощи {@link SQLFile} и {@link SQLFilesLoader} последовательно
  * загружаются SQL-файлы. При наличии файла подстановок из него
  * извлекаются подстановки для каждого SQL-запроса. Файл подстановок
- * обрабатывается {@link SubsFileLoader}.
+ * обрабатывается {@link SubsFileLoader}; если SQL-файлов несколько либо файл подстановок велик,
+ * он однократно загружается в память ({@link SubsTable}). Вместо файла подстановок могут использоваться
+ * строки результата ведущего SQL-файла ({@link DriverQuerySubs}).
  * <p/>
  * Каждый получившийся запрос исполняется в {@link QueriesExecutor}.
  * Если есть результат, то он сохраняется с помощью {@link ResultSaver} в файлы,
- * расположенные в ./out.
+ * расположенные в ./out, либо копируется в таблицу целевой БД с помощью {@link ResultCopier}.
  */
 public class StartHere {
     /**
@@ -82,9 +87,17 @@ public class StartHere {
         try {
             CLIOptions cli = parser.parseCLI();
 
+            if (cli.getStreamTarget() != null && config.getResultFormat() == ResultFormat.COLUMNAR) {
+                System.err.println("Columnar results can't be streamed, use text format with \"--pipe\"");
+                System.exit(EXIT_ERR_PARAM);
+            }
+
             loadAllLibs();
 
-            prepare(cli, config);
+            if (cli.getImportFile() != null)
+                importFile(cli, config);
+            else
+                prepare(cli, config);
         } catch (ParseException pe) {
             System.err.println(pe.getMessage());
             parser.showHelpUsage();
@@ -125,6 +138,26 @@ public class StartHere {
         }
     }
 
+    /**
+     * Загрузка файла с результатами в таблицу БД вместо исполнения запросов.
+     *
+     * @param cli    Параметры из командной строки
+     * @param config Параметры из файла конфигурации
+     */
+    private static void importFile(CLIOptions cli, ConfigFile config) {
+        System.err.println("Connecting to " + config.getUrl());
+        try {
+            new ResultImporter(cli, config).load();
+        } catch (IOException importError) {
+            System.err.println("Unable to import file " + cli.getImportFile() + ": " + importError.getMessage());
+            System.exit(EXIT_INTERNAL_ERR);
+        } catch (SQLException importError) {
+            System.err.println("Unable to import file " + cli.getImportFile()
+                    + " into database: " + importError.getMessage());
+            System.exit(EXIT_INTERNAL_ERR);
+        }
+    }
+
     /**
      * Этап подготовки к подключению.
      * Загружается список SQL-файлов.
@@ -154,126 +187,529 @@ public class StartHere {
             System.exit(EXIT_INTERNAL_ERR);
         }
 
+        if (cli.getDriverQuery() != null) {
+            driverRuntime(cli, config, sqlFiles);
+            return;
+        }
+
         SubsFileLoader subsLoader = null;
         if (cli.fileIsUsed())
             try {
-                subsLoader = new SubsFileLoader(cli, config);
+                // Подстановки нескольких SQL-файлов либо большого файла берутся из однократно загруженной таблицы
+                subsLoader = new SubsFileLoader(cli, config, SubsFileLoader.needLoad(cli.getFilePath(), sqlFiles.length));
             } catch (IOException subsFileLoadError) {
-                System.out.println("Unable to open substitutions file: " + subsFileLoadError.getMessage());
+                System.err.println("Unable to open substitutions file: " + subsFileLoadError.getMessage());
                 System.exit(EXIT_ERR_PARAM);
             }
 
         runtime(cli, config, sqlFiles, subsLoader);
     }
 
+    /**
+     * Обработка запросов с подстановками из результата ведущего SQL-файла ({@link DriverQuerySubs}).
+     * Ведущий SQL-файл исключается из списка, его результат не сохраняется.
+     *
+     * @param cli      Параметры из командной строки
+     * @param config   Параметры из файла конфигурации
+     * @param sqlFiles Список SQL-файлов, включая ведущий
+     */
+    private static void driverRuntime(CLIOptions cli, ConfigFile config, SQLFile[] sqlFiles) {
+        SQLFile driver = null;
+        List<SQLFile> dependent = new ArrayList<>();
+        for (SQLFile sqlFile : sqlFiles) {
+            if (driver == null && sqlFile.getFileName().equals(cli.getDriverQuery()))
+                driver = sqlFile;
+            else
+                dependent.add(sqlFile);
+        }
+        if (driver == null) {
+            System.err.println("Driver sql file " + cli.getDriverQuery() + " not found in \"sql\" directory");
+            System.exit(EXIT_ERR_PARAM);
+        }
+        if (dependent.isEmpty()) {
+            System.err.println("No sql queries found in \"sql\" directory, except driver sql file " + cli.getDriverQuery());
+            System.exit(EXIT_NORMAL);
+        }
+
+        System.err.println("Executing driver sql file " + driver.getFileName());
+        DriverQuerySubs subs = null;
+        try {
+            subs = new DriverQuerySubs(cli, config, driver);
+        } catch (SQLException driverError) {
+            System.err.println("Unable to execute driver sql file " + driver.getFileName() + ": " + driverError.getMessage());
+            System.exit(EXIT_INTERNAL_ERR);
+        } catch (IOException driverError) {
+            System.err.println("Unable to load driver sql file " + driver.getFileName() + ": " + driverError.getMessage());
+            System.exit(EXIT_INTERNAL_ERR);
+        } finally {
+            driver.close();
+        }
+
+        try {
+            runtime(cli, config, dependent.toArray(new SQLFile[dependent.size()]), subs);
+        } finally {
+            subs.close();
+        }
+        System.err.println("Driver sql file " + driver.getFileName() + " returned " + subs.getFetchedRows() + " rows");
+    }
+
     /**
      * Обработка запросов.
      * Запросы исполняются и передаются далее в
-     * {@link #executeAndSave(CLIOptions, ConfigFile, QueriesExecutor, String, String, String)}
+     * {@link #executeAndSave(CLIOptions, ConfigFile, QueriesExecutor, QueryTask, ConsolidatedResults)}
      * для сохранения результатов в файл.
+     * <p>
+     * Если задано несколько параллельных исполнителей (параметр командной строки
+     * либо {@link ConfigFileLoader#PARAM_PARALLEL}), то запросы исполняются
+     * через {@link QueriesExecutorPool}.
+     * <p>
+     * Если задано деление запросов на части диапазона ключа ({@link CLIOptions#getRangeCount()}),
+     * то диапазон делится однократно, до исполнения запросов, см. {@link KeyRange}.
+     * <p>
+     * Если результаты всех подстановок SQL-файла сохраняются в один файл
+     * ({@link CLIOptions#needConsolidateResults()}), то общие файлы закрываются
+     * после исполнения всех запросов.
      * @param cli           Параметры, полученные из командной строки
      * @param config        Параметры из файла конфигурации
      * @param sqlFiles      Список SQL-файлов
-     * @param subs          Файл с подменами. Может быть null.
+     * @param subs          Подстановки. Может быть null.
      */
-    public static void runtime(CLIOptions cli,
-                               ConfigFile config,
+    public static void runtime(final CLIOptions cli,
+                               final ConfigFile config,
                                SQLFile[] sqlFiles,
-                               SubsFileLoader subs) {
+                               Substitutions subs) {
+        List<KeyRange.Part> ranges = cli.getRangeCount() > 0 ? splitRange(cli, config) : null;
+        int workers = cli.getParallelWorkers() > 0 ? cli.getParallelWorkers() : config.getParallelWorkers();
+        // Части диапазона ключа исполняются одновременно, если количество исполнителей не задано явно
+        if (ranges != null && cli.getParallelWorkers() <= 0 && workers <= 1)
+            workers = ranges.size();
+        final ConsolidatedResults consolidated = cli.needConsolidateResults()
+                ? new ConsolidatedResults(cli, config)
+                : null;
+        if (workers > 1) {
+            parallelRuntime(cli, config, sqlFiles, subs, ranges, workers, consolidated);
+            return;
+        }
+
         System.err.println("Connecting to " + config.getUrl());
-        try (QueriesExecutor executor = new QueriesExecutor(cli, config)) {
+        int exitCode = EXIT_NORMAL;
+        try (final QueriesExecutor executor = new QueriesExecutor(cli, config)) {
+            exitCode = processSQLFiles(cli, sqlFiles, subs, ranges, new TaskConsumer() {
+                @Override
+                public void accept(QueryTask task) {
+                    executeAndSave(cli, config, executor, task, consolidated);
+                }
+            });
+            finishBatch(executor);
+        } catch (SQLException sqlE) {
+            System.err.println("Connection error: " + sqlE.getMessage());
+            exitCode = EXIT_INTERNAL_ERR;
+        } catch (InterruptedException interrupted) {
+            exitCode = EXIT_INTERNAL_ERR;
+        } finally {
+            closeConsolidated(consolidated);
+            closeOutputs();
+        }
 
-            int current = 0;
+        if (exitCode != EXIT_NORMAL)
+            System.exit(exitCode);
+    }
+
+    /**
+     * Деление диапазона ключа на части. Наименьшее и наибольшее значения столбца-ключа
+     * запрашиваются через отдельное подключение к БД, если диапазон не задан явно.
+     *
+     * @param cli    Параметры, полученные из командной строки
+     * @param config Параметры из файла конфигурации
+     * @return части диапазона
+     */
+    private static List<KeyRange.Part> splitRange(CLIOptions cli, ConfigFile config) {
+        KeyRange range = KeyRange.parse(cli.getRangeKey());
+        if (range == null) {
+            System.err.println("Querying bounds of range key " + cli.getRangeKey());
+            try (QueriesExecutor executor = new QueriesExecutor(cli, config)) {
+                range = KeyRange.fromDatabase(executor, cli.getRangeKey());
+            } catch (SQLException boundsError) {
+                System.err.println("Unable to get bounds of range key: " + boundsError.getMessage());
+                System.exit(EXIT_INTERNAL_ERR);
+            }
+        }
 
-            for (SQLFile sqlFile : sqlFiles) {
-                System.err.println("Processing file " + sqlFile.getFileName() + " [" + (++current) + "/" + sqlFiles.length + "]...");
+        List<KeyRange.Part> ranges = range.split(cli.getRangeCount());
+        System.err.println("Key range " + ranges.get(0).getLo() + KeyRange.BOUNDS_DELIMITER
+                + ranges.get(ranges.size() - 1).getHi() + " is split into " + ranges.size() + " ranges");
+        return ranges;
+    }
 
-                try {
-                    sqlFile.getQuery(null); // Первое обращение к этому методу загружает sql-файл в память
-                } catch (IOException queryLoadErr) {
-                    System.err.println("Unable to load sql query from file "
-                            + sqlFile.getFileName()
-                            + ": " + queryLoadErr.getMessage());
-                    continue;
+    /**
+     * Параллельная обработка запросов.
+     * Задания распределяются между исполнителями {@link QueriesExecutorPool},
+     * каждый из которых использует собственное подключение к БД.
+     * По завершении дожидается выполнения всех заданий и закрывает подключения.
+     *
+     * @param cli      Параметры, полученные из командной строки
+     * @param config   Параметры из файла конфигурации
+     * @param sqlFiles Список SQL-файлов
+     * @param subs     Подстановки. Может быть null.
+     * @param ranges   Части диапазона ключа. null - запросы не делятся
+     * @param workers  Количество исполнителей
+     * @param consolidated Общие файлы результатов SQL-файлов. null - отдельный файл для каждой подстановки
+     */
+    private static void parallelRuntime(CLIOptions cli,
+                                        ConfigFile config,
+                                        SQLFile[] sqlFiles,
+                                        Substitutions subs,
+                                        List<KeyRange.Part> ranges,
+                                        int workers,
+                                        ConsolidatedResults consolidated) {
+        System.err.println("Connecting to " + config.getUrl() + " with " + workers + " parallel executors");
+        final QueriesExecutorPool pool;
+        try {
+            pool = new QueriesExecutorPool(cli, config, workers, consolidated);
+        } catch (SQLException sqlE) {
+            System.err.println("Connection error: " + sqlE.getMessage());
+            System.exit(EXIT_INTERNAL_ERR);
+            return;
+        }
+
+        int exitCode;
+        try {
+            exitCode = processSQLFiles(cli, sqlFiles, subs, ranges, new TaskConsumer() {
+                @Override
+                public void accept(QueryTask task) throws InterruptedException {
+                    pool.submit(task);
                 }
+            });
+        } catch (InterruptedException interrupted) {
+            exitCode = EXIT_INTERNAL_ERR;
+        } finally {
+            pool.close();
+            closeConsolidated(consolidated);
+            closeOutputs();
+        }
 
-                if (cli.fileIsUsed() && subs != null) {
-                    try {
-                        for (Map<String, String> sub; (sub = subs.next()) != null; ) {
-                            System.err.print("[" + subs.getRowID() + "]");
+        if (pool.hasFailed())
+            exitCode = EXIT_INTERNAL_ERR;
 
-                            try {
-                                executeAndSave(
-                                        cli, config,
-                                        executor,
-                                        sqlFile.getQuery(sub),
+        if (exitCode != EXIT_NORMAL)
+            System.exit(exitCode);
+    }
+
+    /**
+     * Отправка последнего пакета обновляющих запросов и фиксация транзакции,
+     * если используется пакетный режим.
+     *
+     * @param executor Исполнитель SQL-запросов
+     */
+    static void finishBatch(QueriesExecutor executor) {
+        try {
+            executor.finishBatch();
+        } catch (SQLException commitError) {
+            System.err.println("Unable to finish batch execution: " + commitError.getMessage());
+        }
+    }
+
+    /**
+     * Закрытие общих файлов результатов SQL-файлов, если они используются.
+     *
+     * @param consolidated Общие файлы результатов. Может быть null.
+     */
+    private static void closeConsolidated(ConsolidatedResults consolidated) {
+        if (consolidated != null)
+            try {
+                consolidated.close();
+            } catch (IOException closeError) {
+                System.err.println("Unable to close result files: " + closeError.getMessage());
+            }
+    }
+
+    /**
+     * Закрытие оглавления файлов с результатами ({@link ResultManifest}), потока
+     * вывода результатов ({@link ResultStream}) и копировщика в целевую БД ({@link ResultCopier}),
+     * если они открывались. Вывод итогов по частям диапазона ключа ({@link RangeReport}).
+     */
+    private static void closeOutputs() {
+        RangeReport.close();
+        try {
+            ResultCopier.close();
+        } catch (SQLException closeError) {
+            System.err.println("Unable to commit copied results: " + closeError.getMessage());
+        }
+        try {
+            ResultManifest.close();
+        } catch (IOException closeError) {
+            System.err.println("Unable to write results manifest: " + closeError.getMessage());
+        }
+        try {
+            ResultStream.close();
+        } catch (IOException closeError) {
+            System.err.println("Unable to close results stream: " + closeError.getMessage());
+        }
+    }
+
+    /**
+     * Получатель сформированных заданий: последовательный исполнитель либо пул исполнителей.
+     */
+    private interface TaskConsumer {
+        void accept(QueryTask task) throws InterruptedException;
+    }
+
+    /**
+     * Формирование заданий из SQL-файлов и файла подстановок.
+     * Каждый SQL-файл загружается, для каждой подстановки формируется
+     * запрос и передаётся получателю заданий. Перед каждым SQL-файлом
+     * подстановки обходятся заново ({@link SubsFileLoader#rewind()}).
+     *
+     * @param cli      Параметры, полученные из командной строки
+     * @param sqlFiles Список SQL-файлов
+     * @param subs     Подстановки. Может быть null.
+     * @param ranges   Части диапазона ключа. null - запросы не делятся. Делятся только запросы
+     *                 с шаблонами {@link KeyRange#RANGE_LO} и {@link KeyRange#RANGE_HI}
+     * @param consumer Получатель заданий
+     * @return код завершения работы приложения. {@link #EXIT_NORMAL}, если не было
+     * внутренних ошибок
+     * @throws InterruptedException ожидание передачи задания было прервано
+     */
+    private static int processSQLFiles(CLIOptions cli,
+                                       SQLFile[] sqlFiles,
+                                       Substitutions subs,
+                                       List<KeyRange.Part> ranges,
+                                       TaskConsumer consumer) throws InterruptedException {
+        int current = 0;
+
+        for (SQLFile sqlFile : sqlFiles) {
+            System.err.println("Processing file " + sqlFile.getFileName() + " [" + (++current) + "/" + sqlFiles.length + "]...");
+
+            List<KeyRange.Part> fileRanges = null;
+            try {
+                sqlFile.getQuery(null); // Первое обращение к этому методу загружает sql-файл в память
+                if (ranges != null && sqlFile.hasRangeTemplates())
+                    fileRanges = ranges;
+            } catch (IOException queryLoadErr) {
+                System.err.println("Unable to load sql query from file "
+                        + sqlFile.getFileName()
+                        + ": " + queryLoadErr.getMessage());
+                continue;
+            }
+
+            if (subs != null) {
+                boolean inList = cli.getInListSize() > 0;
+                try {
+                    if (inList && (cli.needUseCustomTemplates() || cli.getDriverQuery() != null
+                            || fileRanges != null || !sqlFile.hasInListCondition())) {
+                        System.err.println("Substitutions are not coalesced for " + sqlFile.getFileName()
+                                + ": custom templates or key ranges are used or condition \"= "
+                                + SubsFileLoader.DEFAULT_TEMPLATE + "\" not found");
+                        inList = false;
+                    }
+                } catch (IOException somethingWrong) {
+                    System.err.println("Something wrong. Please contact to developers.");
+                    somethingWrong.printStackTrace();
+                    return EXIT_INTERNAL_ERR;
+                }
+
+                List<String> inListValues = new ArrayList<>();
+                List<String> inListRowIDs = new ArrayList<>();
+                try {
+                    subs.rewind();
+                    for (Map<String, String> sub; (sub = subs.next()) != null; ) {
+                        System.err.print("[" + subs.getRowID() + "]");
+
+                        try {
+                            if (inList) {
+                                inListValues.add(sub.get(SubsFileLoader.DEFAULT_TEMPLATE));
+                                inListRowIDs.add(subs.getRowID());
+                                if (inListValues.size() >= cli.getInListSize()) {
+                                    consumer.accept(newInListTask(cli, sqlFile, inListValues, inListRowIDs));
+                                    inListValues = new ArrayList<>();
+                                    inListRowIDs = new ArrayList<>();
+                                }
+                            } else if (fileRanges != null) {
+                                acceptRanges(cli, sqlFile, sub, subs.getRowID() + '_', fileRanges, consumer);
+                            } else if (cli.needBindParameters()) {
+                                consumer.accept(new QueryTask(
                                         sqlFile.getFileName(),
+                                        sqlFile.getBoundQuery(sub),
+                                        sqlFile.getBindValues(sub),
+                                        subs.getRowID()
+                                ));
+                            } else {
+                                consumer.accept(new QueryTask(
+                                        sqlFile.getFileName(),
+                                        sqlFile.getQuery(sub),
                                         subs.getRowID()
-                                );
-                            } catch (IOException somethingWrong) {
-                                System.err.println("Something wrong. Please contact to developers.");
-                                somethingWrong.printStackTrace();
-                                System.exit(EXIT_INTERNAL_ERR);
+                                ));
                             }
-
+                        } catch (IOException somethingWrong) {
+                            System.err.println("Something wrong. Please contact to developers.");
+                            somethingWrong.printStackTrace();
+                            return EXIT_INTERNAL_ERR;
                         }
-                    } catch (IOException subsReadErr) {
-                        System.err.println("Error while reading substitution file: "
-                                + subsReadErr.getMessage());
-                        System.exit(EXIT_INTERNAL_ERR);
+
                     }
 
-                    System.err.println();
+                    if (!inListValues.isEmpty())
+                        consumer.accept(newInListTask(cli, sqlFile, inListValues, inListRowIDs));
+                } catch (IOException subsReadErr) {
+                    System.err.println("Error while reading substitutions: "
+                            + subsReadErr.getMessage());
+                    return EXIT_INTERNAL_ERR;
+                }
 
-                } else {
+                System.err.println();
 
-                    try {
-                        executeAndSave(
-                                cli, config,
-                                executor,
-                                sqlFile.getQuery(null),
+            } else {
+
+                try {
+                    if (fileRanges != null)
+                        acceptRanges(cli, sqlFile, null, "", fileRanges, consumer);
+                    else
+                        consumer.accept(new QueryTask(
                                 sqlFile.getFileName(),
+                                sqlFile.getQuery(null),
                                 "out"
-                        );
-                    } catch (IOException somethingWrong) {
-                        System.err.println("Something wrong. Please contact to developers.");
-                        somethingWrong.printStackTrace();
-                        System.exit(EXIT_INTERNAL_ERR);
-                    }
+                        ));
+                } catch (IOException somethingWrong) {
+                    System.err.println("Something wrong. Please contact to developers.");
+                    somethingWrong.printStackTrace();
+                    return EXIT_INTERNAL_ERR;
                 }
-
-                sqlFile.close(); // Освобождаем строку с SQL-запросом
             }
-        } catch (SQLException sqlE) {
-            System.err.println("Connection error: " + sqlE.getMessage());
 
+            sqlFile.close(); // Освобождаем строку с SQL-запросом
+        }
+
+        return EXIT_NORMAL;
+    }
+
+    /**
+     * Формирование заданий для всех частей диапазона ключа.
+     *
+     * @param cli         Параметры, полученные из командной строки
+     * @param sqlFile     SQL-файл
+     * @param sub         Подстановка. Может быть null.
+     * @param rowIDPrefix ID подстановки с разделителем, либо пустая строка. К нему добавляется ID части
+     * @param ranges      Части диапазона ключа
+     * @param consumer    Получатель заданий
+     * @throws IOException          Ошибка считывания запроса из файла
+     * @throws InterruptedException ожидание передачи задания было прервано
+     */
+    private static void acceptRanges(CLIOptions cli,
+                                     SQLFile sqlFile,
+                                     Map<String, String> sub,
+                                     String rowIDPrefix,
+                                     List<KeyRange.Part> ranges,
+                                     TaskConsumer consumer) throws IOException, InterruptedException {
+        Map<String, String> rangeSub = new HashMap<>();
+        if (sub != null)
+            rangeSub.putAll(sub);
+
+        for (KeyRange.Part part : ranges) {
+            rangeSub.put(KeyRange.RANGE_LO, part.getLo());
+            rangeSub.put(KeyRange.RANGE_HI, part.getHi());
+            String rowID = rowIDPrefix + part.getID();
+            if (cli.needBindParameters())
+                consumer.accept(new RangeTask(sqlFile.getFileName(), sqlFile.getBoundQuery(rangeSub),
+                        sqlFile.getBindValues(rangeSub), rowID, part));
+            else
+                consumer.accept(new RangeTask(sqlFile.getFileName(), sqlFile.getQuery(rangeSub), null, rowID, part));
         }
     }
 
+    /**
+     * Формирование запроса, объединяющего подстановки в список IN (...).
+     *
+     * @param cli      Параметры, полученные из командной строки
+     * @param sqlFile  SQL-файл
+     * @param values   Значения подстановок
+     * @param rowIDs   ID подстановок
+     * @return задание
+     * @throws IOException Ошибка считывания запроса из файла
+     */
+    private static QueryTask newInListTask(CLIOptions cli,
+                                           SQLFile sqlFile,
+                                           List<String> values,
+                                           List<String> rowIDs) throws IOException {
+        return new InListTask(
+                sqlFile.getFileName(),
+                sqlFile.getInListQuery(values, cli.needBindParameters()),
+                cli.needBindParameters() ? sqlFile.getInListBindValues(values) : null,
+                values,
+                rowIDs,
+                sqlFile.hasUnquotedInListCondition()
+        );
+    }
+
     /**
      * Исполнение одиночного запроса. С подстановкой либо без.
      *
+     * Может вызываться одновременно из нескольких потоков, если каждый
+     * поток использует собственный исполнитель.
+     *
      * @param cli           Параметры командной строки
      * @param config        Параметры из файла конфигурации
      * @param executor      Исполнитель SQL-запросов
-     * @param query         Запрос, считанный из файла.
-     * @param sqlFileName   Имя sql-файла
-     * @param subsRowID     id записи из файла подстановки.
+     * @param task          Запрос с применёнными подстановками
+     * @param consolidated  Общие файлы результатов SQL-файлов. null - отдельный файл
+     *                      для каждой подстановки
      */
-    private static void executeAndSave(
+    static void executeAndSave(
             CLIOptions cli, ConfigFile config,
             QueriesExecutor executor,
-            String query, String sqlFileName,
-            String subsRowID
+            QueryTask task,
+            ConsolidatedResults consolidated
     ) {
+        String sqlFileName = task.getSqlFileName();
+        long started = System.nanoTime();
         try {
-            ResultSet results = executor.execute(query);
-            if (executor.hasResults()) {
+            if (executor.isBatchMode() && QueriesExecutor.isUpdateQuery(task.getQuery())) {
+                executor.addBatch(task);
+                return;
+            }
+
+            ResultSet results = executor.execute(task.getQuery(), task.getBindValues());
+            if (executor.hasResults() && config.isCopyEnabled()) {
+
+                try {
+                    ResultCopier.open(config).copy(sqlFileName, task.getRowID(), results);
+                } catch (IOException copyError) {
+                    System.err.println("Unable to copy results of " + sqlFileName
+                            + ": " + copyError.getMessage());
+                } catch (SQLException copyError) {
+                    System.err.println("Unable to copy results of " + sqlFileName
+                            + " into " + config.getTargetUrl() + ": " + copyError.getMessage());
+                }
+
+            } else if (executor.hasResults() && task instanceof InListTask) {
+
+                try {
+                    ((InListTask) task).saveResults(cli, config, results, consolidated);
+                } catch (IOException saveError) {
+                    System.err.println("Unable write to result files of "
+                            + sqlFileName + ": " + saveError.getMessage());
+                } catch (SQLException fetchError) {
+                    System.err.println("Unable fetch data from query result: " +
+                            fetchError.getMessage());
+                }
+
+            } else if (executor.hasResults() && consolidated != null) {
+
+                try {
+                    consolidated.saveResults(task, results);
+                } catch (IOException saveError) {
+                    System.err.println("Unable write to result file of "
+                            + sqlFileName + ": " + saveError.getMessage());
+                } catch (SQLException fetchError) {
+                    System.err.println("Unable fetch data from query result: " +
+                            fetchError.getMessage());
+                }
+
+            } else if (executor.hasResults()) {
 
                 ResultSaver resultSaver = null;
                 try {
                     resultSaver = new ResultSaver(cli, config,
-                            sqlFileName, subsRowID);
+                            sqlFileName, task.getRowID());
                     resultSaver.writeResults(results);
                 } catch (IOException saveError) {
                     if (resultSaver != null)
@@ -291,6 +727,9 @@ public class StartHere {
         } catch (SQLException execError) {
             System.err.println("Unable to execute query from file " +
                     sqlFileName + ": " + execError.getMessage());
+        } finally {
+            if (task instanceof RangeTask)
+                RangeReport.add((RangeTask) task, System.nanoTime() - started);
         }
     }
 }
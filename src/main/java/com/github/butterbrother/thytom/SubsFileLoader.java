@@ -11,8 +11,15 @@ import java.util.StringTokenizer;
 
 /**
  * Осуществляет загрузку и обработку файла с подстановками.
+ * <p>
+ * Файл либо читается построчно при каждом обходе подстановок, либо однократно загружается
+ * в память ({@link SubsTable}), и все обходы идут по загруженной таблице,
+ * см. {@link #SubsFileLoader(CLIOptions, ConfigFile, boolean)}. Загрузка идёт параллельно
+ * по частям файла ({@link SubsFileParser}), и первый обход начинается с первой готовой части,
+ * не дожидаясь разбора остальных. Загрузка выбирается, если файл обходится несколько раз
+ * либо достаточно велик для разбора частями, см. {@link #needLoad(Path, int)}.
  */
-public class SubsFileLoader {
+public class SubsFileLoader implements Substitutions {
     public static final String DEFAULT_TEMPLATE = "{PARAM}";
     private Path file;
     private Charset charset;
@@ -23,6 +30,11 @@ public class SubsFileLoader {
     private BufferedReader reader = null;
     private long rowNum = 0;
     private String uniqRecord = "";
+    private SubsFileParser parser = null;
+    private int chunk = 0;
+    private long chunkFirstRow = 0;
+    private SubsTable table = null;
+    private SubsTable.Cursor cursor = null;
 
     /**
      * Инициализация.
@@ -31,12 +43,26 @@ public class SubsFileLoader {
      * @param file    параметры, считанные из файла настроек
      */
     public SubsFileLoader(CLIOptions options, ConfigFile file) throws IOException {
+        this(options, file, false);
+    }
+
+    /**
+     * Инициализация.
+     *
+     * @param options параметры, переданные из командной строки
+     * @param file    параметры, считанные из файла настроек
+     * @param loaded  true - однократно загрузить файл в память, см. {@link #needLoad(Path, int)}.
+     *                false - читать файл построчно
+     */
+    public SubsFileLoader(CLIOptions options, ConfigFile file, boolean loaded) throws IOException {
         this.file = options.getFilePath();
         this.charset = file.getSubstitutionsFileCharset();
         this.useCustomTemplates = options.needUseCustomTemplates();
         this.delimiter = options.getTemplatesDelimiter();
         this.trim = options.needTrimSubstitution();
         reset();
+        if (loaded)
+            load();
     }
 
     /**
@@ -95,6 +121,51 @@ public class SubsFileLoader {
         }
     }
 
+    /**
+     * Запуск однократной загрузки всего файла в таблицу подстановок. Файл разбирается
+     * частями в нескольких потоках, по одному на процессор.
+     *
+     * @throws IOException ошибка чтения файла
+     */
+    private void load() throws IOException {
+        safeClose();
+        parser = new SubsFileParser(file, charset,
+                useCustomTemplates ? customTemplates : null,
+                delimiter, trim,
+                Runtime.getRuntime().availableProcessors(), SubsFileParser.CHUNK_BYTES);
+    }
+
+    /**
+     * Выбор однократной загрузки файла в память вместо построчного чтения: файл обходится
+     * несколько раз, либо делится хотя бы на две части для параллельного разбора.
+     *
+     * @param file     файл подстановок
+     * @param sqlFiles количество SQL-файлов, т.е. обходов подстановок
+     * @return true - загрузить файл
+     * @throws IOException ошибка получения размера файла
+     */
+    static boolean needLoad(Path file, int sqlFiles) throws IOException {
+        return sqlFiles > 1 || Files.size(file) >= 2 * SubsFileParser.MIN_CHUNK_BYTES;
+    }
+
+    /**
+     * Возврат к первой подстановке, например перед обработкой следующего SQL-файла.
+     * Загруженная таблица обходится заново, иначе файл открывается заново.
+     *
+     * @throws IOException ошибка открытия файла
+     */
+    @Override
+    public void rewind() throws IOException {
+        if (parser != null) {
+            chunk = 0;
+            chunkFirstRow = 0;
+            table = null;
+            cursor = null;
+        } else {
+            reset();
+        }
+    }
+
     /**
      * Закрывает файл и разрывает с ним связь.
      *
@@ -114,10 +185,15 @@ public class SubsFileLoader {
      * Извлечение следующей подстановки из файла подстановки.
      *
      * @return Карта с подстановками. Если достигнут конец файла,
-     * то вернётся null.
+     * то вернётся null. Для загруженной таблицы - курсор по ней,
+     * действительный до следующего вызова.
      * @throws IOException
      */
+    @Override
     public Map<String, String> next() throws IOException {
+        if (parser != null)
+            return nextLoaded();
+
         rowNum++;
         String rawSubLine = readLine();
         if (rawSubLine != null) {
@@ -149,6 +225,27 @@ public class SubsFileLoader {
         }
     }
 
+    /**
+     * Следующая подстановка загруженной таблицы, с ожиданием разбора очередной части
+     *
+     * @return курсор по текущей части таблицы, либо null, если подстановки закончились
+     * @throws IOException ошибка чтения файла
+     */
+    private Map<String, String> nextLoaded() throws IOException {
+        while (cursor == null || !cursor.next()) {
+            if (cursor != null) {
+                chunkFirstRow += table.size();
+                chunk++;
+                cursor = null;
+            }
+            if (chunk >= parser.getChunkCount())
+                return null;
+            table = parser.getChunk(chunk);
+            cursor = table.cursor();
+        }
+        return cursor;
+    }
+
     /**
      * Возвращает уникальный ID строки.
      * Данный ID необходим для сохранения результата в файл,
@@ -165,7 +262,10 @@ public class SubsFileLoader {
      *
      * @return  уникальный ID строки
      */
+    @Override
     public String getRowID() {
+        if (parser != null)
+            return cursor != null ? cursor.getRowID(chunkFirstRow) : Long.toString(chunkFirstRow + 1) + '_';
         return Long.toString(rowNum) + '_' + uniqRecord;
     }
 }
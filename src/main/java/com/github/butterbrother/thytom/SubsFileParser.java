@@ -0,0 +1,267 @@
+package com.github.butterbrother.thytom;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Параллельный разбор файла подстановок.
+ * <p>
+ * Файл делится на диапазоны байт по границам строк ({@link ResultImporter#split(Path, long, int)}),
+ * каждый диапазон отображается в память, декодируется и разбирается в отдельном потоке
+ * в свою часть таблицы подстановок ({@link SubsTable}). Части доступны по порядку
+ * ({@link #getChunk(int)}) по мере готовности, поэтому обход подстановок может начаться,
+ * пока следующие части ещё разбираются.
+ * <p>
+ * Строки разбираются так же, как и при построчном чтении файла {@link SubsFileLoader#next()}:
+ * пустые строки пропускаются, пустые значения между разделителями пропускаются,
+ * лишние значения отбрасываются, при необходимости строки и значения очищаются от пробелов по краям.
+ * <p>
+ * Перевод строки ищется побайтно, поэтому файл в кодировке, где перевод строки занимает не один байт
+ * (например, UTF-16), разбирается одним диапазоном.
+ */
+class SubsFileParser {
+    /**
+     * Желаемый размер диапазона
+     */
+    static final long CHUNK_BYTES = 8L << 20;
+    /**
+     * Минимальный размер диапазона, меньшие файлы не делятся
+     */
+    static final long MIN_CHUNK_BYTES = 1L << 20;
+
+    private final Path file;
+    private final Charset charset;
+    private final String[] templates;
+    private final boolean split;
+    private final String delimiter;
+    private final boolean trim;
+    private final List<Future<SubsTable>> chunks = new ArrayList<>();
+
+    /**
+     * Запуск разбора.
+     *
+     * @param file       файл подстановок
+     * @param charset    кодировка файла
+     * @param templates  собственные шаблоны из первой строки файла, либо null - шаблон по-умолчанию
+     * @param delimiter  разделители значений при собственных шаблонах
+     * @param trim       очищать строки и значения от пробелов по краям
+     * @param threads    количество потоков разбора
+     * @param chunkBytes желаемый размер диапазона
+     * @throws IOException ошибка чтения файла
+     */
+    SubsFileParser(Path file, Charset charset, String[] templates, String delimiter, boolean trim,
+                   int threads, long chunkBytes) throws IOException {
+        this.file = file;
+        this.charset = charset;
+        this.split = templates != null;
+        this.templates = split ? templates.clone() : new String[]{SubsFileLoader.DEFAULT_TEMPLATE};
+        this.delimiter = delimiter;
+        this.trim = trim;
+
+        long size = Files.size(file);
+        int ranges = 1;
+        if (isByteAligned(charset))
+            ranges = (int) Math.max(1, Math.min(size / Math.min(MIN_CHUNK_BYTES, chunkBytes),
+                    Math.max(threads * 2L, size / chunkBytes)));
+        else if (size > Integer.MAX_VALUE)
+            throw new IOException("Substitutions file in " + charset.name() + " is too large to be parsed");
+        long[] bounds = ResultImporter.split(file, 0, ranges);
+
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, bounds.length - 1)),
+                new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable task) {
+                        Thread thread = new Thread(task, "subs-parser");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        for (int i = 0; i + 1 < bounds.length; i++) {
+            final long start = bounds[i];
+            final long end = bounds[i + 1];
+            chunks.add(pool.submit(new Callable<SubsTable>() {
+                @Override
+                public SubsTable call() throws IOException {
+                    return parse(start, end);
+                }
+            }));
+        }
+        pool.shutdown();
+    }
+
+    /**
+     * Количество частей таблицы подстановок
+     *
+     * @return количество частей
+     */
+    int getChunkCount() {
+        return chunks.size();
+    }
+
+    /**
+     * Часть таблицы подстановок, с ожиданием окончания её разбора
+     *
+     * @param chunk номер части
+     * @return часть таблицы
+     * @throws IOException ошибка чтения либо декодирования файла, ожидание прервано
+     */
+    SubsTable getChunk(int chunk) throws IOException {
+        try {
+            return chunks.get(chunk).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Substitutions file parsing is interrupted");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException)
+                throw (IOException) e.getCause();
+            throw new IOException(e.getCause());
+        }
+    }
+
+    /**
+     * Разбор диапазона файла. Первая строка файла пропускается, если это строка собственных шаблонов.
+     *
+     * @param start начало диапазона
+     * @param end   конец диапазона
+     * @return часть таблицы подстановок
+     * @throws IOException ошибка чтения либо декодирования файла
+     */
+    private SubsTable parse(long start, long end) throws IOException {
+        CharBuffer text;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer bytes = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+            text = charset.newDecoder().decode(bytes);
+        }
+
+        SubsTable.Builder builder = new SubsTable.Builder(templates);
+        int length = text.length();
+        int pos = 0;
+        if (start == 0 && split)
+            pos = nextLine(text, lineEnd(text, 0));
+        while (pos < length) {
+            int lineEnd = lineEnd(text, pos);
+            addLine(builder, text, pos, lineEnd);
+            pos = nextLine(text, lineEnd);
+        }
+
+        return builder.build();
+    }
+
+    /**
+     * Разбор строки. Пустые строки пропускаются
+     *
+     * @param builder часть таблицы подстановок
+     * @param text    текст диапазона
+     * @param start   начало строки
+     * @param end     конец строки, без перевода строки
+     */
+    private void addLine(SubsTable.Builder builder, CharSequence text, int start, int end) {
+        if (trim) {
+            while (start < end && text.charAt(start) <= ' ')
+                start++;
+            while (end > start && text.charAt(end - 1) <= ' ')
+                end--;
+        }
+        if (start == end)
+            return;
+
+        if (split) {
+            for (int valueEnd; start < end; start = valueEnd) {
+                while (start < end && delimiter.indexOf(text.charAt(start)) >= 0)
+                    start++;
+                if (start == end)
+                    break;
+                valueEnd = start;
+                while (valueEnd < end && delimiter.indexOf(text.charAt(valueEnd)) < 0)
+                    valueEnd++;
+                if (!addValue(builder, text, start, valueEnd))
+                    break;
+            }
+        } else {
+            builder.value(text, start, end);
+        }
+        builder.endRow();
+    }
+
+    /**
+     * Добавление значения, без пробелов по краям при необходимости
+     *
+     * @param builder часть таблицы подстановок
+     * @param text    текст диапазона
+     * @param start   начало значения
+     * @param end     конец значения
+     * @return false - значения всех шаблонов строки уже добавлены
+     */
+    private boolean addValue(SubsTable.Builder builder, CharSequence text, int start, int end) {
+        if (trim) {
+            while (start < end && text.charAt(start) <= ' ')
+                start++;
+            while (end > start && text.charAt(end - 1) <= ' ')
+                end--;
+        }
+        return builder.value(text, start, end);
+    }
+
+    /**
+     * Конец строки, как в {@link java.io.BufferedReader#readLine()}: перед '\n', '\r' либо концом текста
+     *
+     * @param text текст
+     * @param pos  начало строки
+     * @return конец строки
+     */
+    private static int lineEnd(CharBuffer text, int pos) {
+        int length = text.length();
+        while (pos < length) {
+            char c = text.get(pos);
+            if (c == '\n' || c == '\r')
+                break;
+            pos++;
+        }
+        return pos;
+    }
+
+    /**
+     * Начало следующей строки
+     *
+     * @param text    текст
+     * @param lineEnd конец строки
+     * @return начало следующей строки, пропуская "\r\n" как один перевод строки
+     */
+    private static int nextLine(CharBuffer text, int lineEnd) {
+        if (lineEnd >= text.length())
+            return lineEnd;
+        if (text.get(lineEnd) == '\r' && lineEnd + 1 < text.length() && text.get(lineEnd + 1) == '\n')
+            return lineEnd + 2;
+        return lineEnd + 1;
+    }
+
+    /**
+     * Проверка, что перевод строки в кодировке - один байт '\n', и такой байт не встречается
+     * внутри других символов, т.е. файл можно делить по байтам перевода строки
+     *
+     * @param charset кодировка
+     * @return true - кодировка совместима с ASCII
+     */
+    static boolean isByteAligned(Charset charset) {
+        return Arrays.equals("\r\n".getBytes(charset), "\r\n".getBytes(StandardCharsets.US_ASCII))
+                && !charset.name().toUpperCase().startsWith("UTF-16")
+                && !charset.name().toUpperCase().startsWith("UTF-32");
+    }
+}
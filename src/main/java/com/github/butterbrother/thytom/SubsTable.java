@@ -0,0 +1,278 @@
+package com.github.butterbrother.thytom;
+
+import java.util.AbstractMap;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Файл подстановок либо его часть, однократно загруженные в память, см. {@link SubsFileLoader}
+ * и {@link DriverQuerySubs}.
+ * <p>
+ * Значения всех подстановок хранятся подряд, строка за строкой, в одной строке-пуле,
+ * а для каждого шаблона - массив смещений начала его значения в пуле по номерам строк.
+ * Значение заканчивается там, где начинается следующее значение.
+ * Если в строке файла меньше значений, чем шаблонов, недостающие шаблоны отсутствуют
+ * в подстановке этой строки, как и при чтении файла {@link SubsFileLoader#next()}.
+ * <p>
+ * Таблица не изменяется после загрузки, поэтому все SQL-файлы и параллельные исполнители
+ * могут обходить её одновременно, каждый своим курсором ({@link #cursor()}).
+ */
+public final class SubsTable {
+    private final String[] templates;
+    private final String pool;
+    // [шаблон][строка] - смещение начала значения в пуле
+    private final int[][] offsets;
+    // Количество значений в строке; null - во всех строках значения всех шаблонов
+    private final int[] widths;
+    private final int rows;
+
+    private SubsTable(String[] templates, String pool, int[][] offsets, int[] widths, int rows) {
+        this.templates = templates;
+        this.pool = pool;
+        this.offsets = offsets;
+        this.widths = widths;
+        this.rows = rows;
+    }
+
+    /**
+     * Количество подстановок (непустых строк файла подстановок)
+     *
+     * @return количество подстановок
+     */
+    public int size() {
+        return rows;
+    }
+
+    /**
+     * Шаблоны подстановок
+     *
+     * @return шаблоны, например {PARAM}
+     */
+    public String[] getTemplates() {
+        return templates.clone();
+    }
+
+    /**
+     * Новый курсор, установленный перед первой подстановкой
+     *
+     * @return курсор
+     */
+    public Cursor cursor() {
+        return new Cursor();
+    }
+
+    /**
+     * Количество значений в строке
+     *
+     * @param row номер строки, с нуля
+     * @return количество значений
+     */
+    private int width(int row) {
+        return widths == null ? templates.length : widths[row];
+    }
+
+    /**
+     * Значение шаблона в строке
+     *
+     * @param column номер шаблона
+     * @param row    номер строки, с нуля
+     * @return значение, либо null, если шаблон в строке отсутствует
+     */
+    private String value(int column, int row) {
+        if (column >= width(row))
+            return null;
+
+        int end;
+        if (column + 1 < templates.length)
+            end = offsets[column + 1][row];
+        else if (row + 1 < rows)
+            end = offsets[0][row + 1];
+        else
+            end = pool.length();
+
+        return pool.substring(offsets[column][row], end);
+    }
+
+    /**
+     * Курсор по подстановкам таблицы.
+     * <p>
+     * Сам является подстановкой текущей строки, поэтому переход к следующей строке
+     * не создаёт новых объектов. Подстановку не следует сохранять после перехода
+     * к следующей строке. Курсор не потокобезопасен: у каждого потока - свой курсор.
+     */
+    public final class Cursor extends AbstractMap<String, String> {
+        private int row = -1;
+
+        private Cursor() {
+        }
+
+        /**
+         * Переход к следующей подстановке
+         *
+         * @return false - подстановки закончились
+         */
+        public boolean next() {
+            if (row < rows)
+                row++;
+            return row < rows;
+        }
+
+        /**
+         * Возврат перед первой подстановкой
+         */
+        public void rewind() {
+            row = -1;
+        }
+
+        /**
+         * Уникальный ID текущей подстановки, аналогично {@link SubsFileLoader#getRowID()}:
+         * номер строки, начиная с единицы, и значение первого шаблона без пробелов по краям.
+         * Не зависит от порядка обхода.
+         *
+         * @return ID подстановки
+         */
+        public String getRowID() {
+            return getRowID(0);
+        }
+
+        /**
+         * Уникальный ID текущей подстановки для части таблицы
+         *
+         * @param firstRow количество строк в предыдущих частях таблицы
+         * @return ID подстановки
+         */
+        public String getRowID(long firstRow) {
+            String first = row >= 0 && row < rows ? value(0, row) : null;
+            return Long.toString(firstRow + row + 1) + '_' + (first != null ? first.trim() : "");
+        }
+
+        /**
+         * Номер шаблона
+         *
+         * @param key шаблон
+         * @return номер, либо -1, если шаблона нет в текущей подстановке
+         */
+        private int column(Object key) {
+            if (row < 0 || row >= rows)
+                return -1;
+            int width = width(row);
+            for (int i = 0; i < width; i++)
+                if (templates[i] == key || templates[i].equals(key))
+                    return i;
+            return -1;
+        }
+
+        @Override
+        public String get(Object key) {
+            int column = column(key);
+            return column >= 0 ? value(column, row) : null;
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return column(key) >= 0;
+        }
+
+        @Override
+        public int size() {
+            return row < 0 || row >= rows ? 0 : width(row);
+        }
+
+        @Override
+        public Set<Entry<String, String>> entrySet() {
+            Map<String, String> copy = new LinkedHashMap<>();
+            for (int i = 0; i < size(); i++)
+                copy.put(templates[i], value(i, row));
+            return copy.entrySet();
+        }
+    }
+
+    /**
+     * Заполнение таблицы построчно
+     */
+    static final class Builder {
+        private final String[] templates;
+        private final StringBuilder pool = new StringBuilder(4096);
+        private int[][] offsets;
+        private int[] widths = null;
+        private int capacity = 256;
+        private int rows = 0;
+        private int width = 0;
+
+        /**
+         * Инициализация
+         *
+         * @param templates шаблоны подстановок
+         */
+        Builder(String[] templates) {
+            this.templates = templates.clone();
+            this.offsets = new int[templates.length][capacity];
+        }
+
+        /**
+         * Добавление значения очередного шаблона текущей строки.
+         * Значения сверх количества шаблонов игнорируются.
+         *
+         * @param text  текст
+         * @param start начало значения в тексте
+         * @param end   конец значения в тексте
+         * @return false - значения всех шаблонов строки уже добавлены
+         */
+        boolean value(CharSequence text, int start, int end) {
+            if (width >= templates.length)
+                return false;
+            if (width == 0)
+                ensureCapacity();
+
+            offsets[width++][rows] = pool.length();
+            pool.append(text, start, end);
+            return width < templates.length;
+        }
+
+        /**
+         * Завершение строки. Недостающие значения отмечаются как отсутствующие
+         */
+        void endRow() {
+            if (width == 0)
+                ensureCapacity();
+            if (width < templates.length && widths == null) {
+                widths = new int[capacity];
+                Arrays.fill(widths, 0, rows, templates.length);
+            }
+
+            for (int i = width; i < templates.length; i++)
+                offsets[i][rows] = pool.length();
+            if (widths != null)
+                widths[rows] = width;
+            rows++;
+            width = 0;
+        }
+
+        /**
+         * Увеличение массивов смещений перед новой строкой
+         */
+        private void ensureCapacity() {
+            if (rows < capacity)
+                return;
+            if (rows == Integer.MAX_VALUE - 8)
+                throw new IllegalStateException("Too many substitutions");
+
+            capacity = (int) Math.min((long) rows * 2, Integer.MAX_VALUE - 8);
+            for (int i = 0; i < offsets.length; i++)
+                offsets[i] = Arrays.copyOf(offsets[i], capacity);
+            if (widths != null)
+                widths = Arrays.copyOf(widths, capacity);
+        }
+
+        /**
+         * Готовая таблица
+         *
+         * @return таблица
+         */
+        SubsTable build() {
+            return new SubsTable(templates, pool.toString(), offsets, widths, rows);
+        }
+    }
+}
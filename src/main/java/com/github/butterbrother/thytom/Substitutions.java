@@ -0,0 +1,33 @@
+package com.github.butterbrother.thytom;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Источник подстановок для SQL-файлов: файл подстановок ({@link SubsFileLoader})
+ * либо результат ведущего SQL-файла ({@link DriverQuerySubs}).
+ */
+public interface Substitutions {
+    /**
+     * Извлечение следующей подстановки.
+     *
+     * @return Карта с подстановками: шаблон - значение. Если подстановки закончились,
+     * то вернётся null. Карта может быть действительна только до следующего вызова.
+     * @throws IOException ошибка получения подстановки
+     */
+    Map<String, String> next() throws IOException;
+
+    /**
+     * Уникальный ID текущей подстановки: номер, начиная с единицы, и значение первого шаблона.
+     *
+     * @return ID подстановки
+     */
+    String getRowID();
+
+    /**
+     * Возврат к первой подстановке, например перед обработкой следующего SQL-файла.
+     *
+     * @throws IOException ошибка повторного получения подстановок
+     */
+    void rewind() throws IOException;
+}
@@ -158,4 +158,59 @@ public class CLIParserTest {
             org.junit.Assert.fail("This cmdline must be valid");
         }
     }
+
+    /**
+     * Проверка количества параллельных исполнителей.
+     * По-умолчанию не задано (берётся из файла конфигурации).
+     * Значение должно быть положительным числом.
+     */
+    @Test
+    public void testParallelWorkers() throws ParseException {
+        org.junit.Assert.assertEquals("parallel workers not set by default", 0,
+                new CLIParser().parseCLI().getParallelWorkers());
+
+        CLIParser parser = new CLIParser("-p", "4");
+        org.junit.Assert.assertTrue("4 workers is valid", parser.validateCli());
+        org.junit.Assert.assertEquals("4 workers", 4, parser.parseCLI().getParallelWorkers());
+
+        parser = new CLIParser("--parallel", "0");
+        org.junit.Assert.assertFalse("0 workers is invalid", parser.validateCli());
+        org.junit.Assert.assertNotEquals("Last error must be non-empty", "", parser.getLastError());
+
+        parser = new CLIParser("-p", "many");
+        org.junit.Assert.assertFalse("workers must be a number", parser.validateCli());
+    }
+
+    /**
+     * Ведущий SQL-файл не используется вместе с файлом подстановок
+     */
+    @Test
+    public void testDriverQuery() throws ParseException {
+        org.junit.Assert.assertNull(new CLIParser().parseCLI().getDriverQuery());
+
+        CLIParser parser = new CLIParser("-D", "keys.sql");
+        org.junit.Assert.assertTrue(parser.validateCli());
+        org.junit.Assert.assertEquals("keys.sql", parser.parseCLI().getDriverQuery());
+
+        parser = new CLIParser("--driver-sql", "keys.sql", "-f", "pom.xml");
+        org.junit.Assert.assertFalse("driver sql and substitution file are exclusive", parser.validateCli());
+    }
+
+    /**
+     * Количество частей диапазона задаётся вместе с ключом
+     */
+    @Test
+    public void testRanges() throws ParseException {
+        CLIParser parser = new CLIParser("-R", "8", "-K", "big_table.id");
+        org.junit.Assert.assertTrue(parser.validateCli());
+        CLIOptions options = parser.parseCLI();
+        org.junit.Assert.assertEquals(8, options.getRangeCount());
+        org.junit.Assert.assertEquals("big_table.id", options.getRangeKey());
+
+        org.junit.Assert.assertTrue(new CLIParser("--ranges", "4", "--range-key", "2020-01-01..2021-01-01").validateCli());
+        org.junit.Assert.assertFalse("key is required", new CLIParser("-R", "4").validateCli());
+        org.junit.Assert.assertFalse("count is required", new CLIParser("-K", "1..10").validateCli());
+        org.junit.Assert.assertFalse("count must be positive", new CLIParser("-R", "0", "-K", "1..10").validateCli());
+        org.junit.Assert.assertFalse("bounds must be numbers or dates", new CLIParser("-R", "2", "-K", "a..b").validateCli());
+    }
 }
@@ -0,0 +1,83 @@
+package com.github.butterbrother.thytom;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Сравнение скорости записи результата через {@link BufferedWriter}
+ * (как ResultSaver записывал ранее) и через {@link ChannelSink}.
+ * <p>
+ * Не является тестом и не запускается при сборке. Запуск после mvn test-compile:<br>
+ * <tt>java -cp target/classes:target/test-classes com.github.butterbrother.thytom.ChannelSinkBenchmark [строк] [кодировка]</tt>
+ */
+public class ChannelSinkBenchmark {
+    private static final int COLUMNS = 10;
+
+    public static void main(String[] args) throws IOException {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        Charset charset = Charset.forName(args.length > 1 ? args[1] : "UTF-8");
+
+        // Значения: строки латиницей и кириллицей, и целые числа
+        String[] text = new String[1024];
+        for (int i = 0; i < text.length; i++)
+            text[i] = (i % 2 == 0 ? "value " : "значение ") + i;
+
+        Path file = Files.createTempFile("thytom-benchmark", ".txt");
+        try {
+            for (int round = 1; round <= 3; round++) {
+                long begin = System.nanoTime();
+                try (BufferedWriter writer = Files.newBufferedWriter(file, charset)) {
+                    for (int row = 0; row < rows; row++) {
+                        if (row > 0)
+                            writer.newLine();
+                        for (int column = 0; column < COLUMNS; column++) {
+                            if (column % 2 == 0) {
+                                writer.append('"').append(text[(row + column) & 1023]).append('"');
+                            } else {
+                                writer.append(Long.toString((long) row * column));
+                            }
+                            if (column < COLUMNS - 1)
+                                writer.append(';');
+                        }
+                    }
+                }
+                report("BufferedWriter", round, begin, file);
+
+                begin = System.nanoTime();
+                try (ChannelSink sink = new ChannelSink(file, charset)) {
+                    ChannelSink.Token newLine = sink.token(System.getProperty("line.separator"));
+                    ChannelSink.Token quote = sink.token("\"");
+                    ChannelSink.Token delimiter = sink.token(";");
+                    for (int row = 0; row < rows; row++) {
+                        if (row > 0)
+                            sink.write(newLine);
+                        for (int column = 0; column < COLUMNS; column++) {
+                            if (column % 2 == 0) {
+                                sink.write(quote);
+                                sink.write(text[(row + column) & 1023]);
+                                sink.write(quote);
+                            } else {
+                                sink.write((long) row * column);
+                            }
+                            if (column < COLUMNS - 1)
+                                sink.write(delimiter);
+                        }
+                    }
+                }
+                report("ChannelSink", round, begin, file);
+            }
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    private static void report(String name, int round, long begin, Path file) throws IOException {
+        long nanos = System.nanoTime() - begin;
+        long bytes = Files.size(file);
+        System.out.println(String.format("round %d %-15s %6d ms, %8.1f MB/s",
+                round, name, nanos / 1000000, bytes / 1048576.0 / (nanos / 1e9)));
+    }
+}
@@ -0,0 +1,120 @@
+package com.github.butterbrother.thytom;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Проверка записи текста в файл через FileChannel
+ */
+public class ChannelSinkTest {
+    private static final String TEXT = "plain ascii; \u043a\u0438\u0440\u0438\u043b\u043b\u0438\u0446\u0430 \"quoted\" \u20ac \ud83d\ude00 end";
+
+    /**
+     * Результат совпадает с {@link String#getBytes(Charset)} для прямого кодирования и для
+     * кодирования через CharsetEncoder, в т.ч. при переполнении маленького буфера.
+     * Для UTF-16 маркер порядка байт записывается однократно.
+     */
+    @Test
+    public void testEncodings() throws IOException {
+        for (Charset charset : new Charset[]{StandardCharsets.UTF_8, Charset.forName("windows-1251"),
+                StandardCharsets.UTF_16, StandardCharsets.ISO_8859_1, StandardCharsets.US_ASCII}) {
+            String text = charset.newEncoder().canEncode(TEXT) ? TEXT : "plain ascii; \"quoted\" end";
+            String expected = text + ";" + text + "\n" + Long.MIN_VALUE + ";" + Long.MAX_VALUE + ";0;-42";
+
+            for (int bufferSize : new int[]{16, ChannelSink.DEFAULT_BUFFER_SIZE}) {
+                Path file = Paths.get("channel_sink_test.txt");
+                try (ChannelSink sink = new ChannelSink(file, charset, bufferSize)) {
+                    ChannelSink.Token delimiter = sink.token(";");
+                    sink.write(text);
+                    sink.write(delimiter);
+                    sink.write(text);
+                    sink.write(sink.token("\n"));
+                    sink.write(Long.MIN_VALUE);
+                    sink.write(delimiter);
+                    sink.write(Long.MAX_VALUE);
+                    sink.write(delimiter);
+                    sink.write(0);
+                    sink.write(delimiter);
+                    sink.write(-42);
+                }
+
+                org.junit.Assert.assertArrayEquals(charset + ", buffer " + bufferSize,
+                        expected.getBytes(charset), Files.readAllBytes(file));
+                Files.delete(file);
+            }
+        }
+    }
+
+    /**
+     * Символы, которые невозможно закодировать, и непарные суррогатные символы
+     * приводят к ошибке, как и при записи через BufferedWriter
+     */
+    @Test
+    public void testUnmappable() throws IOException {
+        Path file = Paths.get("channel_sink_test.txt");
+        String[][] invalid = {
+                {"US-ASCII", "\u043a\u0438\u0440\u0438\u043b\u043b\u0438\u0446\u0430"},
+                {"ISO-8859-1", "\u20ac"},
+                {"UTF-8", "broken \ud83d pair"},
+                {"windows-1251", "\u20ac\ud83d\ude00"}
+        };
+
+        for (String[] sample : invalid) {
+            try (ChannelSink sink = new ChannelSink(file, Charset.forName(sample[0]))) {
+                sink.write(sample[1]);
+                org.junit.Assert.fail(sample[0] + " must not encode " + sample[1]);
+            } catch (CharacterCodingException expected) {
+            }
+        }
+        Files.deleteIfExists(file);
+    }
+
+    /**
+     * Сжатый файл распаковывается в исходный текст, в т.ч. при параллельном сжатии
+     * нескольких блоков и для пустого файла.
+     */
+    @Test
+    public void testCompression() throws IOException {
+        Path file = Paths.get("channel_sink_test.txt.gz");
+        for (Compression compression : new Compression[]{Compression.GZIP, Compression.PGZIP}) {
+            for (int lines : new int[]{0, 1, 20000}) {
+                StringBuilder expected = new StringBuilder();
+                ChannelSink sink = new ChannelSink(file, StandardCharsets.UTF_8, compression, 3);
+                try {
+                    for (int i = 0; i < lines; i++) {
+                        String line = i + ";" + TEXT + "\n";
+                        sink.write(line);
+                        expected.append(line);
+                    }
+                } finally {
+                    sink.close();
+                }
+
+                byte[] expectedBytes = expected.toString().getBytes(StandardCharsets.UTF_8);
+                org.junit.Assert.assertEquals(expectedBytes.length, sink.getBytesIn());
+                org.junit.Assert.assertEquals(Files.size(file), sink.getBytesOut());
+                if (lines > 1)
+                    org.junit.Assert.assertTrue(compression + " must compress text", sink.getBytesOut() < sink.getBytesIn() / 4);
+
+                ByteArrayOutputStream actual = new ByteArrayOutputStream();
+                try (InputStream input = new GZIPInputStream(Files.newInputStream(file))) {
+                    byte[] buffer = new byte[8192];
+                    for (int read; (read = input.read(buffer)) > 0; )
+                        actual.write(buffer, 0, read);
+                }
+                org.junit.Assert.assertArrayEquals(compression + ", lines " + lines, expectedBytes, actual.toByteArray());
+                Files.delete(file);
+            }
+        }
+    }
+}
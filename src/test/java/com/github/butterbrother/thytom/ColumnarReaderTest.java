@@ -0,0 +1,102 @@
+package com.github.butterbrother.thytom;
+
+import org.apache.commons.cli.ParseException;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.*;
+import java.util.Arrays;
+import java.util.Collections;
+
+/**
+ * Проверка записи и чтения результата в колоночном формате
+ */
+public class ColumnarReaderTest {
+
+    /**
+     * Прочитанные значения совпадают с записанными, типы столбцов и кодирование
+     * фрагментов соответствуют данным, группы строк выбираются по статистике.
+     */
+    @Test
+    public void testWriteAndRead() throws SQLException, IOException, ParseException {
+        try {
+            DriverManager.registerDriver((Driver) Class.forName("org.sqlite.JDBC").newInstance());
+        } catch (ClassNotFoundException | InstantiationException | IllegalAccessException e) {
+            throw new SQLException("Unable load SQLite JDBC driver", e);
+        }
+
+        CLIOptions cli = new CLIParser().parseCLI();
+        // Пустой URL - профиль generic, целочисленные столбцы читаются как числа
+        ConfigFile config = new ConfigFile("", "", "", "", StandardCharsets.UTF_8, StandardCharsets.UTF_8, StandardCharsets.UTF_8);
+        config.setResultFormat(ResultFormat.COLUMNAR);
+        config.setColumnarRows(100);
+
+        ResultSaver saver = new ResultSaver(cli, config, "columnar.sql", "out");
+        org.junit.Assert.assertTrue(saver.getFileName().toString().endsWith("out_columnar.tcol"));
+
+        try (Connection connection = DriverManager.getConnection("jdbc:sqlite::memory:");
+             Statement statement = connection.createStatement()) {
+            statement.executeUpdate("create table data (id integer, category text, note text, flag integer)");
+            for (int i = 0; i < 1050; i++)
+                statement.executeUpdate("insert into data values (" + i + ", 'category " + (i / 350) + "', "
+                        + (i % 7 == 0 ? "null" : "'note \u0436 " + i + "'") + ", 1)");
+
+            try (ResultSet resultSet = statement.executeQuery("select id, category, note, flag from data order by id")) {
+                saver.writeResults(resultSet);
+            }
+        }
+
+        Path file = saver.getFileName();
+        try (ColumnarReader reader = new ColumnarReader(file)) {
+            org.junit.Assert.assertEquals(4, reader.getColumnCount());
+            org.junit.Assert.assertEquals(11, reader.getRowGroupCount());
+            org.junit.Assert.assertEquals(1050, reader.getRowCount());
+            org.junit.Assert.assertEquals(50, reader.getRowCount(10));
+
+            int id = reader.findColumn("ID");
+            int category = reader.findColumn("category");
+            int note = reader.findColumn("note");
+            int flag = reader.findColumn("flag");
+            org.junit.Assert.assertTrue(reader.getColumn(id).isLong());
+            org.junit.Assert.assertFalse(reader.getColumn(category).isLong());
+            org.junit.Assert.assertEquals(Types.INTEGER, reader.getColumn(id).getSqlType());
+
+            org.junit.Assert.assertEquals(ColumnarWriter.ENCODING_PLAIN, reader.getEncoding(0, id));
+            org.junit.Assert.assertEquals(ColumnarWriter.ENCODING_DICTIONARY, reader.getEncoding(0, category));
+            org.junit.Assert.assertEquals(ColumnarWriter.ENCODING_PLAIN, reader.getEncoding(0, note));
+            org.junit.Assert.assertEquals(ColumnarWriter.ENCODING_RLE, reader.getEncoding(0, flag));
+
+            long row = 0;
+            for (int group = 0; group < reader.getRowGroupCount(); group++) {
+                ColumnarReader.Chunk ids = reader.readChunk(group, id);
+                ColumnarReader.Chunk categories = reader.readChunk(group, category);
+                ColumnarReader.Chunk notes = reader.readChunk(group, note);
+                ColumnarReader.Chunk flags = reader.readChunk(group, flag);
+                int nulls = 0;
+                for (int i = 0; i < ids.size(); i++, row++) {
+                    if (row % 7 == 0)
+                        nulls++;
+                    org.junit.Assert.assertEquals(row, ids.getLong(i));
+                    org.junit.Assert.assertEquals("category " + (row / 350), categories.getString(i));
+                    org.junit.Assert.assertEquals(row % 7 == 0 ? null : "note \u0436 " + row, notes.getString(i));
+                    org.junit.Assert.assertEquals("1", flags.getString(i));
+                }
+
+                ColumnarReader.Statistics statistics = reader.getStatistics(group, id);
+                org.junit.Assert.assertEquals(group * 100L, statistics.getMinLong());
+                org.junit.Assert.assertEquals(Math.min(group * 100L + 99, 1049), statistics.getMaxLong());
+                org.junit.Assert.assertEquals(nulls, reader.getStatistics(group, note).getNullCount());
+            }
+            org.junit.Assert.assertEquals(1050, row);
+
+            org.junit.Assert.assertEquals(Collections.singletonList(2), reader.selectRowGroups(id, 250, 260));
+            org.junit.Assert.assertEquals(Arrays.asList(3, 4, 5, 6), reader.selectRowGroups(category, "category 1", "category 1"));
+            org.junit.Assert.assertTrue(reader.selectRowGroups(id, 2000, 3000).isEmpty());
+        }
+
+        Files.delete(file);
+    }
+}
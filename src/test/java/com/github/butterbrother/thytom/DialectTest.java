@@ -0,0 +1,56 @@
+package com.github.butterbrother.thytom;
+
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.Driver;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Проверка профилей драйверов JDBC
+ */
+public class DialectTest {
+
+    /**
+     * Определение профиля по префиксу JDBC URL и по имени из файла конфигурации
+     */
+    @Test
+    public void testDetection() {
+        org.junit.Assert.assertEquals(Dialect.ORACLE, Dialect.fromUrl("jdbc:oracle:thin:@some.large.db:1521:db"));
+        org.junit.Assert.assertEquals(Dialect.POSTGRESQL, Dialect.fromUrl("JDBC:PostgreSQL://host/db"));
+        org.junit.Assert.assertEquals(Dialect.MYSQL, Dialect.fromUrl("jdbc:mysql://host/db"));
+        org.junit.Assert.assertEquals(Dialect.SQLSERVER, Dialect.fromUrl("jdbc:jtds:sqlserver://host/db"));
+        org.junit.Assert.assertEquals(Dialect.SQLITE, Dialect.fromUrl("jdbc:sqlite::memory:"));
+        org.junit.Assert.assertEquals(Dialect.GENERIC, Dialect.fromUrl("jdbc:h2:mem:"));
+        org.junit.Assert.assertEquals(Dialect.GENERIC, Dialect.fromUrl(null));
+
+        org.junit.Assert.assertEquals(Dialect.POSTGRESQL, Dialect.fromName(" postgresql"));
+        org.junit.Assert.assertNull(Dialect.fromName("db2"));
+
+        org.junit.Assert.assertEquals("mysql streams only with Integer.MIN_VALUE",
+                Integer.MIN_VALUE, Dialect.MYSQL.getFetchSize());
+        org.junit.Assert.assertTrue("postgresql streams only without auto-commit",
+                Dialect.POSTGRESQL.needManualCommit());
+    }
+
+    /**
+     * Создаваемый запрос - однонаправленный и только для чтения
+     */
+    @Test
+    public void testCreateStatement() throws SQLException {
+        try {
+            DriverManager.registerDriver((Driver) Class.forName("org.sqlite.JDBC").newInstance());
+        } catch (ClassNotFoundException | InstantiationException | IllegalAccessException e) {
+            throw new SQLException("Unable load SQLite JDBC driver", e);
+        }
+
+        try (Connection connection = DriverManager.getConnection("jdbc:sqlite::memory:");
+             Statement statement = Dialect.SQLITE.createStatement(connection)) {
+            org.junit.Assert.assertEquals(ResultSet.TYPE_FORWARD_ONLY, statement.getResultSetType());
+            org.junit.Assert.assertEquals(ResultSet.CONCUR_READ_ONLY, statement.getResultSetConcurrency());
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package com.github.butterbrother.thytom;
+
+import org.apache.commons.cli.ParseException;
+import org.junit.Test;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Проверка подстановок из результата ведущего SQL-файла
+ */
+public class DriverQuerySubsTest {
+    private static final Path file = Paths.get("./driver_test.sql");
+
+    /**
+     * Создаёт SQL-файл с указанным запросом
+     *
+     * @param query запрос
+     * @return SQL-файл
+     * @throws IOException I/O error
+     */
+    private SQLFile createFile(String query) throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            writer.append(query);
+        }
+        return new SQLFile(file, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Строки результата становятся подстановками с шаблонами из меток столбцов,
+     * в том числе на границах частей результата и при повторном обходе.
+     */
+    @Test
+    public void testSubstitutions() throws IOException, ParseException, SQLException {
+        StringBuilder query = new StringBuilder("select 1 as ID, 'v1' as NAME");
+        for (int i = 2; i <= 9; i++)
+            query.append(" union all select ").append(i).append(", ").append(i == 5 ? "null" : "'v" + i + "'");
+        SQLFile sqlFile = createFile(query.toString());
+
+        CLIOptions cli = new CLIParser().parseCLI();
+        ConfigFile config = new ConfigFile("jdbc:sqlite::memory:", "", "", "org.sqlite.JDBC", null, null, null);
+        try (DriverQuerySubs subs = new DriverQuerySubs(cli, config, sqlFile)) {
+            org.junit.Assert.assertArrayEquals(new String[]{"{ID}", "{NAME}"}, subs.getTemplates());
+
+            for (int pass = 0; pass < 2; pass++) {
+                subs.rewind();
+                List<Map<String, String>> rows = new ArrayList<>();
+                List<String> rowIDs = new ArrayList<>();
+                for (Map<String, String> sub; (sub = subs.next()) != null; ) {
+                    rows.add(new HashMap<>(sub));
+                    rowIDs.add(subs.getRowID());
+                }
+
+                org.junit.Assert.assertEquals(9, rows.size());
+                org.junit.Assert.assertEquals("1_1", rowIDs.get(0));
+                org.junit.Assert.assertEquals("9_9", rowIDs.get(8));
+                org.junit.Assert.assertEquals("v4", rows.get(3).get("{NAME}"));
+                org.junit.Assert.assertEquals("NULL is empty", "", rows.get(4).get("{NAME}"));
+                org.junit.Assert.assertNull(subs.next());
+            }
+            org.junit.Assert.assertEquals(9, subs.getFetchedRows());
+        }
+
+        sqlFile.close();
+        Files.deleteIfExists(file);
+    }
+
+    /**
+     * Ведущий запрос должен возвращать результат
+     */
+    @Test(expected = SQLException.class)
+    public void testNoResults() throws IOException, ParseException, SQLException {
+        SQLFile sqlFile = createFile("create table driver_test (id integer)");
+        CLIOptions cli = new CLIParser().parseCLI();
+        ConfigFile config = new ConfigFile("jdbc:sqlite::memory:", "", "", "org.sqlite.JDBC", null, null, null);
+        try {
+            new DriverQuerySubs(cli, config, sqlFile).close();
+        } finally {
+            sqlFile.close();
+            Files.deleteIfExists(file);
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package com.github.butterbrother.thytom;
+
+import org.apache.commons.cli.ParseException;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.*;
+import java.util.List;
+
+/**
+ * Проверка подбора размера порции строк
+ */
+public class FetchSizeControllerTest {
+
+    /**
+     * Оценка ширины строки по типам столбцов, закрепление размера порции для SQL-файла
+     */
+    @Test
+    public void testSettings() throws SQLException {
+        registerDriver();
+        try (Connection connection = DriverManager.getConnection("jdbc:sqlite::memory:");
+             Statement statement = connection.createStatement()) {
+            statement.executeUpdate("create table data (id integer, name text)");
+            try (ResultSet resultSet = statement.executeQuery("select id, name from data")) {
+                org.junit.Assert.assertTrue(FetchSizeController.estimateRowWidth(resultSet.getMetaData()) > 4);
+            }
+        }
+
+        ConfigFile config = new ConfigFile("", "", "", "", StandardCharsets.UTF_8, StandardCharsets.UTF_8, StandardCharsets.UTF_8);
+        org.junit.Assert.assertEquals("fetch size not pinned by default", 0, config.getFetchSize("any.sql"));
+        config.setFetchSize(100);
+        config.setFetchSize("report.sql", 5000);
+        org.junit.Assert.assertEquals(5000, config.getFetchSize("report.sql"));
+        org.junit.Assert.assertEquals(100, config.getFetchSize("any.sql"));
+    }
+
+    /**
+     * Закреплённый размер порции устанавливается, но не для профилей с потоковой передачей
+     * (MySQL), чтобы драйвер не загружал в память весь результат
+     */
+    @Test
+    public void testPinnedFetchSize() throws SQLException {
+        registerDriver();
+
+        ConfigFile config = new ConfigFile("jdbc:sqlite::memory:", "", "", "", StandardCharsets.UTF_8, StandardCharsets.UTF_8, StandardCharsets.UTF_8);
+        config.setFetchSize("report.sql", 5000);
+        try (Connection connection = DriverManager.getConnection("jdbc:sqlite::memory:");
+             Statement statement = connection.createStatement()) {
+            statement.executeUpdate("create table data (id integer)");
+            try (ResultSet resultSet = statement.executeQuery("select id from data")) {
+                new FetchSizeController(config, "report.sql").start(resultSet);
+                org.junit.Assert.assertEquals(5000, resultSet.getFetchSize());
+            }
+
+            config.setDialect(Dialect.MYSQL);
+            try (ResultSet resultSet = statement.executeQuery("select id from data")) {
+                int streaming = resultSet.getFetchSize();
+                new FetchSizeController(config, "report.sql").start(resultSet);
+                org.junit.Assert.assertEquals("streaming cursor is kept", streaming, resultSet.getFetchSize());
+            }
+        }
+    }
+
+    /**
+     * Адаптивный подбор не влияет на сохраняемый результат
+     */
+    @Test
+    public void testAdaptiveResults() throws SQLException, IOException, ParseException {
+        registerDriver();
+
+        CLIOptions cli = new CLIParser("-s").parseCLI();
+        ConfigFile config = new ConfigFile("jdbc:sqlite::memory:", "", "", "", StandardCharsets.UTF_8, StandardCharsets.UTF_8, StandardCharsets.UTF_8);
+        config.setAdaptiveFetch(true);
+        config.setFetchTargetBytes(64);
+
+        int rows = 500;
+        try (Connection connection = DriverManager.getConnection("jdbc:sqlite::memory:");
+             Statement statement = connection.createStatement()) {
+            statement.executeUpdate("create table data (id integer, name text)");
+            for (int i = 0; i < rows; i++)
+                statement.executeUpdate("insert into data values (" + i + ", 'name " + i + "')");
+
+            try (ResultSet resultSet = statement.executeQuery("select id, name from data order by id")) {
+                new ResultSaver(cli, config, "fetch.sql", "out").writeResults(resultSet);
+            }
+        }
+
+        Path result = new ResultSaver(cli, config, "fetch.sql", "out").getFileName();
+        List<String> lines = Files.readAllLines(result, StandardCharsets.UTF_8);
+        Files.delete(result);
+
+        org.junit.Assert.assertEquals(rows + 1, lines.size());
+        org.junit.Assert.assertEquals("id;name", lines.get(0));
+        for (int i = 0; i < rows; i++)
+            org.junit.Assert.assertEquals(i + ";\"name " + i + "\"", lines.get(i + 1));
+    }
+
+    private void registerDriver() throws SQLException {
+        try {
+            DriverManager.registerDriver((Driver) Class.forName("org.sqlite.JDBC").newInstance());
+        } catch (ClassNotFoundException | InstantiationException | IllegalAccessException e) {
+            throw new SQLException("Unable load SQLite JDBC driver", e);
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package com.github.butterbrother.thytom;
+
+import org.apache.commons.cli.ParseException;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.*;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Проверка распределения результата объединённого запроса по файлам подстановок
+ */
+public class InListTaskTest {
+
+    /**
+     * Строки распределяются по значению столбца-ключа, в т.ч. для повторяющихся значений.
+     * Для подстановок без результата создаются пустые файлы с заголовком.
+     */
+    @Test
+    public void testSaveResults() throws SQLException, IOException, ParseException {
+        try {
+            DriverManager.registerDriver((Driver) Class.forName("org.sqlite.JDBC").newInstance());
+        } catch (ClassNotFoundException | InstantiationException | IllegalAccessException e) {
+            throw new SQLException("Unable load SQLite JDBC driver", e);
+        }
+
+        CLIOptions cli = new CLIParser("-s", "-i", "10", "-k", "OWNER").parseCLI();
+        ConfigFile config = new ConfigFile("", "", "", "", StandardCharsets.UTF_8, StandardCharsets.UTF_8, StandardCharsets.UTF_8);
+        List<String> values = Arrays.asList("a", "b", "c", "a");
+        List<String> rowIDs = Arrays.asList("1_a", "2_b", "3_c", "4_a");
+
+        try (Connection connection = DriverManager.getConnection("jdbc:sqlite::memory:");
+             Statement statement = connection.createStatement()) {
+            statement.executeUpdate("create table data (owner text, value integer)");
+            statement.executeUpdate("insert into data values ('a', 1)");
+            statement.executeUpdate("insert into data values ('b', 2)");
+            statement.executeUpdate("insert into data values ('a', 3)");
+
+            InListTask task = new InListTask("inlist.sql",
+                    "select owner, value from data where owner IN ('a', 'b', 'c') order by value",
+                    null, values, rowIDs, false);
+            try (ResultSet resultSet = statement.executeQuery(task.getQuery())) {
+                task.saveResults(cli, config, resultSet);
+            }
+        }
+
+        String[][] expected = {
+                {"owner;value", "\"a\";1", "\"a\";3"},
+                {"owner;value", "\"b\";2"},
+                {"owner;value"},
+                {"owner;value", "\"a\";1", "\"a\";3"}
+        };
+        for (int i = 0; i < rowIDs.size(); i++) {
+            Path result = new ResultSaver(cli, config, "inlist.sql", rowIDs.get(i)).getFileName();
+            org.junit.Assert.assertEquals(Arrays.asList(expected[i]),
+                    Files.readAllLines(result, StandardCharsets.UTF_8));
+            Files.delete(result);
+        }
+    }
+
+    /**
+     * Значения условия без кавычек - литералы SQL: строки результата сопоставляются
+     * со значением литерала, а не с его текстом.
+     */
+    @Test
+    public void testUnquotedValues() throws SQLException, IOException, ParseException {
+        QueriesExecutor.registerDriver("org.sqlite.JDBC");
+
+        CLIOptions cli = new CLIParser("-s", "-i", "10", "-k", "OWNER").parseCLI();
+        ConfigFile config = new ConfigFile("", "", "", "", StandardCharsets.UTF_8, StandardCharsets.UTF_8, StandardCharsets.UTF_8);
+        List<String> values = Arrays.asList("'SCOTT'", " 'O''BRIEN' ");
+        List<String> rowIDs = Arrays.asList("1_'SCOTT'", "2_'O''BRIEN'");
+
+        try (Connection connection = DriverManager.getConnection("jdbc:sqlite::memory:");
+             Statement statement = connection.createStatement()) {
+            statement.executeUpdate("create table data (owner text, value integer)");
+            statement.executeUpdate("insert into data values ('SCOTT', 1)");
+            statement.executeUpdate("insert into data values ('O''BRIEN', 2)");
+
+            InListTask task = new InListTask("inlist.sql",
+                    "select owner, value from data where owner IN ('SCOTT',  'O''BRIEN' ) order by value",
+                    null, values, rowIDs, true);
+            try (ResultSet resultSet = statement.executeQuery(task.getQuery())) {
+                task.saveResults(cli, config, resultSet);
+            }
+        }
+
+        String[][] expected = {
+                {"owner;value", "\"SCOTT\";1"},
+                {"owner;value", "\"O'BRIEN\";2"}
+        };
+        for (int i = 0; i < rowIDs.size(); i++) {
+            Path result = new ResultSaver(cli, config, "inlist.sql", rowIDs.get(i)).getFileName();
+            org.junit.Assert.assertEquals(Arrays.asList(expected[i]),
+                    Files.readAllLines(result, StandardCharsets.UTF_8));
+            Files.delete(result);
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package com.github.butterbrother.thytom;
+
+import org.apache.commons.cli.ParseException;
+import org.junit.Test;
+
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * Проверка деления диапазона ключа на части
+ */
+public class KeyRangeTest {
+
+    /**
+     * Возвращает границы частей текстом: lo-hi через запятую
+     *
+     * @param parts части
+     * @return границы
+     */
+    private String bounds(List<KeyRange.Part> parts) {
+        StringBuilder text = new StringBuilder();
+        for (KeyRange.Part part : parts) {
+            if (text.length() > 0)
+                text.append(", ");
+            text.append(part.getLo()).append('-').append(part.getHi());
+        }
+        return text.toString();
+    }
+
+    /**
+     * Целые, десятичные числа и даты делятся на части, покрывающие диапазон без пропусков.
+     * Верхняя граница последней части больше наибольшего значения.
+     */
+    @Test
+    public void testSplit() {
+        org.junit.Assert.assertEquals("1-26, 26-51, 51-76, 76-101", bounds(KeyRange.parse("1..100").split(4)));
+        org.junit.Assert.assertEquals("0.5-1.3, 1.3-2.1", bounds(KeyRange.parse("0.5..2.0").split(2)));
+        org.junit.Assert.assertEquals("less distinct values than ranges",
+                "5-6, 6-7", bounds(KeyRange.parse("5..6").split(8)));
+        org.junit.Assert.assertEquals("2020-01-01-2020-01-03, 2020-01-03-2020-01-05",
+                bounds(KeyRange.parse("2020-01-01..2020-01-04").split(2)));
+        org.junit.Assert.assertEquals("2020-01-01 00:00:00.000-2020-01-01 12:00:00.000, "
+                        + "2020-01-01 12:00:00.000-2020-01-02 00:00:00.001",
+                bounds(KeyRange.parse("2020-01-01..2020-01-02 00:00:00").split(2)));
+
+        List<KeyRange.Part> parts = KeyRange.parse("1..1000").split(12);
+        org.junit.Assert.assertEquals("range01", parts.get(0).getID());
+        org.junit.Assert.assertEquals("12/12 [917, 1001)", parts.get(11).toString());
+
+        org.junit.Assert.assertNull(KeyRange.parse("big_table.id"));
+        org.junit.Assert.assertNull(KeyRange.parse("2020-02-30..2020-03-01"));
+    }
+
+    /**
+     * Границы диапазона запрашиваются из БД
+     */
+    @Test
+    public void testFromDatabase() throws ParseException, SQLException {
+        CLIOptions cli = new CLIParser().parseCLI();
+        ConfigFile config = new ConfigFile("jdbc:sqlite::memory:", "", "", "org.sqlite.JDBC", null, null, null);
+        try (QueriesExecutor executor = new QueriesExecutor(cli, config)) {
+            executor.execute("create table range_table (id integer, created text)");
+            executor.execute("insert into range_table values (10, '2020-01-01 10:00:00')");
+            executor.execute("insert into range_table values (30, '2020-01-02 10:00:00')");
+
+            org.junit.Assert.assertEquals("10-20, 20-31", bounds(KeyRange.fromDatabase(executor, "range_table.id").split(2)));
+            org.junit.Assert.assertEquals(KeyRange.Kind.TIMESTAMP,
+                    KeyRange.fromDatabase(executor, "range_table.created").getKind());
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package com.github.butterbrother.thytom;
+
+import org.apache.commons.cli.ParseException;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * Проверка пула параллельных исполнителей запросов.
+ * SQLite в памяти у каждого подключения свой, поэтому используется файл БД.
+ */
+public class QueriesExecutorPoolTest {
+    private static final Path dbFile = Paths.get("./pool_test.db");
+
+    /**
+     * Все переданные задания должны быть исполнены разными подключениями,
+     * результат каждого - сохранён в отдельный файл.
+     */
+    @Test
+    public void testPool() throws IOException, ParseException, SQLException, InterruptedException {
+        Files.deleteIfExists(dbFile);
+        CLIOptions cli = new CLIParser().parseCLI();
+        ConfigFile config = new ConfigFile("jdbc:sqlite:" + dbFile.toString(), "", "", "org.sqlite.JDBC",
+                StandardCharsets.UTF_8, StandardCharsets.UTF_8, StandardCharsets.UTF_8);
+
+        try (QueriesExecutor executor = new QueriesExecutor(cli, config)) {
+            executor.execute("create table pool_table (id integer, value text)");
+            for (int i = 1; i <= 20; i++)
+                executor.execute("insert into pool_table (id, value) values (" + i + ", 'v" + i + "')");
+        }
+
+        QueriesExecutorPool pool = new QueriesExecutorPool(cli, config, 3);
+        try {
+            for (int i = 1; i <= 20; i++)
+                pool.submit(new QueryTask("pool.sql", "select value from pool_table where id = " + i, "p" + i));
+        } finally {
+            pool.close();
+        }
+        org.junit.Assert.assertFalse("pool must not fail", pool.hasFailed());
+
+        for (int i = 1; i <= 20; i++) {
+            Path result = new ResultSaver(cli, config, "pool.sql", "p" + i).getFileName();
+            try (BufferedReader reader = Files.newBufferedReader(result, StandardCharsets.UTF_8)) {
+                org.junit.Assert.assertEquals("\"v" + i + "\"", reader.readLine());
+                org.junit.Assert.assertNull(reader.readLine());
+            }
+            Files.delete(result);
+        }
+
+        Files.deleteIfExists(dbFile);
+    }
+
+    /**
+     * Результаты всех подстановок SQL-файла, исполненных разными подключениями,
+     * сохраняются в один файл с ID подстановки в первом столбце и однократным заголовком.
+     */
+    @Test
+    public void testConsolidatedResults() throws IOException, ParseException, SQLException, InterruptedException {
+        Files.deleteIfExists(dbFile);
+        CLIOptions cli = new CLIParser("-s", "-o").parseCLI();
+        ConfigFile config = new ConfigFile("jdbc:sqlite:" + dbFile.toString(), "", "", "org.sqlite.JDBC",
+                StandardCharsets.UTF_8, StandardCharsets.UTF_8, StandardCharsets.UTF_8);
+        config.setPipelineRows(2);
+
+        try (QueriesExecutor executor = new QueriesExecutor(cli, config)) {
+            executor.execute("create table pool_table (id integer, value text)");
+            for (int i = 1; i <= 20; i++)
+                for (int copy = 1; copy <= 3; copy++)
+                    executor.execute("insert into pool_table (id, value) values (" + i + ", 'v" + i + "')");
+        }
+
+        org.junit.Assert.assertTrue(cli.needConsolidateResults());
+        try (ConsolidatedResults consolidated = new ConsolidatedResults(cli, config)) {
+            QueriesExecutorPool pool = new QueriesExecutorPool(cli, config, 3, consolidated);
+            try {
+                for (int i = 1; i <= 20; i++)
+                    pool.submit(new QueryTask("pool.sql", "select value from pool_table where id = " + i, "p" + i));
+            } finally {
+                pool.close();
+            }
+            org.junit.Assert.assertFalse("pool must not fail", pool.hasFailed());
+        }
+
+        Path result = new ResultSaver(cli, config, "pool.sql", null).getFileName();
+        org.junit.Assert.assertEquals("pool.txt", result.getFileName().toString());
+        List<String> lines = Files.readAllLines(result, StandardCharsets.UTF_8);
+        Files.delete(result);
+
+        org.junit.Assert.assertEquals(ResultSaver.ROW_ID_LABEL + ";value", lines.get(0));
+        org.junit.Assert.assertEquals(1 + 20 * 3, lines.size());
+        for (int i = 1; i <= 20; i++) {
+            int found = 0;
+            for (String line : lines)
+                if (line.equals("p" + i + ";\"v" + i + "\""))
+                    found++;
+            org.junit.Assert.assertEquals(3, found);
+        }
+
+        Files.deleteIfExists(dbFile);
+    }
+}
@@ -36,4 +36,116 @@ public class QueriesExecutorTest {
             org.junit.Assert.assertTrue(resultSet.next());
         }
     }
+
+    /**
+     * Исполнение запроса с параметрами JDBC. Повторное исполнение с тем же текстом
+     * использует тот же подготовленный запрос.
+     */
+    @Test
+    public void testExecBind() throws ParseException, SQLException {
+        CLIOptions cli = new CLIParser().parseCLI();
+        ConfigFile config = new ConfigFile("jdbc:sqlite::memory:", "", "", "org.sqlite.JDBC", null, null, null);
+        try (QueriesExecutor executor = new QueriesExecutor(cli, config)) {
+            executor.execute("create table bind_table (id integer, text text)");
+            executor.execute("insert into bind_table (id, text) values (?, ?)", new String[]{"1", "it's"});
+            org.junit.Assert.assertFalse("insert must not have results", executor.hasResults());
+            executor.execute("insert into bind_table (id, text) values (?, ?)", new String[]{"2", "two"});
+
+            ResultSet resultSet = executor.execute("select text from bind_table where id = ?", new String[]{"1"});
+            org.junit.Assert.assertTrue(executor.hasResults());
+            org.junit.Assert.assertTrue(resultSet.next());
+            org.junit.Assert.assertEquals("it's", resultSet.getString(1));
+
+            resultSet = executor.execute("select text from bind_table where id = ?", new String[]{"2"});
+            org.junit.Assert.assertTrue(resultSet.next());
+            org.junit.Assert.assertEquals("two", resultSet.getString(1));
+        }
+    }
+
+    /**
+     * Определение обновляющих запросов с комментариями в начале.
+     */
+    @Test
+    public void testIsUpdateQuery() {
+        org.junit.Assert.assertTrue(QueriesExecutor.isUpdateQuery("insert into t values (1)"));
+        org.junit.Assert.assertTrue(QueriesExecutor.isUpdateQuery("-- comment\n /* another */\n UPDATE t set a = 1"));
+        org.junit.Assert.assertTrue(QueriesExecutor.isUpdateQuery("\tdelete from t"));
+        org.junit.Assert.assertFalse(QueriesExecutor.isUpdateQuery("select * from t"));
+        org.junit.Assert.assertFalse(QueriesExecutor.isUpdateQuery("insertion"));
+        org.junit.Assert.assertFalse(QueriesExecutor.isUpdateQuery("-- only comment"));
+    }
+
+    /**
+     * Пакетное исполнение обновляющих запросов.
+     * Все запросы должны быть исполнены, в т.ч. неполный последний пакет.
+     */
+    @Test
+    public void testBatch() throws ParseException, SQLException {
+        CLIOptions cli = new CLIParser("-B", "2").parseCLI();
+        ConfigFile config = new ConfigFile("jdbc:sqlite::memory:", "", "", "org.sqlite.JDBC", null, null, null);
+        try (QueriesExecutor executor = new QueriesExecutor(cli, config)) {
+            org.junit.Assert.assertTrue("batch mode", executor.isBatchMode());
+            executor.execute("create table batch_table (id integer, text text)");
+
+            for (int i = 1; i <= 5; i++)
+                executor.addBatch(new QueryTask("batch.sql", "insert into batch_table (id, text) values (" + i + ", 'text')", "" + i));
+            for (int i = 6; i <= 8; i++)
+                executor.addBatch(new QueryTask("batch.sql", "insert into batch_table (id, text) values (?, ?)",
+                        new String[]{"" + i, "bound"}, "" + i));
+            executor.finishBatch();
+
+            ResultSet resultSet = executor.execute("select count(*), sum(id) from batch_table");
+            org.junit.Assert.assertTrue(resultSet.next());
+            org.junit.Assert.assertEquals(8, resultSet.getInt(1));
+            org.junit.Assert.assertEquals(36, resultSet.getInt(2));
+        }
+    }
+
+    /**
+     * Неудачный пакет откатывается целиком, в т.ч. успешно исполненные запросы пакета.
+     * SQLite не поддерживает точки сохранения, поэтому откатывается и нефиксированный пакет до него.
+     */
+    @Test
+    public void testFailedBatch() throws ParseException, SQLException {
+        CLIOptions cli = new CLIParser("-B", "2", "-m", "2").parseCLI();
+        ConfigFile config = new ConfigFile("jdbc:sqlite::memory:", "", "", "org.sqlite.JDBC", null, null, null);
+        try (QueriesExecutor executor = new QueriesExecutor(cli, config)) {
+            executor.execute("create table batch_table (id integer primary key)");
+            executor.finishBatch();
+
+            for (int id : new int[]{1, 2, 3, 1, 4, 5})
+                executor.addBatch(new QueryTask("batch.sql", "insert into batch_table (id) values (" + id + ")", "" + id));
+            executor.finishBatch();
+
+            ResultSet resultSet = executor.execute("select count(*), sum(id) from batch_table");
+            org.junit.Assert.assertTrue(resultSet.next());
+            org.junit.Assert.assertEquals("batches 1, 2 and 3, 1 are rolled back", 2, resultSet.getInt(1));
+            org.junit.Assert.assertEquals(9, resultSet.getInt(2));
+        }
+    }
+
+    /**
+     * После неудачного запроса при отключённой автоматической фиксации транзакция откатывается,
+     * и следующие запросы исполняются.
+     */
+    @Test
+    public void testManualCommitRollback() throws ParseException, SQLException {
+        CLIOptions cli = new CLIParser().parseCLI();
+        ConfigFile config = new ConfigFile("jdbc:sqlite::memory:", "", "", "org.sqlite.JDBC", null, null, null);
+        config.setDialect(Dialect.POSTGRESQL);
+        try (QueriesExecutor executor = new QueriesExecutor(cli, config)) {
+            executor.execute("create table manual_table (id integer primary key)");
+            executor.execute("insert into manual_table (id) values (1)");
+            try {
+                executor.execute("insert into manual_table (id) values (1)");
+                org.junit.Assert.fail("duplicate key must fail");
+            } catch (SQLException expected) {
+            }
+            executor.execute("insert into manual_table (id) values (?)", new String[]{"2"});
+
+            ResultSet resultSet = executor.execute("select count(*) from manual_table");
+            org.junit.Assert.assertTrue(resultSet.next());
+            org.junit.Assert.assertEquals(2, resultSet.getInt(1));
+        }
+    }
 }
@@ -0,0 +1,117 @@
+package com.github.butterbrother.thytom;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Проверка копирования результатов в целевую БД
+ */
+public class ResultCopierTest {
+
+    /**
+     * Строки результата, вставленные пакетами двумя потоками в две целевые БД,
+     * вместе совпадают со строками исходной БД. Целевые таблицы создаются по результату,
+     * ID подстановки записывается в первый столбец, NULL сохраняется.
+     */
+    @Test
+    public void testCopy() throws SQLException, IOException {
+        QueriesExecutor.registerDriver("org.sqlite.JDBC");
+
+        ConfigFile config = new ConfigFile("", "", "", "", StandardCharsets.UTF_8, StandardCharsets.UTF_8, StandardCharsets.UTF_8);
+        config.setTargetTable("copy_{SQL}");
+        config.setTargetCreateTable(true);
+        config.setTargetRowId(true);
+        config.setTargetBatchSize(7);
+        config.setTargetCommitBatches(2);
+
+        Set<String> expected = new TreeSet<>();
+        List<Connection> targets = new ArrayList<>();
+        try (Connection source = DriverManager.getConnection("jdbc:sqlite::memory:");
+             Statement statement = source.createStatement()) {
+            statement.executeUpdate("create table data (id integer, name text)");
+            for (int i = 0; i < 100; i++) {
+                statement.executeUpdate("insert into data values (" + i + ", "
+                        + (i % 10 == 0 ? "null" : "'name " + i + "'") + ")");
+                expected.add("42|" + i + "|" + (i % 10 == 0 ? null : "name " + i));
+            }
+
+            targets.add(DriverManager.getConnection("jdbc:sqlite::memory:"));
+            targets.add(DriverManager.getConnection("jdbc:sqlite::memory:"));
+            ResultCopier copier = new ResultCopier(config, targets);
+            try (ResultSet results = statement.executeQuery("select id, name from data")) {
+                org.junit.Assert.assertEquals(100, copier.copy("data.sql", "42", results));
+            } finally {
+                copier.finish();
+            }
+        }
+
+        Set<String> copied = new TreeSet<>();
+        int copiedRows = 0;
+        for (Connection target : targets)
+            try (Connection connection = target) {
+                try (ResultSet tables = connection.getMetaData().getTables(null, null, "copy_data", null)) {
+                    if (!tables.next())
+                        continue;
+                }
+                try (Statement statement = connection.createStatement();
+                     ResultSet rows = statement.executeQuery("select row_id, id, name from copy_data")) {
+                    while (rows.next()) {
+                        copied.add(rows.getString(1) + "|" + rows.getInt(2) + "|" + rows.getString(3));
+                        copiedRows++;
+                    }
+                }
+            }
+
+        org.junit.Assert.assertEquals(100, copiedRows);
+        org.junit.Assert.assertEquals(expected, copied);
+    }
+
+    /**
+     * Неудачная вставка порции откатывает и уже вставленные, но не зафиксированные
+     * порции результата, а копирование завершается ошибкой.
+     */
+    @Test
+    public void testFailedInsert() throws SQLException, IOException {
+        QueriesExecutor.registerDriver("org.sqlite.JDBC");
+
+        ConfigFile config = new ConfigFile("", "", "", "", StandardCharsets.UTF_8, StandardCharsets.UTF_8, StandardCharsets.UTF_8);
+        config.setTargetTable("copy_data");
+        config.setTargetBatchSize(2);
+        config.setTargetCommitBatches(10);
+
+        try (Connection source = DriverManager.getConnection("jdbc:sqlite::memory:");
+             Statement statement = source.createStatement();
+             Connection target = DriverManager.getConnection("jdbc:sqlite::memory:")) {
+            statement.executeUpdate("create table data (id integer)");
+            for (int id : new int[]{1, 2, 3, 3})
+                statement.executeUpdate("insert into data values (" + id + ")");
+            try (Statement create = target.createStatement()) {
+                create.executeUpdate("create table copy_data (id integer primary key)");
+            }
+
+            ResultCopier copier = new ResultCopier(config, Collections.singletonList(target));
+            try (ResultSet results = statement.executeQuery("select id from data")) {
+                copier.copy("data.sql", "1", results);
+                org.junit.Assert.fail("Duplicate key is inserted");
+            } catch (SQLException expected) {
+                // Вставка 3, 3 не удалась
+            } finally {
+                copier.finish();
+            }
+
+            try (Statement check = target.createStatement();
+                 ResultSet count = check.executeQuery("select count(*) from copy_data")) {
+                org.junit.Assert.assertTrue(count.next());
+                org.junit.Assert.assertEquals(0, count.getInt(1));
+            }
+        }
+    }
+}
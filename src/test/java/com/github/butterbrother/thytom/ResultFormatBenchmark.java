@@ -0,0 +1,133 @@
+package com.github.butterbrother.thytom;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.Types;
+
+/**
+ * Сравнение скорости записи результата текстом с разделителями и в формате JSON Lines
+ * через {@link ResultSaver}.
+ * <p>
+ * Результат запроса формируется в памяти, без БД: целое, десятичное и логическое значения
+ * и две строки, одна из которых иногда требует экранирования в JSON.
+ * <p>
+ * Не является тестом и не запускается при сборке. Запуск после mvn test-compile:<br>
+ * <tt>java -cp target/classes:target/test-classes:$(cat cp.txt) com.github.butterbrother.thytom.ResultFormatBenchmark [строк]</tt>,
+ * где cp.txt - вывод mvn dependency:build-classpath -Dmdep.outputFile=cp.txt
+ */
+public class ResultFormatBenchmark {
+    private static final String[] LABELS = {"id", "name", "price", "active", "note"};
+    private static final int[] TYPES = {Types.BIGINT, Types.VARCHAR, Types.DECIMAL, Types.BOOLEAN, Types.VARCHAR};
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        CLIOptions cli = new CLIParser("-s").parseCLI();
+        ConfigFile config = new ConfigFile("", "", "", "", StandardCharsets.UTF_8, StandardCharsets.UTF_8, StandardCharsets.UTF_8);
+
+        for (int round = 1; round <= 3; round++)
+            for (ResultFormat format : new ResultFormat[]{ResultFormat.TEXT, ResultFormat.JSON}) {
+                config.setResultFormat(format);
+                ResultSaver saver = new ResultSaver(cli, config, "benchmark.sql", "round" + round);
+                long begin = System.nanoTime();
+                saver.writeResults(results(rows));
+                long nanos = System.nanoTime() - begin;
+
+                Path file = saver.getFileName();
+                long bytes = Files.size(file);
+                Files.delete(file);
+                System.out.println(String.format("round %d %-5s %6d ms, %10.0f rows/s, %8.1f MB/s",
+                        round, format, nanos / 1000000, rows / (nanos / 1e9), bytes / 1048576.0 / (nanos / 1e9)));
+            }
+    }
+
+    /**
+     * Результат запроса в памяти
+     *
+     * @param rows количество строк
+     * @return результат
+     */
+    private static ResultSet results(final int rows) {
+        final String[] names = new String[1024];
+        final String[] notes = new String[1024];
+        final BigDecimal[] prices = new BigDecimal[1024];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = (i % 2 == 0 ? "value " : "значение ") + i;
+            notes[i] = i % 16 == 0 ? "quoted \"note\"\nline " + i : "note " + i;
+            prices[i] = BigDecimal.valueOf(i * 37L, 2);
+        }
+
+        final ResultSetMetaData metaData = (ResultSetMetaData) Proxy.newProxyInstance(
+                ResultFormatBenchmark.class.getClassLoader(), new Class<?>[]{ResultSetMetaData.class},
+                new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        switch (method.getName()) {
+                            case "getColumnCount":
+                                return LABELS.length;
+                            case "getColumnLabel":
+                            case "getColumnName":
+                                return LABELS[(Integer) args[0] - 1];
+                            case "getColumnType":
+                                return TYPES[(Integer) args[0] - 1];
+                            case "getColumnTypeName":
+                                return "TYPE";
+                            case "getPrecision":
+                                return 10;
+                            case "getScale":
+                                return TYPES[(Integer) args[0] - 1] == Types.DECIMAL ? 2 : 0;
+                            case "isSigned":
+                                return true;
+                            default:
+                                return null;
+                        }
+                    }
+                });
+
+        return (ResultSet) Proxy.newProxyInstance(
+                ResultFormatBenchmark.class.getClassLoader(), new Class<?>[]{ResultSet.class},
+                new InvocationHandler() {
+                    private int row = 0;
+
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        int value = row & 1023;
+                        switch (method.getName()) {
+                            case "next":
+                                return ++row <= rows;
+                            case "getMetaData":
+                                return metaData;
+                            case "wasNull":
+                                return false;
+                            case "getLong":
+                                return (long) row;
+                            case "getBigDecimal":
+                                return prices[value];
+                            case "getBoolean":
+                                return value % 3 == 0;
+                            case "getString":
+                                switch ((Integer) args[0]) {
+                                    case 2:
+                                        return names[value];
+                                    case 3:
+                                        return prices[value].toString();
+                                    case 4:
+                                        return value % 3 == 0 ? "1" : "0";
+                                    default:
+                                        return notes[value];
+                                }
+                            case "getFetchSize":
+                                return 0;
+                            default:
+                                return null;
+                        }
+                    }
+                });
+    }
+}
@@ -0,0 +1,156 @@
+package com.github.butterbrother.thytom;
+
+import org.apache.commons.cli.ParseException;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Проверка загрузки файлов с результатами в БД
+ */
+public class ResultImporterTest {
+
+    /**
+     * Значения в кавычках могут содержать разделитель, пустое значение и null без кавычек - NULL,
+     * заголовки в каждой строке сверяются со столбцами.
+     */
+    @Test
+    public void testParseLine() throws ParseException, java.text.ParseException {
+        ConfigFile config = new ConfigFile("", "", "", "", StandardCharsets.UTF_8, StandardCharsets.UTF_8, StandardCharsets.UTF_8);
+        ResultImporter importer = new ResultImporter(new CLIParser("-n", "-I", "data.txt").parseCLI(), config);
+        org.junit.Assert.assertArrayEquals(new String[]{"1", "a;b", null, "", null},
+                importer.parseLine("1;\"a;b\";null;\"\";", null));
+
+        importer = new ResultImporter(new CLIParser("-e", "-I", "data.txt").parseCLI(), config);
+        List<String> names = new ArrayList<>();
+        org.junit.Assert.assertArrayEquals(new String[]{"7", "say \"hi\""},
+                importer.parseLine("id:7;name:\"say \"hi\"\"", names));
+        org.junit.Assert.assertEquals(java.util.Arrays.asList("id", "name"), names);
+
+        try {
+            importer.parseLine("id:7;name:\"open", null);
+            org.junit.Assert.fail("Unclosed quote must be rejected");
+        } catch (java.text.ParseException expected) {
+        }
+    }
+
+    /**
+     * Границы диапазонов приходятся на начало строк
+     */
+    @Test
+    public void testSplit() throws IOException {
+        Path file = Files.createTempFile("thytom-split", ".txt");
+        try {
+            StringBuilder text = new StringBuilder("head\n");
+            for (int i = 0; i < 50; i++)
+                text.append("line ").append(i).append('\n');
+            Files.write(file, text.toString().getBytes(StandardCharsets.UTF_8));
+            byte[] bytes = Files.readAllBytes(file);
+
+            long[] bounds = ResultImporter.split(file, 5, 7);
+            org.junit.Assert.assertEquals(5, bounds[0]);
+            org.junit.Assert.assertEquals(bytes.length, bounds[bounds.length - 1]);
+            org.junit.Assert.assertTrue(bounds.length > 2);
+            for (int i = 1; i < bounds.length - 1; i++) {
+                org.junit.Assert.assertTrue(bounds[i] > bounds[i - 1]);
+                org.junit.Assert.assertEquals('\n', bytes[(int) bounds[i] - 1]);
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    /**
+     * Файл, сохранённый {@link ResultSaver}, загружается параллельно двумя потоками.
+     * Вместе загруженные строки совпадают с исходными. Испорченная строка и строка,
+     * нарушающая ограничение таблицы, отклоняются, остальные строки её пакета загружаются.
+     */
+    @Test
+    public void testRoundTrip() throws SQLException, IOException, ParseException {
+        QueriesExecutor.registerDriver("org.sqlite.JDBC");
+
+        ConfigFile config = new ConfigFile("", "", "", "", StandardCharsets.UTF_8, StandardCharsets.UTF_8, StandardCharsets.UTF_8);
+        Set<String> expected = new TreeSet<>();
+        Path file;
+        try (Connection source = DriverManager.getConnection("jdbc:sqlite::memory:");
+             Statement statement = source.createStatement()) {
+            statement.executeUpdate("create table data (id integer, name text)");
+            for (int i = 0; i < 200; i++) {
+                statement.executeUpdate("insert into data values (" + i + ", "
+                        + (i % 10 == 0 ? "null" : "'name " + i + "'") + ")");
+                expected.add(i + "|" + (i % 10 == 0 ? null : "name " + i));
+            }
+
+            ResultSaver saver = new ResultSaver(new CLIParser("-s").parseCLI(), config, "import.sql", "source");
+            try (ResultSet results = statement.executeQuery("select id, name from data")) {
+                saver.writeResults(results);
+            }
+            file = saver.getFileName();
+        }
+        Path rejects = ResultSaver.getResultsPath().resolve(file.getFileName() + ResultImporter.REJECT_EXTENSION);
+        Path rejectLog = ResultSaver.getResultsPath().resolve(file.getFileName() + ResultImporter.REJECT_LOG_EXTENSION);
+        try {
+            importAndCheck(config, file, expected);
+            org.junit.Assert.assertEquals(java.util.Arrays.asList("id;name", "\"broken;1", "999;bad"),
+                    Files.readAllLines(rejects, StandardCharsets.UTF_8));
+        } finally {
+            Files.deleteIfExists(file);
+            Files.deleteIfExists(rejects);
+            Files.deleteIfExists(rejectLog);
+        }
+    }
+
+    /**
+     * Загрузка сохранённого файла с испорченными строками в конце двумя потоками и сверка загруженного
+     *
+     * @param config   настройки
+     * @param file     сохранённый файл
+     * @param expected исходные строки: id|name
+     */
+    private void importAndCheck(ConfigFile config, Path file, Set<String> expected)
+            throws SQLException, IOException, ParseException {
+        Files.write(file, "\n\"broken;1\n999;bad".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+        List<Connection> targets = new ArrayList<>();
+        ResultImporter importer = new ResultImporter(new CLIParser("-s", "-B", "16", "-m", "2",
+                "-I", file.toString(), "-T", "imported").parseCLI(), config);
+        Set<String> loaded = new TreeSet<>();
+        int loadedRows = 0;
+        try {
+            for (int i = 0; i < 2; i++) {
+                Connection target = DriverManager.getConnection("jdbc:sqlite::memory:");
+                targets.add(target);
+                try (Statement statement = target.createStatement()) {
+                    statement.executeUpdate("create table imported (id integer, name text check (name <> 'bad'))");
+                }
+            }
+
+            org.junit.Assert.assertEquals(200, importer.load(targets, 6));
+            org.junit.Assert.assertEquals(2, importer.getRejectedCount());
+
+            for (Connection target : targets)
+                try (Statement statement = target.createStatement();
+                     ResultSet rows = statement.executeQuery("select id, name from imported")) {
+                    while (rows.next()) {
+                        loaded.add(rows.getInt(1) + "|" + rows.getString(2));
+                        loadedRows++;
+                    }
+                }
+        } finally {
+            for (Connection target : targets)
+                target.close();
+        }
+
+        org.junit.Assert.assertEquals(200, loadedRows);
+        org.junit.Assert.assertEquals(expected, loaded);
+    }
+}
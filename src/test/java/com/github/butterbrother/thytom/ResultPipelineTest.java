@@ -0,0 +1,138 @@
+package com.github.butterbrother.thytom;
+
+import org.apache.commons.cli.ParseException;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.*;
+
+/**
+ * Проверка раздельных чтения и записи результата
+ */
+public class ResultPipelineTest {
+
+    /**
+     * Результат, записанный через очередь порций, совпадает с результатом записи в одном потоке.
+     * Последняя порция заполнена частично.
+     */
+    @Test
+    public void testSameResults() throws SQLException, IOException, ParseException {
+        assertSameResults(new CLIParser("-s", "-n").parseCLI(), 1);
+    }
+
+    /**
+     * Результат параллельного форматирования побайтно совпадает с результатом записи в одном потоке,
+     * в т.ч. без заголовка таблицы и с заголовками в каждой строке.
+     */
+    @Test
+    public void testParallelFormatting() throws SQLException, IOException, ParseException {
+        assertSameResults(new CLIParser("-s", "-n").parseCLI(), 3);
+        assertSameResults(new CLIParser().parseCLI(), 3);
+        assertSameResults(new CLIParser("-e", "-w").parseCLI(), 2);
+    }
+
+    /**
+     * Результат делится на части с заголовком в каждой. Части, записанные одновременно
+     * несколькими потоками, совпадают с частями, записанными по очереди.
+     */
+    @Test
+    public void testParts() throws SQLException, IOException, ParseException {
+        try {
+            DriverManager.registerDriver((Driver) Class.forName("org.sqlite.JDBC").newInstance());
+        } catch (ClassNotFoundException | InstantiationException | IllegalAccessException e) {
+            throw new SQLException("Unable load SQLite JDBC driver", e);
+        }
+
+        CLIOptions cli = new CLIParser("-s").parseCLI();
+        ConfigFile config = new ConfigFile("", "", "", "", StandardCharsets.UTF_8, StandardCharsets.UTF_8, StandardCharsets.UTF_8);
+        config.setPartRows(30);
+        String query = "select id, name from data order by id";
+
+        try (Connection connection = DriverManager.getConnection("jdbc:sqlite::memory:");
+             Statement statement = connection.createStatement()) {
+            statement.executeUpdate("create table data (id integer, name text)");
+            for (int i = 0; i < 100; i++)
+                statement.executeUpdate("insert into data values (" + i + ", 'name " + i + "')");
+
+            try (ResultSet resultSet = statement.executeQuery(query)) {
+                new ResultSaver(cli, config, "parts.sql", "sequential").writeResults(resultSet);
+            }
+
+            config.setPipelineRows(7);
+            config.setPartWriters(3);
+            try (ResultSet resultSet = statement.executeQuery(query)) {
+                new ResultSaver(cli, config, "parts.sql", "parallel").writeResults(resultSet);
+            }
+        }
+
+        Path first = new ResultSaver(cli, config, "parts.sql", "sequential").getFileName();
+        org.junit.Assert.assertTrue(first.toString().endsWith("sequential_parts_part0001.txt"));
+
+        int row = 0;
+        for (int part = 1; part <= 4; part++) {
+            String suffix = String.format("_part%04d.txt", part);
+            Path sequential = first.resolveSibling("sequential_parts" + suffix);
+            Path parallel = first.resolveSibling("parallel_parts" + suffix);
+            java.util.List<String> lines = Files.readAllLines(sequential, StandardCharsets.UTF_8);
+            org.junit.Assert.assertEquals("id;name", lines.get(0));
+            for (int i = 1; i < lines.size(); i++, row++)
+                org.junit.Assert.assertEquals(row + ";\"name " + row + "\"", lines.get(i));
+            org.junit.Assert.assertEquals(part < 4 ? 31 : 11, lines.size());
+
+            org.junit.Assert.assertArrayEquals(Files.readAllBytes(sequential), Files.readAllBytes(parallel));
+            Files.delete(sequential);
+            Files.delete(parallel);
+        }
+        org.junit.Assert.assertEquals(100, row);
+        org.junit.Assert.assertTrue(Files.notExists(first.resolveSibling("sequential_parts_part0005.txt")));
+    }
+
+    /**
+     * Сравнение результата записи в одном потоке и через очередь порций
+     *
+     * @param cli           параметры командной строки
+     * @param formatThreads количество потоков форматирования
+     */
+    private void assertSameResults(CLIOptions cli, int formatThreads) throws SQLException, IOException {
+        try {
+            DriverManager.registerDriver((Driver) Class.forName("org.sqlite.JDBC").newInstance());
+        } catch (ClassNotFoundException | InstantiationException | IllegalAccessException e) {
+            throw new SQLException("Unable load SQLite JDBC driver", e);
+        }
+
+        ConfigFile config = new ConfigFile("", "", "", "", StandardCharsets.UTF_8, StandardCharsets.UTF_8, StandardCharsets.UTF_8);
+        String query = "select id, name, note from data order by id";
+
+        try (Connection connection = DriverManager.getConnection("jdbc:sqlite::memory:");
+             Statement statement = connection.createStatement()) {
+            statement.executeUpdate("create table data (id integer, name text, note text)");
+            for (int i = 0; i < 100; i++)
+                statement.executeUpdate("insert into data values (" + i + ", 'name " + i + "', "
+                        + (i % 3 == 0 ? "null" : "' note \u0436 '") + ")");
+
+            try (ResultSet resultSet = statement.executeQuery(query)) {
+                new ResultSaver(cli, config, "pipeline.sql", "sequential").writeResults(resultSet);
+            }
+
+            config.setPipelineDepth(2);
+            config.setPipelineRows(7);
+            config.setFormatThreads(formatThreads);
+            try (ResultSet resultSet = statement.executeQuery(query)) {
+                new ResultSaver(cli, config, "pipeline.sql", "pipeline").writeResults(resultSet);
+            }
+        }
+
+        Path sequential = new ResultSaver(cli, config, "pipeline.sql", "sequential").getFileName();
+        Path pipeline = new ResultSaver(cli, config, "pipeline.sql", "pipeline").getFileName();
+        byte[] expected = Files.readAllBytes(sequential);
+        byte[] actual = Files.readAllBytes(pipeline);
+        Files.delete(sequential);
+        Files.delete(pipeline);
+
+        org.junit.Assert.assertArrayEquals(expected, actual);
+        org.junit.Assert.assertTrue(expected.length > 0);
+    }
+}
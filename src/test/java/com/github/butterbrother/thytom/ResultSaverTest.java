@@ -118,4 +118,299 @@ public class ResultSaverTest {
             }
         }
     }
+
+    /**
+     * Проверка, что целочисленные столбцы, прочитанные без преобразования в текст,
+     * записываются так же, как и через getString: в т.ч. null, отрицательные и большие значения.
+     * Для профиля SQLite значения всегда читаются как текст, поэтому используется как эталон.
+     * @throws SQLException
+     * @throws IOException
+     * @throws ParseException
+     */
+    @Test
+    public void testTypedColumns() throws SQLException, IOException, ParseException {
+        CLIOptions options = new CLIParser("-s", "-n").parseCLI();
+        ConfigFile typed = new ConfigFile("", "", "", "", StandardCharsets.UTF_8, StandardCharsets.UTF_8, StandardCharsets.UTF_8);
+        ConfigFile text = new ConfigFile("jdbc:sqlite::memory:", "", "", "", StandardCharsets.UTF_8, StandardCharsets.UTF_8, StandardCharsets.UTF_8);
+        ResultSaver typedSaver = new ResultSaver(options, typed, "typed.sql", "typed");
+        ResultSaver textSaver = new ResultSaver(options, text, "typed.sql", "text");
+
+        try (Connection connection = getTestDBConnection(); Statement statement = connection.createStatement()) {
+            statement.executeUpdate("create table numbers (small smallint, value integer, big bigint, note text)");
+            statement.executeUpdate("insert into numbers values (-1, null, 9223372036854775807, '1')");
+            statement.executeUpdate("insert into numbers values (0, -2147483648, -9223372036854775808, null)");
+            statement.executeUpdate("insert into numbers values (null, 42, 0, 'x')");
+
+            String query = "select small, value, big, note from numbers order by rowid";
+            try (ResultSet resultSet = statement.executeQuery(query)) {
+                typedSaver.writeResults(resultSet);
+            }
+            try (ResultSet resultSet = statement.executeQuery(query)) {
+                textSaver.writeResults(resultSet);
+            }
+        }
+
+        org.junit.Assert.assertEquals(
+                new String(Files.readAllBytes(textSaver.getFileName()), StandardCharsets.UTF_8),
+                new String(Files.readAllBytes(typedSaver.getFileName()), StandardCharsets.UTF_8));
+        org.junit.Assert.assertTrue(Files.readAllLines(typedSaver.getFileName(), StandardCharsets.UTF_8)
+                .contains("0;-2147483648;-9223372036854775808;null"));
+
+        Files.deleteIfExists(typedSaver.getFileName());
+        Files.deleteIfExists(textSaver.getFileName());
+    }
+
+    /**
+     * Проверка записи столбцов LOB: потоком прямо в файл результата (BLOB - шестнадцатеричным текстом),
+     * и с вынесением длинных значений в отдельные файлы со ссылкой в строке результата.
+     * @throws SQLException
+     * @throws IOException
+     * @throws ParseException
+     */
+    @Test
+    public void testLobColumns() throws SQLException, IOException, ParseException {
+        CLIOptions options = new CLIParser("-w").parseCLI();
+        ConfigFile config = new ConfigFile("", "", "", "", StandardCharsets.UTF_8, StandardCharsets.UTF_8, StandardCharsets.UTF_8);
+        StringBuilder longText = new StringBuilder();
+        for (int i = 0; i < 3000; i++)
+            longText.append("\u0436\ud83d\ude00 ").append(i);
+
+        try (Connection connection = getTestDBConnection(); Statement statement = connection.createStatement()) {
+            statement.executeUpdate("create table docs (id integer, body clob, data blob)");
+            statement.executeUpdate("insert into docs values (1, '  " + longText + "  ', x'00ff10')");
+            statement.executeUpdate("insert into docs values (2, ' short ', zeroblob(10000))");
+            statement.executeUpdate("insert into docs values (3, null, null)");
+            String query = "select id, body, data from docs order by id";
+
+            ResultSaver streamed = new ResultSaver(options, config, "lobs.sql", "streamed");
+            try (ResultSet resultSet = statement.executeQuery(query)) {
+                streamed.writeResults(withClobColumn(resultSet, 2));
+            }
+            java.util.List<String> lines = Files.readAllLines(streamed.getFileName(), StandardCharsets.UTF_8);
+            StringBuilder zeros = new StringBuilder();
+            for (int i = 0; i < 10000; i++)
+                zeros.append("00");
+            org.junit.Assert.assertEquals(3, lines.size());
+            org.junit.Assert.assertEquals("1;\"" + longText + "\";00ff10", lines.get(0));
+            org.junit.Assert.assertEquals("2;\"short\";" + zeros, lines.get(1));
+            org.junit.Assert.assertEquals("3;;", lines.get(2));
+            Files.delete(streamed.getFileName());
+
+            config.setLobThreshold(1000);
+            ResultSaver externalized = new ResultSaver(options, config, "lobs.sql", "externalized");
+            try (ResultSet resultSet = statement.executeQuery(query)) {
+                externalized.writeResults(withClobColumn(resultSet, 2));
+            }
+            lines = Files.readAllLines(externalized.getFileName(), StandardCharsets.UTF_8);
+            java.nio.file.Path lobs = externalized.getFileName().resolveSibling("externalized_lobs_lobs");
+            org.junit.Assert.assertEquals("1;\"lob:externalized_lobs_lobs/000000001.txt\";00ff10", lines.get(0));
+            org.junit.Assert.assertEquals("2;\"short\";lob:externalized_lobs_lobs/000000002.bin", lines.get(1));
+            org.junit.Assert.assertEquals("3;;", lines.get(2));
+            org.junit.Assert.assertEquals("  " + longText + "  ",
+                    new String(Files.readAllBytes(lobs.resolve("000000001.txt")), StandardCharsets.UTF_8));
+            org.junit.Assert.assertArrayEquals(new byte[10000], Files.readAllBytes(lobs.resolve("000000002.bin")));
+
+            Files.delete(lobs.resolve("000000001.txt"));
+            Files.delete(lobs.resolve("000000002.bin"));
+            Files.delete(lobs);
+            Files.delete(externalized.getFileName());
+        }
+    }
+
+    /**
+     * Проверка распределения файлов с результатами по подкаталогам и оглавления.
+     * Части одного результата попадают в один подкаталог.
+     * @throws SQLException
+     * @throws IOException
+     * @throws ParseException
+     */
+    @Test
+    public void testSharding() throws SQLException, IOException, ParseException {
+        CLIOptions options = new CLIParser().parseCLI();
+        ConfigFile config = new ConfigFile("", "", "", "", StandardCharsets.UTF_8, StandardCharsets.UTF_8, StandardCharsets.UTF_8);
+        config.setSharding(Sharding.HASH);
+        config.setPartRows(3);
+
+        java.nio.file.Path out = ResultSaver.getResultsPath();
+        java.util.List<java.nio.file.Path> files = new java.util.ArrayList<>();
+        try (Connection connection = getTestDBConnection(); Statement statement = connection.createStatement()) {
+            for (String rowID : new String[]{"first", "second"}) {
+                ResultSaver saver = new ResultSaver(options, config, "shard.sql", rowID);
+                org.junit.Assert.assertEquals(out.resolve(Sharding.HASH.getDirectory("shard.sql", rowID + "_shard.txt", 2)),
+                        saver.getFileName().getParent());
+                org.junit.Assert.assertEquals(2, out.relativize(saver.getFileName().getParent()).getNameCount());
+                try (ResultSet resultSet = statement.executeQuery("select id, number from test_table order by id")) {
+                    saver.writeResults(resultSet);
+                }
+                files.add(saver.getFileName().resolveSibling(rowID + "_shard_part0001.txt"));
+                files.add(saver.getFileName().resolveSibling(rowID + "_shard_part0002.txt"));
+            }
+        }
+        ResultManifest.close();
+
+        java.nio.file.Path manifest = out.resolve(ResultManifest.FILE_NAME);
+        java.util.List<String> lines = Files.readAllLines(manifest, StandardCharsets.UTF_8);
+        org.junit.Assert.assertEquals("sql_file\trow_id\tpart\tpath", lines.get(0));
+        org.junit.Assert.assertEquals(5, lines.size());
+        for (int i = 0; i < files.size(); i++) {
+            String path = out.relativize(files.get(i)).toString().replace(java.io.File.separatorChar, '/');
+            org.junit.Assert.assertEquals("shard.sql\t" + (i < 2 ? "first" : "second") + "\t" + (i % 2 + 1) + "\t" + path,
+                    lines.get(i + 1));
+            Files.delete(files.get(i));
+        }
+        Files.delete(manifest);
+        org.junit.Assert.assertEquals("shard", Sharding.SQLFILE.getDirectory("shard.sql", "x", 2));
+        org.junit.Assert.assertEquals("", Sharding.NONE.getDirectory("shard.sql", "x", 2));
+    }
+
+    /**
+     * Проверка вывода результатов кадрами в поток вместо файлов.
+     * Данные результата, собранные из кадров, совпадают с содержимым файла результата.
+     * @throws SQLException
+     * @throws IOException
+     * @throws ParseException
+     */
+    @Test
+    public void testStream() throws SQLException, IOException, ParseException {
+        java.nio.file.Path stream = Files.createTempFile("thytom", ".stream");
+        CLIOptions streamed = new CLIParser("-s", "-P", stream.toString()).parseCLI();
+        CLIOptions files = new CLIParser("-s").parseCLI();
+        ConfigFile config = new ConfigFile("", "", "", "", StandardCharsets.UTF_8, StandardCharsets.UTF_8, StandardCharsets.UTF_8);
+
+        ResultSaver file = new ResultSaver(files, config, "stream.sql", "file");
+        try (Connection connection = getTestDBConnection(); Statement statement = connection.createStatement()) {
+            String query = "select id, number, text from test_table order by id";
+            for (String rowID : new String[]{"1", "2"})
+                try (ResultSet resultSet = statement.executeQuery(query)) {
+                    new ResultSaver(streamed, config, "stream.sql", rowID).writeResults(resultSet);
+                }
+            try (ResultSet resultSet = statement.executeQuery(query)) {
+                file.writeResults(resultSet);
+            }
+        }
+        ResultStream.close();
+        org.junit.Assert.assertTrue(Files.notExists(file.getFileName().resolveSibling("1_stream.txt")));
+
+        byte[] expected = Files.readAllBytes(file.getFileName());
+        byte[] frames = Files.readAllBytes(stream);
+        java.io.ByteArrayOutputStream data = new java.io.ByteArrayOutputStream();
+        java.util.List<String> headers = new java.util.ArrayList<>();
+        for (int position = 0; position < frames.length; ) {
+            int lineEnd = position;
+            while (frames[lineEnd] != '\n')
+                lineEnd++;
+            String[] header = new String(frames, position, lineEnd - position, StandardCharsets.UTF_8).split("\t", -1);
+            org.junit.Assert.assertEquals(ResultStream.MARKER, header[0]);
+            org.junit.Assert.assertEquals("stream.sql", header[3]);
+            headers.add(header[1] + " " + header[4]);
+            int length = Integer.parseInt(header[2]);
+            if (header[4].equals("1"))
+                data.write(frames, lineEnd + 1, length);
+            position = lineEnd + 1 + length;
+        }
+
+        org.junit.Assert.assertEquals(java.util.Arrays.asList("begin 1", "data 1", "end 1", "begin 2", "data 2", "end 2"),
+                headers);
+        org.junit.Assert.assertArrayEquals(expected, data.toByteArray());
+        Files.delete(file.getFileName());
+        Files.delete(stream);
+    }
+
+    /**
+     * SQLite определяет тип столбца по значению и не сообщает о CLOB,
+     * поэтому тип столбца подменяется в метаданных результата.
+     * Для пустого значения поток символов не создаётся.
+     * @param results   Результат запроса
+     * @param column    Номер столбца CLOB
+     * @return          Результат запроса с подменённым типом столбца
+     */
+    private ResultSet withClobColumn(final ResultSet results, final int column) throws SQLException {
+        final ResultSetMetaData metaData = results.getMetaData();
+        final ResultSetMetaData clobMetaData = (ResultSetMetaData) java.lang.reflect.Proxy.newProxyInstance(
+                getClass().getClassLoader(), new Class<?>[]{ResultSetMetaData.class},
+                new java.lang.reflect.InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, java.lang.reflect.Method method, Object[] args) throws Throwable {
+                        if (method.getName().equals("getColumnType") && args[0].equals(column))
+                            return Types.CLOB;
+                        return method.invoke(metaData, args);
+                    }
+                });
+        return (ResultSet) java.lang.reflect.Proxy.newProxyInstance(
+                getClass().getClassLoader(), new Class<?>[]{ResultSet.class},
+                new java.lang.reflect.InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, java.lang.reflect.Method method, Object[] args) throws Throwable {
+                        if (method.getName().equals("getMetaData"))
+                            return clobMetaData;
+                        // Драйвер SQLite не возвращает null для пустого значения
+                        if (method.getName().equals("getCharacterStream") && results.getString((Integer) args[0]) == null)
+                            return null;
+                        try {
+                            return method.invoke(results, args);
+                        } catch (java.lang.reflect.InvocationTargetException e) {
+                            throw e.getCause();
+                        }
+                    }
+                });
+    }
+
+    /**
+     * Проверка записи в формате JSON Lines: метки столбцов экранируются, числа без кавычек,
+     * строки с управляющими символами и кавычками экранируются, NULL - null.
+     * Результат, записанный через очередь порций с форматированием в нескольких потоках, совпадает.
+     * @throws SQLException
+     * @throws IOException
+     * @throws ParseException
+     */
+    @Test
+    public void testJson() throws SQLException, IOException, ParseException {
+        CLIOptions options = new CLIParser("-s", "-n").parseCLI();
+        ConfigFile config = new ConfigFile("", "", "", "", StandardCharsets.UTF_8, StandardCharsets.UTF_8, StandardCharsets.UTF_8);
+        config.setResultFormat(ResultFormat.JSON);
+        ResultSaver saver = new ResultSaver(options, config, "json.sql", "plain");
+        org.junit.Assert.assertTrue(saver.getFileName().toString().endsWith("plain_json.jsonl"));
+
+        String query = "select id, price, note as \"say \"\"hi\"\"\" from items order by id";
+        try (Connection connection = getTestDBConnection(); Statement statement = connection.createStatement()) {
+            statement.executeUpdate("create table items (id integer, price real, note text)");
+            try (PreparedStatement insert = connection.prepareStatement("insert into items values (?, ?, ?)")) {
+                insert.setInt(1, 1);
+                insert.setDouble(2, 2.5);
+                insert.setString(3, "line\n\"quoted\"\ttab \\ \u0001 \u0437\u043d\u0430\u0447\u0435\u043d\u0438\u0435");
+                insert.executeUpdate();
+                insert.setInt(1, 2);
+                insert.setDouble(2, -0.125);
+                insert.setNull(3, Types.VARCHAR);
+                insert.executeUpdate();
+            }
+
+            try (ResultSet resultSet = statement.executeQuery(query)) {
+                saver.writeResults(resultSet);
+            }
+
+            config.setPipelineDepth(2);
+            config.setPipelineRows(1);
+            config.setFormatThreads(2);
+            ResultSaver pipelined = new ResultSaver(options, config, "json.sql", "pipelined");
+            try (ResultSet resultSet = statement.executeQuery(query)) {
+                pipelined.writeResults(resultSet);
+            }
+            org.junit.Assert.assertArrayEquals(Files.readAllBytes(saver.getFileName()),
+                    Files.readAllBytes(pipelined.getFileName()));
+            Files.delete(pipelined.getFileName());
+        }
+
+        org.junit.Assert.assertEquals(java.util.Arrays.asList(
+                "{\"id\":1,\"price\":2.5,\"say \\\"hi\\\"\":\"line\\n\\\"quoted\\\"\\ttab \\\\ \\u0001 "
+                        + "\u0437\u043d\u0430\u0447\u0435\u043d\u0438\u0435\"}",
+                "{\"id\":2,\"price\":-0.125,\"say \\\"hi\\\"\":null}"),
+                Files.readAllLines(saver.getFileName(), StandardCharsets.UTF_8));
+        Files.delete(saver.getFileName());
+
+        org.junit.Assert.assertTrue(JsonText.isLiteral("-0.5e+10"));
+        org.junit.Assert.assertFalse(JsonText.isLiteral("01"));
+        org.junit.Assert.assertFalse(JsonText.isLiteral("NaN"));
+        org.junit.Assert.assertFalse(JsonText.isLiteral("1."));
+    }
 }
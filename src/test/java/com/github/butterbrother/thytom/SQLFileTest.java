@@ -0,0 +1,174 @@
+package com.github.butterbrother.thytom;
+
+import org.junit.Test;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Проверка подстановок в запрос из SQL-файла
+ */
+public class SQLFileTest {
+    private static final Path file = Paths.get("./sqlfile_test.sql");
+
+    /**
+     * Создаёт SQL-файл с указанным запросом
+     *
+     * @param query запрос
+     * @return SQL-файл
+     * @throws IOException I/O error
+     */
+    private SQLFile createFile(String query) throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            writer.append(query);
+        }
+        return new SQLFile(file, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Шаблоны в кавычках заменяются маркерами параметров, остальные - подставляются текстом.
+     * Отсутствующая подстановка передаётся шаблоном, как осталась бы и в тексте.
+     */
+    @Test
+    public void testBoundQuery() throws IOException {
+        SQLFile sqlFile = createFile("select * from {TABLE} where owner = '{OWNER}' and key = '{KEY}'");
+
+        Map<String, String> sub = new HashMap<>();
+        sub.put("{TABLE}", "data");
+        sub.put("{OWNER}", "it's me");
+
+        org.junit.Assert.assertEquals("select * from data where owner = ? and key = ?\n", sqlFile.getBoundQuery(sub));
+        org.junit.Assert.assertArrayEquals(new String[]{"it's me", "{KEY}"}, sqlFile.getBindValues(sub));
+        org.junit.Assert.assertEquals("literal mode is same as before",
+                "select * from data where owner = 'it's me' and key = '{KEY}'\n", sqlFile.getQuery(sub));
+
+        sqlFile.close();
+        Files.deleteIfExists(file);
+    }
+
+    /**
+     * Шаблоны без кавычек на месте значений тоже заменяются маркерами параметров,
+     * строковые литералы передаются без кавычек. Шаблоны на месте имён и в типизированных
+     * литералах подставляются текстом.
+     */
+    @Test
+    public void testBareBoundQuery() throws IOException {
+        SQLFile sqlFile = createFile("select {COL} from t.{TABLE} where owner = {OWNER} and id>={ID}"
+                + " and name like {NAME} and day = date '{DAY}' and x = {PREFIX}_suffix");
+
+        Map<String, String> sub = new HashMap<>();
+        sub.put("{COL}", "name");
+        sub.put("{TABLE}", "data");
+        sub.put("{OWNER}", " 'it''s me' ");
+        sub.put("{ID}", "42");
+        sub.put("{NAME}", "'a%'");
+        sub.put("{DAY}", "2020-01-01");
+        sub.put("{PREFIX}", "p");
+
+        String query = sqlFile.getBoundQuery(sub);
+        org.junit.Assert.assertEquals("select name from t.data where owner = ? and id>=? and name like ?"
+                + " and day = date '2020-01-01' and x = p_suffix\n", query);
+        org.junit.Assert.assertArrayEquals(new String[]{"it's me", "42", "a%"}, sqlFile.getBindValues(sub));
+
+        sub.put("{OWNER}", "'other'");
+        sub.put("{ID}", "7");
+        org.junit.Assert.assertEquals("query text doesn't depend on bound values", query, sqlFile.getBoundQuery(sub));
+        org.junit.Assert.assertArrayEquals(new String[]{"other", "7", "a%"}, sqlFile.getBindValues(sub));
+
+        sqlFile.close();
+        Files.deleteIfExists(file);
+    }
+
+    /**
+     * Условие равенства шаблону заменяется списком IN (...).
+     * Значения в кавычках экранируются, либо передаются параметрами JDBC.
+     */
+    @Test
+    public void testInListQuery() throws IOException {
+        SQLFile sqlFile = createFile("select * from data where owner = '{PARAM}' or id={PARAM}");
+        List<String> values = Arrays.asList("a", "it's");
+
+        org.junit.Assert.assertTrue(sqlFile.hasInListCondition());
+        org.junit.Assert.assertEquals("select * from data where owner IN ('a', 'it''s') or id IN (a, it's)\n",
+                sqlFile.getInListQuery(values, false));
+        org.junit.Assert.assertEquals("select * from data where owner IN (?, ?) or id IN (?, ?)\n",
+                sqlFile.getInListQuery(values, true));
+        org.junit.Assert.assertArrayEquals(new String[]{"a", "it's", "a", "it's"}, sqlFile.getInListBindValues(values));
+        sqlFile.close();
+
+        sqlFile = createFile("select * from data where owner like '%{PARAM}%'");
+        org.junit.Assert.assertFalse(sqlFile.hasInListCondition());
+        sqlFile.close();
+
+        sqlFile = createFile("select * from data where owner = '{PARAM}' or id = {PARAM}");
+        org.junit.Assert.assertTrue(sqlFile.hasUnquotedInListCondition());
+        sqlFile.close();
+        sqlFile = createFile("select * from data where owner = '{PARAM}'");
+        org.junit.Assert.assertFalse(sqlFile.hasUnquotedInListCondition());
+        sqlFile.close();
+
+        for (String operator : new String[]{">=", "<=", "!=", "=="}) {
+            sqlFile = createFile("select * from data where id " + operator + " {PARAM}");
+            org.junit.Assert.assertFalse(operator + " is not equality", sqlFile.hasInListCondition());
+            org.junit.Assert.assertEquals("select * from data where id " + operator + " {PARAM}\n",
+                    sqlFile.getInListQuery(values, false));
+            sqlFile.close();
+        }
+
+        Files.deleteIfExists(file);
+    }
+
+    /**
+     * Разобранный запрос подставляет так же, как последовательная подмена шаблонов,
+     * в том числе когда значение содержит шаблон, либо шаблоны перекрываются.
+     * Отсутствующие в подстановке шаблоны остаются в тексте. Последовательная подмена
+     * не зависит от порядка шаблонов в подстановке.
+     */
+    @Test
+    public void testCompiledQuery() throws IOException {
+        SQLFile sqlFile = createFile("select {A}, {B} from {TABLE} where a = '{A}' and c = {C}");
+
+        Map<String, String> sub = new HashMap<>();
+        sub.put("{A}", "1");
+        sub.put("{B}", "it's");
+        sub.put("{TABLE}", "data");
+        for (String value : new String[]{"2", "", "{B}", "x}", "{TAB"}) {
+            sub.put("{A}", value);
+            org.junit.Assert.assertEquals(QueryTemplate.replaceAll(sqlFile.getQuery(null), sub), sqlFile.getQuery(sub));
+        }
+        sub.put("{A}", "7");
+        org.junit.Assert.assertEquals("select 7, it's from data where a = '7' and c = {C}\n", sqlFile.getQuery(sub));
+        sqlFile.close();
+
+        String query = "select aab, ab, b from aaa";
+        sub.clear();
+        sub.put("aa", "1");
+        sub.put("ab", "2");
+        QueryTemplate template = new QueryTemplate(query, sub.keySet());
+        org.junit.Assert.assertFalse("overlapping templates are replaced one by one", template.isCompiled());
+        org.junit.Assert.assertEquals(QueryTemplate.replaceAll(query, sub), template.render(sub));
+
+        template = new QueryTemplate("select {A}, {B}", Arrays.asList("{A}", "{B}"));
+        org.junit.Assert.assertTrue(template.isCompiled());
+
+        Map<String, String> shortFirst = new LinkedHashMap<>();
+        shortFirst.put("aa", "1");
+        shortFirst.put("aab", "2");
+        Map<String, String> longFirst = new LinkedHashMap<>();
+        longFirst.put("aab", "2");
+        longFirst.put("aa", "1");
+        org.junit.Assert.assertEquals("select 2, 1", QueryTemplate.replaceAll("select aab, aa", shortFirst));
+        org.junit.Assert.assertEquals("select 2, 1", QueryTemplate.replaceAll("select aab, aa", longFirst));
+
+        Files.deleteIfExists(file);
+    }
+}
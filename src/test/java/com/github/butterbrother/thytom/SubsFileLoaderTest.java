@@ -184,6 +184,90 @@ public class SubsFileLoaderTest {
         checkSame(sameAs, cliWithCustomAndWithTrim);
     }
 
+    /**
+     * Загруженная таблица подстановок даёт те же подстановки и ID, что и построчное чтение,
+     * в том числе при повторных обходах после {@link SubsFileLoader#rewind()}.
+     * Небольшой файл загружается, только если его обходят несколько SQL-файлов.
+     */
+    @Test
+    public void testLoadedTable() throws IOException {
+        CLIOptions[] options = {cliWoCustAndWoTrim, cliWoCustAndWithTrim, cliWithCustomAndWoTrim, cliWithCustomAndWithTrim};
+        for (String[] data : new String[][]{simpleFile, customTemplatesFile}) {
+            createTestFile(data);
+            for (CLIOptions cli : options) {
+                SubsFileLoader streamed = new SubsFileLoader(cli, config);
+                List<Map<String, String>> expected = new ArrayList<>();
+                List<String> expectedIDs = new ArrayList<>();
+                for (Map<String, String> item; (item = streamed.next()) != null; ) {
+                    expected.add(item);
+                    expectedIDs.add(streamed.getRowID());
+                }
+
+                SubsFileLoader loaded = new SubsFileLoader(cli, config, true);
+                for (int pass = 0; pass < 2; pass++) {
+                    loaded.rewind();
+                    List<Map<String, String>> actual = new ArrayList<>();
+                    List<String> actualIDs = new ArrayList<>();
+                    for (Map<String, String> item; (item = loaded.next()) != null; ) {
+                        actual.add(new HashMap<>(item));
+                        actualIDs.add(loaded.getRowID());
+                    }
+                    org.junit.Assert.assertEquals(expected, actual);
+                    org.junit.Assert.assertEquals(expectedIDs, actualIDs);
+                }
+            }
+            org.junit.Assert.assertFalse(SubsFileLoader.needLoad(file, 1));
+            org.junit.Assert.assertTrue(SubsFileLoader.needLoad(file, 2));
+        }
+        destroyFile();
+    }
+
+    /**
+     * Разбор файла частями в нескольких потоках даёт те же подстановки и ID по порядку,
+     * что и построчное чтение: строки не теряются и не делятся на границах частей,
+     * переводы строк "\r\n" и "\r" обрабатываются как в BufferedReader.
+     */
+    @Test
+    public void testParallelParse() throws IOException {
+        StringBuilder data = new StringBuilder("HEAD1;HEAD2\r\n");
+        for (int i = 0; i < 500; i++) {
+            data.append(i % 7 == 0 ? "" : " value " + i + " ; \u0437\u043d\u0430\u0447\u0435\u043d\u0438\u0435 " + i);
+            data.append(i % 5 == 0 ? "\r\n" : i % 11 == 0 ? "\r" : "\n");
+        }
+        data.append("last;line");
+        Files.write(file, data.toString().getBytes(charset));
+
+        for (CLIOptions cli : new CLIOptions[]{cliWoCustAndWoTrim, cliWithCustomAndWithTrim}) {
+            SubsFileLoader streamed = new SubsFileLoader(cli, config);
+            List<Map<String, String>> expected = new ArrayList<>();
+            List<String> expectedIDs = new ArrayList<>();
+            for (Map<String, String> item; (item = streamed.next()) != null; ) {
+                expected.add(item);
+                expectedIDs.add(streamed.getRowID());
+            }
+
+            SubsFileParser parser = new SubsFileParser(file, charset,
+                    cli.needUseCustomTemplates() ? new String[]{"{HEAD1}", "{HEAD2}"} : null,
+                    ";", cli.needTrimSubstitution(), 3, 64);
+            org.junit.Assert.assertTrue(parser.getChunkCount() > 10);
+
+            List<Map<String, String>> actual = new ArrayList<>();
+            List<String> actualIDs = new ArrayList<>();
+            long firstRow = 0;
+            for (int i = 0; i < parser.getChunkCount(); i++) {
+                SubsTable table = parser.getChunk(i);
+                for (SubsTable.Cursor cursor = table.cursor(); cursor.next(); ) {
+                    actual.add(new HashMap<>(cursor));
+                    actualIDs.add(cursor.getRowID(firstRow));
+                }
+                firstRow += table.size();
+            }
+            org.junit.Assert.assertEquals(expected, actual);
+            org.junit.Assert.assertEquals(expectedIDs, actualIDs);
+        }
+        destroyFile();
+    }
+
     /**
      * Проверка, что считанные данные соответствуют ожидаемым.
      *